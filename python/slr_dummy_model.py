@@ -1,19 +1,54 @@
-import numpy as np
-import torch
+import random
+import struct
 import sys
 
 
 def get_sparse_representation(text="query of words", dim=1000, sparsity_ratio=0.9):
-    rand = np.random.uniform(0, 1, size=dim)
-    rand[rand <= sparsity_ratio] = 0
-    return torch.Tensor(rand)
+    # Seeded on the text, so that the same text always gets the same (random) representation.
+    rng = random.Random(text)
+    rand = [rng.uniform(0, 1) for _ in range(dim)]
+    return [v if v > sparsity_ratio else 0.0 for v in rand]
 
 def condense_slr(slr):
     return [(i,float(v)) for i, v in enumerate(slr) if v > 0]
-        
+
+def read_exactly(stream, n):
+    data = stream.read(n)
+    if len(data) < n:
+        raise EOFError()
+    return data
+
+def serve():
+    # Framed protocol used by io.anserini.search.latent.SLREncoder (all values big-endian):
+    #   request:  int n, then n times (int length, length bytes of utf-8 text)
+    #   response: int n, then n times (int nnz, then nnz times (int dim, float value))
+    stdin = sys.stdin.buffer
+    stdout = sys.stdout.buffer
+    while True:
+        try:
+            (n,) = struct.unpack('>i', read_exactly(stdin, 4))
+            texts = []
+            for _ in range(n):
+                (length,) = struct.unpack('>i', read_exactly(stdin, 4))
+                texts.append(read_exactly(stdin, length).decode('utf-8'))
+        except EOFError:
+            return
+
+        out = [struct.pack('>i', len(texts))]
+        for text in texts:
+            slr = condense_slr(get_sparse_representation(text))
+            out.append(struct.pack('>i', len(slr)))
+            for i, v in slr:
+                out.append(struct.pack('>if', i, v))
+        stdout.write(b''.join(out))
+        stdout.flush()
+
 
 if __name__ == "__main__":
 	# getting command line arguments
     # print('Argument List:', str(sys.argv))
-    slr = get_sparse_representation(sys.argv[1]) if len(sys.argv) > 2 else get_sparse_representation()
-    print(condense_slr(slr))
+    if "-server" in sys.argv:
+        serve()
+    else:
+        slr = get_sparse_representation(sys.argv[1]) if len(sys.argv) > 2 else get_sparse_representation()
+        print(condense_slr(slr))
@@ -0,0 +1,181 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.jmh;
+
+import io.anserini.analysis.SLRAnalyzer;
+import io.anserini.analysis.SLRTokenStream;
+import io.anserini.collection.SourceDocument;
+import io.anserini.index.IndexArgs;
+import io.anserini.index.generator.SLRGenerator;
+import io.anserini.search.latent.SparseVector;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermFrequencyAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexableField;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the SLR indexing path, per document: parsing the dense text representation, tokenizing it with the
+ * {@link io.anserini.analysis.SLRTokenizer} (the old path, through {@link SLRAnalyzer}) or the vector with the
+ * {@link SLRTokenStream}, and building the Lucene document with the {@link SLRGenerator}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SLRIndexingBenchmark {
+  private static final int NUM_DOCS = 256;
+
+  @Param({"30522"})
+  public int dims;
+
+  @Param({"0.001", "0.01", "0.05"})
+  public double density;
+
+  @Param({"2"})
+  public int decimalPrecision;
+
+  @Param({"42"})
+  public long seed;
+
+  private String[] texts;
+  private SparseVector[] vectors;
+  private Analyzer analyzer;
+  private SLRTokenStream tokenStream;
+  private SLRGenerator<SourceDocument> generator;
+  private int next = 0;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    SyntheticSLRCorpus corpus = new SyntheticSLRCorpus(dims, density, seed);
+    texts = new String[NUM_DOCS];
+    vectors = new SparseVector[NUM_DOCS];
+    for (int i = 0; i < NUM_DOCS; i++) {
+      texts[i] = corpus.nextText();
+      vectors[i] = SparseVector.parseDense(texts[i]);
+    }
+    analyzer = new SLRAnalyzer(decimalPrecision);
+    tokenStream = new SLRTokenStream(decimalPrecision);
+
+    IndexArgs args = new IndexArgs();
+    args.slrIndex = true;
+    args.slrIndexDecimals = decimalPrecision;
+    args.storeRaw = false;
+    generator = new SLRGenerator<>(args);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    analyzer.close();
+  }
+
+  private int nextDoc() {
+    int doc = next;
+    next = (next + 1) % NUM_DOCS;
+    return doc;
+  }
+
+  private static void consume(TokenStream stream, Blackhole bh) throws IOException {
+    CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+    TermFrequencyAttribute freqAtt = stream.addAttribute(TermFrequencyAttribute.class);
+    stream.reset();
+    while (stream.incrementToken()) {
+      bh.consume(termAtt.length());
+      bh.consume(freqAtt.getTermFrequency());
+    }
+    stream.end();
+    stream.close();
+  }
+
+  /**
+   * Parses the dense text representation of a document, as {@code SLRGenerator} does for the contents of a
+   * collection.
+   */
+  @Benchmark
+  public SparseVector parseDense() {
+    return SparseVector.parseDense(texts[nextDoc()]);
+  }
+
+  /**
+   * Tokenizes the dense text representation with the {@code SLRTokenizer}.
+   */
+  @Benchmark
+  public void tokenizeText(Blackhole bh) throws IOException {
+    consume(analyzer.tokenStream(IndexArgs.CONTENTS, texts[nextDoc()]), bh);
+  }
+
+  /**
+   * Tokenizes a parsed representation with the {@code SLRTokenStream}.
+   */
+  @Benchmark
+  public void tokenizeVector(Blackhole bh) throws IOException {
+    consume(tokenStream.setVector(vectors[nextDoc()]), bh);
+  }
+
+  /**
+   * Builds the document of a collection document with the dense representation as contents, and consumes the token
+   * stream of its contents field, as the indexer would.
+   */
+  @Benchmark
+  public void createDocument(Blackhole bh) throws Exception {
+    final String id = "doc" + next;
+    final String text = texts[nextDoc()];
+    Document document = generator.createDocument(new SourceDocument() {
+      @Override
+      public String id() {
+        return id;
+      }
+
+      @Override
+      public String contents() {
+        return text;
+      }
+
+      @Override
+      public String raw() {
+        return text;
+      }
+
+      @Override
+      public boolean indexable() {
+        return true;
+      }
+    });
+    IndexableField contents = document.getField(IndexArgs.CONTENTS);
+    consume(contents.tokenStream(null, null), bh);
+  }
+}
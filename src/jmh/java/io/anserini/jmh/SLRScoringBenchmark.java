@@ -0,0 +1,214 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.jmh;
+
+import io.anserini.index.IndexArgs;
+import io.anserini.index.ImpactOrderedIndex;
+import io.anserini.search.latent.ScoreAtATimeEvaluator;
+import io.anserini.search.latent.SparseDotProductQuery;
+import io.anserini.search.latent.SparseVector;
+import io.anserini.search.latent.SparseVectorRescorer;
+import io.anserini.search.similarity.SLRSimilarity;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the SLR scoring path over an in-memory index of a synthetic corpus: the per-posting score of the
+ * {@link SLRSimilarity}, top-k retrieval with the {@link SparseDotProductQuery}, rescoring with the forward vectors,
+ * and score-at-a-time evaluation with the {@link ScoreAtATimeEvaluator}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SLRScoringBenchmark {
+  private static final int NUM_QUERIES = 64;
+  private static final int NUM_FREQS = 4096;
+
+  @Param({"30522"})
+  public int dims;
+
+  @Param({"0.001", "0.01"})
+  public double density;
+
+  @Param({"100000"})
+  public int numDocs;
+
+  @Param({"10", "1000"})
+  public int k;
+
+  @Param({"2"})
+  public int decimalPrecision;
+
+  @Param({"42"})
+  public long seed;
+
+  private Directory dir;
+  private IndexReader reader;
+  private IndexSearcher searcher;
+  // Activation values of the queries, for rescoring, and the weights of the queries, for retrieval.
+  private SparseVector[] queries;
+  private SparseVector[] weights;
+  private SparseDotProductQuery[] luceneQueries;
+  private SparseDotProductQuery[] prunedQueries;
+  private SparseVectorRescorer rescorer;
+  private Path impactIndexDir;
+  private ImpactOrderedIndex impactIndex;
+  private ScoreAtATimeEvaluator evaluator;
+  private Similarity.SimScorer simScorer;
+  private float[] freqs;
+  private int next = 0;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    SyntheticSLRCorpus corpus = new SyntheticSLRCorpus(dims, density, seed);
+    dir = corpus.buildIndex(numDocs, decimalPrecision);
+    reader = DirectoryReader.open(dir);
+    searcher = new IndexSearcher(reader);
+
+    // Query weights are the activation values scaled by 10^-p, as SLRQueryGenerator does, so that scores are dot
+    // products of activation values.
+    float scale = (float) Math.pow(10, -decimalPrecision);
+    queries = new SparseVector[NUM_QUERIES];
+    weights = new SparseVector[NUM_QUERIES];
+    luceneQueries = new SparseDotProductQuery[NUM_QUERIES];
+    prunedQueries = new SparseDotProductQuery[NUM_QUERIES];
+    for (int i = 0; i < NUM_QUERIES; i++) {
+      queries[i] = corpus.next();
+      weights[i] = scale(queries[i], scale);
+      luceneQueries[i] = new SparseDotProductQuery(IndexArgs.CONTENTS, weights[i]);
+      prunedQueries[i] = new SparseDotProductQuery(IndexArgs.CONTENTS,
+          scale(queries[i].top(Math.max(1, queries[i].size() / 4)), scale));
+    }
+    rescorer = new SparseVectorRescorer(IndexArgs.SLR_VECTOR);
+
+    impactIndexDir = Files.createTempDirectory("slr-jmh");
+    Path impactIndexPath = impactIndexDir.resolve("impacts");
+    ImpactOrderedIndex.write(reader, IndexArgs.CONTENTS, 8, impactIndexPath);
+    impactIndex = ImpactOrderedIndex.open(impactIndexPath);
+    evaluator = new ScoreAtATimeEvaluator(impactIndex);
+
+    // SLRSimilarity reads the query value from the bits of the document frequency of the term statistics.
+    long queryValue = ((long) Float.floatToIntBits(0.75f)) << 32;
+    simScorer = new SLRSimilarity(decimalPrecision).scorer(1.0f,
+        new CollectionStatistics(IndexArgs.CONTENTS, numDocs, numDocs, queryValue, queryValue),
+        new TermStatistics(new BytesRef(SparseDotProductQuery.term(0)), queryValue, queryValue));
+    freqs = new float[NUM_FREQS];
+    for (int i = 0; i < NUM_FREQS; i++) {
+      freqs[i] = 1 + (i * 31) % 300;
+    }
+  }
+
+  private static SparseVector scale(SparseVector vector, float scale) {
+    float[] values = vector.values().clone();
+    for (int i = 0; i < values.length; i++) {
+      values[i] *= scale;
+    }
+    return new SparseVector(vector.dims(), values);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    impactIndex.close();
+    Files.deleteIfExists(impactIndexDir.resolve("impacts"));
+    Files.deleteIfExists(impactIndexDir);
+    reader.close();
+    dir.close();
+  }
+
+  private int nextQuery() {
+    int query = next;
+    next = (next + 1) % NUM_QUERIES;
+    return query;
+  }
+
+  /**
+   * Scores a block of postings with the per-term scorer of the {@code SLRSimilarity}.
+   */
+  @Benchmark
+  @OperationsPerInvocation(NUM_FREQS)
+  public float similarityScore() {
+    float sum = 0;
+    for (float freq : freqs) {
+      sum += simScorer.score(freq, 1L);
+    }
+    return sum;
+  }
+
+  /**
+   * Creates the per-term scorer, which decodes the query value from the term statistics.
+   */
+  @Benchmark
+  public float similarityQueryValue() {
+    return SLRSimilarity.longToFloat(((long) Float.floatToIntBits(freqs[next++ % NUM_FREQS])) << 32);
+  }
+
+  /**
+   * Top-k retrieval with the full query.
+   */
+  @Benchmark
+  public TopDocs searchTopK() throws IOException {
+    return searcher.search(luceneQueries[nextQuery()], k);
+  }
+
+  /**
+   * Two-stage retrieval: top-k retrieval with the largest quarter of the query dimensions, rescored with the full
+   * query.
+   */
+  @Benchmark
+  public TopDocs searchAndRescore() throws IOException {
+    int query = nextQuery();
+    TopDocs candidates = searcher.search(prunedQueries[query], k);
+    return rescorer.rescore(reader, candidates, queries[query], k);
+  }
+
+  /**
+   * Exhaustive score-at-a-time evaluation over the impact-ordered index.
+   */
+  @Benchmark
+  public ScoreAtATimeEvaluator.Result scoreAtATime() {
+    return evaluator.search(weights[nextQuery()], k, 0, 0);
+  }
+}
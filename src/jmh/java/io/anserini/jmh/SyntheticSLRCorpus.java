@@ -0,0 +1,152 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.jmh;
+
+import io.anserini.analysis.SLRTokenStream;
+import io.anserini.index.IndexArgs;
+import io.anserini.search.latent.SparseVector;
+import io.anserini.search.latent.SparseVectorDocValues;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Synthetic sparse latent representations for the benchmarks. Dimension popularity follows a power law, so that a few
+ * dimensions are active in most documents and most dimensions are rare, as with learned sparse representations, and
+ * activation values are exponentially distributed.
+ */
+public final class SyntheticSLRCorpus {
+  private final int dims;
+  private final double density;
+  private final Random random;
+  // Probability that each dimension is active, with mean density.
+  private final double[] activation;
+
+  /**
+   * @param dims dimensionality of the representations
+   * @param density average fraction of active dimensions per vector
+   * @param seed random seed
+   */
+  public SyntheticSLRCorpus(int dims, double density, long seed) {
+    this.dims = dims;
+    this.density = density;
+    this.random = new Random(seed);
+    this.activation = new double[dims];
+
+    double sum = 0;
+    for (int i = 0; i < dims; i++) {
+      activation[i] = 1.0 / Math.pow(i + 1, 0.8);
+      sum += activation[i];
+    }
+    // Scale to the requested density, shuffling so that popular dimensions are not all at the start.
+    for (int i = 0; i < dims; i++) {
+      activation[i] = Math.min(1.0, activation[i] * density * dims / sum);
+    }
+    for (int i = dims - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      double tmp = activation[i];
+      activation[i] = activation[j];
+      activation[j] = tmp;
+    }
+  }
+
+  public int dims() {
+    return dims;
+  }
+
+  public double density() {
+    return density;
+  }
+
+  /**
+   * Returns the next random dense representation.
+   */
+  public float[] nextDense() {
+    float[] dense = new float[dims];
+    for (int i = 0; i < dims; i++) {
+      if (random.nextDouble() < activation[i]) {
+        dense[i] = (float) (-Math.log(1.0 - random.nextDouble()) * 0.5) + 0.001f;
+      }
+    }
+    return dense;
+  }
+
+  /**
+   * Returns the next random representation.
+   */
+  public SparseVector next() {
+    return SparseVector.fromDense(nextDense());
+  }
+
+  /**
+   * Returns the next random representation in the text format of the contents of an SLR collection: whitespace
+   * separated dense activation values.
+   */
+  public String nextText() {
+    float[] dense = nextDense();
+    StringBuilder sb = new StringBuilder(dims * 2);
+    for (int i = 0; i < dense.length; i++) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      if (dense[i] == 0) {
+        sb.append('0');
+      } else {
+        sb.append(dense[i]);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Builds an in-memory SLR index, with forward vectors, of random documents.
+   *
+   * @param numDocs number of documents
+   * @param decimalPrecision number of decimals of the activation values in the term frequencies
+   * @return directory of the index
+   * @throws IOException if indexing fails
+   */
+  public Directory buildIndex(int numDocs, int decimalPrecision) throws IOException {
+    Directory dir = new ByteBuffersDirectory();
+    SLRTokenStream tokenStream = new SLRTokenStream(decimalPrecision);
+    FieldType fieldType = new FieldType();
+    fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+    fieldType.setTokenized(true);
+    fieldType.freeze();
+    try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new WhitespaceAnalyzer()))) {
+      for (int d = 0; d < numDocs; d++) {
+        SparseVector vector = next();
+        Document doc = new Document();
+        doc.add(new Field(IndexArgs.CONTENTS, tokenStream.setVector(vector), fieldType));
+        doc.add(new BinaryDocValuesField(IndexArgs.SLR_VECTOR, SparseVectorDocValues.encode(vector)));
+        writer.addDocument(doc);
+      }
+      writer.forceMerge(1);
+    }
+    return dir;
+  }
+}
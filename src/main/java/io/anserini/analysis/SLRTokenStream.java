@@ -0,0 +1,116 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.analysis;
+
+import io.anserini.search.latent.SparseVector;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermFrequencyAttribute;
+
+/**
+ * Pre-analyzed token stream over a {@link SparseVector}, producing the same terms and term frequencies as
+ * {@link SLRTokenizer} does for the text built by the SLR generator: one term per non-zero dimension, the dimension id
+ * zero-padded to {@link SLRTokenizer#SLR_TOKEN_LENGHT} characters, with the activation value truncated to
+ * {@code decPrecision} decimals (times {@code 10^decPrecision}) as term frequency. Dimensions whose term frequency
+ * would be zero are skipped. Unlike the tokenizer, which only reads the decimals, activations of 1 or more keep their
+ * integer part.
+ *
+ * <p>The stream can be reused for the next document by calling {@link #setVector(SparseVector)}.</p>
+ */
+public final class SLRTokenStream extends TokenStream {
+  private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+  private final TermFrequencyAttribute freqAtt = addAttribute(TermFrequencyAttribute.class);
+  private final double scale;
+
+  private SparseVector vector = SparseVector.EMPTY;
+  private int upto = 0;
+
+  public SLRTokenStream(int decPrecision) {
+    this.scale = Math.pow(10, decPrecision);
+  }
+
+  /**
+   * Sets the vector for the next document.
+   *
+   * @param vector sparse latent representation
+   * @return this token stream
+   */
+  public SLRTokenStream setVector(SparseVector vector) {
+    this.vector = vector;
+    this.upto = 0;
+    return this;
+  }
+
+  /**
+   * Returns the term frequency under which an activation value is indexed.
+   *
+   * @param value activation value
+   * @return term frequency, zero if the value is not indexed
+   */
+  public int termFrequency(float value) {
+    final double scaled = value * scale;
+    if (scaled >= Integer.MAX_VALUE) {
+      return Integer.MAX_VALUE;
+    }
+    int tf = (int) scaled;
+    // Values that are exact in decimal may sit just below it in binary (0.29f * 100 = 28.999...); truncating the
+    // decimal text, as the string based path did, gives the next integer whenever that integer still denotes the value.
+    if ((float) ((tf + 1) / scale) == value) {
+      tf++;
+    }
+    return tf;
+  }
+
+  @Override
+  public boolean incrementToken() {
+    clearAttributes();
+    while (upto < vector.size()) {
+      final int dim = vector.dim(upto);
+      final int tf = termFrequency(vector.value(upto));
+      upto++;
+      if (tf < 1) {
+        continue;
+      }
+
+      writeTerm(dim);
+      freqAtt.setTermFrequency(tf);
+      return true;
+    }
+    return false;
+  }
+
+  // Writes the zero-padded dimension id directly into the (reused) term buffer.
+  private void writeTerm(int dim) {
+    int digits = 1;
+    for (int rest = dim / 10; rest > 0; rest /= 10) {
+      digits++;
+    }
+    final int length = Math.max(SLRTokenizer.SLR_TOKEN_LENGHT, digits);
+    final char[] buffer = termAtt.resizeBuffer(length);
+    int rest = dim;
+    for (int i = length - 1; i >= 0; i--) {
+      buffer[i] = (char) ('0' + rest % 10);
+      rest /= 10;
+    }
+    termAtt.setLength(length);
+  }
+
+  @Override
+  public void reset() {
+    upto = 0;
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiBits;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.PagedBytes;
+import org.apache.lucene.util.packed.PackedInts;
+import org.apache.lucene.util.packed.PackedLongValues;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maps collection docids (the {@link IndexArgs#ID} field) to Lucene docids, for the document fetch methods of
+ * {@link IndexReaderUtils} and {@link io.anserini.search.SimpleSearcher}. There is one lookup per reader, see
+ * {@link #of(IndexReader)}.
+ *
+ * <p>The first lookups seek the docid in the terms of every segment. Once a reader has served
+ * {@link #BUILD_THRESHOLD} lookups, all docids are read once into a table sorted by docid: the docids in paged
+ * byte blocks with monotonic packed offsets, and the Lucene docids packed with as many bits as the largest one needs,
+ * so that the table takes little more than the bytes of the docids. Lookups are then a binary search in memory.</p>
+ *
+ * <p>Deleted documents are skipped; if several documents have the same docid, the first one is returned. Lookups are
+ * thread-safe.</p>
+ */
+public final class DocidLookup {
+  private static final Logger LOG = LogManager.getLogger(DocidLookup.class);
+
+  /**
+   * Number of lookups of a reader after which its table is built.
+   */
+  public static final int BUILD_THRESHOLD = 1024;
+
+  private static final Map<IndexReader.CacheKey, DocidLookup> LOOKUPS =
+      Collections.synchronizedMap(new IdentityHashMap<>());
+
+  private final IndexReader reader;
+  private final AtomicLong lookups = new AtomicLong();
+  private volatile Table table;
+
+  // Docids in sorted order, and their Lucene docids.
+  private static final class Table {
+    // Length-prefixed docids, and the offset of each.
+    final PagedBytes.Reader bytes;
+    final PackedLongValues offsets;
+    final PackedLongValues docids;
+    final int size;
+
+    Table(PagedBytes.Reader bytes, PackedLongValues offsets, PackedLongValues docids) {
+      this.bytes = bytes;
+      this.offsets = offsets;
+      this.docids = docids;
+      this.size = (int) docids.size();
+    }
+
+    int lookup(BytesRef docid) {
+      BytesRef term = new BytesRef();
+      int low = 0;
+      int high = size - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        bytes.fill(term, offsets.get(mid));
+        int c = term.compareTo(docid);
+        if (c < 0) {
+          low = mid + 1;
+        } else if (c > 0) {
+          high = mid - 1;
+        } else {
+          return (int) docids.get(mid);
+        }
+      }
+      return -1;
+    }
+
+    long ramBytesUsed() {
+      return bytes.ramBytesUsed() + offsets.ramBytesUsed() + docids.ramBytesUsed();
+    }
+  }
+
+  private DocidLookup(IndexReader reader) {
+    this.reader = reader;
+  }
+
+  /**
+   * Returns the lookup of a reader. Lookups of readers that can be cached (such as directory readers) are shared, and
+   * dropped when their reader is closed.
+   *
+   * @param reader index reader
+   * @return lookup of the reader
+   */
+  public static DocidLookup of(IndexReader reader) {
+    IndexReader.CacheHelper helper = reader.getReaderCacheHelper();
+    if (helper == null) {
+      return new DocidLookup(reader);
+    }
+    IndexReader.CacheKey key = helper.getKey();
+    synchronized (LOOKUPS) {
+      DocidLookup lookup = LOOKUPS.get(key);
+      if (lookup == null) {
+        lookup = new DocidLookup(reader);
+        LOOKUPS.put(key, lookup);
+        helper.addClosedListener(LOOKUPS::remove);
+      }
+      return lookup;
+    }
+  }
+
+  /**
+   * Converts a collection docid to a Lucene docid.
+   *
+   * @param docid collection docid
+   * @return Lucene docid, or -1 if the docid is not found
+   * @throws IOException if the index cannot be read
+   */
+  public int luceneDocid(String docid) throws IOException {
+    Table table = table(1);
+    BytesRef bytes = new BytesRef(docid);
+    return table != null ? table.lookup(bytes) : seek(bytes);
+  }
+
+  /**
+   * Converts collection docids to Lucene docids.
+   *
+   * @param docids collection docids
+   * @return Lucene docids, -1 for the docids that are not found
+   * @throws IOException if the index cannot be read
+   */
+  public int[] luceneDocids(String[] docids) throws IOException {
+    Table table = table(docids.length);
+    int[] luceneDocids = new int[docids.length];
+    for (int i = 0; i < docids.length; i++) {
+      BytesRef bytes = new BytesRef(docids[i]);
+      luceneDocids[i] = table != null ? table.lookup(bytes) : seek(bytes);
+    }
+    return luceneDocids;
+  }
+
+  /**
+   * Builds the table of all docids now, instead of after {@link #BUILD_THRESHOLD} lookups.
+   *
+   * @return this lookup
+   * @throws IOException if the index cannot be read
+   */
+  public DocidLookup build() throws IOException {
+    table(BUILD_THRESHOLD);
+    return this;
+  }
+
+  // Counts lookups, and returns the table, building it once there have been enough lookups.
+  private Table table(int count) throws IOException {
+    Table table = this.table;
+    if (table != null || lookups.addAndGet(count) < BUILD_THRESHOLD) {
+      return table;
+    }
+    synchronized (this) {
+      if (this.table == null) {
+        long start = System.nanoTime();
+        this.table = readTable();
+        LOG.info(String.format("Docid lookup of %d documents built in %.1f ms, %.1f MB", this.table.size,
+            (System.nanoTime() - start) / 1e6, this.table.ramBytesUsed() / 1e6));
+      }
+      return this.table;
+    }
+  }
+
+  private Table readTable() throws IOException {
+    PagedBytes bytes = new PagedBytes(15);
+    PackedLongValues.Builder offsets = PackedLongValues.monotonicBuilder(PackedInts.COMPACT);
+    PackedLongValues.Builder docids = PackedLongValues.packedBuilder(PackedInts.COMPACT);
+    Terms terms = MultiTerms.getTerms(reader, IndexArgs.ID);
+    if (terms != null) {
+      Bits liveDocs = MultiBits.getLiveDocs(reader);
+      TermsEnum termsEnum = terms.iterator();
+      PostingsEnum postings = null;
+      BytesRef term;
+      while ((term = termsEnum.next()) != null) {
+        postings = termsEnum.postings(postings, PostingsEnum.NONE);
+        int doc = firstLiveDoc(postings, liveDocs);
+        if (doc != -1) {
+          offsets.add(bytes.copyUsingLengthPrefix(term));
+          docids.add(doc);
+        }
+      }
+    }
+    return new Table(bytes.freeze(true), offsets.build(), docids.build());
+  }
+
+  // Seeks a docid in the terms of every segment.
+  private int seek(BytesRef docid) throws IOException {
+    for (LeafReaderContext context : reader.leaves()) {
+      Terms terms = context.reader().terms(IndexArgs.ID);
+      if (terms == null) {
+        continue;
+      }
+      TermsEnum termsEnum = terms.iterator();
+      if (termsEnum.seekExact(docid)) {
+        int doc = firstLiveDoc(termsEnum.postings(null, PostingsEnum.NONE), context.reader().getLiveDocs());
+        if (doc != -1) {
+          return context.docBase + doc;
+        }
+      }
+    }
+    return -1;
+  }
+
+  private static int firstLiveDoc(PostingsEnum postings, Bits liveDocs) throws IOException {
+    for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+      if (liveDocs == null || liveDocs.get(doc)) {
+        return doc;
+      }
+    }
+    return -1;
+  }
+}
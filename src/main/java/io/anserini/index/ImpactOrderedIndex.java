@@ -0,0 +1,502 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiBits;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.OptionHandlerFilter;
+import org.kohsuke.args4j.ParserProperties;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Read-only, memory-mapped impact-ordered copy of the SLR field of an index, for score-at-a-time query evaluation
+ * (see {@link io.anserini.search.latent.ScoreAtATimeEvaluator}).
+ *
+ * <p>The postings of every latent dimension are grouped into segments of equal impact, the term frequency (the
+ * activation value times {@code 10^p}) quantized to {@code impactBits} bits, and the segments are ordered by decreasing
+ * impact; within a segment the Lucene doc ids are in increasing order. If the largest term frequency fits in
+ * {@code impactBits} bits, the impact is the term frequency itself; otherwise term frequencies are scaled down
+ * linearly, and an impact stands for {@code impact * scale} term frequency.</p>
+ *
+ * <p>File layout (little-endian):</p>
+ * <pre>
+ * header:    int magic, int version, int impactBits, float scale, int maxDoc, int numTerms, long directoryOffset
+ * postings:  doc ids (int) of all segments
+ * directory: per term int dimension, int numSegments, and per segment int impact, int count, long offset
+ * </pre>
+ *
+ * <p>Doc ids are global Lucene doc ids of the index the file was built from, so the file must be rebuilt whenever the
+ * index changes; deleted documents are left out. The postings are mapped in chunks of 1 GB; a segment that would
+ * cross a chunk boundary is split in two segments of the same impact.</p>
+ */
+public final class ImpactOrderedIndex implements Closeable {
+  private static final Logger LOG = LogManager.getLogger(ImpactOrderedIndex.class);
+
+  private static final int MAGIC = 0x534C5249; // "SLRI"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 32;
+  private static final int CHUNK_BITS = 30;
+  private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+  private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private final FileChannel channel;
+  private final MappedByteBuffer[] chunks;
+  private final int impactBits;
+  private final float scale;
+  private final int maxDoc;
+
+  // Directory: term ordinals in increasing dimension order, segments of term t are [termStart[t], termStart[t + 1]).
+  private final int[] dims;
+  private final int[] termStart;
+  private final int[] segmentImpact;
+  private final int[] segmentCount;
+  private final long[] segmentOffset;
+
+  public static class Args {
+    @Option(name = "-index", metaVar = "[path]", required = true, usage = "index with the SLR field")
+    public String index;
+
+    @Option(name = "-output", metaVar = "[file]", required = true, usage = "output impact-ordered index")
+    public String output;
+
+    @Option(name = "-field", metaVar = "[field]", usage = "field with the SLR terms")
+    public String field = IndexArgs.CONTENTS;
+
+    @Option(name = "-impactBits", metaVar = "[bits]", usage = "bits per impact (1 to 16)")
+    public int impactBits = 8;
+  }
+
+  private ImpactOrderedIndex(Path path) throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.READ);
+    long size = channel.size();
+    int numChunks = (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+    chunks = new MappedByteBuffer[numChunks];
+    for (int i = 0; i < numChunks; i++) {
+      long start = (long) i << CHUNK_BITS;
+      chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start));
+      chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    if (size < HEADER_SIZE || chunks[0].getInt(0) != MAGIC) {
+      channel.close();
+      throw new IllegalArgumentException(String.format("%s is not an impact-ordered index; build it with %s",
+          path, ImpactOrderedIndex.class.getSimpleName()));
+    }
+    if (chunks[0].getInt(4) != VERSION) {
+      channel.close();
+      throw new IllegalArgumentException("Unsupported impact-ordered index version: " + chunks[0].getInt(4));
+    }
+    impactBits = chunks[0].getInt(8);
+    scale = chunks[0].getFloat(12);
+    maxDoc = chunks[0].getInt(16);
+    int numTerms = chunks[0].getInt(20);
+    long directoryOffset = chunks[0].getLong(24);
+
+    // The directory is small (a few entries per term), so it is read onto the heap.
+    dims = new int[numTerms];
+    termStart = new int[numTerms + 1];
+    IntArrayList impacts = new IntArrayList();
+    IntArrayList counts = new IntArrayList();
+    LongArrayList offsets = new LongArrayList();
+    long pos = directoryOffset;
+    for (int t = 0; t < numTerms; t++) {
+      dims[t] = getInt(pos);
+      int numSegments = getInt(pos + 4);
+      pos += 8;
+      termStart[t] = impacts.size();
+      for (int s = 0; s < numSegments; s++) {
+        impacts.add(getInt(pos));
+        counts.add(getInt(pos + 4));
+        offsets.add(getLong(pos + 8));
+        pos += 16;
+      }
+    }
+    termStart[numTerms] = impacts.size();
+    segmentImpact = impacts.toIntArray();
+    segmentCount = counts.toIntArray();
+    segmentOffset = offsets.toLongArray();
+  }
+
+  /**
+   * Opens an impact-ordered index.
+   *
+   * @param path path to the file
+   * @return impact-ordered index
+   * @throws IOException if the file cannot be mapped
+   */
+  public static ImpactOrderedIndex open(Path path) throws IOException {
+    return new ImpactOrderedIndex(path);
+  }
+
+  public int impactBits() {
+    return impactBits;
+  }
+
+  /**
+   * Returns the term frequency that one unit of impact stands for.
+   */
+  public float scale() {
+    return scale;
+  }
+
+  /**
+   * Returns the number of documents (including deleted ones) of the index this file was built from.
+   */
+  public int maxDoc() {
+    return maxDoc;
+  }
+
+  public int numTerms() {
+    return dims.length;
+  }
+
+  /**
+   * Returns the ordinal of the term of a dimension.
+   *
+   * @param dim dimension id
+   * @return term ordinal, or -1 if the dimension does not occur in the index
+   */
+  public int termOrd(int dim) {
+    int ord = Arrays.binarySearch(dims, dim);
+    return ord < 0 ? -1 : ord;
+  }
+
+  /**
+   * Returns the first segment of a term; the segments of a term are ordered by decreasing impact.
+   */
+  public int segmentStart(int termOrd) {
+    return termStart[termOrd];
+  }
+
+  /**
+   * Returns the end (exclusive) of the segments of a term.
+   */
+  public int segmentEnd(int termOrd) {
+    return termStart[termOrd + 1];
+  }
+
+  public int segmentImpact(int segment) {
+    return segmentImpact[segment];
+  }
+
+  public int segmentSize(int segment) {
+    return segmentCount[segment];
+  }
+
+  /**
+   * Copies doc ids of a segment.
+   *
+   * @param segment segment
+   * @param from index of the first doc id in the segment
+   * @param docs destination
+   * @param count number of doc ids to copy
+   */
+  public void docs(int segment, int from, int[] docs, int count) {
+    long offset = segmentOffset[segment] + 4L * from;
+    ByteBuffer chunk = chunks[(int) (offset >>> CHUNK_BITS)];
+    int p = (int) (offset & CHUNK_MASK);
+    for (int i = 0; i < count; i++, p += 4) {
+      docs[i] = chunk.getInt(p);
+    }
+  }
+
+  private int getInt(long pos) {
+    return chunks[(int) (pos >>> CHUNK_BITS)].getInt((int) (pos & CHUNK_MASK));
+  }
+
+  private long getLong(long pos) {
+    // Directory entries are not aligned to 8 bytes, so a long may cross a chunk boundary.
+    if ((pos >>> CHUNK_BITS) == ((pos + 7) >>> CHUNK_BITS)) {
+      return chunks[(int) (pos >>> CHUNK_BITS)].getLong((int) (pos & CHUNK_MASK));
+    }
+    return (getInt(pos) & 0xFFFFFFFFL) | ((long) getInt(pos + 4) << 32);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Builds an impact-ordered index of a field.
+   *
+   * @param reader index reader
+   * @param field field with the SLR terms (zero-padded dimension ids)
+   * @param impactBits bits per impact (1 to 16)
+   * @param output output path
+   * @return total number of postings written
+   * @throws IOException if reading the index or writing the file fails
+   */
+  public static long write(IndexReader reader, String field, int impactBits, Path output) throws IOException {
+    if (impactBits < 1 || impactBits > 16) {
+      throw new IllegalArgumentException("impactBits must be between 1 and 16");
+    }
+    Terms terms = MultiTerms.getTerms(reader, field);
+    if (terms == null) {
+      throw new IllegalArgumentException("Field " + field + " is not indexed");
+    }
+
+    // Deleted documents are left out, so that they are neither returned nor counted in the quantization.
+    Bits liveDocs = MultiBits.getLiveDocs(reader);
+
+    // First pass: the largest term frequency determines the quantization.
+    int maxFreq = 0;
+    TermsEnum termsEnum = terms.iterator();
+    PostingsEnum postings = null;
+    while (termsEnum.next() != null) {
+      postings = termsEnum.postings(postings, PostingsEnum.FREQS);
+      while (postings.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+        if (liveDocs == null || liveDocs.get(postings.docID())) {
+          maxFreq = Math.max(maxFreq, postings.freq());
+        }
+      }
+    }
+    final int maxImpact = (1 << impactBits) - 1;
+    final float scale = maxFreq <= maxImpact ? 1.0f : (float) maxFreq / maxImpact;
+
+    IntArrayList dims = new IntArrayList();
+    // Per term the number of segments followed by impact and count of every segment, and the segment offsets.
+    IntArrayList directory = new IntArrayList();
+    LongArrayList directoryOffsets = new LongArrayList();
+    IntArrayList termDirectory = new IntArrayList();
+    IntArrayList termOffsets = new IntArrayList();
+    long numPostings = 0;
+    long skipped = 0;
+
+    try (PostingsWriter writer = new PostingsWriter(output)) {
+      IntArrayList docs = new IntArrayList();
+      IntArrayList impacts = new IntArrayList();
+      int[] counts = new int[maxImpact + 1];
+      // Segment of impact i is [starts[i], starts[i - 1]) in sorted.
+      int[] starts = new int[maxImpact + 1];
+      int[] next = new int[maxImpact + 1];
+      int[] sorted = new int[0];
+
+      termsEnum = terms.iterator();
+      BytesRef term;
+      while ((term = termsEnum.next()) != null) {
+        int dim;
+        try {
+          dim = Integer.parseInt(term.utf8ToString());
+        } catch (NumberFormatException e) {
+          skipped++;
+          continue;
+        }
+
+        docs.clear();
+        impacts.clear();
+        Arrays.fill(counts, 0);
+        postings = termsEnum.postings(postings, PostingsEnum.FREQS);
+        while (postings.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+          if (liveDocs != null && !liveDocs.get(postings.docID())) {
+            continue;
+          }
+          int impact = scale == 1.0f ? postings.freq() :
+              Math.min(maxImpact, Math.max(1, Math.round(postings.freq() / scale)));
+          docs.add(postings.docID());
+          impacts.add(impact);
+          counts[impact]++;
+        }
+
+        // Counting sort on decreasing impact; stable, so doc ids stay in increasing order within a segment.
+        int n = docs.size();
+        if (n == 0) {
+          // Only in deleted documents.
+          continue;
+        }
+        if (sorted.length < n) {
+          sorted = new int[n];
+        }
+        for (int impact = maxImpact; impact >= 1; impact--) {
+          starts[impact - 1] = starts[impact] + counts[impact];
+        }
+        System.arraycopy(starts, 0, next, 0, starts.length);
+        for (int i = 0; i < n; i++) {
+          sorted[next[impacts.getInt(i)]++] = docs.getInt(i);
+        }
+
+        dims.add(dim);
+        termDirectory.add(directory.size());
+        termOffsets.add(directoryOffsets.size());
+        int numSegmentsIndex = directory.size();
+        directory.add(0);
+        int numSegments = 0;
+        for (int impact = maxImpact; impact >= 1; impact--) {
+          int from = starts[impact];
+          int to = starts[impact - 1];
+          while (from < to) {
+            long offset = writer.position();
+            // Segments must not cross a chunk boundary of the mapped file.
+            int fit = (int) Math.min(to - from, (CHUNK_SIZE - (offset & CHUNK_MASK)) / 4);
+            writer.write(sorted, from, fit);
+            directory.add(impact);
+            directory.add(fit);
+            directoryOffsets.add(offset);
+            numSegments++;
+            from += fit;
+          }
+        }
+        directory.set(numSegmentsIndex, numSegments);
+        numPostings += n;
+      }
+
+      // Terms are enumerated in lexicographic order, which differs from the dimension order once the ids are longer
+      // than the zero padding, so the directory is sorted on dimension for binary search.
+      Integer[] order = new Integer[dims.size()];
+      for (int t = 0; t < order.length; t++) {
+        order[t] = t;
+      }
+      Arrays.sort(order, (a, b) -> Integer.compare(dims.getInt(a), dims.getInt(b)));
+
+      long directoryOffset = writer.position();
+      for (int t : order) {
+        int d = termDirectory.getInt(t);
+        int s = termOffsets.getInt(t);
+        int numSegments = directory.getInt(d++);
+        writer.writeInt(dims.getInt(t));
+        writer.writeInt(numSegments);
+        for (int i = 0; i < numSegments; i++) {
+          writer.writeInt(directory.getInt(d++));
+          writer.writeInt(directory.getInt(d++));
+          writer.writeLong(directoryOffsets.getLong(s++));
+        }
+      }
+      writer.writeHeader(impactBits, scale, reader.maxDoc(), dims.size(), directoryOffset);
+    }
+
+    if (skipped > 0) {
+      LOG.warn(String.format("Skipped %,d terms that are not dimension ids", skipped));
+    }
+    LOG.info(String.format("%,d postings of %,d dimensions, largest term frequency %,d, impact scale %s",
+        numPostings, dims.size(), maxFreq, scale));
+    return numPostings;
+  }
+
+  private static final class PostingsWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    // File position of the start of the buffer.
+    private long bufferStart = HEADER_SIZE;
+
+    PostingsWriter(Path path) throws IOException {
+      channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    long position() {
+      return bufferStart + buffer.position();
+    }
+
+    void write(int[] values, int from, int count) throws IOException {
+      for (int i = from; i < from + count; i++) {
+        writeInt(values[i]);
+      }
+    }
+
+    void writeInt(int value) throws IOException {
+      if (buffer.remaining() < Integer.BYTES) {
+        flush();
+      }
+      buffer.putInt(value);
+    }
+
+    void writeLong(long value) throws IOException {
+      if (buffer.remaining() < Long.BYTES) {
+        flush();
+      }
+      buffer.putLong(value);
+    }
+
+    void writeHeader(int impactBits, float scale, int maxDoc, int numTerms, long directoryOffset) throws IOException {
+      flush();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(VERSION).putInt(impactBits).putFloat(scale)
+          .putInt(maxDoc).putInt(numTerms).putLong(directoryOffset);
+      header.flip();
+      long pos = 0;
+      while (header.hasRemaining()) {
+        pos += channel.write(header, pos);
+      }
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      long pos = bufferStart;
+      while (buffer.hasRemaining()) {
+        pos += channel.write(buffer, pos);
+      }
+      bufferStart = pos;
+      buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+      channel.close();
+    }
+  }
+
+  public static void main(String[] argv) throws Exception {
+    Args args = new Args();
+    CmdLineParser parser = new CmdLineParser(args, ParserProperties.defaults().withUsageWidth(100));
+
+    try {
+      parser.parseArgument(argv);
+    } catch (CmdLineException e) {
+      System.err.println(e.getMessage());
+      parser.printUsage(System.err);
+      System.err.println(String.format("Example: %s %s",
+          ImpactOrderedIndex.class.getSimpleName(), parser.printExample(OptionHandlerFilter.REQUIRED)));
+      return;
+    }
+
+    final long start = System.nanoTime();
+    try (IndexReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(args.index)))) {
+      long numPostings = write(reader, args.field, args.impactBits, Paths.get(args.output));
+      LOG.info(String.format("Wrote %,d postings to %s in %.1f s", numPostings, args.output,
+          (System.nanoTime() - start) / 1e9));
+    }
+  }
+}
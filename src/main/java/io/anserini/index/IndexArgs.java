@@ -29,6 +29,10 @@ public class IndexArgs {
   // This is the name of the field in the Lucene document where the raw document is stored.
   public static final String RAW = "raw";
 
+  // This is the name of the BinaryDocValues field in the Lucene document where the sparse latent representation is
+  // stored (see SparseVectorDocValues).
+  public static final String SLR_VECTOR = "slr_vector";
+
   private static final int TIMEOUT = 600 * 1000;
 
   // required arguments
@@ -224,15 +228,25 @@ public class IndexArgs {
   public boolean slr = false;
 
   @Option(name = "-slr.reprFilePath", forbids = {"-slr.model"},
-      usage = "The path to the file containing the slr's of all the documents")
+      usage = "The path to the SLRVectorStore containing the slr's of all the documents; " +
+          "TSV and JSON files can be converted with the SLRVectorStore tool")
   public String slrFilePath = "";
 
   @Option(name = "-slr.model", metaVar = "[model]", forbids = {"-slr.reprFilePath"},
       usage = "The model (python3 script) to use for computing the slr. Call will look like: python3 [model] -content ...")
   public String slrModel = "";
 
+  @Option(name = "-slr.workers", metaVar = "[n]",
+      usage = "Number of persistent encoder processes started for -slr.model; shared by all indexing threads.")
+  public int slrWorkers = 1;
+
+  @Option(name = "-slr.batchSize", metaVar = "[n]",
+      usage = "Maximum number of documents sent to an encoder process in one request.")
+  public int slrBatchSize = 32;
+
   @Option(name = "-slr.append",
-      usage = "Boolean switch to append sparse latent representations to the index; only used in SLRGenerator")
+      usage = "Boolean switch to store the sparse latent representation of every document in a BinaryDocValues " +
+          "field, for exact rescoring at search time; only used in SLRGenerator")
   public boolean slrAppend = false;
 
   @Option(name = "-slr.indexOld",
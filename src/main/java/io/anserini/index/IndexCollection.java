@@ -31,6 +31,7 @@ import io.anserini.index.generator.InvalidDocumentException;
 import io.anserini.index.generator.LuceneDocumentGenerator;
 import io.anserini.index.generator.SkippedDocumentException;
 import io.anserini.index.generator.WashingtonPostGenerator;
+import io.anserini.search.latent.SLREncoder;
 import io.anserini.search.similarity.AccurateBM25Similarity;
 import io.anserini.search.similarity.SLRSimilarity;
 
@@ -659,6 +660,11 @@ public final class IndexCollection {
     LOG.info("Store document \"raw\" field? " + args.storeRaw);
     LOG.info("Optimize (merge segments)? " + args.optimize);
     LOG.info("Whitelist: " + args.whitelist);
+    if (!args.slrModel.isEmpty()) {
+      LOG.info("SLR model: " + args.slrModel);
+      LOG.info("SLR encoder workers: " + args.slrWorkers);
+      LOG.info("SLR encoder batch size: " + args.slrBatchSize);
+    }
 
     if (args.solr) {
       LOG.info("Indexing into Solr...");
@@ -829,6 +835,11 @@ public final class IndexCollection {
           " is not equal to completedTaskCount =  " + executor.getCompletedTaskCount());
     }
 
+    // Shut down the encoder processes shared by the indexer threads; this also logs their throughput counters.
+    if (!args.slrModel.isEmpty()) {
+      SLREncoder.closeShared();
+    }
+
     long numIndexed;
 
     if (args.solr || args.es) {
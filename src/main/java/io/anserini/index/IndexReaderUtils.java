@@ -27,6 +27,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.IndexReader;
@@ -61,12 +62,17 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.Set;
 import java.util.Iterator;
 
 import static java.util.stream.Collectors.joining;
@@ -80,6 +86,10 @@ public class IndexReaderUtils {
   // The default analyzer used in indexing.
   private static final Analyzer DEFAULT_ANALYZER = IndexCollection.DEFAULT_ANALYZER;
 
+  // Readers shared by getSharedReader, by absolute index path, and the readers they replaced after their index changed.
+  private static final Map<Path, DirectoryReader> SHARED_READERS = new HashMap<>();
+  private static final Map<Path, List<DirectoryReader>> REPLACED_SHARED_READERS = new HashMap<>();
+
   public enum DocumentVectorWeight {NONE, TF_IDF}
 
   /**
@@ -202,6 +212,84 @@ public class IndexReaderUtils {
     return DirectoryReader.open(dir);
   }
 
+  /**
+   * Returns a reader of an index shared by the whole process: the first call for an index opens it, and later calls
+   * (from any thread) return the same reader, so that components that look into an index once per query do not open
+   * it again every time. If the index has changed since (e.g., it was rebuilt), the next call opens a new reader; the
+   * replaced one stays open for whoever still uses it. Shared readers are open until {@link #closeSharedReader} or
+   * {@link #closeSharedReaders}, which also drops what is cached by reader (e.g., {@link DocidLookup}).
+   *
+   * @param path index path
+   * @return shared index reader
+   * @throws IOException if any errors are encountered
+   */
+  public static IndexReader getSharedReader(String path) throws IOException {
+    Path index = Paths.get(path).toAbsolutePath().normalize();
+    if (!Files.exists(index) || !Files.isDirectory(index) || !Files.isReadable(index)) {
+      throw new IllegalArgumentException(path + " does not exist or is not a directory.");
+    }
+    synchronized (SHARED_READERS) {
+      DirectoryReader reader = SHARED_READERS.get(index);
+      if (reader != null && reader.getRefCount() > 0) {
+        if (reader.isCurrent()) {
+          return reader;
+        }
+        REPLACED_SHARED_READERS.computeIfAbsent(index, k -> new ArrayList<>()).add(reader);
+      }
+      reader = DirectoryReader.open(FSDirectory.open(index));
+      SHARED_READERS.put(index, reader);
+      return reader;
+    }
+  }
+
+  /**
+   * Closes the shared readers of an index (see {@link #getSharedReader}), e.g., once it is rebuilt or no longer
+   * needed. Readers that are already closed are skipped.
+   *
+   * @param path index path
+   * @throws IOException if any errors are encountered
+   */
+  public static void closeSharedReader(String path) throws IOException {
+    Path index = Paths.get(path).toAbsolutePath().normalize();
+    List<DirectoryReader> readers = new ArrayList<>();
+    synchronized (SHARED_READERS) {
+      DirectoryReader reader = SHARED_READERS.remove(index);
+      if (reader != null) {
+        readers.add(reader);
+      }
+      List<DirectoryReader> replaced = REPLACED_SHARED_READERS.remove(index);
+      if (replaced != null) {
+        readers.addAll(replaced);
+      }
+    }
+    closeReaders(readers);
+  }
+
+  /**
+   * Closes the shared readers of all indexes (see {@link #getSharedReader}).
+   *
+   * @throws IOException if any errors are encountered
+   */
+  public static void closeSharedReaders() throws IOException {
+    List<DirectoryReader> readers = new ArrayList<>();
+    synchronized (SHARED_READERS) {
+      readers.addAll(SHARED_READERS.values());
+      REPLACED_SHARED_READERS.values().forEach(readers::addAll);
+      SHARED_READERS.clear();
+      REPLACED_SHARED_READERS.clear();
+    }
+    closeReaders(readers);
+  }
+
+  private static void closeReaders(List<DirectoryReader> readers) throws IOException {
+    for (DirectoryReader reader : readers) {
+      if (reader.getRefCount() > 0) {
+        reader.close();
+        reader.directory().close();
+      }
+    }
+  }
+
   public static Map<String, Long> getTermCounts(IndexReader reader, String termStr) throws IOException, ParseException {
     DefaultEnglishAnalyzer ea = DefaultEnglishAnalyzer.newDefaultInstance();
     return getTermCountsWithAnalyzer(reader, termStr, ea);
@@ -411,6 +499,90 @@ public class IndexReaderUtils {
     }
   }
 
+  /**
+   * Fetches the Lucene {@link Document}s of many collection docids in one call. Docids are looked up together, and
+   * documents are read in Lucene docid order so that stored fields are read sequentially.
+   *
+   * @param reader index reader
+   * @param docids collection docids
+   * @return documents by collection docid, in the order of the docids; docids that are not found are left out
+   */
+  public static Map<String, Document> batchDocuments(IndexReader reader, List<String> docids) {
+    return batchDocuments(reader, docids, null);
+  }
+
+  /**
+   * Returns the "raw" fields of many documents in one call, see {@link #batchDocuments(IndexReader, List)}.
+   *
+   * @param reader index reader
+   * @param docids collection docids
+   * @return the "raw" fields by collection docid, in the order of the docids; docids that are not found are left out
+   */
+  public static Map<String, String> batchDocumentRaw(IndexReader reader, List<String> docids) {
+    return batchField(reader, docids, IndexArgs.RAW);
+  }
+
+  /**
+   * Returns the "contents" fields of many documents in one call, see {@link #batchDocuments(IndexReader, List)}.
+   *
+   * @param reader index reader
+   * @param docids collection docids
+   * @return the "contents" fields by collection docid, in the order of the docids; docids that are not found are left
+   * out
+   */
+  public static Map<String, String> batchDocumentContents(IndexReader reader, List<String> docids) {
+    return batchField(reader, docids, IndexArgs.CONTENTS);
+  }
+
+  private static Map<String, String> batchField(IndexReader reader, List<String> docids, String field) {
+    Map<String, String> values = new LinkedHashMap<>();
+    for (Map.Entry<String, Document> entry : batchDocuments(reader, docids, Collections.singleton(field)).entrySet()) {
+      values.put(entry.getKey(), entry.getValue().get(field));
+    }
+    return values;
+  }
+
+  // Reads the documents of docids in Lucene docid order, with only the given stored fields (all if null).
+  private static Map<String, Document> batchDocuments(IndexReader reader, List<String> docids, Set<String> fields) {
+    int[] luceneDocids;
+    try {
+      luceneDocids = DocidLookup.of(reader).luceneDocids(docids.toArray(new String[0]));
+    } catch (IOException e) {
+      // Eat any exceptions and just return no documents.
+      return new LinkedHashMap<>();
+    }
+    // Positions of the docids that are found, sorted by Lucene docid.
+    long[] order = new long[luceneDocids.length];
+    int n = 0;
+    for (int i = 0; i < luceneDocids.length; i++) {
+      if (luceneDocids[i] != -1) {
+        order[n++] = ((long) luceneDocids[i] << 32) | i;
+      }
+    }
+    Arrays.sort(order, 0, n);
+
+    Document[] docs = new Document[luceneDocids.length];
+    for (int k = 0; k < n; k++) {
+      int i = (int) order[k];
+      DocumentStoredFieldVisitor visitor =
+          fields == null ? new DocumentStoredFieldVisitor() : new DocumentStoredFieldVisitor(fields);
+      try {
+        reader.document(luceneDocids[i], visitor);
+        docs[i] = visitor.getDocument();
+      } catch (Exception e) {
+        // Eat any exceptions and just leave the document out.
+      }
+    }
+
+    Map<String, Document> documents = new LinkedHashMap<>();
+    for (int i = 0; i < docs.length; i++) {
+      if (docs[i] != null) {
+        documents.putIfAbsent(docids.get(i), docs[i]);
+      }
+    }
+    return documents;
+  }
+
   /**
    * Returns the Lucene document based on some field beside its unique collection docid. For example, scientific
    * articles might have DOIs.
@@ -570,17 +742,7 @@ public class IndexReaderUtils {
    */
   public static int convertDocidToLuceneDocid(IndexReader reader, String docid) {
     try {
-      IndexSearcher searcher = new IndexSearcher(reader);
-      Query q = new TermQuery(new Term(IndexArgs.ID, docid));
-      TopDocs rs = searcher.search(q, 1);
-      ScoreDoc[] hits = rs.scoreDocs;
-
-      if (hits == null || hits.length == 0) {
-        // Silently eat the error and return -1
-        return -1;
-      }
-
-      return hits[0].doc;
+      return DocidLookup.of(reader).luceneDocid(docid);
     } catch (IOException e) {
       // Silently eat the error and return -1
       return -1;
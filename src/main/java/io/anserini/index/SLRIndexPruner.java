@@ -0,0 +1,559 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index;
+
+import io.anserini.search.latent.SLRQueryGenerator;
+import io.anserini.search.latent.SLREncoder;
+import io.anserini.search.latent.SparseDotProductQuery;
+import io.anserini.search.latent.SparseVector;
+import io.anserini.search.topicreader.TopicReader;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.ImpactsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiBits;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SlowCodecReaderWrapper;
+import org.apache.lucene.index.SlowImpactsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.OptionHandlerFilter;
+import org.kohsuke.args4j.ParserProperties;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Static pruning of the postings of an SLR index. The pruned index is written with {@link IndexWriter#addIndexes},
+ * from filtered views of the segments of the original index, so all other fields, stored fields and doc values are
+ * copied unchanged and documents keep their order.
+ *
+ * <p>Three criteria are supported, and a posting is kept only if it passes all enabled ones. Each criterion is
+ * computed on the original index:</p>
+ * <ul>
+ *   <li>per dimension, the {@code dimTopK} postings with the highest term frequency (ties by doc id);</li>
+ *   <li>a global threshold: postings with a term frequency below {@code minFreq} are removed;</li>
+ *   <li>per document, the {@code docTopN} dimensions with the highest term frequency (ties by dimension id).</li>
+ * </ul>
+ *
+ * <p>The per document criterion keeps a heap of {@code docTopN} postings for every document while scanning the
+ * index, which takes {@code 8 * docTopN} bytes per document.</p>
+ */
+public final class SLRIndexPruner {
+  private static final Logger LOG = LogManager.getLogger(SLRIndexPruner.class);
+
+  public static class Args {
+    @Option(name = "-input", metaVar = "[path]", required = true, usage = "SLR index to prune")
+    public String input;
+
+    @Option(name = "-output", metaVar = "[path]", required = true, usage = "pruned index")
+    public String output;
+
+    @Option(name = "-field", metaVar = "[field]", usage = "field with the SLR terms")
+    public String field = IndexArgs.CONTENTS;
+
+    @Option(name = "-dimTopK", metaVar = "[k]", usage = "keep the k postings with the highest activation per dimension")
+    public int dimTopK = 0;
+
+    @Option(name = "-threshold", metaVar = "[value]", usage = "remove postings with an activation value below this threshold")
+    public float threshold = 0.0f;
+
+    @Option(name = "-docTopN", metaVar = "[n]", usage = "keep the n dimensions with the highest activation per document")
+    public int docTopN = 0;
+
+    @Option(name = "-decimalPrecision", metaVar = "[k]",
+        usage = "number of decimals the activation values were indexed with (-slr.decimalPrecision of IndexCollection)")
+    public int decimalPrecision = 2;
+
+    @Option(name = "-topics", metaVar = "[file]", usage = "topics to measure the query latency before and after pruning")
+    public String topics = null;
+
+    @Option(name = "-topicreader", metaVar = "[class]", depends = {"-topics"}, usage = "TopicReader to use")
+    public String topicReader = "TsvInt";
+
+    @Option(name = "-topicfield", metaVar = "[field]", depends = {"-topics"}, usage = "topic field used as the query")
+    public String topicField = "title";
+
+    @Option(name = "-slr.model", metaVar = "[model]", depends = {"-topics"},
+        usage = "model to encode the topics with; if not set the topics are whitespace separated activation values")
+    public String slrModel = "";
+
+    @Option(name = "-hits", metaVar = "[number]", depends = {"-topics"}, usage = "number of hits per query")
+    public int hits = 1000;
+  }
+
+  private final String field;
+  private final int dimTopK;
+  private final int minFreq;
+  private final int docTopN;
+
+  // Per dimension with more than dimTopK postings: the term frequency of the k-th posting in the high bits, and the
+  // last doc id with that frequency that is kept in the low bits.
+  private final Int2LongOpenHashMap dimCutoffs = new Int2LongOpenHashMap();
+  // Per document with more than docTopN dimensions: the term frequency and dimension id of the n-th posting.
+  private int[] docMinFreqs;
+  private int[] docMinDims;
+
+  /**
+   * Creates a pruner; a criterion is disabled when its parameter is 0.
+   *
+   * @param field field with the SLR terms
+   * @param dimTopK number of postings to keep per dimension
+   * @param minFreq smallest term frequency to keep
+   * @param docTopN number of dimensions to keep per document
+   */
+  public SLRIndexPruner(String field, int dimTopK, int minFreq, int docTopN) {
+    if (dimTopK < 0 || minFreq < 0 || docTopN < 0) {
+      throw new IllegalArgumentException("Pruning parameters must not be negative");
+    }
+    this.field = field;
+    this.dimTopK = dimTopK;
+    this.minFreq = minFreq;
+    this.docTopN = docTopN;
+    dimCutoffs.defaultReturnValue(Integer.MAX_VALUE);
+  }
+
+  /**
+   * Returns the smallest term frequency whose activation value, as indexed with the given precision, is at least the
+   * threshold.
+   *
+   * @param threshold activation threshold
+   * @param decimalPrecision number of decimals of the indexed activation values
+   * @return smallest term frequency to keep
+   */
+  public static int minFreq(float threshold, int decimalPrecision) {
+    if (threshold <= 0) {
+      return 0;
+    }
+    double scale = Math.pow(10, decimalPrecision);
+    int freq = (int) Math.min(Integer.MAX_VALUE, Math.floor(threshold * scale));
+    while (freq > 0 && (float) ((freq - 1) / scale) >= threshold) {
+      freq--;
+    }
+    while (freq < Integer.MAX_VALUE && (float) (freq / scale) < threshold) {
+      freq++;
+    }
+    return freq;
+  }
+
+  /**
+   * Writes a pruned copy of an index.
+   *
+   * @param reader index to prune
+   * @param output directory of the pruned index, any existing index is overwritten
+   * @throws IOException if reading or writing fails
+   */
+  public void prune(IndexReader reader, Directory output) throws IOException {
+    computeCutoffs(reader);
+
+    List<LeafReaderContext> leaves = reader.leaves();
+    CodecReader[] pruned = new CodecReader[leaves.size()];
+    for (int i = 0; i < pruned.length; i++) {
+      pruned[i] = SlowCodecReaderWrapper.wrap(new PrunedLeafReader(leaves.get(i).reader(), leaves.get(i).docBase));
+    }
+    IndexWriterConfig config = new IndexWriterConfig(null).setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+    try (IndexWriter writer = new IndexWriter(output, config)) {
+      writer.addIndexes(pruned);
+      writer.commit();
+    }
+  }
+
+  // Scans the postings of the field once to compute the per dimension and per document cutoffs.
+  private void computeCutoffs(IndexReader reader) throws IOException {
+    dimCutoffs.clear();
+    docMinFreqs = null;
+    docMinDims = null;
+    if (dimTopK == 0 && docTopN == 0) {
+      return;
+    }
+    Terms terms = MultiTerms.getTerms(reader, field);
+    if (terms == null) {
+      throw new IllegalArgumentException("Field " + field + " is not indexed");
+    }
+
+    final Bits liveDocs = MultiBits.getLiveDocs(reader);
+    final int maxDoc = reader.maxDoc();
+    // Per document a min-heap of (freq, dim), the worst posting at the root.
+    final int[] heapFreqs = docTopN > 0 ? new int[Math.multiplyExact(maxDoc, docTopN)] : null;
+    final int[] heapDims = docTopN > 0 ? new int[heapFreqs.length] : null;
+    final int[] heapSizes = docTopN > 0 ? new int[maxDoc] : null;
+
+    IntArrayList docs = new IntArrayList();
+    IntArrayList freqs = new IntArrayList();
+    TermsEnum termsEnum = terms.iterator();
+    PostingsEnum postings = null;
+    BytesRef term;
+    while ((term = termsEnum.next()) != null) {
+      final int dim = dim(term);
+      if (dim < 0) {
+        continue;
+      }
+      docs.clear();
+      freqs.clear();
+      postings = termsEnum.postings(postings, PostingsEnum.FREQS);
+      int doc;
+      while ((doc = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+        if (liveDocs != null && !liveDocs.get(doc)) {
+          continue;
+        }
+        final int freq = postings.freq();
+        docs.add(doc);
+        freqs.add(freq);
+        if (docTopN > 0) {
+          offer(heapFreqs, heapDims, heapSizes, doc, freq, dim);
+        }
+      }
+      if (dimTopK > 0 && docs.size() > dimTopK) {
+        dimCutoffs.put(dim, dimCutoff(docs, freqs));
+      }
+    }
+
+    if (docTopN > 0) {
+      docMinFreqs = new int[maxDoc];
+      docMinDims = new int[maxDoc];
+      for (int doc = 0; doc < maxDoc; doc++) {
+        if (heapSizes[doc] == docTopN) {
+          docMinFreqs[doc] = heapFreqs[doc * docTopN];
+          docMinDims[doc] = heapDims[doc * docTopN];
+        } else {
+          docMinDims[doc] = Integer.MAX_VALUE;
+        }
+      }
+    }
+  }
+
+  // Computes the cutoff of a dimension from its postings, in doc id order.
+  private long dimCutoff(IntArrayList docs, IntArrayList freqs) {
+    int[] sorted = Arrays.copyOf(freqs.elements(), freqs.size());
+    Arrays.sort(sorted);
+    final int cutoff = sorted[sorted.length - dimTopK];
+    int ties = dimTopK;
+    for (int freq : sorted) {
+      if (freq > cutoff) {
+        ties--;
+      }
+    }
+    int lastTie = -1;
+    for (int i = 0; i < docs.size() && ties > 0; i++) {
+      if (freqs.getInt(i) == cutoff) {
+        lastTie = docs.getInt(i);
+        ties--;
+      }
+    }
+    return ((long) cutoff << 32) | (lastTie & 0xFFFFFFFFL);
+  }
+
+  // Adds a posting to the heap of its document, if it is among the top docTopN postings of the document.
+  private void offer(int[] freqs, int[] dims, int[] sizes, int doc, int freq, int dim) {
+    final int base = doc * docTopN;
+    int i;
+    if (sizes[doc] < docTopN) {
+      // Sift up.
+      i = sizes[doc]++;
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (!worse(freq, dim, freqs[base + parent], dims[base + parent])) {
+          break;
+        }
+        freqs[base + i] = freqs[base + parent];
+        dims[base + i] = dims[base + parent];
+        i = parent;
+      }
+    } else if (worse(freqs[base], dims[base], freq, dim)) {
+      // Replace the root and sift down.
+      i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= docTopN) {
+          break;
+        }
+        if (child + 1 < docTopN &&
+            worse(freqs[base + child + 1], dims[base + child + 1], freqs[base + child], dims[base + child])) {
+          child++;
+        }
+        if (!worse(freqs[base + child], dims[base + child], freq, dim)) {
+          break;
+        }
+        freqs[base + i] = freqs[base + child];
+        dims[base + i] = dims[base + child];
+        i = child;
+      }
+    } else {
+      return;
+    }
+    freqs[base + i] = freq;
+    dims[base + i] = dim;
+  }
+
+  // Whether posting (freqA, dimA) ranks below posting (freqB, dimB) within a document.
+  private static boolean worse(int freqA, int dimA, int freqB, int dimB) {
+    return freqA < freqB || (freqA == freqB && dimA > dimB);
+  }
+
+  private boolean keep(int dim, long dimCutoff, int doc, int freq) {
+    if (freq < minFreq) {
+      return false;
+    }
+    final int dimMinFreq = (int) (dimCutoff >>> 32);
+    if (freq < dimMinFreq || (freq == dimMinFreq && doc > (int) dimCutoff)) {
+      return false;
+    }
+    return docMinFreqs == null || !worse(freq, dim, docMinFreqs[doc], docMinDims[doc]);
+  }
+
+  // Parses the dimension id of a term, or returns -1 if the term is not a dimension.
+  private static int dim(BytesRef term) {
+    if (term.length == 0 || term.length > 9) {
+      return -1;
+    }
+    int dim = 0;
+    for (int i = term.offset; i < term.offset + term.length; i++) {
+      int digit = term.bytes[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+      dim = 10 * dim + digit;
+    }
+    return dim;
+  }
+
+  private final class PrunedLeafReader extends FilterLeafReader {
+    private final int docBase;
+
+    PrunedLeafReader(LeafReader in, int docBase) {
+      super(in);
+      this.docBase = docBase;
+    }
+
+    @Override
+    public Terms terms(String name) throws IOException {
+      Terms terms = super.terms(name);
+      if (terms == null || !name.equals(field)) {
+        return terms;
+      }
+      return new FilterTerms(terms) {
+        @Override
+        public TermsEnum iterator() throws IOException {
+          return new PrunedTermsEnum(in.iterator(), docBase);
+        }
+      };
+    }
+
+    @Override
+    public CacheHelper getCoreCacheHelper() {
+      return null;
+    }
+
+    @Override
+    public CacheHelper getReaderCacheHelper() {
+      return null;
+    }
+  }
+
+  private final class PrunedTermsEnum extends FilterLeafReader.FilterTermsEnum {
+    private final int docBase;
+
+    PrunedTermsEnum(TermsEnum in, int docBase) {
+      super(in);
+      this.docBase = docBase;
+    }
+
+    @Override
+    public PostingsEnum postings(PostingsEnum reuse, int flags) throws IOException {
+      final int dim = dim(term());
+      if (dim < 0) {
+        return in.postings(null, flags);
+      }
+      return new PrunedPostingsEnum(in.postings(null, flags | PostingsEnum.FREQS), dim, dimCutoffs.get(dim), docBase);
+    }
+
+    @Override
+    public ImpactsEnum impacts(int flags) throws IOException {
+      return new SlowImpactsEnum(postings(null, flags));
+    }
+  }
+
+  private final class PrunedPostingsEnum extends FilterLeafReader.FilterPostingsEnum {
+    private final int dim;
+    private final long dimCutoff;
+    private final int docBase;
+
+    PrunedPostingsEnum(PostingsEnum in, int dim, long dimCutoff, int docBase) {
+      super(in);
+      this.dim = dim;
+      this.dimCutoff = dimCutoff;
+      this.docBase = docBase;
+    }
+
+    @Override
+    public int nextDoc() throws IOException {
+      int doc;
+      while ((doc = in.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS && !keep(dim, dimCutoff, docBase + doc, in.freq())) {
+      }
+      return doc;
+    }
+
+    @Override
+    public int advance(int target) throws IOException {
+      int doc = in.advance(target);
+      if (doc == DocIdSetIterator.NO_MORE_DOCS || keep(dim, dimCutoff, docBase + doc, in.freq())) {
+        return doc;
+      }
+      return nextDoc();
+    }
+  }
+
+  /**
+   * Returns the number of postings of a field.
+   */
+  public static long numPostings(IndexReader reader, String field) throws IOException {
+    Terms terms = MultiTerms.getTerms(reader, field);
+    return terms == null ? 0 : terms.getSumDocFreq();
+  }
+
+  /**
+   * Returns the total size of the files in a directory.
+   */
+  public static long sizeInBytes(Directory dir) throws IOException {
+    long size = 0;
+    for (String file : dir.listAll()) {
+      size += dir.fileLength(file);
+    }
+    return size;
+  }
+
+  // Runs every query twice, once to warm up, and returns the latencies of the second run in microseconds, sorted.
+  private static long[] latencies(IndexReader reader, List<Query> queries, int hits) throws IOException {
+    IndexSearcher searcher = new IndexSearcher(reader);
+    for (Query query : queries) {
+      searcher.search(query, hits);
+    }
+    long[] latencies = new long[queries.size()];
+    for (int i = 0; i < latencies.length; i++) {
+      long start = System.nanoTime();
+      searcher.search(queries.get(i), hits);
+      latencies[i] = (System.nanoTime() - start) / 1000;
+    }
+    Arrays.sort(latencies);
+    return latencies;
+  }
+
+  private static String formatLatencies(long[] latencies) {
+    if (latencies.length == 0) {
+      return "no queries";
+    }
+    double sum = 0;
+    for (long latency : latencies) {
+      sum += latency;
+    }
+    int p99 = (int) Math.ceil(0.99 * latencies.length) - 1;
+    return String.format("mean %.2f ms, p50 %.2f ms, p99 %.2f ms", sum / latencies.length / 1000,
+        latencies[latencies.length / 2] / 1000.0, latencies[p99] / 1000.0);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K> List<Query> readQueries(Args args) throws Exception {
+    TopicReader<K> tr = (TopicReader<K>) Class.forName("io.anserini.search.topicreader." + args.topicReader + "TopicReader")
+        .getConstructor(Path.class).newInstance(Paths.get(args.topics));
+    SortedMap<K, Map<String, String>> topics = tr.read();
+
+    SLRQueryGenerator generator = new SLRQueryGenerator(args.slrModel, args.decimalPrecision);
+    List<Query> queries = new ArrayList<>();
+    for (Map<String, String> topic : topics.values()) {
+      SparseVector vector = generator.buildVector(topic.get(args.topicField));
+      queries.add(new SparseDotProductQuery(args.field, vector));
+    }
+    return queries;
+  }
+
+  public static void main(String[] argv) throws Exception {
+    Args args = new Args();
+    CmdLineParser parser = new CmdLineParser(args, ParserProperties.defaults().withUsageWidth(100));
+
+    try {
+      parser.parseArgument(argv);
+    } catch (CmdLineException e) {
+      System.err.println(e.getMessage());
+      parser.printUsage(System.err);
+      System.err.println(String.format("Example: %s %s",
+          SLRIndexPruner.class.getSimpleName(), parser.printExample(OptionHandlerFilter.REQUIRED)));
+      return;
+    }
+    if (args.dimTopK == 0 && args.threshold <= 0 && args.docTopN == 0) {
+      System.err.println("At least one of -dimTopK, -threshold and -docTopN must be set");
+      parser.printUsage(System.err);
+      return;
+    }
+
+    SLRIndexPruner pruner = new SLRIndexPruner(args.field, args.dimTopK,
+        minFreq(args.threshold, args.decimalPrecision), args.docTopN);
+    List<Query> queries = args.topics == null ? null : readQueries(args);
+    SLREncoder.closeShared();
+
+    try (Directory inputDir = FSDirectory.open(Paths.get(args.input));
+         Directory outputDir = FSDirectory.open(Paths.get(args.output));
+         IndexReader reader = DirectoryReader.open(inputDir)) {
+      final long start = System.nanoTime();
+      pruner.prune(reader, outputDir);
+      LOG.info(String.format("Pruned %s into %s in %.1f s", args.input, args.output, (System.nanoTime() - start) / 1e9));
+
+      try (IndexReader prunedReader = DirectoryReader.open(outputDir)) {
+        long postingsBefore = numPostings(reader, args.field);
+        long postingsAfter = numPostings(prunedReader, args.field);
+        LOG.info(String.format("Postings: %,d -> %,d (%,d removed, %.1f%%)", postingsBefore, postingsAfter,
+            postingsBefore - postingsAfter, 100.0 * (postingsBefore - postingsAfter) / Math.max(1, postingsBefore)));
+        long bytesBefore = sizeInBytes(inputDir);
+        long bytesAfter = sizeInBytes(outputDir);
+        LOG.info(String.format("Size: %,d -> %,d bytes (%,d saved, %.1f%%)", bytesBefore, bytesAfter,
+            bytesBefore - bytesAfter, 100.0 * (bytesBefore - bytesAfter) / Math.max(1, bytesBefore)));
+
+        if (queries != null) {
+          LOG.info(String.format("Latency over %d queries before pruning: %s", queries.size(),
+              formatLatencies(latencies(reader, queries, args.hits))));
+          LOG.info(String.format("Latency over %d queries after pruning: %s", queries.size(),
+              formatLatencies(latencies(prunedReader, queries, args.hits))));
+        }
+      }
+    }
+  }
+}
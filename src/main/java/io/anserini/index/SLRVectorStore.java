@@ -0,0 +1,488 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.anserini.search.latent.SparseVector;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.OptionHandlerFilter;
+import org.kohsuke.args4j.ParserProperties;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Read-only, memory-mapped store of precomputed sparse latent representations, keyed by collection docid. Lookups
+ * only use absolute reads on the mapped buffers, so a single store can be shared by all indexing threads.
+ *
+ * <p>File layout (little-endian):</p>
+ * <pre>
+ * header:  int magic, int version, int valueBits, float scale, long numDocs, long tableOffset, long numBuckets
+ * entries: int docidLength, docid (UTF-8), int nnz, nnz dimension ids (int), nnz values
+ * table:   numBuckets entry offsets (long, -1 if empty), open addressing with linear probing on the docid hash
+ * </pre>
+ *
+ * <p>Values are stored as floats ({@code valueBits = 32}) or quantized to unsigned 8 or 16 bit integers, in which
+ * case the stored value is multiplied by {@code scale}. The file is mapped in chunks of 1 GB; entries never cross a
+ * chunk boundary.</p>
+ *
+ * <p>The {@link #main(String[])} method converts the TSV files produced by {@code python/create_dummy_slr_file.py}
+ * (docid followed by tab separated dense values) and the JSON files produced by {@code python/slr_tsv_to_json.py}
+ * (documents with an {@code id} and dense {@code contents}) into a store.</p>
+ */
+public final class SLRVectorStore implements Closeable {
+  private static final Logger LOG = LogManager.getLogger(SLRVectorStore.class);
+
+  private static final int MAGIC = 0x534C5256; // "SLRV"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 40;
+  private static final int CHUNK_BITS = 30;
+  private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+  private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+  // Stores are shared by path so that all indexer threads (each with their own generator) map the file only once.
+  private static final Map<Path, SLRVectorStore> SHARED = new HashMap<>();
+
+  private final FileChannel channel;
+  private final MappedByteBuffer[] chunks;
+  private final int valueBits;
+  private final float scale;
+  private final long numDocs;
+  private final long tableOffset;
+  private final long bucketMask;
+
+  public static class Args {
+    @Option(name = "-input", metaVar = "[path]", required = true,
+        usage = "TSV or JSON file, or directory of such files, with precomputed dense representations")
+    public String input;
+
+    @Option(name = "-output", metaVar = "[file]", required = true, usage = "output store")
+    public String output;
+
+    @Option(name = "-format", metaVar = "[format]", usage = "input format: one of {tsv, json}; inferred from the file extension by default")
+    public String format = null;
+
+    @Option(name = "-valueBits", metaVar = "[bits]", usage = "bits per value: 32 (float), 16 or 8 (quantized)")
+    public int valueBits = 32;
+
+    @Option(name = "-maxValue", metaVar = "[value]", usage = "largest value representable after quantization; larger values are clamped")
+    public float maxValue = 1.0f;
+  }
+
+  private SLRVectorStore(Path path) throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.READ);
+    long size = channel.size();
+    int numChunks = (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+    chunks = new MappedByteBuffer[numChunks];
+    for (int i = 0; i < numChunks; i++) {
+      long start = (long) i << CHUNK_BITS;
+      chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start));
+      chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    if (size < HEADER_SIZE || getInt(0) != MAGIC) {
+      channel.close();
+      throw new IllegalArgumentException(String.format("%s is not an SLR vector store; convert it with %s",
+          path, SLRVectorStore.class.getSimpleName()));
+    }
+    if (getInt(4) != VERSION) {
+      channel.close();
+      throw new IllegalArgumentException("Unsupported SLR vector store version: " + getInt(4));
+    }
+    valueBits = getInt(8);
+    scale = chunks[0].getFloat(12);
+    numDocs = getLong(16);
+    tableOffset = getLong(24);
+    bucketMask = getLong(32) - 1;
+  }
+
+  /**
+   * Opens a store.
+   *
+   * @param path path to the store
+   * @return store
+   * @throws IOException if the file cannot be mapped
+   */
+  public static SLRVectorStore open(Path path) throws IOException {
+    return new SLRVectorStore(path);
+  }
+
+  /**
+   * Returns the store for the given path shared by all callers, opening it if needed.
+   *
+   * @param path path to the store
+   * @return shared store
+   * @throws IOException if the file cannot be mapped
+   */
+  public static synchronized SLRVectorStore shared(Path path) throws IOException {
+    Path key = path.toAbsolutePath().normalize();
+    SLRVectorStore store = SHARED.get(key);
+    if (store == null) {
+      store = new SLRVectorStore(key);
+      SHARED.put(key, store);
+    }
+    return store;
+  }
+
+  /**
+   * Returns the number of documents in this store.
+   */
+  public long size() {
+    return numDocs;
+  }
+
+  /**
+   * Looks up the representation of a document.
+   *
+   * @param docid collection docid
+   * @return representation, or null if the docid is not in the store
+   */
+  public SparseVector get(String docid) {
+    byte[] key = docid.getBytes(StandardCharsets.UTF_8);
+    long slot = hash(key) & bucketMask;
+    while (true) {
+      long entry = getLong(tableOffset + (slot << 3));
+      if (entry < 0) {
+        return null;
+      }
+      if (keyEquals(entry, key)) {
+        return readVector(entry + 4 + key.length);
+      }
+      slot = (slot + 1) & bucketMask;
+    }
+  }
+
+  private boolean keyEquals(long entry, byte[] key) {
+    ByteBuffer chunk = chunks[(int) (entry >>> CHUNK_BITS)];
+    int p = (int) (entry & CHUNK_MASK);
+    if (chunk.getInt(p) != key.length) {
+      return false;
+    }
+    p += 4;
+    for (int i = 0; i < key.length; i++) {
+      if (chunk.get(p + i) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private SparseVector readVector(long offset) {
+    ByteBuffer chunk = chunks[(int) (offset >>> CHUNK_BITS)];
+    int p = (int) (offset & CHUNK_MASK);
+    int nnz = chunk.getInt(p);
+    p += 4;
+
+    int[] dims = new int[nnz];
+    float[] values = new float[nnz];
+    for (int i = 0; i < nnz; i++, p += 4) {
+      dims[i] = chunk.getInt(p);
+    }
+    if (valueBits == 32) {
+      for (int i = 0; i < nnz; i++, p += 4) {
+        values[i] = chunk.getFloat(p);
+      }
+    } else if (valueBits == 16) {
+      for (int i = 0; i < nnz; i++, p += 2) {
+        values[i] = (chunk.getShort(p) & 0xFFFF) * scale;
+      }
+    } else {
+      for (int i = 0; i < nnz; i++, p++) {
+        values[i] = (chunk.get(p) & 0xFF) * scale;
+      }
+    }
+    return new SparseVector(dims, values);
+  }
+
+  private int getInt(long pos) {
+    return chunks[(int) (pos >>> CHUNK_BITS)].getInt((int) (pos & CHUNK_MASK));
+  }
+
+  private long getLong(long pos) {
+    return chunks[(int) (pos >>> CHUNK_BITS)].getLong((int) (pos & CHUNK_MASK));
+  }
+
+  // 64-bit FNV-1a
+  private static long hash(byte[] key) {
+    long h = 0xcbf29ce484222325L;
+    for (byte b : key) {
+      h ^= (b & 0xFF);
+      h *= 0x100000001b3L;
+    }
+    return h;
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (SLRVectorStore.class) {
+      SHARED.values().remove(this);
+    }
+    channel.close();
+  }
+
+  /**
+   * Writes a store. Documents are appended in the order they are added; the docid hash table is written on close.
+   */
+  public static final class Writer implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final int valueBits;
+    private final float maxValue;
+    private final float scale;
+    private final LongArrayList offsets = new LongArrayList();
+    private final LongArrayList hashes = new LongArrayList();
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    // File position of the start of the buffer.
+    private long bufferStart = HEADER_SIZE;
+    private long clamped = 0;
+
+    /**
+     * Creates a writer that stores values as floats.
+     *
+     * @param path output path
+     * @throws IOException if the file cannot be created
+     */
+    public Writer(Path path) throws IOException {
+      this(path, 32, 1.0f);
+    }
+
+    /**
+     * Creates a writer.
+     *
+     * @param path output path
+     * @param valueBits bits per value: 32 (float), 16 or 8 (quantized)
+     * @param maxValue largest value representable after quantization; ignored for floats
+     * @throws IOException if the file cannot be created
+     */
+    public Writer(Path path, int valueBits, float maxValue) throws IOException {
+      if (valueBits != 32 && valueBits != 16 && valueBits != 8) {
+        throw new IllegalArgumentException("valueBits must be one of 32, 16 or 8");
+      }
+      this.valueBits = valueBits;
+      this.maxValue = maxValue;
+      this.scale = valueBits == 32 ? 1.0f : maxValue / ((1 << valueBits) - 1);
+      this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Adds the representation of a document.
+     *
+     * @param docid collection docid
+     * @param vector representation
+     * @throws IOException if writing fails
+     */
+    public void add(String docid, SparseVector vector) throws IOException {
+      byte[] key = docid.getBytes(StandardCharsets.UTF_8);
+      int nnz = vector.size();
+      int length = 4 + key.length + 4 + nnz * 4 + nnz * (valueBits / 8);
+      if (length > CHUNK_SIZE) {
+        throw new IllegalArgumentException("Representation of " + docid + " is too large");
+      }
+
+      long pos = bufferStart + buffer.position();
+      // Entries must not cross a chunk boundary of the mapped file.
+      if ((pos >>> CHUNK_BITS) != ((pos + length - 1) >>> CHUNK_BITS)) {
+        flush();
+        bufferStart = ((pos >>> CHUNK_BITS) + 1) << CHUNK_BITS;
+        pos = bufferStart;
+      }
+      if (buffer.remaining() < length) {
+        flush();
+        if (buffer.capacity() < length) {
+          buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+      }
+
+      buffer.putInt(key.length);
+      buffer.put(key);
+      buffer.putInt(nnz);
+      for (int i = 0; i < nnz; i++) {
+        buffer.putInt(vector.dim(i));
+      }
+      for (int i = 0; i < nnz; i++) {
+        putValue(vector.value(i));
+      }
+
+      offsets.add(pos);
+      hashes.add(hash(key));
+    }
+
+    private void putValue(float value) {
+      if (valueBits == 32) {
+        buffer.putFloat(value);
+        return;
+      }
+      if (value < 0 || value > maxValue) {
+        clamped++;
+        value = Math.max(0, Math.min(maxValue, value));
+      }
+      int q = Math.round(value / scale);
+      if (valueBits == 16) {
+        buffer.putShort((short) q);
+      } else {
+        buffer.put((byte) q);
+      }
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      long pos = bufferStart;
+      while (buffer.hasRemaining()) {
+        pos += channel.write(buffer, pos);
+      }
+      bufferStart = pos;
+      buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+
+      int numDocs = offsets.size();
+      long numBuckets = 16;
+      while (numBuckets < 2L * numDocs) {
+        numBuckets <<= 1;
+      }
+      long[] table = new long[(int) numBuckets];
+      Arrays.fill(table, -1L);
+      for (int i = 0; i < numDocs; i++) {
+        int slot = (int) (hashes.getLong(i) & (numBuckets - 1));
+        while (table[slot] >= 0) {
+          slot = (int) ((slot + 1) & (numBuckets - 1));
+        }
+        table[slot] = offsets.getLong(i);
+      }
+
+      // The table is 8-byte aligned, so that no slot crosses a chunk boundary.
+      long tableOffset = (bufferStart + 7) & ~7L;
+      bufferStart = tableOffset;
+      for (long offset : table) {
+        if (buffer.remaining() < Long.BYTES) {
+          flush();
+        }
+        buffer.putLong(offset);
+      }
+      flush();
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(VERSION).putInt(valueBits).putFloat(scale)
+          .putLong(numDocs).putLong(tableOffset).putLong(numBuckets);
+      header.flip();
+      long pos = 0;
+      while (header.hasRemaining()) {
+        pos += channel.write(header, pos);
+      }
+      channel.close();
+
+      if (clamped > 0) {
+        LOG.warn(String.format("%,d values outside [0, %s] were clamped during quantization", clamped, maxValue));
+      }
+    }
+  }
+
+  private static long convertTsv(Path file, Writer writer) throws IOException {
+    long cnt = 0;
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        int tab = line.indexOf('\t');
+        writer.add(line.substring(0, tab), SparseVector.parseDense(line.substring(tab + 1)));
+        cnt++;
+      }
+    }
+    return cnt;
+  }
+
+  private static long convertJson(Path file, Writer writer) throws IOException {
+    long cnt = 0;
+    // Handles both a top-level array of documents and a sequence of (line-delimited) documents.
+    try (MappingIterator<JsonNode> it = new ObjectMapper().readerFor(JsonNode.class).readValues(file.toFile())) {
+      while (it.hasNext()) {
+        JsonNode doc = it.next();
+        writer.add(doc.get("id").asText(), SparseVector.parseDense(doc.get("contents").asText()));
+        cnt++;
+      }
+    }
+    return cnt;
+  }
+
+  public static void main(String[] argv) throws Exception {
+    Args args = new Args();
+    CmdLineParser parser = new CmdLineParser(args, ParserProperties.defaults().withUsageWidth(100));
+
+    try {
+      parser.parseArgument(argv);
+    } catch (CmdLineException e) {
+      System.err.println(e.getMessage());
+      parser.printUsage(System.err);
+      System.err.println(String.format("Example: %s %s",
+          SLRVectorStore.class.getSimpleName(), parser.printExample(OptionHandlerFilter.REQUIRED)));
+      return;
+    }
+
+    Path input = Paths.get(args.input);
+    List<Path> files = new ArrayList<>();
+    if (Files.isDirectory(input)) {
+      try (Stream<Path> stream = Files.list(input)) {
+        files.addAll(stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList()));
+      }
+    } else {
+      files.add(input);
+    }
+
+    final long start = System.nanoTime();
+    long cnt = 0;
+    try (Writer writer = new Writer(Paths.get(args.output), args.valueBits, args.maxValue)) {
+      for (Path file : files) {
+        String format = args.format != null ? args.format :
+            (file.getFileName().toString().endsWith(".json") ? "json" : "tsv");
+        cnt += format.equals("json") ? convertJson(file, writer) : convertTsv(file, writer);
+        LOG.info(String.format("%s: %,d documents converted so far", file.getFileName(), cnt));
+      }
+    }
+    LOG.info(String.format("Wrote %,d documents to %s in %.1f s", cnt, args.output, (System.nanoTime() - start) / 1e9));
+  }
+}
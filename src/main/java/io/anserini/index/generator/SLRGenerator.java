@@ -16,10 +16,16 @@
 
  package io.anserini.index.generator;
 
+ import io.anserini.analysis.SLRTokenStream;
  import io.anserini.collection.InvalidContentsException;
  import io.anserini.collection.MultifieldSourceDocument;
  import io.anserini.collection.SourceDocument;
  import io.anserini.index.IndexArgs;
+ import io.anserini.index.SLRVectorStore;
+ import io.anserini.search.latent.SLREncoder;
+ import io.anserini.search.latent.SparseVector;
+ import io.anserini.search.latent.SparseVectorDocValues;
+ import org.apache.lucene.document.BinaryDocValuesField;
  import org.apache.lucene.document.Document;
  import org.apache.lucene.document.Field;
  import org.apache.lucene.document.FieldType;
@@ -36,9 +42,8 @@
 
 import java.util.HashMap;
 import java.util.Map;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.file.Paths;
 import java.lang.Math;
 import java.util.Arrays;
 
@@ -46,9 +51,6 @@ import java.util.Arrays;
 // import org.pytorch.IValue;
 // import org.pytorch.Module;
 
-import java.io.File;  
-import java.util.Scanner; 
-
 /**
  * Converts a {@link SourceDocument} into a Lucene {@link Document}, ready to be indexed.
  *
@@ -57,12 +59,10 @@ import java.util.Scanner;
 public class SLRGenerator<T extends SourceDocument> implements LuceneDocumentGenerator<T> {
   protected IndexArgs args;
   private static final Logger LOG = LogManager.getLogger(SLRGenerator.class);
-  private Map<String, String> slrMap;
-  private File slrFile;
-  private Scanner slrFileScanner;
-  private String[] currentFileLine;
-  private int currentLineNr;
+  private SLRTokenStream tokenStream;
+  private SLRVectorStore slrStore;
   private boolean usingModel = false, usingFile = false, usingContents = false;
+  private SLREncoder encoder;
 
   protected SLRGenerator() {
   }
@@ -77,23 +77,19 @@ public class SLRGenerator<T extends SourceDocument> implements LuceneDocumentGen
     //   throw new Exception("The SLR generator needs a python model or a representation file!");
     
     this.args = args;
-    slrMap = new HashMap<String, String>(100);
+    // Each indexer thread has its own generator, so the token stream can be reused across documents.
+    tokenStream = new SLRTokenStream(args.slrIndexDecimals);
 
     if(args.slrFilePath != "") { // Reading slr's from file
       LOG.info("Reading representations from: " + args.slrFilePath);
       usingFile = true;
-
-      slrFile = new File(args.slrFilePath);
-      currentLineNr = 0;
-      try {
-        slrFileScanner = new Scanner(slrFile);
-      } catch(Exception e) {
-        LOG.error("Could not read the slr file!");
-      }
+      // All indexer threads share the same memory-mapped store.
+      slrStore = SLRVectorStore.shared(Paths.get(args.slrFilePath));
     } else if(args.slrModel != "") { // Using python model to compute slr
       LOG.info("Using python model: " + args.slrModel);
       usingModel = true;
-      // slrModel = Module.load(args.slrModel);
+      // All indexer threads share the same pool of encoder processes.
+      encoder = SLREncoder.shared(args.slrModel, args.slrWorkers, args.slrBatchSize);
     } else {
       LOG.info("Reading representations from contents.");
       usingContents = true;
@@ -101,90 +97,28 @@ public class SLRGenerator<T extends SourceDocument> implements LuceneDocumentGen
     
   }
 
-  private String normalizeFloatFormat(String input) {
-    Integer indexOfE = -1;
-    try {
-      indexOfE = input.indexOf("e");
-    } catch(Exception e) { LOG.info(input + " has no e"); }
-
-    if(indexOfE == -1) {
-      return input;
-    }
-    String valString = input.substring(0, indexOfE).replaceAll("\\.", "");
-    Integer exponent = Integer.parseInt(input.substring(indexOfE + 1, indexOfE + 4)) * -1;
-    String zeros = "";
-    for(int i = 0; i < exponent - 1; i++) { zeros += "0"; }
-    return "0." + zeros + valString;
-  } 
-
-  private void getSLRFromContent(String content){
-    slrMap.clear();
-    String[] splitValues = content.split("\\s");
-    for(int i = 0; i < splitValues.length; i++) {
-      if(splitValues[i] != null && !splitValues[i].isEmpty() && splitValues[i] != "\n") {
-        try {
-          if(Float.parseFloat(splitValues[i]) != 0) {
-            String mapValue = normalizeFloatFormat(splitValues[i]);
-            slrMap.put(Integer.toString(i), mapValue);
-          }
-        } catch(Exception e) { }
-      }  
-    }
-}
-
-  private void getSLRFromFile(String docID){
-    slrMap.clear();
-    currentLineNr = 0;
-    while(slrFileScanner.hasNextLine()) {
-      currentFileLine = slrFileScanner.nextLine().split("\\t");
-
-      if(currentFileLine[0].equals(docID)) {
-
-        for(int i = 1; i < currentFileLine.length; i++) {
-          LOG.info(currentFileLine[i]);
-          if(Float.parseFloat(currentFileLine[i]) != 0)
-            slrMap.put(Integer.toString(i-1), currentFileLine[i]);
-        }
-        if(currentLineNr > 0)
-          LOG.info("Missed " + currentLineNr + "times");
-        break;
-      } else {
-        LOG.info("Miss: " + currentFileLine[0] + " != " + docID);
-      }
-      currentLineNr++;
-    }
+  private SparseVector getSLRFromContent(String content){
+    return SparseVector.parseDense(content);
   }
-  private void getSLRFromModel(String content) {
-    String output = null;
-    slrMap.clear();
-    try {
-
-      Process pythonModel = Runtime.getRuntime().exec("python3 " + args.slrModel + " -content " + content);
-      BufferedReader stdInput = new BufferedReader(new InputStreamReader(pythonModel.getInputStream()));
-      output = stdInput.readLine();
-      if(output == null)
-        throw new IOException("Model execution not succesfull");
-      String[] slr = output.replaceAll("[\\[(),\\]]", "").split(" ");
 
-      for(int i = 0; i < slr.length; i+=2) {
-        slrMap.put(slr[i], slr[i + 1]);
-      }
-
-    } catch (IOException e) {
-      LOG.error("Error while executing python module!");
+  private SparseVector getSLRFromFile(String docID){
+    SparseVector slr = slrStore.get(docID);
+    if(slr == null) {
+      LOG.warn("No representation found for " + docID);
+      return SparseVector.EMPTY;
     }
+    return slr;
   }
 
-  private String slrToContent() {
-    String rep = "";
-    for(Map.Entry<String, String> cursor : slrMap.entrySet()) {
-      rep += " " + cursor.getKey() + cursor.getValue();
+  private SparseVector getSLRFromModel(String content) {
+    try {
+      return encoder.encode(content);
+    } catch (IOException e) {
+      LOG.error("Error while encoding document with python model!", e);
+      return SparseVector.EMPTY;
     }
-    return rep;
   }
 
-
-
   @Override
   public Document createDocument(T src) throws GeneratorException {
     String id = src.id();
@@ -210,7 +144,8 @@ public class SLRGenerator<T extends SourceDocument> implements LuceneDocumentGen
     document.add(new SortedDocValuesField(IndexArgs.ID, new BytesRef(id)));
 
     FieldType fieldType = new FieldType();
-    fieldType.setStored(args.storeContents); // TODO what does this exactly!!
+    // Pre-analyzed (token stream) fields cannot be stored, the contents are stored separately below.
+    fieldType.setStored(args.storeContents && !args.slrIndex);
 
     // Are we storing document vectors?
     if (args.storeDocvectors) {
@@ -225,34 +160,34 @@ public class SLRGenerator<T extends SourceDocument> implements LuceneDocumentGen
       fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
     }
 
-    // double SLR[] = SparseLatentRepresentation(contents, 100, 0.9);
+    SparseVector slr = SparseVector.EMPTY;
     if(usingFile)
-      getSLRFromFile(id);
+      slr = getSLRFromFile(id);
     if(usingModel)
-      getSLRFromModel(contents);
+      slr = getSLRFromModel(contents);
     if(usingContents)
-      getSLRFromContent(contents);
-    
+      slr = getSLRFromContent(contents);
 
-    if (args.storeRaw || args.slrAppend) {
-      Map<String, String> dictionary = new HashMap<String, String>();
-
-      // Are we storing the sparse latent representation seperately?
-	    if (args.slrAppend) {
-      	dictionary.put("slr", slrMap.toString());
-      }
 
-      if (args.storeRaw) {
-        dictionary.put("raw", src.raw());
-      }
+    // Are we storing the sparse latent representation separately, as a forward index for rescoring?
+    if (args.slrAppend) {
+      document.add(new BinaryDocValuesField(IndexArgs.SLR_VECTOR, SparseVectorDocValues.encode(slr)));
+    }
 
+    if (args.storeRaw) {
+      Map<String, String> dictionary = new HashMap<String, String>();
+      dictionary.put("raw", src.raw());
       document.add(new StoredField(IndexArgs.RAW, dictionary.toString()));
     }
 
     // Are we making a neural or traditional index?
     if(args.slrIndex) {
-      String sparseRep = slrToContent();
-      document.add(new Field(IndexArgs.CONTENTS, sparseRep, fieldType));
+      // The vector is indexed directly: terms and term frequencies are set by the token stream, without building and
+      // re-tokenizing a text representation.
+      document.add(new Field(IndexArgs.CONTENTS, tokenStream.setVector(slr), fieldType));
+      if (args.storeContents) {
+        document.add(new StoredField(IndexArgs.CONTENTS, contents));
+      }
     } else {
       document.add(new Field(IndexArgs.CONTENTS, contents, fieldType));
     }
@@ -139,10 +139,11 @@ public class LookupFreebaseNodes implements Closeable {
     Result[] results = new Result[docs.documents.length];
     for (int i = 0; i < docs.documents.length; i++) {
       float score = docs.scores[i];
-      String mid = docs.documents[i].getField(IndexFreebase.FIELD_ID).stringValue();
-      String name = docs.documents[i].getField(IndexFreebase.FIELD_NAME).stringValue();
-      String wikiTitle = docs.documents[i].getField(IndexFreebase.FIELD_ALIAS).stringValue();
-      String w3Label = docs.documents[i].getField(IndexFreebase.FIELD_LABEL).stringValue();
+      Document doc = docs.document(i);
+      String mid = doc.getField(IndexFreebase.FIELD_ID).stringValue();
+      String name = doc.getField(IndexFreebase.FIELD_NAME).stringValue();
+      String wikiTitle = doc.getField(IndexFreebase.FIELD_ALIAS).stringValue();
+      String w3Label = doc.getField(IndexFreebase.FIELD_LABEL).stringValue();
       results[i] = new Result(mid, name, wikiTitle, w3Label, score);
     }
     return results;
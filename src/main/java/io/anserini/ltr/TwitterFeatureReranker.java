@@ -56,12 +56,12 @@ public class TwitterFeatureReranker implements Reranker<Integer> {
       }
 
       int qid = context.getQueryId();
-      String docid = docs.documents[i].getField(IndexArgs.ID).stringValue();
+      String docid = docs.docid(i);
 
       out.print(qrels.getRelevanceGrade(qid, docid));
       out.print(" qid:" + qid);
 
-      float[] intFeatures = this.extractors.extractAll(docs.documents[i], terms, context);
+      float[] intFeatures = this.extractors.extractAll(docs.document(i), terms, context);
 
       // TODO use model to rerank
     }
@@ -24,7 +24,6 @@ import io.anserini.rerank.ScoredDocuments;
 import io.anserini.util.Qrels;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Terms;
 
@@ -54,15 +53,14 @@ public class WebCollectionLtrDataGenerator implements Reranker<Integer> {
 
   @Override
   public ScoredDocuments rerank(ScoredDocuments docs, RerankerContext<Integer> context) {
-    Document[] documents = docs.documents;
     IndexReader reader = context.getIndexSearcher().getIndexReader();
     int qid = context.getQueryId();
     LOG.info("Beginning rerank");
     for (int i =0; i < docs.documents.length; i++ ) {
       try {
         Terms terms = reader.getTermVector(docs.ids[i], IndexArgs.CONTENTS);
-        float[] features = this.extractorChain.extractAll(documents[i], terms, context);
-        String docId = documents[i].get(IndexArgs.ID);
+        float[] features = this.extractorChain.extractAll(docs.document(i), terms, context);
+        String docId = docs.docid(i);
         // QREL 0 in this case, will be assigned if needed later
         //qid
         BaseFeatureExtractor.writeFeatureVector(out, qid, this.qrels.getRelevanceGrade(qid, docId), docId,  features);
@@ -19,4 +19,14 @@ package io.anserini.rerank;
 public interface Reranker<T> {
   ScoredDocuments rerank(ScoredDocuments docs, RerankerContext<T> context);
   String tag();
+
+  /**
+   * Returns whether one instance may rerank several queries at the same time, from different threads. Cascades with a
+   * reranker that is not thread-safe rerank one query at a time, see {@link RerankerCascade#run}.
+   *
+   * @return whether this reranker is thread-safe
+   */
+  default boolean isThreadSafe() {
+    return false;
+  }
 }
@@ -50,14 +50,36 @@ public class RerankerCascade {
   }
 
   /**
-   * Runs this cascade.
+   * Returns whether all rerankers of this cascade are thread-safe, see {@link Reranker#isThreadSafe()}.
+   */
+  public boolean isThreadSafe() {
+    for (Reranker reranker : rerankers) {
+      if (!reranker.isThreadSafe()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Runs this cascade. Queries may be reranked from several threads at the same time; if a reranker of the cascade is
+   * not thread-safe, they are reranked one at a time.
    *
    * @param docs input documents
    * @param context reranker context
    * @return reranked results
    */
-  @SuppressWarnings("unchecked")
   public ScoredDocuments run(ScoredDocuments docs, RerankerContext context) {
+    if (isThreadSafe()) {
+      return apply(docs, context);
+    }
+    synchronized (this) {
+      return apply(docs, context);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private ScoredDocuments apply(ScoredDocuments docs, RerankerContext context) {
     ScoredDocuments results = docs;
 
     for (Reranker reranker : rerankers) {
@@ -32,6 +32,10 @@ public class RerankerContext<K> {
   private final List<String> queryTokens;
   private final Query filter;
   private final SearchArgs searchArgs;
+  // Shared by all rerankers that use this context, see TermVectorCache.
+  private TermVectorCache termVectors;
+  // Times of the stages of the query, if they are recorded.
+  private volatile StageTimes stageTimes;
 
   public RerankerContext(IndexSearcher searcher, K queryId, Query query, String queryDocId, String queryText,
       List<String> queryTokens, Query filter, SearchArgs searchArgs) throws IOException {
@@ -76,4 +80,46 @@ public class RerankerContext<K> {
   public SearchArgs getSearchArgs() {
     return searchArgs;
   }
+
+  /**
+   * Shares a cache of term vectors across contexts, e.g., with all the queries of a run. Without one, a context has a
+   * cache of its own.
+   *
+   * @param termVectors cache of term vectors
+   */
+  public synchronized void setTermVectors(TermVectorCache termVectors) {
+    this.termVectors = termVectors;
+  }
+
+  public synchronized TermVectorCache getTermVectors() {
+    if (termVectors == null) {
+      termVectors = new TermVectorCache(searcher.getIndexReader());
+    }
+    return termVectors;
+  }
+
+  /**
+   * Records the times of the stages of reranking (see {@link #recordStage}) in the given times.
+   *
+   * @param stageTimes times of the stages, or null to not record them
+   */
+  public void setStageTimes(StageTimes stageTimes) {
+    this.stageTimes = stageTimes;
+  }
+
+  /**
+   * Records the time of a stage that started at the given time, if stages are recorded (see {@link #setStageTimes}).
+   *
+   * @param stage stage
+   * @param start start of the stage, from {@link System#nanoTime()}
+   * @return end of the stage, i.e., the start of the next one
+   */
+  public long recordStage(StageTimes.Stage stage, long start) {
+    long end = System.nanoTime();
+    StageTimes times = stageTimes;
+    if (times != null) {
+      times.record(stage, end - start);
+    }
+    return end;
+  }
 }
@@ -21,6 +21,9 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.util.BytesRef;
@@ -30,35 +33,175 @@ import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 /**
- * ScoredDocuments object that converts TopDocs from the searcher into an Anserini format
+ * ScoredDocuments object that converts TopDocs from the searcher into an Anserini format.
+ *
+ * <p>Results of a Lucene search only hold the Lucene docids: the collection docids are read on first use from the
+ * {@link IndexArgs#ID} sorted doc values (see {@link #docid(int)}), and the stored documents are only loaded for
+ * rerankers that ask for them (see {@link #document(int)}). Entries of {@link #documents} that were not loaded yet are
+ * null.</p>
  */
 public class ScoredDocuments {
-  // Array of document objects
+  // Array of document objects, loaded on demand
   public Document[] documents;
   // The docIds as used by the index reader
   public int[] ids;
   // Scores returned from the searcher's similarity
   public float[] scores;
-  
-  public static ScoredDocuments fromTopDocs(TopDocs rs, IndexSearcher searcher) {
+  // Collection docids, resolved on demand
+  private String[] docids;
+  private boolean docValuesRead = false;
+  // Reader the documents are loaded from, null if all documents are given
+  private IndexReader reader;
+
+  /**
+   * Creates empty results of a given size, whose documents are loaded from a reader on demand. The hits are filled in
+   * with {@link #set(int, ScoredDocuments, int)}.
+   *
+   * @param size number of hits
+   * @param reader index reader of the hits
+   * @return results with room for size hits
+   */
+  public static ScoredDocuments ofSize(int size, IndexReader reader) {
     ScoredDocuments scoredDocs = new ScoredDocuments();
-    scoredDocs.documents = new Document[rs.scoreDocs.length];
-    scoredDocs.ids = new int[rs.scoreDocs.length];
-    scoredDocs.scores = new float[rs.scoreDocs.length];
+    scoredDocs.documents = new Document[size];
+    scoredDocs.ids = new int[size];
+    scoredDocs.scores = new float[size];
+    scoredDocs.reader = reader;
+    return scoredDocs;
+  }
+
+  public static ScoredDocuments fromTopDocs(TopDocs rs, IndexSearcher searcher) {
+    ScoredDocuments scoredDocs = ofSize(rs.scoreDocs.length, searcher.getIndexReader());
 
     for (int i=0; i<rs.scoreDocs.length; i++) {
+      scoredDocs.scores[i] = rs.scoreDocs[i].score;
+      scoredDocs.ids[i] = rs.scoreDocs[i].doc;
+    }
+
+    return scoredDocs;
+  }
+
+  /**
+   * Copies a hit of other results (of the same reader) into these results.
+   *
+   * @param index position in these results
+   * @param from results to copy from
+   * @param fromIndex position in the results to copy from
+   */
+  public void set(int index, ScoredDocuments from, int fromIndex) {
+    documents[index] = from.documents[fromIndex];
+    ids[index] = from.ids[fromIndex];
+    scores[index] = from.scores[fromIndex];
+    if (from.docids != null && from.docids[fromIndex] != null) {
+      if (docids == null) {
+        docids = new String[ids.length];
+      }
+      docids[index] = from.docids[fromIndex];
+    }
+    if (reader == null) {
+      reader = from.reader;
+    }
+  }
+
+  /**
+   * Returns the stored document of a hit, loading it if needed.
+   *
+   * @param i position of the hit
+   * @return stored document, or null if it cannot be loaded
+   */
+  public Document document(int i) {
+    if (documents[i] == null && reader != null) {
       try {
-        scoredDocs.documents[i] = searcher.doc(rs.scoreDocs[i].doc);
+        documents[i] = reader.document(ids[i]);
       } catch (IOException e) {
         e.printStackTrace();
-        scoredDocs.documents[i] = null;
       }
-      scoredDocs.scores[i] = rs.scoreDocs[i].score;
-      scoredDocs.ids[i] = rs.scoreDocs[i].doc;
     }
+    return documents[i];
+  }
+
+  /**
+   * Returns the collection docid of a hit. The docids of all hits are read from the sorted doc values of the
+   * {@link IndexArgs#ID} field the first time, in increasing Lucene docid order; hits without doc values fall back to
+   * the stored document.
+   *
+   * @param i position of the hit
+   * @return collection docid
+   */
+  public String docid(int i) {
+    if (docids == null) {
+      docids = new String[ids.length];
+    }
+    if (docids[i] == null) {
+      if (documents[i] == null && reader != null && !docValuesRead) {
+        docValuesRead = true;
+        try {
+          resolveDocids();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+      if (docids[i] == null) {
+        Document document = document(i);
+        docids[i] = document == null ? null : document.get(IndexArgs.ID);
+      }
+    }
+    return docids[i];
+  }
+
+  private void resolveDocids() throws IOException {
+    Integer[] order = new Integer[ids.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Integer.compare(ids[a], ids[b]));
 
+    List<LeafReaderContext> leaves = reader.leaves();
+    int leaf = -1;
+    int docBase = 0;
+    int end = 0;
+    SortedDocValues values = null;
+    int lastDoc = -1;
+    for (int i : order) {
+      if (docids[i] != null || documents[i] != null) {
+        continue;
+      }
+      int doc = ids[i];
+      while (doc >= end) {
+        LeafReaderContext context = leaves.get(++leaf);
+        docBase = context.docBase;
+        end = docBase + context.reader().maxDoc();
+        values = context.reader().getSortedDocValues(IndexArgs.ID);
+        lastDoc = -1;
+      }
+      // Doc values can only be advanced, a document that occurs twice falls back to the stored document.
+      if (doc - docBase > lastDoc) {
+        lastDoc = doc - docBase;
+        if (values != null && values.advanceExact(lastDoc)) {
+          docids[i] = values.lookupOrd(values.ordValue()).utf8ToString();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns a copy of these results that can be reranked (e.g., have its scores adjusted) without affecting the
+   * original. The documents themselves are shared.
+   *
+   * @return copy of these results
+   */
+  public ScoredDocuments copy() {
+    ScoredDocuments scoredDocs = new ScoredDocuments();
+    scoredDocs.documents = documents.clone();
+    scoredDocs.ids = ids.clone();
+    scoredDocs.scores = scores.clone();
+    scoredDocs.docids = docids == null ? null : docids.clone();
+    scoredDocs.docValuesRead = docValuesRead;
+    scoredDocs.reader = reader;
     return scoredDocs;
   }
 
@@ -0,0 +1,74 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.rerank;
+
+import io.anserini.search.LatencyStats;
+
+/**
+ * Wall-clock time of the stages of reranked queries, recorded through {@link RerankerContext#recordStage}: the
+ * first-stage retrieval once per query, and the other stages once per query and cascade. Thread-safe.
+ */
+public final class StageTimes {
+  public enum Stage {
+    FIRST_STAGE("first-stage retrieval"),
+    FEEDBACK("feedback estimation"),
+    SECOND_STAGE("second retrieval"),
+    TIES("tie adjustment");
+
+    private final String description;
+
+    Stage(String description) {
+      this.description = description;
+    }
+
+    @Override
+    public String toString() {
+      return description;
+    }
+  }
+
+  private final LatencyStats[] stats = new LatencyStats[Stage.values().length];
+
+  public StageTimes() {
+    for (int i = 0; i < stats.length; i++) {
+      stats[i] = new LatencyStats();
+    }
+  }
+
+  /**
+   * Records the time of a stage.
+   *
+   * @param stage stage
+   * @param nanos wall-clock time in nanoseconds
+   */
+  public void record(Stage stage, long nanos) {
+    stats[stage.ordinal()].record(nanos);
+  }
+
+  public LatencyStats get(Stage stage) {
+    return stats[stage.ordinal()];
+  }
+
+  /**
+   * Forgets all recorded times, e.g. those of warmup queries.
+   */
+  public void clear() {
+    for (LatencyStats stat : stats) {
+      stat.clear();
+    }
+  }
+}
@@ -0,0 +1,475 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.rerank;
+
+import io.anserini.index.IndexArgs;
+import io.anserini.util.FeatureVector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the term vectors of feedback documents across queries, so that a document that is a feedback document of many
+ * queries, and of all the cascades of a parameter sweep (e.g., of RM3), is read and filtered only once. A vector is
+ * held as parallel arrays of term ordinals and weights (frequencies in the document); ordinals are assigned by the
+ * cache as terms are first seen, together with their document frequencies, see {@link #term(int)} and
+ * {@link #docFreq(int)}.
+ *
+ * <p>The cache is bounded by the memory of its vectors and of its term dictionary, evicting the least recently used
+ * vectors, and is thread-safe: {@link io.anserini.search.SearchCollection} shares one cache with all the queries and
+ * cascades of a run, see {@link RerankerContext#setTermVectors(TermVectorCache)}. Ordinals cannot be evicted while
+ * vectors may refer to them, so once the dictionary has taken half of the memory, the owner of the cache replaces it
+ * by a new one between queries, see {@link #renew()}.</p>
+ */
+public class TermVectorCache {
+  /**
+   * Default bound on the memory of the cached vectors and their term dictionary, in bytes.
+   */
+  public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+  // Vectors are spread over segments by docid, each with its own lock and share of the memory.
+  private static final int SEGMENTS = 16;
+  // Approximate memory of a cached vector besides its arrays: key, vector, array headers and map entry.
+  private static final int ENTRY_BYTES = 160;
+  // Approximate memory of a term of the dictionary besides its text: key, string, term info, ordinal and map entry.
+  private static final int TERM_BYTES = 200;
+  // Marks the vectors that keep all the terms, instead of the feedback terms under a document frequency ratio.
+  private static final float ALL_TERMS = Float.NaN;
+
+  /**
+   * Terms of a document vector as ordinals of the cache, in increasing order, with their frequencies in the document.
+   *
+   * <p>Vectors also keep the orders in which the rerankers used to fill their hash-based sets and maps, since those
+   * orders decide how ties between equal weights are broken: {@link #indexOrder} and, for feedback vectors,
+   * {@link #ranks}.</p>
+   */
+  public static final class DocumentVector {
+    public final int[] terms;
+    public final float[] weights;
+    /**
+     * Entries in index order (the order of the terms in the term vector).
+     */
+    public final int[] indexOrder;
+    /**
+     * Position of every entry in the iteration order of a {@link FeatureVector} filled in index order, which is the
+     * order in which {@link FeatureVector#pruneToSize(int)} breaks ties; null for vectors with all terms.
+     */
+    public final int[] ranks;
+
+    DocumentVector(int[] terms, float[] weights, int[] indexOrder, int[] ranks) {
+      this.terms = terms;
+      this.weights = weights;
+      this.indexOrder = indexOrder;
+      this.ranks = ranks;
+    }
+
+    public int size() {
+      return terms.length;
+    }
+
+    long bytes() {
+      return ENTRY_BYTES + (ranks == null ? 12L : 16L) * terms.length;
+    }
+  }
+
+  private static final DocumentVector EMPTY = new DocumentVector(new int[0], new float[0], new int[0], new int[0]);
+
+  // Properties of a term, by ordinal.
+  private static final class TermInfo {
+    final String term;
+    final int df;
+    final boolean feedback;
+
+    TermInfo(String term, int df) {
+      this.term = term;
+      this.df = df;
+      this.feedback = isFeedbackTerm(term);
+    }
+  }
+
+  private static final class Key {
+    final int docid;
+    final String field;
+    final float maxDfRatio;
+
+    Key(int docid, String field, float maxDfRatio) {
+      this.docid = docid;
+      this.field = field;
+      this.maxDfRatio = maxDfRatio;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return docid == other.docid && field.equals(other.field) &&
+          Float.floatToIntBits(maxDfRatio) == Float.floatToIntBits(other.maxDfRatio);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * docid + field.hashCode()) + Float.floatToIntBits(maxDfRatio);
+    }
+  }
+
+  // Vectors in access order, evicted when their memory exceeds the share of the segment.
+  private static final class Segment extends LinkedHashMap<Key, DocumentVector> {
+    long bytes = 0;
+
+    Segment() {
+      super(16, 0.75f, true);
+    }
+  }
+
+  private final IndexReader reader;
+  private final int numDocs;
+  private final long maxBytes;
+  private final Segment[] segments = new Segment[SEGMENTS];
+
+  private final Map<BytesRef, Integer> ordinals = new ConcurrentHashMap<>();
+  // Written under the lock of ordinals before the ordinal is published, so that a thread that reads an ordinal from
+  // the map also sees its term.
+  private volatile TermInfo[] terms = new TermInfo[1024];
+  private int numTerms = 0;
+  // Written under the lock of ordinals; the vectors share the memory that the dictionary leaves.
+  private volatile long dictionaryBytes = 0;
+
+  // Counted across the renewals of the cache.
+  private final AtomicLong hits;
+  private final AtomicLong misses;
+  private final AtomicLong evictions;
+  private final AtomicLong renewals;
+
+  public TermVectorCache(IndexReader reader) {
+    this(reader, DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * Creates a cache.
+   *
+   * @param reader index reader
+   * @param maxBytes bound on the memory of the cached vectors and the term dictionary, in bytes
+   */
+  public TermVectorCache(IndexReader reader, long maxBytes) {
+    this(reader, maxBytes, new AtomicLong(), new AtomicLong(), new AtomicLong(), new AtomicLong());
+  }
+
+  private TermVectorCache(IndexReader reader, long maxBytes, AtomicLong hits, AtomicLong misses, AtomicLong evictions,
+                          AtomicLong renewals) {
+    this.reader = reader;
+    this.numDocs = reader.numDocs();
+    this.maxBytes = maxBytes;
+    this.hits = hits;
+    this.misses = misses;
+    this.evictions = evictions;
+    this.renewals = renewals;
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment();
+    }
+  }
+
+  /**
+   * Returns this cache, or a new, empty cache with the same reader and bound once the term dictionary of this cache
+   * has taken half of its memory. Vectors and ordinals of a cache remain valid for as long as the cache is used, so
+   * owners renew their cache between queries: the queries that still use this cache keep it until they are done, after
+   * which its vectors and dictionary are released. The new cache continues the lookup statistics of this one.
+   *
+   * @return this cache, or a new one
+   */
+  public TermVectorCache renew() {
+    if (dictionaryBytes <= maxBytes / 2) {
+      return this;
+    }
+    renewals.incrementAndGet();
+    return new TermVectorCache(reader, maxBytes, hits, misses, evictions, renewals);
+  }
+
+  /**
+   * Returns the term vector of a document with all its terms; documents without a term vector have no terms.
+   *
+   * @param docid Lucene internal docid
+   * @param field field of the term vector
+   * @return terms of the document with their frequencies
+   * @throws IOException if reading the term vector fails
+   */
+  public DocumentVector termVector(int docid, String field) throws IOException {
+    return get(new Key(docid, field, ALL_TERMS));
+  }
+
+  /**
+   * Returns the term vector of a document with only its feedback terms (see {@link #isFeedbackTerm(String)}) that are
+   * in at most a ratio of the documents of the index.
+   *
+   * @param docid Lucene internal docid
+   * @param field field of the term vector
+   * @param maxDfRatio largest ratio of documents that contain a kept term
+   * @return feedback terms of the document with their frequencies
+   * @throws IOException if reading the term vector fails
+   */
+  public DocumentVector feedbackVector(int docid, String field, float maxDfRatio) throws IOException {
+    return get(new Key(docid, field, maxDfRatio));
+  }
+
+  /**
+   * Returns the term of an ordinal.
+   *
+   * @param ordinal ordinal of the term
+   * @return term
+   */
+  public String term(int ordinal) {
+    return terms[ordinal].term;
+  }
+
+  /**
+   * Returns the document frequency of a term in the {@link IndexArgs#CONTENTS} field.
+   *
+   * @param ordinal ordinal of the term
+   * @return number of documents that contain the term
+   */
+  public int docFreq(int ordinal) {
+    return terms[ordinal].df;
+  }
+
+  /**
+   * Returns whether a term is a feedback term, see {@link #isFeedbackTerm(String)}.
+   *
+   * @param ordinal ordinal of the term
+   * @return whether the term is a feedback term
+   */
+  public boolean isFeedbackTerm(int ordinal) {
+    return terms[ordinal].feedback;
+  }
+
+  /**
+   * Returns the ordinal of a term of the vectors read by the cache. Other terms, e.g. query terms that are in none of
+   * the feedback documents, do not get an ordinal: the dictionary only holds the terms of the vectors.
+   *
+   * @param term term
+   * @return ordinal of the term, or -1 if no vector read by the cache has the term
+   */
+  public int ordinal(String term) {
+    Integer ord = ordinals.get(new BytesRef(term));
+    return ord == null ? -1 : ord;
+  }
+
+  /**
+   * Returns whether a term can be a feedback term: between 2 and 20 characters, all ASCII lowercase letters or digits.
+   *
+   * @param term term
+   * @return whether the term can be a feedback term
+   */
+  public static boolean isFeedbackTerm(String term) {
+    if (term.length() < 2 || term.length() > 20) {
+      return false;
+    }
+    for (int i = 0; i < term.length(); i++) {
+      char c = term.charAt(i);
+      if (!(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of lookups that found their vector in the cache.
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Returns the number of lookups that had to read their vector.
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Returns the number of vectors evicted to stay within the memory bound.
+   */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * Returns the number of times the cache was replaced by a new one because of the size of its dictionary.
+   */
+  public long getRenewals() {
+    return renewals.get();
+  }
+
+  /**
+   * Returns the fraction of lookups that found their vector in the cache.
+   */
+  public double getHitRate() {
+    long lookups = hits.get() + misses.get();
+    return lookups == 0 ? 0.0 : (double) hits.get() / lookups;
+  }
+
+  @Override
+  public String toString() {
+    long vectors = 0;
+    long bytes = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        vectors += segment.size();
+        bytes += segment.bytes;
+      }
+    }
+    return String.format("%d lookups, %.1f%% hits, %d vectors cached (%.1f MB), %d evicted, %d terms (%.1f MB) of " +
+        "%.1f MB, %d renewals", hits.get() + misses.get(), 100.0 * getHitRate(), vectors, bytes / 1e6, evictions.get(),
+        numTerms(), dictionaryBytes / 1e6, maxBytes / 1e6, renewals.get());
+  }
+
+  private int numTerms() {
+    synchronized (ordinals) {
+      return numTerms;
+    }
+  }
+
+  private DocumentVector get(Key key) throws IOException {
+    Segment segment = segments[(key.docid & Integer.MAX_VALUE) % SEGMENTS];
+    synchronized (segment) {
+      DocumentVector vector = segment.get(key);
+      if (vector != null) {
+        hits.incrementAndGet();
+        return vector;
+      }
+    }
+    misses.incrementAndGet();
+    // Read outside the lock; threads that miss the same vector at once read it each, and the last one is kept.
+    DocumentVector vector = read(key);
+    // Share of the segment in the memory that the dictionary leaves.
+    long maxSegmentBytes = Math.max(0, maxBytes - dictionaryBytes) / SEGMENTS;
+    synchronized (segment) {
+      DocumentVector previous = segment.put(key, vector);
+      segment.bytes += vector.bytes() - (previous == null ? 0 : previous.bytes());
+      Iterator<DocumentVector> eldest = segment.values().iterator();
+      while (segment.bytes > maxSegmentBytes && eldest.hasNext()) {
+        DocumentVector evicted = eldest.next();
+        if (evicted == vector) {
+          break;
+        }
+        segment.bytes -= evicted.bytes();
+        eldest.remove();
+        evictions.incrementAndGet();
+      }
+    }
+    return vector;
+  }
+
+  private DocumentVector read(Key key) throws IOException {
+    Terms vector = reader.getTermVector(key.docid, key.field);
+    if (vector == null) {
+      return EMPTY;
+    }
+    boolean all = Float.isNaN(key.maxDfRatio);
+    int[] ords = new int[vector.size() > 0 ? (int) vector.size() : 16];
+    float[] weights = new float[ords.length];
+    int n = 0;
+    TermsEnum termsEnum = vector.iterator();
+    BytesRef text;
+    while ((text = termsEnum.next()) != null) {
+      int ord = ordinal(text);
+      if (!all) {
+        TermInfo info = terms[ord];
+        if (!info.feedback || (float) info.df / numDocs > key.maxDfRatio) {
+          continue;
+        }
+      }
+      if (n == ords.length) {
+        ords = Arrays.copyOf(ords, n * 2);
+        weights = Arrays.copyOf(weights, n * 2);
+      }
+      ords[n] = ord;
+      weights[n] = (float) termsEnum.totalTermFreq();
+      n++;
+    }
+    // Sorted by ordinal, to be merged with other vectors; ordinals are not negative, and terms are distinct.
+    long[] entries = new long[n];
+    for (int i = 0; i < n; i++) {
+      entries[i] = ((long) ords[i] << 32) | i;
+    }
+    Arrays.sort(entries);
+    int[] sortedOrds = new int[n];
+    float[] sortedWeights = new float[n];
+    int[] indexOrder = new int[n];
+    for (int e = 0; e < n; e++) {
+      int i = (int) entries[e];
+      sortedOrds[e] = ords[i];
+      sortedWeights[e] = weights[i];
+      indexOrder[i] = e;
+    }
+    return new DocumentVector(sortedOrds, sortedWeights, indexOrder, all ? null : ranks(sortedOrds, indexOrder));
+  }
+
+  // Positions of the entries of a feedback vector in the iteration order of the FeatureVector that RM3 fills from it.
+  private int[] ranks(int[] ords, int[] indexOrder) {
+    TermInfo[] terms = this.terms;
+    FeatureVector vector = new FeatureVector();
+    Map<String, Integer> entries = new HashMap<>();
+    for (int e : indexOrder) {
+      vector.addFeatureWeight(terms[ords[e]].term, 1.0f);
+      entries.put(terms[ords[e]].term, e);
+    }
+    int[] ranks = new int[ords.length];
+    int rank = 0;
+    Iterator<String> it = vector.iterator();
+    while (it.hasNext()) {
+      ranks[entries.get(it.next())] = rank++;
+    }
+    return ranks;
+  }
+
+  private int ordinal(BytesRef text) throws IOException {
+    Integer ord = ordinals.get(text);
+    if (ord != null) {
+      return ord;
+    }
+    BytesRef term = BytesRef.deepCopyOf(text);
+    TermInfo info = new TermInfo(term.utf8ToString(), reader.docFreq(new Term(IndexArgs.CONTENTS, term)));
+    synchronized (ordinals) {
+      ord = ordinals.get(term);
+      if (ord == null) {
+        TermInfo[] terms = this.terms;
+        if (numTerms == terms.length) {
+          terms = Arrays.copyOf(terms, terms.length * 2);
+        }
+        terms[numTerms] = info;
+        this.terms = terms;
+        ord = numTerms++;
+        ordinals.put(term, ord);
+        dictionaryBytes += TERM_BYTES + term.length + 2L * info.term.length();
+      }
+      return ord;
+    }
+  }
+}
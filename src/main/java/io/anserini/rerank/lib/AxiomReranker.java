@@ -16,11 +16,14 @@
 
 package io.anserini.rerank.lib;
 
+import io.anserini.index.DocidLookup;
 import io.anserini.index.IndexArgs;
+import io.anserini.index.IndexReaderUtils;
 import io.anserini.index.generator.TweetGenerator;
 import io.anserini.rerank.Reranker;
 import io.anserini.rerank.RerankerContext;
 import io.anserini.rerank.ScoredDocuments;
+import io.anserini.rerank.StageTimes;
 import io.anserini.search.SearchArgs;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
@@ -29,7 +32,6 @@ import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
@@ -43,7 +45,7 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.FixedBitSet;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
@@ -51,19 +53,21 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.regex.Pattern;
 
 import static io.anserini.search.SearchCollection.BREAK_SCORE_TIES_BY_DOCID;
@@ -79,6 +83,9 @@ import static io.anserini.search.SearchCollection.BREAK_SCORE_TIES_BY_TWEETID;
  * Then it is better NOT to using a newswire index for expansion terms and feed them to the original
  * tweets index.
  *
+ * The indexes are read through readers shared by the process (see {@link IndexReaderUtils#getSharedReader}), and
+ * reranking keeps no state across topics, so that one reranker can rerank several topics concurrently.
+ *
  */
 public class AxiomReranker<T> implements Reranker<T> {
   private static final Logger LOG = LogManager.getLogger(AxiomReranker.class);
@@ -91,11 +98,23 @@ public class AxiomReranker<T> implements Reranker<T> {
                                            // external sources for searching the expansion
                                            // terms. Typically, we build another index
                                            // separately and include its information here.
-  public static ScoreDoc[] internalDocidsCache; // When enabling the deterministic reranking we could cache all the
-                                                // internal Docids for all queries
-  public static List<String> externalDocidsCache; // When enabling the deterministic reranking we can opt to read sorted docids
-                                              // from a file. The file can be obtained by running
-                                              // `IndexUtils -index /path/to/index -dumpAllDocids GZ`
+  private final IndexReader externalReader; // shared reader of the external index, if any
+  private final int[] internalDocidsCache; // When enabling the deterministic reranking we could cache all the
+                                           // internal Docids for all queries
+  private final List<String> externalDocidsCache; // When enabling the deterministic reranking we can opt to read sorted
+                                                  // docids from a file. The file can be obtained by running
+                                                  // `IndexUtils -index /path/to/index -dumpAllDocids GZ`
+
+  // Docid caches shared by all rerankers of the process, by the reader of the index they belong to, so that a sweep
+  // over the parameters builds them once. They are dropped when their reader is closed.
+  private static final Map<IndexReader.CacheKey, DocidsCaches> DOCIDS_CACHES =
+      Collections.synchronizedMap(new IdentityHashMap<>());
+
+  private static final class DocidsCaches {
+    int[] internalDocids;
+    int[] internalTweetids;
+    final Map<String, List<String>> externalDocids = new HashMap<>();
+  }
 
   private final int R; // number of top documents in initial results
   private final int N; // factor that used in extracting random documents, we will extract (N-1)*R randomly select documents
@@ -120,23 +139,36 @@ public class AxiomReranker<T> implements Reranker<T> {
     this.outputQuery = outputQuery;
     this.searchTweets = searchTweets;
 
+    this.externalReader = externalIndexPath == null ? null : IndexReaderUtils.getSharedReader(externalIndexPath);
+
+    List<String> externalDocids = null;
+    int[] internalDocids = null;
     if (this.deterministic && this.N > 1) {
-      if (docidsCachePath != null) {
-        if (AxiomReranker.externalDocidsCache == null) {
-          AxiomReranker.externalDocidsCache = buildExternalDocidsCache(docidsCachePath);
-          AxiomReranker.internalDocidsCache = null;
-        }
-      } else {
-        if (AxiomReranker.internalDocidsCache == null) {
-          String indexPath = externalIndexPath == null ? originalIndexPath : externalIndexPath;
-          AxiomReranker.internalDocidsCache = buildInternalDocidsCache(indexPath, this.searchTweets);
-          AxiomReranker.externalDocidsCache = null;
+      IndexReader reader = this.externalReader != null ? this.externalReader :
+          IndexReaderUtils.getSharedReader(originalIndexPath);
+      DocidsCaches caches = docidsCaches(reader);
+      synchronized (caches) {
+        if (docidsCachePath != null) {
+          externalDocids = caches.externalDocids.get(docidsCachePath);
+          if (externalDocids == null) {
+            externalDocids = buildExternalDocidsCache(docidsCachePath);
+            caches.externalDocids.put(docidsCachePath, externalDocids);
+          }
+        } else if (this.searchTweets) {
+          if (caches.internalTweetids == null) {
+            caches.internalTweetids = buildInternalDocidsCache(reader, true);
+          }
+          internalDocids = caches.internalTweetids;
+        } else {
+          if (caches.internalDocids == null) {
+            caches.internalDocids = buildInternalDocidsCache(reader, false);
+          }
+          internalDocids = caches.internalDocids;
         }
       }
-    } else {
-      AxiomReranker.internalDocidsCache = null;
-      AxiomReranker.externalDocidsCache = null;
     }
+    this.externalDocidsCache = externalDocids;
+    this.internalDocidsCache = internalDocids;
   }
 
   @Override
@@ -144,14 +176,15 @@ public class AxiomReranker<T> implements Reranker<T> {
     assert(docs.documents.length == docs.scores.length);
 
     try {
+      long start = System.nanoTime();
       // First to search against external index if it is not null
       docs = processExternalContext(docs, context);
       // Select R*M docs from the original ranking list as the reranking pool
-      Set<Integer> usedDocs = selectDocs(docs, context);
-      // Extract an inverted list from the reranking pool
-      Map<String, Set<Integer>> termInvertedList = extractTerms(usedDocs, context, null);
+      int[] usedDocs = selectDocs(docs, context);
+      // Extract the term incidence of the reranking pool
+      TermIncidence termIncidence = extractTerms(usedDocs, context, null);
       // Calculate all the terms in the reranking pool and pick top K of them
-      Map<String, Double> expandedTermScores = computeTermScore(termInvertedList, context);
+      Map<String, Double> expandedTermScores = computeTermScore(termIncidence, context);
 
       BooleanQuery.Builder nqBuilder = new BooleanQuery.Builder();
 
@@ -174,7 +207,10 @@ public class AxiomReranker<T> implements Reranker<T> {
         LOG.info("Running new query: " + nq.toString(this.field));
       }
 
-      return searchTopDocs(nq, context);
+      long searchStart = context.recordStage(StageTimes.Stage.FEEDBACK, start);
+      ScoredDocuments results = searchTopDocs(nq, context);
+      context.recordStage(StageTimes.Stage.SECOND_STAGE, searchStart);
+      return results;
     } catch (Exception e) {
       e.printStackTrace();
       return docs;
@@ -232,6 +268,24 @@ public class AxiomReranker<T> implements Reranker<T> {
     return in;
   }
 
+  // Returns the docid caches of a reader, which are dropped when the reader is closed.
+  private static DocidsCaches docidsCaches(IndexReader reader) {
+    IndexReader.CacheHelper helper = reader.getReaderCacheHelper();
+    if (helper == null) {
+      return new DocidsCaches();
+    }
+    IndexReader.CacheKey key = helper.getKey();
+    synchronized (DOCIDS_CACHES) {
+      DocidsCaches caches = DOCIDS_CACHES.get(key);
+      if (caches == null) {
+        caches = new DocidsCaches();
+        DOCIDS_CACHES.put(key, caches);
+        helper.addClosedListener(DOCIDS_CACHES::remove);
+      }
+      return caches;
+    }
+  }
+
   /**
    * If the result is deterministic we can cache all the external docids by reading them from a file
    */
@@ -242,22 +296,24 @@ public class AxiomReranker<T> implements Reranker<T> {
   }
 
   /**
-   * If the result is deterministic we can cache all the docids. All queries can share this
-   * cache.
+   * If the result is deterministic we can cache all the docids. All queries (and all rerankers of the same index)
+   * can share this cache.
    */
-  private ScoreDoc[] buildInternalDocidsCache(String indexPath, boolean searchTweets) throws IOException {
-    Path index = Paths.get(indexPath);
-    if (!Files.exists(index) || !Files.isDirectory(index) || !Files.isReadable(index)) {
-      throw new IllegalArgumentException(indexPath + " does not exist or is not a directory.");
-    }
-    IndexReader reader = DirectoryReader.open(FSDirectory.open(index));
+  private int[] buildInternalDocidsCache(IndexReader reader, boolean searchTweets) throws IOException {
     IndexSearcher searcher = new IndexSearcher(reader);
+    ScoreDoc[] scoreDocs;
     if (searchTweets) {
-      return searcher.search(new DocValuesFieldExistsQuery(TweetGenerator.TweetField.ID_LONG.name), reader.maxDoc(),
-          BREAK_SCORE_TIES_BY_TWEETID).scoreDocs;
+      scoreDocs = searcher.search(new DocValuesFieldExistsQuery(TweetGenerator.TweetField.ID_LONG.name),
+          reader.maxDoc(), BREAK_SCORE_TIES_BY_TWEETID).scoreDocs;
+    } else {
+      scoreDocs = searcher.search(new DocValuesFieldExistsQuery(IndexArgs.ID), reader.maxDoc(),
+          BREAK_SCORE_TIES_BY_DOCID).scoreDocs;
+    }
+    int[] docids = new int[scoreDocs.length];
+    for (int i = 0; i < scoreDocs.length; i++) {
+      docids[i] = scoreDocs[i].doc;
     }
-    return searcher.search(new DocValuesFieldExistsQuery(IndexArgs.ID), reader.maxDoc(),
-        BREAK_SCORE_TIES_BY_DOCID).scoreDocs;
+    return docids;
   }
 
   /**
@@ -270,13 +326,8 @@ public class AxiomReranker<T> implements Reranker<T> {
    * @return Top ranked ScoredDocuments from searching external index
    */
   private ScoredDocuments processExternalContext(ScoredDocuments docs, RerankerContext<T> context) throws IOException {
-    if (this.externalIndexPath != null) {
-      Path indexPath = Paths.get(this.externalIndexPath);
-      if (!Files.exists(indexPath) || !Files.isDirectory(indexPath) || !Files.isReadable(indexPath)) {
-        throw new IllegalArgumentException(this.externalIndexPath + " does not exist or is not a directory.");
-      }
-      IndexReader reader = DirectoryReader.open(FSDirectory.open(indexPath));
-      IndexSearcher searcher = new IndexSearcher(reader);
+    if (this.externalReader != null) {
+      IndexSearcher searcher = new IndexSearcher(this.externalReader);
       searcher.setSimilarity(context.getIndexSearcher().getSimilarity());
 
       SearchArgs args = new SearchArgs();
@@ -299,53 +350,62 @@ public class AxiomReranker<T> implements Reranker<T> {
    * 1. Keep the top R documents in the original ranking list
    * 2. Randomly pick {@code (N-1)*R} documents from the rest of the index so in total we have R*M documents
    *
+   * Sampling only uses local state, so that one reranker can rerank several topics concurrently.
+   *
    * @param docs The initial ranking results
    * @param context An instance of RerankerContext
-   * @return a Set of {@code R*N} document Ids
+   * @return the {@code R*N} document Ids in increasing order
    */
-  private Set<Integer> selectDocs(ScoredDocuments docs, RerankerContext<T> context)
+  private int[] selectDocs(ScoredDocuments docs, RerankerContext<T> context)
     throws IOException {
     Set<Integer> docidSet = new HashSet<>(Arrays.asList(ArrayUtils.toObject(
       Arrays.copyOfRange(docs.ids, 0, Math.min(this.R, docs.ids.length)))));
     long targetSize = this.R * this.N;
 
     if (docidSet.size() < targetSize) {
-      IndexReader reader;
-      IndexSearcher searcher;
-      if (this.externalIndexPath != null) {
-        Path indexPath = Paths.get(this.externalIndexPath);
-        if (!Files.exists(indexPath) || !Files.isDirectory(indexPath) || !Files.isReadable(indexPath)) {
-          throw new IllegalArgumentException(this.externalIndexPath + " does not exist or is not a directory.");
-        }
-        reader = DirectoryReader.open(FSDirectory.open(indexPath));
-        searcher = new IndexSearcher(reader);
-      } else {
-        searcher = context.getIndexSearcher();
-        reader = searcher.getIndexReader();
-      }
+      IndexReader reader = getReader(context);
       int availableDocsCnt = reader.getDocCount(this.field);
       if (this.deterministic) { // internal docid cannot be relied due to multi-threads indexing,
                                 // we have to rely on external docid here
         Random random = new Random(this.seed);
+        DocidLookup lookup = this.externalDocidsCache != null ? DocidLookup.of(reader) : null;
         while (docidSet.size() < targetSize) {
-          if (AxiomReranker.externalDocidsCache != null) {
-            String docid = AxiomReranker.externalDocidsCache.get(random.nextInt(AxiomReranker.externalDocidsCache.size()));
-            Query q = new TermQuery(new Term(IndexArgs.ID, docid));
-            TopDocs rs = searcher.search(q, 1);
-            docidSet.add(rs.scoreDocs[0].doc);
+          if (this.externalDocidsCache != null) {
+            String docid = this.externalDocidsCache.get(random.nextInt(this.externalDocidsCache.size()));
+            int luceneDocid = lookup.luceneDocid(docid);
+            if (luceneDocid == -1) {
+              throw new IllegalArgumentException("Docid " + docid + " of the docids file is not in the index.");
+            }
+            docidSet.add(luceneDocid);
           } else {
-            docidSet.add(AxiomReranker.internalDocidsCache[random.nextInt(AxiomReranker.internalDocidsCache.length)].doc);
+            docidSet.add(this.internalDocidsCache[random.nextInt(this.internalDocidsCache.length)]);
           }
         }
       } else {
-        Random random = new Random();
+        Random random = ThreadLocalRandom.current();
         while (docidSet.size() < targetSize) {
           docidSet.add(random.nextInt(availableDocsCnt));
         }
       }
     }
 
-    return docidSet;
+    int[] docids = ArrayUtils.toPrimitive(docidSet.toArray(new Integer[0]));
+    Arrays.sort(docids);
+    return docids;
+  }
+
+  // Returns the reader of the index the expansion terms are taken from.
+  private IndexReader getReader(RerankerContext<T> context) {
+    return this.externalReader != null ? this.externalReader : context.getIndexSearcher().getIndexReader();
+  }
+
+  /**
+   * Term incidence of the reranking pool: for every term, the set of pool documents (by their position in the pool)
+   * in which it occurs.
+   */
+  private static final class TermIncidence {
+    final Map<String, FixedBitSet> docs = new HashMap<>();
+    int numDocs; // number of pool documents with at least one term
   }
 
   /**
@@ -354,25 +414,14 @@ public class AxiomReranker<T> implements Reranker<T> {
    * @param docIds The reranking pool, see {@link #selectDocs} for explanations
    * @param context An instance of RerankerContext
    * @param filterPattern A Regex pattern that terms are collected only they matches the pattern, could be null
-   * @return A Map of <term -> Set<docId>> kind of a small inverted list where the Set of docIds is where the term occurs
+   * @return The term incidence of the pool, a small inverted list with a bitset of the pool documents of every term
    */
-  private Map<String, Set<Integer>> extractTerms(Set<Integer> docIds, RerankerContext<T> context,
-                                                 Pattern filterPattern) throws Exception, IOException {
-    IndexReader reader;
-    IndexSearcher searcher;
-    if (this.externalIndexPath != null) {
-      Path indexPath = Paths.get(this.externalIndexPath);
-      if (!Files.exists(indexPath) || !Files.isDirectory(indexPath) || !Files.isReadable(indexPath)) {
-        throw new IllegalArgumentException(this.externalIndexPath + " does not exist or is not a directory.");
-      }
-      reader = DirectoryReader.open(FSDirectory.open(indexPath));
-      searcher = new IndexSearcher(reader);
-    } else {
-      searcher = context.getIndexSearcher();
-      reader = searcher.getIndexReader();
-    }
-    Map<String, Set<Integer>> termDocidSets = new HashMap<>();
-    for (int docid : docIds) {
+  private TermIncidence extractTerms(int[] docIds, RerankerContext<T> context,
+                                     Pattern filterPattern) throws IOException {
+    IndexReader reader = getReader(context);
+    TermIncidence incidence = new TermIncidence();
+    for (int i = 0; i < docIds.length; i++) {
+      int docid = docIds[i];
       Terms terms = reader.getTermVector(docid, IndexArgs.CONTENTS);
       if (terms == null) {
         LOG.warn("Document vector not stored for docid: " + docid);
@@ -383,20 +432,22 @@ public class AxiomReranker<T> implements Reranker<T> {
         LOG.warn("Document vector not stored for docid: " + docid);
         continue;
       }
+      boolean hasTerms = false;
       while ((te.next()) != null) {
         String term = te.term().utf8ToString();
         // We do some noisy filtering here ... pure empirical heuristic
         if (term.length() < 2) continue;
         if (!term.matches("[a-z]+")) continue;
         if (filterPattern == null || filterPattern.matcher(term).matches()) {
-          if (!termDocidSets.containsKey(term)) {
-            termDocidSets.put(term, new HashSet<>());
-          }
-          termDocidSets.get(term).add(docid);
+          incidence.docs.computeIfAbsent(term, t -> new FixedBitSet(docIds.length)).set(i);
+          hasTerms = true;
         }
       }
+      if (hasTerms) {
+        incidence.numDocs++;
+      }
     }
-    return termDocidSets;
+    return incidence;
   }
 
   /**
@@ -414,12 +465,12 @@ public class AxiomReranker<T> implements Reranker<T> {
    * PriorityQueue, only the top {@code K} are kept.
    * 3. Add the scores of the same term together and pick the top {@code M} ones.
    *
-   * @param termInvertedList A Map of <term -> Set<docId>> where the Set of docIds is where the term occurs
+   * @param termIncidence The term incidence of the reranking pool, see {@link #extractTerms}
    * @param context An instance of RerankerContext
    * @return Map<String, Double> Top terms and their weight scores in a HashMap
    */
   private Map<String, Double> computeTermScore(
-    Map<String, Set<Integer>> termInvertedList, RerankerContext<T> context) throws IOException {
+    TermIncidence termIncidence, RerankerContext<T> context) throws IOException {
     class ScoreComparator implements Comparator<Pair<String, Double>> {
       public int compare(Pair<String, Double> a, Pair<String, Double> b) {
         int cmp = Double.compare(b.getRight(), a.getRight());
@@ -432,17 +483,7 @@ public class AxiomReranker<T> implements Reranker<T> {
     }
 
     // get collection statistics so that we can get idf later on.
-    IndexReader reader;
-    if (this.externalIndexPath != null) {
-      Path indexPath = Paths.get(this.externalIndexPath);
-      if (!Files.exists(indexPath) || !Files.isDirectory(indexPath) || !Files.isReadable(indexPath)) {
-        throw new IllegalArgumentException(this.externalIndexPath + " does not exist or is not a directory.");
-      }
-      reader = DirectoryReader.open(FSDirectory.open(indexPath));
-    } else {
-      IndexSearcher searcher = context.getIndexSearcher();
-      reader = searcher.getIndexReader();
-    }
+    IndexReader reader = getReader(context);
     final long docCount = reader.numDocs() == -1 ? reader.maxDoc() : reader.numDocs();
 
     //calculate the Mutual Information between term with each query term
@@ -452,11 +493,8 @@ public class AxiomReranker<T> implements Reranker<T> {
       queryTermsCounts.put(qt, queryTermsCounts.getOrDefault(qt, 0) + 1);
     }
 
-    Set<Integer> allDocIds = new HashSet<>();
-    for (Set<Integer> s : termInvertedList.values()) {
-      allDocIds.addAll(s);
-    }
-    int docIdsCount = allDocIds.size();
+    Map<String, FixedBitSet> termDocs = termIncidence.docs;
+    int docIdsCount = termIncidence.numDocs;
 
     // Each priority queue corresponds to a query term: The p-queue itself stores all terms
     // in the reranking pool and their reranking scores to the query term.
@@ -469,15 +507,20 @@ public class AxiomReranker<T> implements Reranker<T> {
       }
       float idf = (float) Math.log((1 + docCount)/df);
       int qtf = q.getValue();
-      if (termInvertedList.containsKey(queryTerm)) {
+      if (termDocs.containsKey(queryTerm)) {
         PriorityQueue<Pair<String, Double>> termScorePQ = new PriorityQueue<>(new ScoreComparator());
-        double selfMI = computeMutualInformation(termInvertedList.get(queryTerm), termInvertedList.get(queryTerm), docIdsCount);
-        for (Map.Entry<String, Set<Integer>> termEntry : termInvertedList.entrySet()) {
+        FixedBitSet queryTermDocs = termDocs.get(queryTerm);
+        int queryTermDocsCount = queryTermDocs.cardinality();
+        double selfMI = computeMutualInformation(queryTermDocs, queryTermDocsCount, queryTermDocs, queryTermDocsCount,
+            docIdsCount);
+        for (Map.Entry<String, FixedBitSet> termEntry : termDocs.entrySet()) {
           double score;
           if (termEntry.getKey().equals(queryTerm)) { // The mutual information to itself will always be 1
             score = idf * qtf;
           } else {
-            double crossMI = computeMutualInformation(termInvertedList.get(queryTerm), termEntry.getValue(), docIdsCount);
+            FixedBitSet docs = termEntry.getValue();
+            double crossMI = computeMutualInformation(queryTermDocs, queryTermDocsCount, docs, docs.cardinality(),
+                docIdsCount);
             score = idf * beta * qtf * crossMI / selfMI;
           }
           termScorePQ.add(Pair.of(termEntry.getKey(), score));
@@ -512,8 +555,11 @@ public class AxiomReranker<T> implements Reranker<T> {
     return resultTermScores;
   }
 
-  private double computeMutualInformation(Set<Integer> docidsX, Set<Integer> docidsY, int totalDocCount) {
-    int x1 = docidsX.size(), y1 = docidsY.size(); //document that x occurres
+  // Computes the mutual information of two terms from their pool documents and their numbers of pool documents; the
+  // number of documents with both terms is the popcount of the intersection of the bitsets.
+  private double computeMutualInformation(FixedBitSet docidsX, int x1, FixedBitSet docidsY, int y1,
+                                          int totalDocCount) {
+    //x1, y1: document num that x, y occurres
     int x0 = totalDocCount - x1, y0 = totalDocCount - y1; //document num that x doesn't occurres
 
     if (x1 == 0 || x0 == 0 || y1 == 0 || y0 == 0) {
@@ -525,11 +571,9 @@ public class AxiomReranker<T> implements Reranker<T> {
     float pY0 = 1.0f * y0 / totalDocCount;
     float pY1 = 1.0f * y1 / totalDocCount;
 
-    //get the intersection of docIds
-    Set<Integer> docidsXClone = new HashSet<>(docidsX); // directly operate on docidsX will change it permanently
-    docidsXClone.retainAll(docidsY);
-    int numXY11 = docidsXClone.size();
-    int numXY10 = numXY10 = x1 - numXY11;    //doc num that x occurs but y doesn't
+    //get the size of the intersection of docIds
+    int numXY11 = (int) FixedBitSet.intersectionCount(docidsX, docidsY);
+    int numXY10 = x1 - numXY11;    //doc num that x occurs but y doesn't
     int numXY01 = y1 - numXY11;    // doc num that y occurs but x doesn't
     int numXY00 = totalDocCount - numXY11 - numXY10 - numXY01; //doc num that neither x nor y occurs
 
@@ -550,4 +594,9 @@ public class AxiomReranker<T> implements Reranker<T> {
   public String tag() {
     return "AxiomaticRerank(R="+R+",N="+N+",K:"+K+",M:"+M+")";
   }
+
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
 }
@@ -20,14 +20,15 @@ import io.anserini.index.IndexArgs;
 import io.anserini.rerank.Reranker;
 import io.anserini.rerank.RerankerContext;
 import io.anserini.rerank.ScoredDocuments;
+import io.anserini.rerank.StageTimes;
+import io.anserini.rerank.TermVectorCache;
 import io.anserini.analysis.AnalyzerUtils;
+import io.anserini.util.OrdinalFeatureVector;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.index.Terms;
-import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.BoostQuery;
@@ -36,17 +37,15 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.similarities.BM25Similarity;
-import org.apache.lucene.util.BytesRef;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import static io.anserini.search.SearchCollection.BREAK_SCORE_TIES_BY_DOCID;
 import static io.anserini.search.SearchCollection.BREAK_SCORE_TIES_BY_TWEETID;
@@ -89,15 +88,16 @@ public class BM25PrfReranker implements Reranker {
 
   @Override
   public ScoredDocuments rerank(ScoredDocuments docs, RerankerContext context) {
+    long start = System.nanoTime();
 
-    // set similarity to BM25PRF
-    IndexSearcher searcher = context.getIndexSearcher();
-    BM25Similarity originalSimilarity = (BM25Similarity) searcher.getSimilarity();
+    // The expanded query is scored with BM25PRF. The searcher of the context is shared with the other topics and
+    // cascades, so its similarity is left alone and a searcher over the same reader is used instead.
+    IndexReader reader = context.getIndexSearcher().getIndexReader();
+    IndexSearcher searcher = new IndexSearcher(reader);
     searcher.setSimilarity(new BM25PrfSimilarity(k1, b));
-    IndexReader reader = searcher.getIndexReader();
     List<String> originalQueryTerms = AnalyzerUtils.analyze(analyzer, context.getQueryText());
 
-    PrfFeatures fv = expandQuery(originalQueryTerms, docs, reader);
+    PrfFeatures fv = expandQuery(originalQueryTerms, docs, reader, context.getTermVectors());
     Query newQuery = fv.toQuery();
 
     if (this.outputQuery) {
@@ -107,6 +107,7 @@ public class BM25PrfReranker implements Reranker {
       LOG.info("Features: " + fv.toString());
     }
 
+    long searchStart = context.recordStage(StageTimes.Stage.FEEDBACK, start);
     TopDocs rs;
 
     try {
@@ -122,105 +123,168 @@ public class BM25PrfReranker implements Reranker {
       e.printStackTrace();
       return docs;
     }
-    // set similarity back
-    searcher.setSimilarity(originalSimilarity);
-    return ScoredDocuments.fromTopDocs(rs, searcher);
+    ScoredDocuments results = ScoredDocuments.fromTopDocs(rs, searcher);
+    context.recordStage(StageTimes.Stage.SECOND_STAGE, searchStart);
+    return results;
   }
 
-  private PrfFeatures expandQuery(List<String> originalTerms, ScoredDocuments docs, IndexReader reader) {
+  private PrfFeatures expandQuery(List<String> originalTerms, ScoredDocuments docs, IndexReader reader,
+                                  TermVectorCache termVectors) {
     PrfFeatures newFeatures = new PrfFeatures();
 
-    Set<String> vocab = new HashSet<>();
-
-    Map<Integer, Set<String>> docToTermsMap = new HashMap<>();
     int numRelDocs = docs.documents.length < fbDocs ? docs.documents.length : fbDocs;
     int numDocs = reader.numDocs();
 
+    // Number of feedback documents that contain every term, merged from their term vectors.
+    TermVectorCache.DocumentVector[] vectors = new TermVectorCache.DocumentVector[numRelDocs];
+    OrdinalFeatureVector[] docvectors = new OrdinalFeatureVector[numRelDocs];
+    float[] ones = new float[numRelDocs];
+    Arrays.fill(ones, 1.0f);
     for (int i = 0; i < numRelDocs; i++) {
       try {
-        Terms terms = reader.getTermVector(docs.ids[i], field);
-        Set<String> termsStr = getTermsStr(terms);
-        docToTermsMap.put(docs.ids[i], termsStr);
-        vocab.addAll(termsStr);
+        vectors[i] = termVectors.termVector(docs.ids[i], field);
+        float[] presence = new float[vectors[i].size()];
+        Arrays.fill(presence, 1.0f);
+        docvectors[i] = OrdinalFeatureVector.of(vectors[i].terms, presence);
       } catch (IOException e) {
         e.printStackTrace();
+        docvectors[i] = OrdinalFeatureVector.EMPTY;
       }
     }
+    OrdinalFeatureVector dfRels = OrdinalFeatureVector.weightedSum(docvectors, ones, ones);
 
-    Set<String> originalTermsSet = new HashSet<>(originalTerms);
+    // Query terms that are in no feedback document have no ordinal.
+    int[] originalOrds = new int[originalTerms.size()];
+    for (int i = 0; i < originalOrds.length; i++) {
+      originalOrds[i] = termVectors.ordinal(originalTerms.get(i));
+    }
+    Arrays.sort(originalOrds);
+
+    // New terms, with the offer weights that PrfFeatures orders them by.
+    int[] ords = new int[dfRels.size()];
+    float[] offerWeights = new float[ords.length];
+    int n = 0;
+    for (int i = 0; i < dfRels.size(); i++) {
+      int ord = dfRels.ordinal(i);
+      int dfRel = (int) dfRels.weight(i);
+      if (dfRel < 2) continue;
+      if (Arrays.binarySearch(originalOrds, ord) >= 0) continue;
+      // Terms of 2 to 20 lowercase letters and digits, but not only digits.
+      if (!termVectors.isFeedbackTerm(ord)) continue;
+      if (isNumber(termVectors.term(ord))) continue;
+
+      ords[n] = ord;
+      offerWeights[n++] = (float) offerWeight(termVectors.docFreq(ord), dfRel, numDocs, numRelDocs, newTermWeight);
+    }
+    OrdinalFeatureVector candidates = OrdinalFeatureVector.of(Arrays.copyOf(ords, n), Arrays.copyOf(offerWeights, n));
 
-    // Add New Terms
-    for (String term : vocab) {
-      if (originalTermsSet.contains(term)) continue;
-      if (term.length() < 2 || term.length() > 20) continue;
-      if (!term.matches("[a-z0-9]+")) continue;
-      if (term.matches("[0-9]+")) continue;
+    for (int e : pruneCandidates(candidates, vectors, termVectors)) {
+      int ord = candidates.ordinal(e);
+      newFeatures.addFeature(termVectors.term(ord), termVectors.docFreq(ord), (int) dfRels.getWeight(ord), numDocs,
+          numRelDocs, newTermWeight);
+    }
 
+    for (String term : originalTerms) {
       try {
+        int ord = termVectors.ordinal(term);
         int df = reader.docFreq(new Term(IndexArgs.CONTENTS, term));
-        int dfRel = 0;
-
-        for (int i = 0; i < numRelDocs; i++) {
-          Set<String> terms = docToTermsMap.get(docs.ids[i]);
-          if (terms.contains(term)) {
-            dfRel++;
-          }
-        }
-
-        if (dfRel < 2) {
-          continue;
-        }
-        newFeatures.addFeature(term, df, dfRel, numDocs, numRelDocs, newTermWeight);
+        newFeatures.addFeature(term, df, ord < 0 ? 0 : (int) dfRels.getWeight(ord), numDocs, numRelDocs);
       } catch (IOException e) {
         e.printStackTrace();
       }
     }
+    return newFeatures;
+  }
 
-    newFeatures.pruneToSize(fbTerms);
+  // Returns the fbTerms candidates with the largest offer weights, in decreasing order of offer weight. The new terms
+  // used to be put in a HashMap in the order of a set of the terms of the feedback documents, and sorted stably, so
+  // ties are broken in the iteration order of that map.
+  private int[] pruneCandidates(OrdinalFeatureVector candidates, TermVectorCache.DocumentVector[] vectors,
+                                TermVectorCache termVectors) {
+    int k = Math.max(fbTerms, 0);
+    int[] top = candidates.topEntries(k + 1, null);
+    if (!candidates.hasTies(top)) {
+      return Arrays.copyOf(top, Math.min(k, top.length));
+    }
 
-    for (String term : originalTerms) {
-      try {
-        int df = reader.docFreq(new Term(IndexArgs.CONTENTS, term));
-        int dfRel = 0;
+    // A HashMap iterates over its buckets in order, and over the keys of a bucket in the order they were put. A map of
+    // the candidates has the iteration order of that map, except for keys of the same bucket, whatever order they are
+    // put in. Putting them in opposite orders gives the same top entries unless ties between keys of the same bucket
+    // decide them, and only then are the candidates put in the order of the set of terms.
+    Map<String, Integer> features = new HashMap<>();
+    for (int e = 0; e < candidates.size(); e++) {
+      features.put(termVectors.term(candidates.ordinal(e)), e);
+    }
+    int[] pruned = candidates.topEntries(k, ranks(features, candidates.size()));
+    features = new HashMap<>();
+    for (int e = candidates.size() - 1; e >= 0; e--) {
+      features.put(termVectors.term(candidates.ordinal(e)), e);
+    }
+    if (Arrays.equals(pruned, candidates.topEntries(k, ranks(features, candidates.size())))) {
+      return pruned;
+    }
 
-        for (int i = 0; i < numRelDocs; i++) {
-          Set<String> terms = docToTermsMap.get(docs.ids[i]);
-          if (terms.contains(term)) {
-            dfRel++;
-          }
-        }
-        newFeatures.addFeature(term, df, dfRel, numDocs, numRelDocs);
-      } catch (IOException e) {
-        e.printStackTrace();
+    // Maps have the iteration order of sets filled with the same terms.
+    Map<String, Integer> vocab = new HashMap<>();
+    for (TermVectorCache.DocumentVector vector : vectors) {
+      if (vector == null) continue;
+      Map<String, Integer> docTerms = new HashMap<>();
+      for (int t : vector.indexOrder) {
+        docTerms.put(termVectors.term(vector.terms[t]), vector.terms[t]);
+      }
+      for (Map.Entry<String, Integer> term : docTerms.entrySet()) {
+        vocab.putIfAbsent(term.getKey(), term.getValue());
       }
     }
-    return newFeatures;
+    features = new HashMap<>();
+    for (Map.Entry<String, Integer> term : vocab.entrySet()) {
+      int e = candidates.indexOf(term.getValue());
+      if (e >= 0) {
+        features.put(term.getKey(), e);
+      }
+    }
+    return candidates.topEntries(k, ranks(features, candidates.size()));
   }
 
-  @Override
-  public String tag() {
-    return "BM25PRF(fbDocs=" + fbDocs + ",fbTerms=" + fbTerms + ",k1=" + k1 + ",b=" + b + ",newTermWeight=" + newTermWeight;
+  // Returns the position of every candidate in the iteration order of a map of the candidates to their entries.
+  private static int[] ranks(Map<String, Integer> features, int size) {
+    int[] ranks = new int[size];
+    int rank = 0;
+    for (int e : features.values()) {
+      ranks[e] = rank++;
+    }
+    return ranks;
   }
 
-  private Set<String> getTermsStr(Terms terms) {
-    Set<String> termsStr = new HashSet<>();
+  private static boolean isNumber(String term) {
+    for (int i = 0; i < term.length(); i++) {
+      if (term.charAt(i) < '0' || term.charAt(i) > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
 
-    try {
-      TermsEnum termsEnum = terms.iterator();
+  private static double relWeight(int df, int dfRel, int numDocs, int numDocsRel, float weight) {
+    double rw = Math.log((dfRel + 0.5D) * (numDocs - df - numDocsRel + dfRel + 0.5D) /
+        ((df - dfRel + 0.5D) * (numDocsRel - dfRel + 0.5D))) * weight;
+    return Math.max(rw, 1e-6);
+  }
 
-      BytesRef text;
-      while ((text = termsEnum.next()) != null) {
-        String term = text.utf8ToString();
-        termsStr.add(term);
+  private static double offerWeight(int df, int dfRel, int numDocs, int numDocsRel, float weight) {
+    // we apply log to dfRel according to
+    // Sakai and Robertson (SIGIR 2002)
+    return relWeight(df, dfRel, numDocs, numDocsRel, weight) * Math.log(Math.max(dfRel, 1e-6));
+  }
 
-      }
-    } catch (Exception e) {
-      e.printStackTrace();
-      // Return empty feature vector
-      return termsStr;
-    }
+  @Override
+  public String tag() {
+    return "BM25PRF(fbDocs=" + fbDocs + ",fbTerms=" + fbTerms + ",k1=" + k1 + ",b=" + b + ",newTermWeight=" + newTermWeight;
+  }
 
-    return termsStr;
+  @Override
+  public boolean isThreadSafe() {
+    return true;
   }
 
   class PrfFeature {
@@ -240,15 +304,11 @@ public class BM25PrfReranker implements Reranker {
     }
 
     double getRelWeight() {
-      double rw = Math.log((dfRel + 0.5D) * (numDocs - df - numDocsRel + dfRel + 0.5D) /
-          ((df - dfRel + 0.5D) * (numDocsRel - dfRel + 0.5D))) * weight;
-      return Math.max(rw, 1e-6);
+      return relWeight(df, dfRel, numDocs, numDocsRel, weight);
     }
 
     double getOfferWeight() {
-      // we apply log to dfRel according to
-      // Sakai and Robertson (SIGIR 2002)
-      return getRelWeight() * Math.log(Math.max(dfRel, 1e-6));
+      return offerWeight(df, dfRel, numDocs, numDocsRel, weight);
     }
 
 
@@ -308,21 +368,6 @@ public class BM25PrfReranker implements Reranker {
     }
 
 
-    PrfFeatures pruneToSize(int k) {
-      List<KeyValuePair> pairs = getOrderedFeatures();
-      HashMap<String, PrfFeature> pruned = new HashMap<>();
-
-      for (KeyValuePair pair : pairs) {
-        if (pruned.size() >= k) {
-          break;
-        }
-        pruned.put(pair.getKey(), pair.getFeature());
-      }
-
-      this.features = pruned;
-      return this;
-    }
-
     @Override
     public String toString() {
       List<String> strBuilder = new ArrayList<String>();
@@ -28,4 +28,7 @@ public class IdentityReranker implements Reranker {
   
   @Override
   public String tag() { return ""; }
+
+  @Override
+  public boolean isThreadSafe() { return true; }
 }
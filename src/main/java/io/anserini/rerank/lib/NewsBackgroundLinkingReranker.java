@@ -33,7 +33,6 @@ import java.util.Map;
 import java.util.Set;
 
 import static io.anserini.index.IndexArgs.CONTENTS;
-import static io.anserini.index.IndexArgs.ID;
 import static io.anserini.index.generator.WashingtonPostGenerator.WashingtonPostField.PUBLISHED_DATE;
 
 /*
@@ -50,7 +49,7 @@ public class NewsBackgroundLinkingReranker implements Reranker {
     
     List<Map<String, Long>> docsVectorsMap = new ArrayList<>();
     for (int i = 0; i < docs.documents.length; i++) {
-      String docid = docs.documents[i].getField(ID).stringValue();
+      String docid = docs.docid(i);
       docsVectorsMap.add(convertDocVectorToMap(reader, docid));
     }
     
@@ -75,7 +74,7 @@ public class NewsBackgroundLinkingReranker implements Reranker {
         Document queryDoc = reader.document(luceneId);
         long queryDocDate = Long.parseLong(queryDoc.getField(PUBLISHED_DATE.name).stringValue());
         for (int i = 0; i < docs.documents.length; i++) {
-          long date = Long.parseLong(docs.documents[i].getField(PUBLISHED_DATE.name).stringValue());
+          long date = Long.parseLong(docs.document(i).getField(PUBLISHED_DATE.name).stringValue());
           if (date > queryDocDate) {
             toRemove.add(i);
           }
@@ -85,17 +84,12 @@ public class NewsBackgroundLinkingReranker implements Reranker {
       }
     }
   
-    ScoredDocuments scoredDocs = new ScoredDocuments();
     int resSize = docs.documents.length - toRemove.size();
-    scoredDocs.documents = new Document[resSize];
-    scoredDocs.ids = new int[resSize];
-    scoredDocs.scores = new float[resSize];
+    ScoredDocuments scoredDocs = ScoredDocuments.ofSize(resSize, reader);
     int idx = 0;
     for (int i = 0; i < docs.documents.length; i++) {
       if (!toRemove.contains(i)) {
-        scoredDocs.documents[idx] = docs.documents[i];
-        scoredDocs.scores[idx] = docs.scores[i];
-        scoredDocs.ids[idx] = docs.ids[i];
+        scoredDocs.set(idx, docs, i);
         idx++;
       }
     }
@@ -160,4 +154,7 @@ public class NewsBackgroundLinkingReranker implements Reranker {
   
   @Override
   public String tag() { return ""; }
+
+  @Override
+  public boolean isThreadSafe() { return true; }
 }
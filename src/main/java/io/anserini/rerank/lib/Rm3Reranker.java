@@ -16,19 +16,19 @@
 
 package io.anserini.rerank.lib;
 
-import io.anserini.index.IndexArgs;
 import io.anserini.rerank.Reranker;
 import io.anserini.rerank.RerankerContext;
 import io.anserini.rerank.ScoredDocuments;
+import io.anserini.rerank.StageTimes;
+import io.anserini.rerank.TermVectorCache;
 import io.anserini.analysis.AnalyzerUtils;
 import io.anserini.util.FeatureVector;
+import io.anserini.util.OrdinalFeatureVector;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.index.Terms;
-import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.BoostQuery;
@@ -36,12 +36,12 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.util.BytesRef;
 
 import java.io.IOException;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.Map;
 
 import static io.anserini.search.SearchCollection.BREAK_SCORE_TIES_BY_DOCID;
 import static io.anserini.search.SearchCollection.BREAK_SCORE_TIES_BY_TWEETID;
@@ -70,14 +70,13 @@ public class Rm3Reranker implements Reranker {
   public ScoredDocuments rerank(ScoredDocuments docs, RerankerContext context) {
     assert(docs.documents.length == docs.scores.length);
 
+    long start = System.nanoTime();
     IndexSearcher searcher = context.getIndexSearcher();
     IndexReader reader = searcher.getIndexReader();
 
     FeatureVector qfv = FeatureVector.fromTerms(AnalyzerUtils.analyze(analyzer, context.getQueryText())).scaleToUnitL1Norm();
 
-    FeatureVector rm = estimateRelevanceModel(docs, reader, context.getSearchArgs().searchtweets);
-
-    rm = FeatureVector.interpolate(qfv, rm, originalQueryWeight);
+    FeatureVector rm = expandQuery(qfv, docs, reader, context.getTermVectors(), context.getSearchArgs().searchtweets);
 
     BooleanQuery.Builder feedbackQueryBuilder = new BooleanQuery.Builder();
 
@@ -96,6 +95,7 @@ public class Rm3Reranker implements Reranker {
       LOG.info("Running new query: " + feedbackQuery.toString(this.field));
     }
 
+    long searchStart = context.recordStage(StageTimes.Stage.FEEDBACK, start);
     TopDocs rs;
     try {
       Query finalQuery = feedbackQuery;
@@ -121,128 +121,205 @@ public class Rm3Reranker implements Reranker {
       return docs;
     }
 
-    return ScoredDocuments.fromTopDocs(rs, searcher);
+    ScoredDocuments results = ScoredDocuments.fromTopDocs(rs, searcher);
+    context.recordStage(StageTimes.Stage.SECOND_STAGE, searchStart);
+    return results;
   }
 
-  private FeatureVector estimateRelevanceModel(ScoredDocuments docs, IndexReader reader, boolean tweetsearch) {
-    FeatureVector f = new FeatureVector();
+  // Returns the interpolation of the query with the relevance model, from which the feedback query is built. The
+  // weights are computed on ordinals; only the final terms are put in FeatureVectors, filled in the order in which
+  // FeatureVector.interpolate fills them, since the clauses of the query are added in their iteration order.
+  private FeatureVector expandQuery(FeatureVector qfv, ScoredDocuments docs, IndexReader reader,
+                                    TermVectorCache termVectors, boolean tweetsearch) {
+    OrdinalFeatureVector fb = OrdinalFeatureVector.EMPTY;
+    int[] top = new int[0];
+    try {
+      fb = estimateRelevanceModel(docs, reader, termVectors, tweetsearch);
+      top = pruneRelevanceModel(fb, docs, reader, termVectors, tweetsearch);
+    } catch (IOException e) {
+      e.printStackTrace();
+      // Just use an empty relevance model.
+    }
+
+    // The relevance model as pruneToSize leaves it, with the entries of fb as weights, to scale it to unit L1 norm
+    // in its iteration order.
+    FeatureVector pruned = new FeatureVector();
+    for (int e : top) {
+      pruned.addFeatureWeight(termVectors.term(fb.ordinal(e)), e);
+    }
+    double norm = 0.0;
+    for (String term : pruned.getFeatures()) {
+      norm += Math.abs(fb.weight((int) pruned.getFeatureWeight(term)));
+    }
+    // Entries in increasing order are in increasing order of ordinals.
+    int[] entries = top.clone();
+    Arrays.sort(entries);
+    int[] rmOrds = new int[entries.length];
+    float[] rmWeights = new float[entries.length];
+    for (int i = 0; i < entries.length; i++) {
+      rmOrds[i] = fb.ordinal(entries[i]);
+      rmWeights[i] = (float) (fb.weight(entries[i]) / norm);
+    }
 
-    Set<String> vocab = new HashSet<>();
+    // Query terms that are in no vector read by the cache get ordinals of their own, below 0.
+    Map<String, Integer> vocab = new HashMap<>();
+    int[] qOrds = new int[qfv.getFeatures().size()];
+    float[] qWeights = new float[qOrds.length];
+    int n = 0;
+    for (String term : qfv.getFeatures()) {
+      int ord = termVectors.ordinal(term);
+      qOrds[n] = ord < 0 ? -1 - n : ord;
+      qWeights[n] = qfv.getFeatureWeight(term);
+      vocab.put(term, qOrds[n++]);
+    }
+    for (String term : pruned.getFeatures()) {
+      vocab.putIfAbsent(term, fb.ordinal((int) pruned.getFeatureWeight(term)));
+    }
+    OrdinalFeatureVector z = OrdinalFeatureVector.interpolate(OrdinalFeatureVector.of(qOrds, qWeights),
+        OrdinalFeatureVector.of(rmOrds, rmWeights), originalQueryWeight);
+
+    // The map has the iteration order of the set of terms in FeatureVector.interpolate.
+    FeatureVector interpolated = new FeatureVector();
+    for (Map.Entry<String, Integer> term : vocab.entrySet()) {
+      interpolated.addFeatureWeight(term.getKey(), z.getWeight(term.getValue()));
+    }
+    return interpolated;
+  }
+
+  // Returns the relevance model: the sum of the feedback vectors, each pruned to its fbTerms terms with the largest
+  // weights, scaled to unit L1 norm and multiplied by the score of its document.
+  private OrdinalFeatureVector estimateRelevanceModel(ScoredDocuments docs, IndexReader reader,
+                                                      TermVectorCache termVectors, boolean tweetsearch)
+      throws IOException {
     int numdocs = docs.documents.length < fbDocs ? docs.documents.length : fbDocs;
-    FeatureVector[] docvectors = new FeatureVector[numdocs];
+    OrdinalFeatureVector[] docvectors = new OrdinalFeatureVector[numdocs];
+    float[] norms = new float[numdocs];
+    float maxDfRatio = maxDfRatio(reader.numDocs(), tweetsearch);
 
     for (int i = 0; i < numdocs; i++) {
-      try {
-        FeatureVector docVector = createdFeatureVector(
-            reader.getTermVector(docs.ids[i], field), reader, tweetsearch);
-        docVector.pruneToSize(fbTerms);
-
-        vocab.addAll(docVector.getFeatures());
-        docvectors[i] = docVector;
-      } catch (IOException e) {
-        e.printStackTrace();
-        // Just return empty feature vector.
-        return f;
+      TermVectorCache.DocumentVector vector = termVectors.feedbackVector(docs.ids[i], field, maxDfRatio);
+      // Entries in increasing order are in increasing order of ordinals.
+      int[] entries = prunedEntries(vector);
+      Arrays.sort(entries);
+      int[] ords = new int[entries.length];
+      float[] weights = new float[entries.length];
+      double norm = 0.0;
+      for (int j = 0; j < entries.length; j++) {
+        ords[j] = vector.terms[entries[j]];
+        weights[j] = vector.weights[entries[j]];
+        norm += Math.abs(weights[j]);
       }
+      norms[i] = (float) norm;
+      // Avoids zero-length feedback documents, which causes division by zero when computing term weights.
+      // Zero-length feedback documents occur (e.g., with CAR17) when a document has only terms
+      // that accents (which are indexed, but not selected for feedback).
+      docvectors[i] = norms[i] > 0.001f ? OrdinalFeatureVector.of(ords, weights) : OrdinalFeatureVector.EMPTY;
     }
 
-    // Precompute the norms once and cache results.
-    float[] norms = new float[docvectors.length];
-    for (int i = 0; i < docvectors.length; i++) {
-      norms[i] = (float) docvectors[i].computeL1Norm();
+    return OrdinalFeatureVector.weightedSum(docvectors, norms, docs.scores);
+  }
+
+  // Returns the entries of the relevance model that FeatureVector.pruneToSize keeps, in the order it puts them in the
+  // pruned vector. Ties are broken in the iteration order of the FeatureVector of the relevance model, which is only
+  // worked out when ties decide which entries are kept or their order.
+  private int[] pruneRelevanceModel(OrdinalFeatureVector fb, ScoredDocuments docs, IndexReader reader,
+                                    TermVectorCache termVectors, boolean tweetsearch) throws IOException {
+    // pruneToSize keeps at least one term.
+    int k = Math.max(fbTerms, 1);
+    int[] top = fb.topEntries(k + 1, null);
+    if (!fb.hasTies(top)) {
+      return Arrays.copyOf(top, Math.min(k, top.length));
     }
 
-    for (String term : vocab) {
-      float fbWeight = 0.0f;
-      for (int i = 0; i < docvectors.length; i++) {
-        // Avoids zero-length feedback documents, which causes division by zero when computing term weights.
-        // Zero-length feedback documents occur (e.g., with CAR17) when a document has only terms 
-        // that accents (which are indexed, but not selected for feedback).
-        if (norms[i] > 0.001f) {
-          fbWeight += (docvectors[i].getFeatureWeight(term) / norms[i]) * docs.scores[i];
-        }
+    // Fills the sets and vectors of the relevance model with their terms in the same order as when the model was
+    // estimated on terms, with the entries of fb as weights.
+    int numdocs = docs.documents.length < fbDocs ? docs.documents.length : fbDocs;
+    float maxDfRatio = maxDfRatio(reader.numDocs(), tweetsearch);
+    // The map has the iteration order of a set filled with the same terms.
+    Map<String, Integer> vocab = new HashMap<>();
+    for (int i = 0; i < numdocs; i++) {
+      TermVectorCache.DocumentVector vector = termVectors.feedbackVector(docs.ids[i], field, maxDfRatio);
+      FeatureVector docvector = new FeatureVector();
+      for (int t : prunedEntries(vector)) {
+        docvector.addFeatureWeight(termVectors.term(vector.terms[t]), fb.indexOf(vector.terms[t]));
+      }
+      for (String term : docvector.getFeatures()) {
+        vocab.putIfAbsent(term, (int) docvector.getFeatureWeight(term));
       }
-      f.addFeatureWeight(term, fbWeight);
     }
-
-    f.pruneToSize(fbTerms);
-    f.scaleToUnitL1Norm();
-
-    return f;
+    FeatureVector f = new FeatureVector();
+    for (Map.Entry<String, Integer> term : vocab.entrySet()) {
+      f.addFeatureWeight(term.getKey(), term.getValue());
+    }
+    int[] ranks = new int[fb.size()];
+    int rank = 0;
+    for (String term : f.getFeatures()) {
+      ranks[(int) f.getFeatureWeight(term)] = rank++;
+    }
+    return fb.topEntries(k, ranks);
   }
 
-  private FeatureVector createdFeatureVector(Terms terms, IndexReader reader, boolean tweetsearch) {
-    FeatureVector f = new FeatureVector();
+  // Returns the entries of a feedback vector with its fbTerms largest weights, in the order pruneToSize puts them in
+  // the pruned vector; the ranks of the vector break ties in the same order as FeatureVector.pruneToSize.
+  private int[] prunedEntries(TermVectorCache.DocumentVector vector) {
+    // pruneToSize keeps at least one term.
+    return OrdinalFeatureVector.of(vector.terms, vector.weights).topEntries(Math.max(fbTerms, 1), vector.ranks);
+  }
 
-    try {
-      int numDocs = reader.numDocs();
-      TermsEnum termsEnum = terms.iterator();
-
-      BytesRef text;
-      while ((text = termsEnum.next()) != null) {
-        String term = text.utf8ToString();
-
-        if (term.length() < 2 || term.length() > 20) continue;
-        if (!term.matches("[a-z0-9]+")) continue;
-
-        // This seemingly arbitrary logic needs some explanation. See following PR for details:
-        //   https://github.com/castorini/Anserini/pull/289
-        //
-        // We have long known that stopwords have a big impact in RM3. If we include stopwords
-        // in feedback, effectiveness is affected negatively. In the previous implementation, we
-        // built custom stopwords lists by selecting top k terms from the collection. We only
-        // had two stopwords lists, for gov2 and for Twitter. The gov2 list is used on all
-        // collections other than Twitter.
-        //
-        // The logic below instead uses a df threshold: If a term appears in more than n percent
-        // of the documents, then it is discarded as a feedback term. This heuristic has the
-        // advantage of getting rid of collection-specific stopwords lists, but at the cost of
-        // introducing an additional tuning parameter.
-        //
-        // Cognizant of the dangers of (essentially) tuning on test data, here's what I
-        // (@lintool) did:
-        //
-        // + For newswire collections, I picked a number, 10%, that seemed right. This value
-        //   actually increased effectiveness in most conditions across all newswire collections.
-        //
-        // + This 10% value worked fine on web collections; effectiveness didn't change much.
-        //
-        // Since this was the first and only heuristic value I selected, we're not really tuning
-        // parameters.
-        //
-        // The 10% threshold, however, doesn't work well on tweets because tweets are much
-        // shorter. Based on a list terms in the collection by df: For the Tweets2011 collection,
-        // I found a threshold close to a nice round number that approximated the length of the
-        // current stopwords list, by eyeballing the df values. This turned out to be 1%. I did
-        // this again for the Tweets2013 collection, using the same approach, and obtained a value
-        // of 0.7%.
-        //
-        // With both values, we obtained effectiveness pretty close to the old values with the
-        // custom stopwords list.
-        int df = reader.docFreq(new Term(IndexArgs.CONTENTS, term));
-        float ratio = (float) df / numDocs;
-        if (tweetsearch) {
-          if (numDocs > 100000000) { // Probably Tweets2013
-            if (ratio > 0.007f) continue;
-          } else {
-            if (ratio > 0.01f) continue;
-          }
-        } else if (ratio > 0.1f) continue;
-
-        int freq = (int) termsEnum.totalTermFreq();
-        f.addFeatureWeight(term, (float) freq);
+  // Returns the largest ratio of documents that contain a feedback term. Feedback terms are also limited to 2 to 20
+  // lowercase letters and digits, see TermVectorCache.isFeedbackTerm.
+  private static float maxDfRatio(int numDocs, boolean tweetsearch) {
+    // This seemingly arbitrary logic needs some explanation. See following PR for details:
+    //   https://github.com/castorini/Anserini/pull/289
+    //
+    // We have long known that stopwords have a big impact in RM3. If we include stopwords
+    // in feedback, effectiveness is affected negatively. In the previous implementation, we
+    // built custom stopwords lists by selecting top k terms from the collection. We only
+    // had two stopwords lists, for gov2 and for Twitter. The gov2 list is used on all
+    // collections other than Twitter.
+    //
+    // The logic below instead uses a df threshold: If a term appears in more than n percent
+    // of the documents, then it is discarded as a feedback term. This heuristic has the
+    // advantage of getting rid of collection-specific stopwords lists, but at the cost of
+    // introducing an additional tuning parameter.
+    //
+    // Cognizant of the dangers of (essentially) tuning on test data, here's what I
+    // (@lintool) did:
+    //
+    // + For newswire collections, I picked a number, 10%, that seemed right. This value
+    //   actually increased effectiveness in most conditions across all newswire collections.
+    //
+    // + This 10% value worked fine on web collections; effectiveness didn't change much.
+    //
+    // Since this was the first and only heuristic value I selected, we're not really tuning
+    // parameters.
+    //
+    // The 10% threshold, however, doesn't work well on tweets because tweets are much
+    // shorter. Based on a list terms in the collection by df: For the Tweets2011 collection,
+    // I found a threshold close to a nice round number that approximated the length of the
+    // current stopwords list, by eyeballing the df values. This turned out to be 1%. I did
+    // this again for the Tweets2013 collection, using the same approach, and obtained a value
+    // of 0.7%.
+    //
+    // With both values, we obtained effectiveness pretty close to the old values with the
+    // custom stopwords list.
+    if (tweetsearch) {
+      if (numDocs > 100000000) { // Probably Tweets2013
+        return 0.007f;
+      } else {
+        return 0.01f;
       }
-    } catch (Exception e) {
-      e.printStackTrace();
-      // Return empty feature vector
-      return f;
     }
-
-    return f;
+    return 0.1f;
   }
   
   @Override
   public String tag() {
     return "Rm3(fbDocs="+fbDocs+",fbTerms="+fbTerms+",originalQueryWeight:"+originalQueryWeight+")";
   }
+
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
 }
@@ -19,6 +19,7 @@ package io.anserini.rerank.lib;
 import io.anserini.rerank.Reranker;
 import io.anserini.rerank.RerankerContext;
 import io.anserini.rerank.ScoredDocuments;
+import io.anserini.rerank.StageTimes;
 
 /**
  * Reranker that perturbs score ties a tiny bit so that the rank order is consistent
@@ -32,6 +33,7 @@ public class ScoreTiesAdjusterReranker implements Reranker {
       return docs;
     }
 
+    long start = System.nanoTime();
     int dup = 0;
     for (int i=0; i<docs.documents.length; i++) {
       docs.scores[i] = Math.round(docs.scores[i] * 1e4f) / 1e4f;
@@ -72,9 +74,15 @@ public class ScoreTiesAdjusterReranker implements Reranker {
       }
     }
 
+    if (context != null) {
+      context.recordStage(StageTimes.Stage.TIES, start);
+    }
     return docs;
   }
   
   @Override
   public String tag() { return ""; }
+
+  @Override
+  public boolean isThreadSafe() { return true; }
 }
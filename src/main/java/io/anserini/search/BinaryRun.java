@@ -0,0 +1,424 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import io.anserini.rerank.ScoredDocuments;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.GrowableByteArrayDataOutput;
+import org.apache.lucene.store.InputStreamDataInput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.ParserProperties;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Compact binary format of runs, for tools that load runs (fusion, evaluation) without parsing text. A run holds a
+ * dictionary of topic ids and one of docids, and per topic the ordinals of its documents and their scores; the rank
+ * of a document is its position in its topic.
+ *
+ * <p>Layout: a header (magic and version), the topics in the order they were written (topic ordinal, number of
+ * documents, docid ordinals as vints and scores as floats), a footer (run tag, topic id and docid dictionaries,
+ * number of topics) and a trailer (offset of the footer and magic). The dictionaries are only known once all topics
+ * are written, which is why they are at the end.</p>
+ *
+ * <p>{@link #main} converts a binary run back to a run in TREC format.</p>
+ */
+public final class BinaryRun {
+  private static final int MAGIC = 0x4152554E; // "ARUN"
+  private static final int VERSION = 1;
+  private static final int HEADER_LENGTH = 8;
+  private static final int TRAILER_LENGTH = 12;
+
+  private BinaryRun() {}
+
+  /**
+   * Encodes the results of a topic (docids and scores) for {@link Writer#add(String, byte[])}. This is the part of
+   * writing a run that does not depend on other topics, so that it can be done by the thread that searched the topic.
+   *
+   * @param docs results of the topic
+   * @return encoded results
+   */
+  public static byte[] encode(ScoredDocuments docs) {
+    GrowableByteArrayDataOutput out = new GrowableByteArrayDataOutput(docs.scores.length * 16 + 8);
+    try {
+      out.writeVInt(docs.scores.length);
+      for (int i = 0; i < docs.scores.length; i++) {
+        out.writeString(docs.docid(i));
+      }
+      for (int i = 0; i < docs.scores.length; i++) {
+        out.writeInt(Float.floatToRawIntBits(docs.scores[i]));
+      }
+    } catch (IOException e) {
+      // Not thrown when writing to an array.
+      throw new IllegalStateException(e);
+    }
+    return Arrays.copyOf(out.getBytes(), out.getPosition());
+  }
+
+  /**
+   * Writes a binary run. A writer is not thread-safe.
+   */
+  public static final class Writer implements Closeable {
+    private final OutputStreamDataOutput out;
+    private final String runTag;
+    private final BytesRefHash qids = new BytesRefHash();
+    private final BytesRefHash docids = new BytesRefHash();
+    private final ByteArrayDataInput in = new ByteArrayDataInput();
+    private final BytesRef docid = new BytesRef();
+    private int[] ords = new int[1024];
+    private long position = HEADER_LENGTH;
+    private int numTopics = 0;
+
+    /**
+     * Creates a run.
+     *
+     * @param path run file
+     * @param runTag run tag, written to the run in TREC format by the converter
+     * @throws IOException if the file cannot be created
+     */
+    public Writer(Path path, String runTag) throws IOException {
+      this.out = new OutputStreamDataOutput(new BufferedOutputStream(Files.newOutputStream(path), 1 << 20));
+      this.runTag = runTag;
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+    }
+
+    /**
+     * Adds the results of a topic.
+     *
+     * @param qid topic id
+     * @param topic results of the topic, see {@link BinaryRun#encode(ScoredDocuments)}
+     * @throws IOException if the run cannot be written
+     */
+    public void add(String qid, byte[] topic) throws IOException {
+      in.reset(topic);
+      int size = in.readVInt();
+      if (ords.length < size) {
+        ords = new int[Math.max(size, ords.length * 2)];
+      }
+      docid.bytes = topic;
+      for (int i = 0; i < size; i++) {
+        docid.length = in.readVInt();
+        docid.offset = in.getPosition();
+        ords[i] = ordinal(docids, docid);
+        in.skipBytes(docid.length);
+      }
+      int scores = in.getPosition();
+
+      position += writeVInt(ordinal(qids, new BytesRef(qid)));
+      position += writeVInt(size);
+      for (int i = 0; i < size; i++) {
+        position += writeVInt(ords[i]);
+      }
+      out.writeBytes(topic, scores, size * Integer.BYTES);
+      position += size * Integer.BYTES;
+      numTopics++;
+    }
+
+    /**
+     * Adds the results of a topic.
+     *
+     * @param qid topic id
+     * @param docs results of the topic
+     * @throws IOException if the run cannot be written
+     */
+    public void add(String qid, ScoredDocuments docs) throws IOException {
+      add(qid, encode(docs));
+    }
+
+    private static int ordinal(BytesRefHash hash, BytesRef bytes) {
+      int ord = hash.add(bytes);
+      return ord >= 0 ? ord : -ord - 1;
+    }
+
+    private int writeVInt(int i) throws IOException {
+      int bytes = 1;
+      while ((i & ~0x7F) != 0) {
+        out.writeByte((byte) ((i & 0x7F) | 0x80));
+        i >>>= 7;
+        bytes++;
+      }
+      out.writeByte((byte) i);
+      return bytes;
+    }
+
+    /**
+     * Writes the dictionaries and closes the run.
+     *
+     * @throws IOException if the run cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+      try {
+        long footer = position;
+        out.writeString(runTag);
+        writeDictionary(qids);
+        writeDictionary(docids);
+        out.writeVInt(numTopics);
+        out.writeLong(footer);
+        out.writeInt(MAGIC);
+      } finally {
+        out.close();
+      }
+    }
+
+    private void writeDictionary(BytesRefHash hash) throws IOException {
+      BytesRef bytes = new BytesRef();
+      out.writeVInt(hash.size());
+      for (int ord = 0; ord < hash.size(); ord++) {
+        hash.get(ord, bytes);
+        out.writeVInt(bytes.length);
+        out.writeBytes(bytes.bytes, bytes.offset, bytes.length);
+      }
+    }
+  }
+
+  /**
+   * Reads a binary run, topic by topic. The docids are held as bytes, and only decoded when they are asked for.
+   */
+  public static final class Reader implements Closeable {
+    private final String runTag;
+    private final String[] qids;
+    // Docids of all ordinals: UTF-8 bytes, ordinal i at offsets[i] to offsets[i + 1].
+    private final byte[] docids;
+    private final int[] offsets;
+    private final int numTopics;
+    private final InputStreamDataInput in;
+    private int read = 0;
+    private int qid = -1;
+    private int size = 0;
+    private int[] ords = new int[1024];
+    private float[] scores = new float[1024];
+
+    /**
+     * Opens a run.
+     *
+     * @param path run file
+     * @throws IOException if the file cannot be read or is not a binary run
+     */
+    public Reader(Path path) throws IOException {
+      long footer;
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_LENGTH);
+        if (channel.size() < HEADER_LENGTH + TRAILER_LENGTH) {
+          throw new IllegalArgumentException(path + " is not a binary run");
+        }
+        readFully(channel, header, 0);
+        readFully(channel, trailer, channel.size() - TRAILER_LENGTH);
+        if (header.getInt(0) != MAGIC || trailer.getInt(8) != MAGIC) {
+          throw new IllegalArgumentException(path + " is not a binary run");
+        }
+        if (header.getInt(4) != VERSION) {
+          throw new IllegalArgumentException(String.format("%s has version %d, expected %d", path,
+              header.getInt(4), VERSION));
+        }
+        footer = trailer.getLong(0);
+        channel.position(footer);
+        InputStreamDataInput footerIn =
+            new InputStreamDataInput(new BufferedInputStream(Channels.newInputStream(channel)));
+        runTag = footerIn.readString();
+        qids = new String[footerIn.readVInt()];
+        for (int i = 0; i < qids.length; i++) {
+          qids[i] = footerIn.readString();
+        }
+        offsets = new int[footerIn.readVInt() + 1];
+        byte[] bytes = new byte[Math.max(16, (offsets.length - 1) * 8)];
+        for (int i = 0; i < offsets.length - 1; i++) {
+          int length = footerIn.readVInt();
+          if (offsets[i] + length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, offsets[i] + length));
+          }
+          footerIn.readBytes(bytes, offsets[i], length);
+          offsets[i + 1] = offsets[i] + length;
+        }
+        docids = bytes;
+        numTopics = footerIn.readVInt();
+      }
+      InputStreamDataInput body = new InputStreamDataInput(new BufferedInputStream(Files.newInputStream(path), 1 << 20));
+      body.skipBytes(HEADER_LENGTH);
+      this.in = body;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, position + buffer.position()) < 0) {
+          throw new EOFException();
+        }
+      }
+    }
+
+    /**
+     * Returns the run tag.
+     */
+    public String runTag() {
+      return runTag;
+    }
+
+    /**
+     * Returns the number of topics.
+     */
+    public int numTopics() {
+      return numTopics;
+    }
+
+    /**
+     * Returns the number of distinct docids of the run.
+     */
+    public int numDocids() {
+      return offsets.length - 1;
+    }
+
+    /**
+     * Returns the docid of an ordinal.
+     *
+     * @param ord docid ordinal
+     * @return docid
+     */
+    public String docid(int ord) {
+      return new String(docids, offsets[ord], offsets[ord + 1] - offsets[ord], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Moves to the next topic.
+     *
+     * @return false if there are no more topics
+     * @throws IOException if the run cannot be read
+     */
+    public boolean next() throws IOException {
+      if (read == numTopics) {
+        return false;
+      }
+      read++;
+      qid = in.readVInt();
+      size = in.readVInt();
+      if (ords.length < size) {
+        ords = new int[Math.max(size, ords.length * 2)];
+        scores = new float[ords.length];
+      }
+      for (int i = 0; i < size; i++) {
+        ords[i] = in.readVInt();
+      }
+      for (int i = 0; i < size; i++) {
+        scores[i] = Float.intBitsToFloat(in.readInt());
+      }
+      return true;
+    }
+
+    /**
+     * Returns the id of the current topic.
+     */
+    public String qid() {
+      return qids[qid];
+    }
+
+    /**
+     * Returns the number of documents of the current topic.
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Returns the docid ordinal of a document of the current topic.
+     *
+     * @param i rank of the document, starting at 0
+     * @return docid ordinal, see {@link #docid(int)}
+     */
+    public int ord(int i) {
+      return ords[i];
+    }
+
+    /**
+     * Returns the score of a document of the current topic.
+     *
+     * @param i rank of the document, starting at 0
+     * @return score
+     */
+    public float score(int i) {
+      return scores[i];
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * Converts a binary run to a run in TREC format.
+   *
+   * @param input binary run
+   * @param output run in TREC format
+   * @throws IOException if a run cannot be read or written
+   */
+  public static void toTrec(Path input, Path output) throws IOException {
+    try (Reader reader = new Reader(input);
+         OutputStream out = new BufferedOutputStream(Files.newOutputStream(output), 1 << 20)) {
+      TrecRunFormatter formatter = new TrecRunFormatter(reader.runTag());
+      while (reader.next()) {
+        formatter.reset().topic(reader.qid());
+        for (int i = 0; i < reader.size(); i++) {
+          formatter.add(reader.docid(reader.ord(i)), i + 1, reader.score(i));
+        }
+        formatter.writeTo(out);
+      }
+    }
+  }
+
+  public static final class Args {
+    @Option(name = "-input", metaVar = "[file]", required = true, usage = "binary run")
+    public String input;
+
+    @Option(name = "-output", metaVar = "[file]", required = true, usage = "run in TREC format")
+    public String output;
+  }
+
+  public static void main(String[] argv) throws IOException {
+    Args args = new Args();
+    CmdLineParser parser = new CmdLineParser(args, ParserProperties.defaults().withUsageWidth(90));
+
+    try {
+      parser.parseArgument(argv);
+    } catch (CmdLineException e) {
+      System.err.println(e.getMessage());
+      parser.printUsage(System.err);
+      return;
+    }
+
+    toTrec(Paths.get(args.input), Paths.get(args.output));
+  }
+}
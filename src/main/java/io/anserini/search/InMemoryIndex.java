@@ -0,0 +1,186 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.ByteBuffersDataOutput;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.SingleInstanceLockFactory;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Collection;
+
+/**
+ * Opens an index so that it is resident in memory before the first query, and warms up the data structures that
+ * queries read.
+ */
+public final class InMemoryIndex {
+
+  public enum Mode {
+    // Memory-mapped, and read into the page cache when the index is opened.
+    PRELOAD,
+    // Copied into the Java heap.
+    HEAP,
+    // Copied into direct buffers, outside the Java heap.
+    OFFHEAP
+  }
+
+  private InMemoryIndex() {}
+
+  /**
+   * Opens the directory of an index in memory.
+   *
+   * @param path index path
+   * @param mode how the index is held in memory
+   * @return directory
+   * @throws IOException if the index cannot be read
+   */
+  public static Directory open(Path path, Mode mode) throws IOException {
+    if (mode == Mode.PRELOAD) {
+      MMapDirectory dir = new MMapDirectory(path);
+      dir.setPreload(true);
+      return dir;
+    }
+
+    ByteBuffersDirectory dir;
+    if (mode == Mode.OFFHEAP) {
+      dir = new ByteBuffersDirectory(new SingleInstanceLockFactory(),
+          () -> new ByteBuffersDataOutput(ByteBuffersDataOutput.DEFAULT_MIN_BITS_PER_BLOCK,
+              ByteBuffersDataOutput.DEFAULT_MAX_BITS_PER_BLOCK, ByteBuffer::allocateDirect, buffer -> {}),
+          ByteBuffersDirectory.OUTPUT_AS_MANY_BUFFERS);
+    } else {
+      dir = new ByteBuffersDirectory();
+    }
+    try (Directory source = FSDirectory.open(path)) {
+      for (String file : source.listAll()) {
+        dir.copyFrom(source, file, file, IOContext.READONCE);
+      }
+    }
+    return dir;
+  }
+
+  /**
+   * Reads the term dictionaries, norms and doc values of some fields in all segments, so that they are paged in (and
+   * the code that reads them compiled) before the first query.
+   *
+   * @param reader index reader
+   * @param fields fields in use; fields that do not exist are skipped
+   * @return number of values read
+   * @throws IOException if the index cannot be read
+   */
+  public static long warm(IndexReader reader, Collection<String> fields) throws IOException {
+    long values = 0;
+    for (LeafReaderContext context : reader.leaves()) {
+      LeafReader leaf = context.reader();
+      for (String field : fields) {
+        FieldInfo info = leaf.getFieldInfos().fieldInfo(field);
+        if (info == null) {
+          continue;
+        }
+        if (info.getIndexOptions() != IndexOptions.NONE) {
+          Terms terms = leaf.terms(field);
+          if (terms != null) {
+            TermsEnum termsEnum = terms.iterator();
+            while (termsEnum.next() != null) {
+              values += termsEnum.docFreq();
+            }
+          }
+          if (info.hasNorms()) {
+            NumericDocValues norms = leaf.getNormValues(field);
+            while (norms.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+              values += norms.longValue() == 0 ? 0 : 1;
+            }
+          }
+        }
+        values += warmDocValues(leaf, info);
+      }
+    }
+    return values;
+  }
+
+  private static long warmDocValues(LeafReader leaf, FieldInfo info) throws IOException {
+    long values = 0;
+    String field = info.name;
+    switch (info.getDocValuesType()) {
+      case NUMERIC:
+        NumericDocValues numeric = leaf.getNumericDocValues(field);
+        while (numeric.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+          values += numeric.longValue() == 0 ? 0 : 1;
+        }
+        break;
+      case BINARY:
+        BinaryDocValues binary = leaf.getBinaryDocValues(field);
+        while (binary.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+          values += binary.binaryValue().length > 0 ? 1 : 0;
+        }
+        break;
+      case SORTED:
+        SortedDocValues sorted = leaf.getSortedDocValues(field);
+        while (sorted.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+          values += sorted.ordValue() >= 0 ? 1 : 0;
+        }
+        values += warmTerms(leaf.getSortedDocValues(field).termsEnum());
+        break;
+      case SORTED_NUMERIC:
+        SortedNumericDocValues sortedNumeric = leaf.getSortedNumericDocValues(field);
+        while (sortedNumeric.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+          values += sortedNumeric.docValueCount();
+        }
+        break;
+      case SORTED_SET:
+        SortedSetDocValues sortedSet = leaf.getSortedSetDocValues(field);
+        while (sortedSet.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+          while (sortedSet.nextOrd() != SortedSetDocValues.NO_MORE_ORDS) {
+            values++;
+          }
+        }
+        values += warmTerms(leaf.getSortedSetDocValues(field).termsEnum());
+        break;
+      default:
+        break;
+    }
+    return values;
+  }
+
+  private static long warmTerms(TermsEnum termsEnum) throws IOException {
+    long values = 0;
+    BytesRef term;
+    while ((term = termsEnum.next()) != null) {
+      values += term.length > 0 ? 1 : 0;
+    }
+    return values;
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies with fixed buckets, for services that run for a long time (unlike {@link LatencyStats}, its
+ * memory does not grow with the number of queries). Thread-safe, without locks.
+ */
+public final class LatencyHistogram {
+  // Upper bounds of the buckets in seconds; the last bucket has no upper bound.
+  static final double[] BOUNDS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+  private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sumNanos = new AtomicLong();
+
+  /**
+   * Records a latency.
+   *
+   * @param latencyNanos latency in nanoseconds
+   */
+  public void record(long latencyNanos) {
+    double seconds = latencyNanos / 1e9;
+    int bucket = 0;
+    while (bucket < BOUNDS.length && seconds > BOUNDS[bucket]) {
+      bucket++;
+    }
+    counts.incrementAndGet(bucket);
+    sumNanos.addAndGet(latencyNanos);
+    count.incrementAndGet();
+  }
+
+  /**
+   * Returns the number of recorded latencies.
+   */
+  public long count() {
+    return count.get();
+  }
+
+  /**
+   * Returns the upper bound of the bucket that holds a percentile of the latencies (infinite for the last bucket), or
+   * 0 if nothing was recorded.
+   *
+   * @param percentile percentile, between 0 and 100
+   * @return upper bound in seconds
+   */
+  public double percentile(double percentile) {
+    long total = 0;
+    long[] snapshot = new long[counts.length()];
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+    long seen = 0;
+    for (int i = 0; i < BOUNDS.length; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return BOUNDS[i];
+      }
+    }
+    return Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Forgets all recorded latencies, e.g. those of warmup queries. Latencies recorded at the same time may be partly
+   * kept.
+   */
+  public void clear() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0);
+    }
+    sumNanos.set(0);
+    count.set(0);
+  }
+
+  /**
+   * Appends the histogram in the Prometheus text format: cumulative buckets, sum and count. The {@code # TYPE} line
+   * is left to the caller, as it is written once for the histograms of all label values.
+   *
+   * @param out output
+   * @param name metric name
+   * @param labels labels of the histogram, e.g. {@code endpoint="search"}
+   */
+  public void appendTo(StringBuilder out, String name, String labels) {
+    long cumulative = 0;
+    for (int i = 0; i <= BOUNDS.length; i++) {
+      cumulative += counts.get(i);
+      String bound = i < BOUNDS.length ? String.format(Locale.US, "%s", BOUNDS[i]) : "+Inf";
+      out.append(name).append("_bucket{").append(labels).append(",le=\"").append(bound).append("\"} ")
+          .append(cumulative).append('\n');
+    }
+    out.append(name).append("_sum{").append(labels).append("} ")
+        .append(String.format(Locale.US, "%.6f", sumNanos.get() / 1e9)).append('\n');
+    out.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+  }
+
+  @Override
+  public String toString() {
+    long n = count.get();
+    return String.format(Locale.US, "%d queries, mean %.2f ms, p50 <= %s ms, p99 <= %s ms", n,
+        n == 0 ? 0.0 : sumNanos.get() / 1e6 / n, bound(percentile(50)), bound(percentile(99)));
+  }
+
+  private static String bound(double seconds) {
+    return Double.isInfinite(seconds) ? "inf" : String.format(Locale.US, "%.1f", seconds * 1000);
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Latencies of queries, for percentiles. Up to {@link #MAX_SAMPLES} latencies are kept and the percentiles are exact;
+ * beyond that, a uniform sample of them is kept (reservoir sampling), so that memory does not grow with the number of
+ * queries, and the percentiles (except the maximum) are estimates. Thread-safe.
+ */
+public final class LatencyStats {
+  /**
+   * Number of latencies kept.
+   */
+  public static final int MAX_SAMPLES = 1 << 16;
+
+  private long[] nanos = new long[1024];
+  private int size = 0;
+  private long count = 0;
+  private long max = 0;
+  private final Random random = new Random(0);
+
+  /**
+   * Records the latency of a query.
+   *
+   * @param latencyNanos latency in nanoseconds
+   */
+  public synchronized void record(long latencyNanos) {
+    count++;
+    max = Math.max(max, latencyNanos);
+    if (size < MAX_SAMPLES) {
+      if (size == nanos.length) {
+        nanos = Arrays.copyOf(nanos, 2 * size);
+      }
+      nanos[size++] = latencyNanos;
+    } else {
+      // Keeps the latency with probability MAX_SAMPLES / count, in place of a random one.
+      long slot = (long) (random.nextDouble() * count);
+      if (slot < MAX_SAMPLES) {
+        nanos[(int) slot] = latencyNanos;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of recorded queries.
+   */
+  public synchronized long count() {
+    return count;
+  }
+
+  /**
+   * Returns a percentile of the latencies (nearest rank), or 0 if no query was recorded.
+   *
+   * @param percentile percentile, between 0 and 100
+   * @return latency in nanoseconds
+   */
+  public synchronized long percentile(double percentile) {
+    if (size == 0) {
+      return 0;
+    }
+    if (percentile >= 100) {
+      return max;
+    }
+    long[] sorted = Arrays.copyOf(nanos, size);
+    Arrays.sort(sorted);
+    int rank = (int) Math.ceil(percentile / 100.0 * size);
+    return sorted[Math.min(size, Math.max(1, rank)) - 1];
+  }
+
+  /**
+   * Forgets all recorded latencies, e.g. those of warmup queries.
+   */
+  public synchronized void clear() {
+    size = 0;
+    count = 0;
+    max = 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(Locale.US, "%d queries, p50 %.2f ms, p99 %.2f ms, max %.2f ms", count,
+        percentile(50) / 1e6, percentile(99) / 1e6, percentile(100) / 1e6);
+  }
+}
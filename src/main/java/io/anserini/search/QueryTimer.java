@@ -0,0 +1,151 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the wall-clock time and the CPU time of one query. The CPU time includes the time spent by the threads of
+ * a {@link SegmentExecutor} on the segments of the query, so that the ratio of both shows how well the query was
+ * parallelized. CPU time is reported as 0 if the JVM does not measure thread CPU time.
+ *
+ * <p>A timer is started and stopped by the thread that runs the query. A query whose reranking is handed to other
+ * threads (see {@link #detach()}) is stopped by the thread that finishes it.</p>
+ */
+public final class QueryTimer {
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+  private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+  private static final ThreadLocal<QueryTimer> CURRENT = new ThreadLocal<>();
+
+  private final Thread owner;
+  private final long startWall;
+  private final long startCpu;
+  // CPU time of the tasks run for this query on other threads.
+  private final AtomicLong otherCpu = new AtomicLong();
+  // CPU time of the thread that started the query until it was detached, or -1.
+  private volatile long detachedCpu = -1;
+  private long wallNanos = -1;
+  private long cpuNanos = -1;
+
+  private QueryTimer() {
+    this.owner = Thread.currentThread();
+    this.startWall = System.nanoTime();
+    this.startCpu = threadCpuTime();
+  }
+
+  /**
+   * Starts timing a query on the current thread.
+   *
+   * @return timer of the query
+   */
+  public static QueryTimer start() {
+    QueryTimer timer = new QueryTimer();
+    CURRENT.set(timer);
+    return timer;
+  }
+
+  /**
+   * Returns the timer of the query running on the current thread, or null.
+   */
+  static QueryTimer current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Returns the CPU time of the current thread in nanoseconds, or 0 if it is not measured.
+   */
+  static long threadCpuTime() {
+    return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : 0;
+  }
+
+  /**
+   * Adds the CPU time of a task of this query run on the current thread.
+   *
+   * @param nanos CPU time of the task
+   */
+  void addCpuTime(long nanos) {
+    // Tasks that ran on the thread of the query itself are already counted, unless it handed the query off.
+    if (detachedCpu >= 0 || Thread.currentThread() != owner) {
+      otherCpu.addAndGet(nanos);
+    }
+  }
+
+  /**
+   * Detaches this timer from the thread that started it, which hands the rest of the query to other threads: its CPU
+   * time so far is kept, and the tasks of the query on other threads add theirs, see {@link #run(Runnable)}.
+   */
+  void detach() {
+    detachedCpu = threadCpuTime() - startCpu;
+    if (CURRENT.get() == this) {
+      CURRENT.remove();
+    }
+  }
+
+  /**
+   * Runs a task of the query on the current thread (the rest of a detached query, or a part of the query that its
+   * thread waits for), and adds its CPU time to the query, with that of the segment tasks it starts.
+   *
+   * @param task task of the query
+   */
+  void run(Runnable task) {
+    QueryTimer previous = CURRENT.get();
+    CURRENT.set(this);
+    long start = threadCpuTime();
+    try {
+      task.run();
+    } finally {
+      addCpuTime(threadCpuTime() - start);
+      if (previous == null) {
+        CURRENT.remove();
+      } else {
+        CURRENT.set(previous);
+      }
+    }
+  }
+
+  /**
+   * Stops the timer.
+   *
+   * @return this timer
+   */
+  public QueryTimer stop() {
+    if (wallNanos < 0) {
+      wallNanos = System.nanoTime() - startWall;
+      cpuNanos = (detachedCpu >= 0 ? detachedCpu : threadCpuTime() - startCpu) + otherCpu.get();
+      if (CURRENT.get() == this) {
+        CURRENT.remove();
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Returns the wall-clock time of the query in nanoseconds, once stopped.
+   */
+  public long wallNanos() {
+    return wallNanos;
+  }
+
+  /**
+   * Returns the CPU time of the query in nanoseconds, over all threads, once stopped.
+   */
+  public long cpuNanos() {
+    return cpuNanos;
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Passes the results of topics to the output of a run sorted by topic id, with an external merge sort: results are
+ * buffered up to a number of bytes, then sorted and spilled to a temporary file next to the run, and the spills are
+ * merged when the run is finished. Topics with the same id keep the order in which they were added. The results of a
+ * topic are opaque bytes, run lines (see {@link TrecRunFormatter}) or a topic of a binary run (see {@link BinaryRun}).
+ */
+final class RunSorter {
+  private final Path output;
+  private final Comparator<String> order;
+  private final long maxBufferedBytes;
+  private final List<Topic> buffer = new ArrayList<>();
+  private long bufferedBytes = 0;
+  private final List<Path> spills = new ArrayList<>();
+
+  /**
+   * Destination of the sorted topics.
+   */
+  interface Output {
+    void write(String qid, byte[] topic) throws IOException;
+  }
+
+  private static final class Topic {
+    final String qid;
+    final byte[] results;
+
+    Topic(String qid, byte[] results) {
+      this.qid = qid;
+      this.results = results;
+    }
+  }
+
+  /**
+   * Creates a sorter.
+   *
+   * @param output run file, next to which the temporary files are written
+   * @param order order of the topic ids
+   * @param maxBufferedBytes bytes of results held in memory before they are spilled
+   */
+  RunSorter(Path output, Comparator<String> order, long maxBufferedBytes) {
+    this.output = output.toAbsolutePath();
+    this.order = order;
+    this.maxBufferedBytes = maxBufferedBytes;
+  }
+
+  /**
+   * Adds the results of a topic.
+   *
+   * @param qid topic id
+   * @param results results of the topic
+   * @throws IOException if a spill cannot be written
+   */
+  void add(String qid, byte[] results) throws IOException {
+    buffer.add(new Topic(qid, results));
+    bufferedBytes += 2 * qid.length() + results.length;
+    if (bufferedBytes >= maxBufferedBytes) {
+      spill();
+    }
+  }
+
+  /**
+   * Returns the number of temporary files written so far.
+   */
+  int spills() {
+    return spills.size();
+  }
+
+  private void sortBuffer() {
+    // Stable, so topics with the same id stay in order.
+    buffer.sort((a, b) -> order.compare(a.qid, b.qid));
+  }
+
+  private void spill() throws IOException {
+    sortBuffer();
+    Path spill = Files.createTempFile(output.getParent(), output.getFileName().toString(), ".spill");
+    spills.add(spill);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spill)))) {
+      for (Topic topic : buffer) {
+        out.writeUTF(topic.qid);
+        out.writeInt(topic.results.length);
+        out.write(topic.results);
+      }
+    }
+    buffer.clear();
+    bufferedBytes = 0;
+  }
+
+  // A spill being merged, positioned at its next topic.
+  private static final class Spill {
+    final int index;
+    final DataInputStream in;
+    String qid;
+    byte[] results;
+
+    Spill(int index, Path path) throws IOException {
+      this.index = index;
+      this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+    }
+
+    boolean next() throws IOException {
+      try {
+        qid = in.readUTF();
+      } catch (EOFException e) {
+        in.close();
+        return false;
+      }
+      results = new byte[in.readInt()];
+      in.readFully(results);
+      return true;
+    }
+  }
+
+  /**
+   * Passes all topics to the output in order, and deletes the temporary files.
+   *
+   * @param out output of the run
+   * @throws IOException if the run cannot be written
+   */
+  void finish(Output out) throws IOException {
+    try {
+      if (spills.isEmpty()) {
+        sortBuffer();
+        for (Topic topic : buffer) {
+          out.write(topic.qid, topic.results);
+        }
+        buffer.clear();
+        return;
+      }
+      if (!buffer.isEmpty()) {
+        spill();
+      }
+      PriorityQueue<Spill> heap = new PriorityQueue<>((a, b) -> {
+        int c = order.compare(a.qid, b.qid);
+        return c != 0 ? c : Integer.compare(a.index, b.index);
+      });
+      for (int i = 0; i < spills.size(); i++) {
+        Spill spill = new Spill(i, spills.get(i));
+        if (spill.next()) {
+          heap.add(spill);
+        }
+      }
+      while (!heap.isEmpty()) {
+        Spill spill = heap.poll();
+        out.write(spill.qid, spill.results);
+        if (spill.next()) {
+          heap.add(spill);
+        }
+      }
+    } finally {
+      for (Path spill : spills) {
+        Files.deleteIfExists(spill);
+      }
+    }
+  }
+
+  /**
+   * Deletes the temporary files without writing the run.
+   *
+   * @throws IOException if a file cannot be deleted
+   */
+  void discard() throws IOException {
+    buffer.clear();
+    for (Path spill : spills) {
+      Files.deleteIfExists(spill);
+    }
+  }
+}
@@ -30,19 +30,73 @@ public class SearchArgs {
   @Option(name = "-output", metaVar = "[file]", required = true, usage = "output file")
   public String output;
 
+  @Option(name = "-output.binary", usage = "Write runs in the binary format of BinaryRun (docid and topic id " +
+      "dictionaries, float scores) instead of TREC format; BinaryRun converts them back to TREC format")
+  public boolean output_binary = false;
+
   @Option(name = "-topicreader", required = true, usage = "define how to read the topic(query) file: one of [Trec|Webxml]")
   public String topicReader;
 
+  @Option(name = "-topics.stream", usage = "Search the topics as they are read, without holding all of them in memory " +
+      "(topic readers TsvInt and TsvString); runs are written in topic file order")
+  public boolean topics_stream = false;
+
+  @Option(name = "-topics.stream.window", metaVar = "[Number]", depends = {"-topics.stream"},
+      usage = "Number of topics that are read ahead of the oldest topic whose results are not written yet")
+  public int topics_stream_window = 10000;
+
+  @Option(name = "-topics.stream.sorted", depends = {"-topics.stream"}, usage = "Write the runs of streamed topics " +
+      "sorted by topic id, as without -topics.stream, using an external merge sort")
+  public boolean topics_stream_sorted = false;
+
   // optional arguments
-  @Option(name = "-threads", metaVar = "[Number]", usage = "Number of Threads")
+  @Option(name = "-threads", metaVar = "[Number]", usage = "Number of threads; topics are searched in parallel")
   public int threads = 1;
 
+  @Option(name = "-segmentThreads", metaVar = "[Number]", usage = "Number of threads, shared by all queries, that " +
+      "search the segments of a query in parallel; capped so that -threads plus segment threads do not exceed the " +
+      "number of cores (default 0: segments are searched sequentially)")
+  public int segmentThreads = 0;
+
+  @Option(name = "-slices.maxDocs", metaVar = "[Number]", depends = {"-segmentThreads"},
+      usage = "Small segments are merged into slices of up to this many documents (default 250000)")
+  public int slices_maxDocs = SlicedIndexSearcher.DEFAULT_MAX_DOCS_PER_SLICE;
+
+  @Option(name = "-slices.maxSegments", metaVar = "[Number]", depends = {"-segmentThreads"},
+      usage = "Maximum number of segments merged into one slice (default 5)")
+  public int slices_maxSegments = SlicedIndexSearcher.DEFAULT_MAX_SEGMENTS_PER_SLICE;
+
+  @Option(name = "-eval.qrels", metaVar = "[file]", usage = "Evaluate every run in the JVM against these qrels, " +
+      "with the same numbers as trec_eval, and log the metrics of every combination of similarity and reranker")
+  public String eval_qrels = null;
+
+  @Option(name = "-eval.metrics", handler = StringArrayOptionHandler.class, depends = {"-eval.qrels"},
+      usage = "Metrics to evaluate, with trec_eval names: map, P.k, recall.k, ndcg_cut.k, ndcg, recip_rank")
+  public String[] eval_metrics = new String[]{"map", "P.30", "ndcg_cut.20", "recall.1000"};
+
+  @Option(name = "-eval.only", depends = {"-eval.qrels"}, usage = "Evaluate the runs without writing them")
+  public boolean eval_only = false;
+
+  @Option(name = "-queryTimes", metaVar = "[file]", usage = "Write the wall-clock and CPU time of every query to a " +
+      "file, one line per topic and similarity; the CPU time of every reranker and the time of the stages of " +
+      "reranking are logged")
+  public String queryTimes = null;
+
   @Option(name = "-language", usage = "Analyzer Language")
   public String language = "en";
 
-  @Option(name = "-inmem", usage = "Boolean switch to read index in memory")
+  @Option(name = "-inmem", usage = "Boolean switch to read index in memory, see -inmem.mode")
   public Boolean inmem = false;
 
+  @Option(name = "-inmem.mode", depends = {"-inmem"}, usage = "How the index is held in memory: PRELOAD " +
+      "(memory-mapped and read into the page cache when opened), HEAP (copied into the Java heap) or OFFHEAP " +
+      "(copied into direct buffers); default PRELOAD")
+  public InMemoryIndex.Mode inmem_mode = InMemoryIndex.Mode.PRELOAD;
+
+  @Option(name = "-warmup", metaVar = "[Number]", usage = "Before searching, read the term dictionaries, norms and " +
+      "doc values of the fields in use, and search this many topics (sampled evenly) without writing their results")
+  public int warmup = 0;
+
   @Option(name = "-topicfield", usage = "Which field of the query should be used, default \"title\"." +
       " For TREC ad hoc topics, description or narrative can be used.")
   public String topicfield = "title";
@@ -73,6 +127,11 @@ public class SearchArgs {
       "for the TREC News Track Background Linking task.")
   public boolean backgroundlinking_datefilter = false;
 
+  @Option(name = "-backgroundlinking.threads", metaVar = "[Number]", depends = {"-backgroundlinking.paragraph"},
+      usage = "number of threads running the paragraph queries of the topics in parallel, shared by all topics " +
+          "(default 0: as many as -threads; 1 runs them on the searcher threads)")
+  public int backgroundlinking_threads = 0;
+
   @Option(name = "-stemmer", usage = "Stemmer: one of the following porter,krovetz,none. Default porter")
   public String stemmer = "porter";
 
@@ -204,9 +263,41 @@ public class SearchArgs {
   @Option(name = "-slr.model", usage = "python model and arguments to obtain the query SLR. If not present, preprocessed input is assumed")
   public String slr_model = "";
 
+  @Option(name = "-slr.workers", metaVar = "[n]", usage = "number of persistent encoder processes started for -slr.model")
+  public int slr_workers = 1;
+
+  @Option(name = "-slr.batchSize", metaVar = "[n]", usage = "maximum number of queries sent to an encoder process in one request")
+  public int slr_batchsize = 32;
+
+  @Option(name = "-slr.queryCache", metaVar = "[file]",
+      usage = "file in which the query representations computed by -slr.model are cached, keyed by model and query")
+  public String slr_query_cache = "";
+
   @Option(name = "-slr.ip", metaVar = "[value]", usage = "SLR decimal index precision (default=5)")
   public int slr_index_precision = 7;
 
+  @Option(name = "-slr.saat", metaVar = "[file]",
+      usage = "impact-ordered index built with ImpactOrderedIndex; SLR queries are evaluated score-at-a-time on it")
+  public String slr_saat = "";
+
+  @Option(name = "-slr.budget.postings", metaVar = "[n]", depends = {"-slr.saat"},
+      usage = "score-at-a-time: maximum number of postings processed per query (0 = no limit)")
+  public long slr_budget_postings = 0;
+
+  @Option(name = "-slr.budget.micros", metaVar = "[us]", depends = {"-slr.saat"},
+      usage = "score-at-a-time: maximum evaluation time per query in microseconds (0 = no limit)")
+  public long slr_budget_micros = 0;
+
+  @Option(name = "-slr.rescore", metaVar = "[n]",
+      usage = "two-stage SLR retrieval: number of candidates rescored with the exact dot product of the forward " +
+          "vectors (indexed with -slr.append); 0 = single stage")
+  public int slr_rescore = 0;
+
+  @Option(name = "-slr.rescore.dims", metaVar = "[n]", depends = {"-slr.rescore"},
+      usage = "two-stage SLR retrieval: number of query dimensions with the largest weights used to retrieve the " +
+          "candidates (0 = all)")
+  public int slr_rescore_dims = 0;
+
   // --------------------------
   // query expansion model: rm3
   // --------------------------
@@ -269,6 +360,24 @@ public class SearchArgs {
       usage = "bm25PRF parameter: print original and expanded queries")
   public boolean bm25prf_outputQuery = false;
 
+  @Option(name = "-rerank.vectorCache", metaVar = "[MB]",
+      usage = "memory of the term vectors of feedback documents (-rm3, -bm25prf), and of their terms, cached across " +
+          "all queries and cascades of the run (0 = cache per query only)")
+  public int rerank_vector_cache = 64;
+
+  @Option(name = "-rerank.pipeline", usage = "rerank the first-stage results of the topics on a pool of threads of " +
+      "their own, so that the first stage of the next topics overlaps with feedback estimation and second retrieval")
+  public boolean rerank_pipeline = false;
+
+  @Option(name = "-rerank.threads", metaVar = "[Number]", depends = {"-rerank.pipeline"},
+      usage = "number of reranking threads of -rerank.pipeline (default 0: as many as -threads)")
+  public int rerank_threads = 0;
+
+  @Option(name = "-rerank.inflight", metaVar = "[Number]", depends = {"-rerank.pipeline"},
+      usage = "maximum number of topics in flight with -rerank.pipeline, from the start of their first stage to the " +
+          "end of their reranking (default 0: -threads plus twice the reranking threads)")
+  public int rerank_inflight = 0;
+
   // --------------------------------------------------
   // query expansion model: axiomatic semantic matching
   // --------------------------------------------------
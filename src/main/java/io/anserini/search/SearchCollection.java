@@ -20,11 +20,14 @@ import io.anserini.analysis.AnalyzerUtils;
 import io.anserini.analysis.DefaultEnglishAnalyzer;
 import io.anserini.analysis.TweetAnalyzer;
 import io.anserini.index.IndexArgs;
+import io.anserini.index.IndexReaderUtils;
 import io.anserini.index.generator.TweetGenerator;
 import io.anserini.index.generator.WashingtonPostGenerator;
 import io.anserini.rerank.RerankerCascade;
 import io.anserini.rerank.RerankerContext;
 import io.anserini.rerank.ScoredDocuments;
+import io.anserini.rerank.StageTimes;
+import io.anserini.rerank.TermVectorCache;
 import io.anserini.rerank.lib.AxiomReranker;
 import io.anserini.rerank.lib.BM25PrfReranker;
 import io.anserini.rerank.lib.NewsBackgroundLinkingReranker;
@@ -33,9 +36,15 @@ import io.anserini.rerank.lib.ScoreTiesAdjusterReranker;
 import io.anserini.search.query.BagOfWordsQueryGenerator;
 import io.anserini.search.query.SdmQueryGenerator;
 import io.anserini.search.similarity.AccurateBM25Similarity;
+import io.anserini.search.similarity.MultiSimilarityEvaluator;
 import io.anserini.search.similarity.TaggedSimilarity;
 import io.anserini.search.topicreader.BackgroundLinkingTopicReader;
+import io.anserini.search.topicreader.StreamingTopicReader;
 import io.anserini.search.topicreader.TopicReader;
+import io.anserini.search.topicreader.TopicRecord;
+import io.anserini.search.topicreader.TopicStream;
+import io.anserini.util.CompactQrels;
+import io.anserini.util.TrecEvaluator;
 import org.apache.commons.lang3.time.DurationFormatUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -48,20 +57,23 @@ import org.apache.lucene.analysis.de.GermanAnalyzer;
 import org.apache.lucene.analysis.es.SpanishAnalyzer;
 import org.apache.lucene.analysis.fr.FrenchAnalyzer;
 import org.apache.lucene.analysis.hi.HindiAnalyzer;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.document.LongPoint;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
-import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TotalHits;
 import org.apache.lucene.search.similarities.AfterEffectL;
@@ -76,36 +88,61 @@ import org.apache.lucene.search.similarities.LMDirichletSimilarity;
 import org.apache.lucene.search.similarities.LMJelinekMercerSimilarity;
 import org.apache.lucene.search.similarities.LambdaDF;
 import org.apache.lucene.search.similarities.NormalizationH2;
+import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.util.BytesRef;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.OptionHandlerFilter;
 import org.kohsuke.args4j.ParserProperties;
 
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import java.util.Vector;
-import io.anserini.search.similarity.SLRSimilarity;
+import io.anserini.index.ImpactOrderedIndex;
+import io.anserini.search.latent.SLREncoder;
+import io.anserini.search.latent.SLRQueryCache;
 import io.anserini.search.latent.SLRQueryGenerator;
+import io.anserini.search.latent.ScoreAtATimeEvaluator;
+import io.anserini.search.latent.SparseDotProductQuery;
+import io.anserini.search.latent.SparseVector;
+import io.anserini.search.latent.SparseVectorRescorer;
 import io.anserini.search.latent.SparseLatentQuery;
 
 /**
@@ -119,6 +156,12 @@ public final class SearchCollection implements Closeable {
           new SortField(TweetGenerator.TweetField.ID_LONG.name, SortField.Type.LONG, true));
 
   private static final Logger LOG = LogManager.getLogger(SearchCollection.class);
+  // Topics per thread that are scheduled together, see scheduleTopics.
+  private static final int SCHEDULING_WINDOW = 64;
+  // Bytes of results of streamed topics that are sorted in memory, see RunSorter.
+  private static final long SORT_BUFFER_BYTES = 64L << 20;
+  // Output buffer of every run, so that runs are written in large sequential writes.
+  private static final int RUN_BUFFER_BYTES = 1 << 20;
 
   private final SearchArgs args;
   private final IndexReader reader;
@@ -126,6 +169,55 @@ public final class SearchCollection implements Closeable {
   private List<TaggedSimilarity> similarities;
   private List<RerankerCascade> cascades;
   private final boolean isRerank;
+  // Started on first use, so that runs with all queries in the cache do not start the model.
+  private SLREncoder slrEncoder;
+  // Representations of all topics, encoded before the searcher threads are started.
+  private volatile Map<String, SparseVector> slrQueryVectors = Collections.emptyMap();
+  // Score-at-a-time evaluation of SLR queries (-slr.saat), with one evaluator (accumulators) per searcher thread.
+  private final ImpactOrderedIndex slrImpactIndex;
+  private final ThreadLocal<ScoreAtATimeEvaluator> slrEvaluators;
+  private final AtomicLong slrQueries = new AtomicLong();
+  private final AtomicLong slrPostings = new AtomicLong();
+  private final AtomicLong slrTotalPostings = new AtomicLong();
+  private final AtomicLong slrEarlyTerminated = new AtomicLong();
+  // Exact rescoring of SLR candidates with the forward vectors (-slr.rescore).
+  private final SparseVectorRescorer slrRescorer;
+  // Evaluates bag-of-words queries with all similarities of a parameter sweep at once, if there are several.
+  private MultiSimilarityEvaluator multiSimilarityEvaluator;
+  // Searches the segments of a query in parallel (-segmentThreads), shared by all searchers.
+  private final SegmentExecutor segmentExecutor;
+  // Whether the wall-clock and CPU time of the queries are reported, their totals, and the time of every query if it is
+  // written out (-queryTimes).
+  private final boolean timeQueries;
+  private final AtomicLong timedQueries = new AtomicLong();
+  private final AtomicLong queryWallNanos = new AtomicLong();
+  private final AtomicLong queryCpuNanos = new AtomicLong();
+  private final List<QueryTime> queryTimes;
+  // With -topics.stream the time of every query is written as it completes instead, in completion order.
+  private PrintWriter queryTimesOut;
+  // Latencies of all topics after the warmup (-warmup), and the time from opening the index to the first topic.
+  private final LatencyStats latencies = new LatencyStats();
+  private final long openStart;
+  private final AtomicBoolean firstQueryLogged = new AtomicBoolean();
+  // Judgments of the runs evaluated in the JVM (-eval.qrels), keyed by Lucene docid.
+  private final CompactQrels evalQrels;
+  // Term vectors of feedback documents, shared by all queries and cascades; null if caching per query.
+  // Renewed between cascades once its term dictionary has outgrown its share of the memory, see termVectors().
+  private volatile TermVectorCache termVectors;
+  // CPU time of the cascades of every reranker tag, if queries are timed.
+  private final Map<String, LatencyStats> rerankTimes = new ConcurrentHashMap<>();
+  // Wall-clock time of the stages of reranked queries, if queries are timed.
+  private final StageTimes stageTimes;
+  // Reranks the first-stage results of the topics with -rerank.pipeline, and bounds the topics in flight.
+  private ExecutorService rerankExecutor;
+  private Semaphore rerankInFlight;
+  // Runs the paragraph queries of background linking topics in parallel (-backgroundlinking.threads).
+  private ExecutorService backgroundLinkingExecutor;
+  // Queries of background linking topics by query docid, built once from the query document and reused by all runs.
+  private final Map<String, List<BackgroundLinkingQuery>> backgroundLinkingQueries = new ConcurrentHashMap<>();
+  // Formats run lines, one formatter (and buffer) per searcher thread.
+  private final ThreadLocal<TrecRunFormatter> runFormatters =
+      ThreadLocal.withInitial(() -> new TrecRunFormatter(runTag()));
 
   public enum QueryConstructor {
     BagOfTerms,
@@ -135,80 +227,409 @@ public final class SearchCollection implements Closeable {
 
   private final QueryConstructor qc;
 
-  private final class SearcherThread<K> extends Thread {
-    final private IndexReader reader;
-    final private IndexSearcher searcher;
-    final private SortedMap<K, Map<String, String>> topics;
-    final private TaggedSimilarity taggedSimilarity;
-    final private RerankerCascade cascade;
+  // Writes the run of one combination of similarity and cascade. Topics are searched in any order by the threads of the
+  // pool, and their results are buffered until all previous topics are done, so that the run is written in topic order.
+  // With streamed topics (-topics.stream), the number of topics is only known at the end, every written (or dropped)
+  // topic releases a permit of the read-ahead window, and the run may be sorted by topic id with a RunSorter. The
+  // results of a topic are encoded by the thread that searched it (see encode), into run lines or a topic of a binary
+  // run (-output.binary), so that writing them in order only copies bytes. Runs may also be evaluated in the JVM
+  // (-eval.qrels), and with -eval.only they are not written at all.
+  private final class RunWriter {
+    final private String id;
     final private String outputPath;
-    final private String runTag;
-
-    private SearcherThread(IndexReader reader, SortedMap<K, Map<String, String>> topics, TaggedSimilarity taggedSimilarity,
-                           RerankerCascade cascade, String outputPath, String runTag) {
-      this.reader = reader;
-      this.topics = topics;
-      this.taggedSimilarity = taggedSimilarity;
-      this.cascade = cascade;
-      this.runTag = runTag;
+    final private OutputStream out;
+    final private BinaryRun.Writer binary;
+    final private RunSorter sorter;
+    final private TrecEvaluator evaluator;
+    final private Semaphore window;
+    // Results of completed topics that wait for previous topics, by topic index.
+    final private Map<Integer, TopicResults> pending = new HashMap<>();
+    private int total;
+    private int next = 0;
+    private int completed = 0;
+    private boolean failed = false;
+    private long start = 0;
+
+    private RunWriter(String id, String outputPath, int numTopics, Semaphore window, Comparator<String> sortOrder)
+        throws IOException {
+      this.id = id;
       this.outputPath = outputPath;
-      this.searcher = new IndexSearcher(this.reader);
-      this.searcher.setSimilarity(this.taggedSimilarity.getSimilarity());
-      setName(outputPath);
+      this.window = window;
+      if (args.eval_only) {
+        this.out = null;
+        this.binary = null;
+      } else if (args.output_binary) {
+        this.out = null;
+        this.binary = new BinaryRun.Writer(Paths.get(outputPath), runTag());
+      } else {
+        this.out = new BufferedOutputStream(Files.newOutputStream(Paths.get(outputPath)), RUN_BUFFER_BYTES);
+        this.binary = null;
+      }
+      this.sorter = sortOrder == null || args.eval_only ? null :
+          new RunSorter(Paths.get(outputPath), sortOrder, SORT_BUFFER_BYTES);
+      this.evaluator = evalQrels == null ? null : new TrecEvaluator(evalQrels, Arrays.asList(args.eval_metrics));
+      this.total = numTopics;
+      if (numTopics == 0) {
+        finish();
+      }
     }
 
-    @Override
-    public void run() {
-      try {
-        String id = String.format("ranker: %s, reranker: %s", taggedSimilarity.getTag(), cascade.getTag());
+    private synchronized boolean isFailed() {
+      return failed;
+    }
+
+    private synchronized void started() {
+      if (start == 0) {
+        start = System.nanoTime();
         LOG.info("[Start] " + id);
+      }
+    }
+
+    // Encodes the results of a topic for this run, and evaluates them; called by the searcher threads. Returns null if
+    // the run is not written.
+    private byte[] encode(String qid, ScoredDocuments docs) {
+      if (evaluator != null) {
+        evaluator.add(qid, docs);
+      }
+      if (binary != null) {
+        return BinaryRun.encode(docs);
+      }
+      return out != null ? runFormatters.get().format(qid, docs) : null;
+    }
 
-        int cnt = 0;
-        final long start = System.nanoTime();
-        PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(outputPath), StandardCharsets.US_ASCII));
-        for (Map.Entry<K, Map<String, String>> entry : topics.entrySet()) {
-          K qid = entry.getKey();
-          String queryString = entry.getValue().get(args.topicfield);
-          ScoredDocuments docs;
-          if (args.searchtweets) {
-            docs = searchTweets(this.searcher, qid, queryString, Long.parseLong(entry.getValue().get("time")), cascade);
-          } else if (args.backgroundlinking) {
-            docs = searchBackgroundLinking(this.searcher, qid, queryString, cascade);
+    // Sets the number of topics, once all streamed topics are read.
+    private synchronized void setTotal(int numTopics) {
+      total = numTopics;
+      if (completed == total) {
+        finish();
+      }
+    }
+
+    private synchronized void fail(int index, String qid) {
+      failed = true;
+      release(pending.size());
+      pending.clear();
+      complete(index, qid, null);
+    }
+
+    // Completes a topic; its results are null if the topic is skipped.
+    private synchronized void complete(int index, String qid, byte[] results) {
+      completed++;
+      if (failed) {
+        release(1);
+      } else {
+        pending.put(index, new TopicResults(qid, results));
+        TopicResults topic;
+        while ((topic = pending.remove(next)) != null) {
+          if (topic.results != null) {
+            write(topic.qid, topic.results);
+          }
+          next++;
+          release(1);
+        }
+        LOG.info(String.format("[%s] %d queries processed", outputPath, completed));
+      }
+      if (completed == total) {
+        finish();
+      }
+    }
+
+    private void write(String qid, byte[] results) {
+      try {
+        if (sorter != null) {
+          sorter.add(qid, results);
+        } else {
+          output(qid, results);
+        }
+      } catch (IOException e) {
+        LOG.error("[Failed] unable to write run " + outputPath, e);
+        failed = true;
+      }
+    }
+
+    private void output(String qid, byte[] results) throws IOException {
+      if (binary != null) {
+        binary.add(qid, results);
+      } else {
+        out.write(results);
+      }
+    }
+
+    private void release(int permits) {
+      if (window != null && permits > 0) {
+        window.release(permits);
+      }
+    }
+
+    private void finish() {
+      try {
+        if (sorter != null) {
+          if (failed) {
+            sorter.discard();
           } else {
-            docs = search(this.searcher, qid, queryString, cascade);
+            sorter.finish(this::output);
           }
+        }
+      } catch (IOException e) {
+        LOG.error("Unable to write run " + outputPath, e);
+        failed = true;
+      } finally {
+        try {
+          if (binary != null) {
+            binary.close();
+          } else if (out != null) {
+            out.close();
+          }
+        } catch (IOException e) {
+          LOG.error("Unable to write run " + outputPath, e);
+          failed = true;
+        }
+      }
+      if (failed) {
+        LOG.error("[Failed] " + id + ", run " + outputPath + " is incomplete");
+        return;
+      }
+      final long durationNanos = start == 0 ? 0 : System.nanoTime() - start;
+      final long durationMillis = TimeUnit.MILLISECONDS.convert(durationNanos, TimeUnit.NANOSECONDS);
+      LOG.info("[End  ] " + id);
+      LOG.info(String.format("%d topics processed in %s (%.1f queries/s)", total,
+          DurationFormatUtils.formatDuration(durationMillis, "HH:mm:ss"),
+          durationNanos == 0 ? 0.0 : total / (durationNanos / 1e9)));
+      if (evaluator != null) {
+        LOG.info(String.format("[Eval ] %s, %d judged topics:%n%s", id, evaluator.getNumTopics(),
+            evaluator.summary()));
+      }
+    }
+  }
+
+  private static final class TopicResults {
+    final String qid;
+    final byte[] results;
 
-          /*
-           * the first column is the topic number.
-           * the second column is currently unused and should always be "Q0".
-           * the third column is the official document identifier of the retrieved document.
-           * the fourth column is the rank the document is retrieved.
-           * the fifth column shows the score (integer or floating point) that generated the ranking.
-           * the sixth column is called the "run tag" and should be a unique identifier for your
-           */
-          for (int i = 0; i < docs.documents.length; i++) {
-            out.println(String.format(Locale.US, "%s Q0 %s %d %f %s", qid,
-                docs.documents[i].getField(IndexArgs.ID).stringValue(), (i + 1), docs.scores[i], runTag));
+    TopicResults(String qid, byte[] results) {
+      this.qid = qid;
+      this.results = results;
+    }
+  }
+
+  private static final class QueryTime {
+    final int index;
+    final int run;
+    final String line;
+
+    QueryTime(int index, int run, String line) {
+      this.index = index;
+      this.run = run;
+      this.line = line;
+    }
+  }
+
+  // Searches one topic with one similarity, or with all similarities at once if they are evaluated together (see
+  // MultiSimilarityEvaluator): the first-stage retrieval is shared by all cascades of a similarity, which each rerank
+  // their own copy of its results for their own run.
+  private final class SearchTask<K> implements Runnable {
+    final private int index;
+    final private K qid;
+    final private Map<String, String> topic;
+    final private List<IndexSearcher> searchers;
+    final private List<List<RerankerCascade>> cascades;
+    final private List<List<RunWriter>> writers;
+    // Similarity (index and tag) the time of the query is reported for.
+    final private int run;
+    final private String label;
+
+    private SearchTask(int index, K qid, Map<String, String> topic, List<IndexSearcher> searchers,
+                       List<List<RerankerCascade>> cascades, List<List<RunWriter>> writers, int run, String label) {
+      this.index = index;
+      this.qid = qid;
+      this.topic = topic;
+      this.searchers = searchers;
+      this.cascades = cascades;
+      this.writers = writers;
+      this.run = run;
+      this.label = label;
+    }
+
+    @Override
+    public void run() {
+      // Once a topic fails, the runs are incomplete and the remaining topics are skipped.
+      List<RunWriter> allWriters = new ArrayList<>();
+      writers.forEach(allWriters::addAll);
+      boolean failed = true;
+      for (RunWriter writer : allWriters) {
+        failed &= writer.isFailed();
+        writer.started();
+      }
+      if (failed) {
+        for (RunWriter writer : allWriters) {
+          writer.complete(index, qid.toString(), null);
+        }
+        return;
+      }
+      long start = System.nanoTime();
+      QueryTimer timer = timeQueries ? QueryTimer.start() : null;
+      if (rerankExecutor != null) {
+        rerankInFlight.acquireUninterruptibly();
+        try {
+          List<FirstStage> stages = searchFirstStages(qid, topic, searchers, cascades);
+          if (timer != null) {
+            timer.detach();
           }
-          cnt++;
-          if (cnt % 1 == 0) {
-            LOG.info(String.format("%d queries processed", cnt));
+          rerankAsync(stages, start, timer, allWriters);
+        } catch (Exception e) {
+          fail(e, timer, allWriters);
+          rerankInFlight.release();
+        }
+        return;
+      }
+      try {
+        complete(searchTopic(qid, topic, searchers, cascades), start, timer, allWriters);
+      } catch (Exception e) {
+        fail(e, timer, allWriters);
+      }
+    }
+
+    // Reranks the first-stage results of the topic on the reranking pool (-rerank.pipeline), one task per cascade, so
+    // that this thread goes on with the first stage of the next topic. The thread of the last cascade completes the
+    // topic, and releases its permit of the queries in flight.
+    private void rerankAsync(List<FirstStage> stages, long start, QueryTimer timer, List<RunWriter> allWriters) {
+      List<Runnable> tasks = new ArrayList<>();
+      ScoredDocuments[] results = new ScoredDocuments[allWriters.size()];
+      AtomicInteger remaining = new AtomicInteger();
+      AtomicReference<Exception> error = new AtomicReference<>();
+      int r = 0;
+      for (FirstStage stage : stages) {
+        List<ScoredDocuments> inputs = cascadeInputs(stage.docs, stage.cascades.size());
+        for (int i = 0; i < stage.cascades.size(); i++) {
+          final int slot = r++;
+          final RerankerCascade cascade = stage.cascades.get(i);
+          final ScoredDocuments docs = inputs.get(i);
+          Runnable rerank = () -> results[slot] = runCascade(cascade, docs, stage.context);
+          tasks.add(() -> {
+            try {
+              if (timer != null) {
+                timer.run(rerank);
+              } else {
+                rerank.run();
+              }
+            } catch (Exception e) {
+              error.compareAndSet(null, e);
+            } finally {
+              if (remaining.decrementAndGet() == 0) {
+                finishAsync(results, error.get(), start, timer, allWriters);
+              }
+            }
+          });
+        }
+      }
+      if (tasks.isEmpty()) {
+        finishAsync(results, null, start, timer, allWriters);
+      }
+      remaining.set(tasks.size());
+      tasks.forEach(rerankExecutor::execute);
+    }
+
+    private void finishAsync(ScoredDocuments[] results, Exception error, long start, QueryTimer timer,
+                             List<RunWriter> allWriters) {
+      try {
+        if (error != null) {
+          fail(error, timer, allWriters);
+        } else {
+          complete(Arrays.asList(results), start, timer, allWriters);
+        }
+      } finally {
+        rerankInFlight.release();
+      }
+    }
+
+    // Records the time of the topic and writes its results.
+    private void complete(List<ScoredDocuments> results, long start, QueryTimer timer, List<RunWriter> allWriters) {
+      try {
+        long end = System.nanoTime();
+        latencies.record(end - start);
+        if (firstQueryLogged.compareAndSet(false, true)) {
+          LOG.info(String.format("Time to first query: %.1f ms", (end - openStart) / 1e6));
+        }
+        if (timer != null) {
+          timer.stop();
+          timedQueries.incrementAndGet();
+          queryWallNanos.addAndGet(timer.wallNanos());
+          queryCpuNanos.addAndGet(timer.cpuNanos());
+          if (queryTimes != null || queryTimesOut != null) {
+            String line = String.format(Locale.US, "%s\t%s\t%.3f\t%.3f", qid, label, timer.wallNanos() / 1e6,
+                timer.cpuNanos() / 1e6);
+            if (queryTimesOut != null) {
+              synchronized (queryTimesOut) {
+                queryTimesOut.println(line);
+              }
+            } else {
+              synchronized (queryTimes) {
+                queryTimes.add(new QueryTime(index, run, line));
+              }
+            }
           }
         }
-        out.flush();
-        out.close();
-        final long durationMillis = TimeUnit.MILLISECONDS.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
 
-        LOG.info("[End  ] " + id);
-        LOG.info(topics.size() + " topics processed in "
-            + DurationFormatUtils.formatDuration(durationMillis, "HH:mm:ss"));
+        /*
+         * the first column is the topic number.
+         * the second column is currently unused and should always be "Q0".
+         * the third column is the official document identifier of the retrieved document.
+         * the fourth column is the rank the document is retrieved.
+         * the fifth column shows the score (integer or floating point) that generated the ranking.
+         * the sixth column is called the "run tag" and should be a unique identifier for your
+         */
+        byte[][] output = new byte[results.size()][];
+        for (int r = 0; r < results.size(); r++) {
+          output[r] = allWriters.get(r).encode(qid.toString(), results.get(r));
+        }
+        for (int r = 0; r < allWriters.size(); r++) {
+          allWriters.get(r).complete(index, qid.toString(), output[r]);
+        }
       } catch (Exception e) {
-        LOG.error(Thread.currentThread().getName() + ": Unexpected Exception:", e);
+        fail(e, timer, allWriters);
+      }
+    }
+
+    private void fail(Exception e, QueryTimer timer, List<RunWriter> allWriters) {
+      if (timer != null) {
+        timer.stop();
+      }
+      LOG.error(String.format("%s: Unexpected Exception:", qid), e);
+      for (RunWriter writer : allWriters) {
+        writer.fail(index, qid.toString());
       }
     }
   }
 
+  // Searches one topic with one or all similarities, and returns the results of all their cascades.
+  private <K> List<ScoredDocuments> searchTopic(K qid, Map<String, String> topic, List<IndexSearcher> searchers,
+                                                List<List<RerankerCascade>> cascades) throws IOException {
+    if (args.backgroundlinking) {
+      return searchBackgroundLinking(searchers.get(0), qid, topic.get(args.topicfield), cascades.get(0));
+    }
+    List<ScoredDocuments> results = new ArrayList<>();
+    for (FirstStage stage : searchFirstStages(qid, topic, searchers, cascades)) {
+      results.addAll(stage.rerank());
+    }
+    return results;
+  }
+
+  // Runs the first-stage retrieval of one topic with one or all similarities (not for background linking).
+  private <K> List<FirstStage> searchFirstStages(K qid, Map<String, String> topic, List<IndexSearcher> searchers,
+                                                 List<List<RerankerCascade>> cascades) throws IOException {
+    String queryString = topic.get(args.topicfield);
+    if (searchers.size() > 1) {
+      return searchMultiSimilarity(searchers, qid, queryString, cascades);
+    } else if (args.searchtweets) {
+      return Collections.singletonList(searchTweetsFirstStage(searchers.get(0), qid, queryString,
+          Long.parseLong(topic.get("time")), cascades.get(0)));
+    } else {
+      return Collections.singletonList(searchFirstStage(searchers.get(0), qid, queryString, cascades.get(0)));
+    }
+  }
+
   public SearchCollection(SearchArgs args) throws IOException {
+    this.openStart = System.nanoTime();
     this.args = args;
     Path indexPath = Paths.get(args.index);
 
@@ -219,10 +640,12 @@ public final class SearchCollection implements Closeable {
     LOG.info("============ Initializing Searcher ============");
     LOG.info("Index: " + indexPath);
     if (args.inmem) {
-      this.reader = DirectoryReader.open(MMapDirectory.open(indexPath));
+      LOG.info("In memory: " + args.inmem_mode);
+      this.reader = DirectoryReader.open(InMemoryIndex.open(indexPath, args.inmem_mode));
     } else {
       this.reader = DirectoryReader.open(FSDirectory.open(indexPath));
     }
+    LOG.info(String.format("Index opened in %.1f ms", (System.nanoTime() - openStart) / 1e6));
 
     // Are we searching tweets?
     if (args.searchtweets) {
@@ -271,10 +694,154 @@ public final class SearchCollection implements Closeable {
     }
 
     isRerank = args.rm3 || args.axiom || args.bm25prf;
+
+    if (args.slr && !args.slr_model.isEmpty()) {
+      LOG.info("SLR model: " + args.slr_model);
+    }
+
+    if (args.slr && !args.slr_saat.isEmpty()) {
+      LOG.info("SLR score-at-a-time index: " + args.slr_saat);
+      LOG.info(String.format("SLR budget: %s postings, %s us per query",
+          args.slr_budget_postings > 0 ? args.slr_budget_postings : "unlimited",
+          args.slr_budget_micros > 0 ? args.slr_budget_micros : "unlimited"));
+      slrImpactIndex = ImpactOrderedIndex.open(Paths.get(args.slr_saat));
+      if (slrImpactIndex.maxDoc() != reader.maxDoc()) {
+        slrImpactIndex.close();
+        throw new IllegalArgumentException(String.format("Impact-ordered index %s was built for an index with %d documents, not %d",
+            args.slr_saat, slrImpactIndex.maxDoc(), reader.maxDoc()));
+      }
+      slrEvaluators = ThreadLocal.withInitial(() -> new ScoreAtATimeEvaluator(slrImpactIndex));
+    } else {
+      slrImpactIndex = null;
+      slrEvaluators = null;
+    }
+
+    if (args.slr && args.slr_rescore > 0) {
+      FieldInfo vectorField = FieldInfos.getMergedFieldInfos(reader).fieldInfo(IndexArgs.SLR_VECTOR);
+      if (vectorField == null || vectorField.getDocValuesType() != DocValuesType.BINARY) {
+        throw new IllegalArgumentException("-slr.rescore needs the forward vectors of the documents, " +
+            "index the collection with -slr.append");
+      }
+      LOG.info(String.format("SLR rescoring: %d candidates retrieved with %s query dimensions", args.slr_rescore,
+          args.slr_rescore_dims > 0 ? "the " + args.slr_rescore_dims + " largest" : "all"));
+      slrRescorer = new SparseVectorRescorer(IndexArgs.SLR_VECTOR);
+    } else {
+      slrRescorer = null;
+    }
+
+    int segmentThreads = SegmentExecutor.threadBudget(args.segmentThreads, args.threads);
+    if (segmentThreads > 0) {
+      LOG.info(String.format("Segment threads: %d, slices of up to %d documents or %d segments", segmentThreads,
+          args.slices_maxDocs, args.slices_maxSegments));
+      segmentExecutor = new SegmentExecutor(segmentThreads);
+    } else {
+      segmentExecutor = null;
+    }
+    timeQueries = segmentExecutor != null || args.queryTimes != null;
+    queryTimes = args.queryTimes != null && !args.topics_stream ? new ArrayList<>() : null;
+    stageTimes = isRerank && timeQueries ? new StageTimes() : null;
+
+    if ((args.rm3 || args.bm25prf) && args.rerank_vector_cache > 0) {
+      LOG.info(String.format("Feedback term vectors cached across queries: %d MB", args.rerank_vector_cache));
+      termVectors = new TermVectorCache(reader, (long) args.rerank_vector_cache << 20);
+    } else {
+      termVectors = null;
+    }
+
+    if (args.eval_qrels != null) {
+      LOG.info("Evaluating against qrels: " + args.eval_qrels + (args.eval_only ? ", runs are not written" : ""));
+      evalQrels = CompactQrels.read(Paths.get(args.eval_qrels)).forReader(reader);
+    } else {
+      evalQrels = null;
+    }
+  }
+
+  private synchronized SLREncoder slrEncoder() throws IOException {
+    if (slrEncoder == null && !args.slr_model.isEmpty()) {
+      slrEncoder = new SLREncoder(args.slr_model, args.slr_workers, args.slr_batchsize);
+    }
+    return slrEncoder;
+  }
+
+  // Encodes the distinct queries of all topics in batches, using the query cache (-slr.queryCache) if set.
+  private <K> Map<String, SparseVector> encodeQueries(SortedMap<K, Map<String, String>> topics) throws IOException {
+    LinkedHashSet<String> texts = new LinkedHashSet<>();
+    for (Map<String, String> topic : topics.values()) {
+      String text = topic.get(args.topicfield);
+      if (text != null) {
+        texts.add(text);
+      }
+    }
+
+    Map<String, SparseVector> vectors = new HashMap<>();
+    if (args.slr_model.isEmpty()) {
+      // Queries are preprocessed activation values.
+      SLRQueryGenerator generator = new SLRQueryGenerator((SLREncoder) null, args.slr_index_precision);
+      for (String text : texts) {
+        vectors.put(text, generator.encode(text));
+      }
+      return Collections.unmodifiableMap(vectors);
+    }
+
+    final long start = System.nanoTime();
+    SLRQueryCache cache = openQueryCache();
+    int encoded = encodeQueries(texts, cache, vectors);
+    if (cache != null) {
+      cache.save();
+    }
+    LOG.info(String.format("SLR queries: %d encoded, %d from cache, in %.1f s", encoded, texts.size() - encoded,
+        (System.nanoTime() - start) / 1e9));
+    return Collections.unmodifiableMap(vectors);
+  }
+
+  private SLRQueryCache openQueryCache() throws IOException {
+    return args.slr_query_cache.isEmpty() ? null :
+        SLRQueryCache.open(Paths.get(args.slr_query_cache), SLRQueryCache.modelId(args.slr_model));
+  }
+
+  // Puts the representations of the given queries into vectors, from the cache if it has them and otherwise encoded in
+  // batches (and added to the cache), and returns the number of queries encoded.
+  private int encodeQueries(Collection<String> texts, SLRQueryCache cache, Map<String, SparseVector> vectors)
+      throws IOException {
+    List<String> misses = new ArrayList<>();
+    for (String text : texts) {
+      SparseVector vector = cache == null ? null : cache.get(text);
+      if (vector != null) {
+        vectors.put(text, vector);
+      } else {
+        misses.add(text);
+      }
+    }
+    if (!misses.isEmpty()) {
+      List<SparseVector> encoded = slrEncoder().encode(misses);
+      for (int i = 0; i < misses.size(); i++) {
+        vectors.put(misses.get(i), encoded.get(i));
+        if (cache != null) {
+          cache.put(misses.get(i), encoded.get(i));
+        }
+      }
+    }
+    return misses.size();
   }
 
   @Override
   public void close() throws IOException {
+    if (slrEncoder != null) {
+      slrEncoder.close();
+    }
+    if (slrImpactIndex != null) {
+      slrImpactIndex.close();
+    }
+    if (segmentExecutor != null) {
+      segmentExecutor.close();
+    }
+    if (args.axiom) {
+      // Axiomatic reranking reads the indexes through shared readers.
+      IndexReaderUtils.closeSharedReader(args.index);
+      if (args.axiom_index != null) {
+        IndexReaderUtils.closeSharedReader(args.axiom_index);
+      }
+    }
     reader.close();
   }
 
@@ -326,7 +893,8 @@ public final class SearchCollection implements Closeable {
         similarities.add(new TaggedSimilarity(new AxiomaticF2LOG(Float.valueOf(s)), String.format("f2log(s=%s)", s)));
       }
     } else if (args.slr) {
-      similarities.add(new TaggedSimilarity(new SLRSimilarity(args.slr_index_precision), "slr"));
+      // SLR queries (SparseDotProductQuery) score without the similarity of the searcher.
+      similarities.add(new TaggedSimilarity(null, "slr"));
     } else {
       throw new IllegalArgumentException("Error: Must specify scoring model!");
     }
@@ -397,35 +965,109 @@ public final class SearchCollection implements Closeable {
     return cascades;
   }
 
-  @SuppressWarnings("unchecked")
-  public <K> void runTopics() throws IOException {
-    TopicReader<K> tr;
-    SortedMap<K, Map<String, String>> topics = new TreeMap<>();
-    for (String singleTopicsFile : args.topics) {
-      Path topicsFilePath = Paths.get(singleTopicsFile);
-      if (!Files.exists(topicsFilePath) || !Files.isRegularFile(topicsFilePath) || !Files.isReadable(topicsFilePath)) {
-        throw new IllegalArgumentException("Topics file : " + topicsFilePath + " does not exist or is not a (readable) file.");
+  // Returns the order in which the topics are searched. Topics are taken in windows of SCHEDULING_WINDOW topics per
+  // thread, in topic order, and the most expensive topics of a window are started first, so that no long query is left
+  // running alone at the end. The windows bound the results that are buffered before they can be written in order.
+  private <K> int[] scheduleTopics(SortedMap<K, Map<String, String>> topics, List<K> qids) throws IOException {
+    final int[] schedule = new int[qids.size()];
+    for (int i = 0; i < schedule.length; i++) {
+      schedule[i] = i;
+    }
+    if (args.threads <= 1) {
+      return schedule;
+    }
+
+    final long[] costs = new long[qids.size()];
+    for (int i = 0; i < costs.length; i++) {
+      costs[i] = estimateCost(topics.get(qids.get(i)).get(args.topicfield));
+    }
+    final int window = SCHEDULING_WINDOW * args.threads;
+    for (int from = 0; from < schedule.length; from += window) {
+      int to = Math.min(schedule.length, from + window);
+      Integer[] order = new Integer[to - from];
+      for (int i = from; i < to; i++) {
+        order[i - from] = i;
       }
-      try {
-        tr = (TopicReader<K>) Class.forName("io.anserini.search.topicreader." + args.topicReader + "TopicReader")
-            .getConstructor(Path.class).newInstance(topicsFilePath);
-        topics.putAll(tr.read());
-      } catch (Exception e) {
-        e.printStackTrace();
-        throw new IllegalArgumentException("Unable to load topic reader: " + args.topicReader);
+      // Stable, so topics of equal cost stay in topic order.
+      Arrays.sort(order, (a, b) -> Long.compare(costs[b], costs[a]));
+      for (int i = from; i < to; i++) {
+        schedule[i] = order[i - from];
       }
     }
+    return schedule;
+  }
 
-    final String runTag = args.runtag == null ? "Anserini" : args.runtag;
-    LOG.info("runtag: " + runTag);
+  // Estimates the cost of a query as the number of postings of its terms.
+  private long estimateCost(String queryString) throws IOException {
+    if (queryString == null || args.searchtweets || args.backgroundlinking) {
+      return 0;
+    }
+    long cost = 0;
+    if (qc == QueryConstructor.SparseRepresentation) {
+      SparseVector vector = slrQueryVectors.get(queryString);
+      if (vector != null) {
+        for (int i = 0; i < vector.size(); i++) {
+          cost += reader.docFreq(new Term(IndexArgs.CONTENTS, SparseDotProductQuery.term(vector.dim(i))));
+        }
+      }
+    } else {
+      for (String token : AnalyzerUtils.analyze(analyzer, queryString)) {
+        cost += reader.docFreq(new Term(IndexArgs.CONTENTS, token));
+      }
+    }
+    return cost;
+  }
 
-    final ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(args.threads);
+  // Searchers, cascades and run writers of the combinations of similarity and cascade whose runs are written.
+  private final class Runs {
+    final List<IndexSearcher> searchers = new ArrayList<>();
+    final List<String> searcherTags = new ArrayList<>();
+    final List<List<RerankerCascade>> cascades = new ArrayList<>();
+    final List<List<RunWriter>> writers = new ArrayList<>();
+
+    private int numWriters() {
+      int n = 0;
+      for (List<RunWriter> similarityWriters : writers) {
+        n += similarityWriters.size();
+      }
+      return n;
+    }
+
+    private void setTotal(int numTopics) {
+      writers.forEach(similarityWriters -> similarityWriters.forEach(writer -> writer.setTotal(numTopics)));
+    }
+
+    // Every topic of every similarity is a task of the pool, which runs all cascades of the similarity.
+    private <K> void submit(ExecutorService executor, int index, K qid, Map<String, String> topic) {
+      if (multiSimilarityEvaluator != null) {
+        executor.execute(new SearchTask<>(index, qid, topic, searchers, cascades, writers, 0, "all"));
+        return;
+      }
+      for (int r = 0; r < writers.size(); r++) {
+        executor.execute(new SearchTask<>(index, qid, topic, Collections.singletonList(searchers.get(r)),
+            Collections.singletonList(cascades.get(r)), Collections.singletonList(writers.get(r)),
+            r, searcherTags.get(r)));
+      }
+    }
+  }
+
+  // Creates the searchers and the run writers of all combinations of similarity and cascade. With streamed topics,
+  // numTopics is -1 and the writers take the read-ahead window and the optional order of the topic ids.
+  private Runs openRuns(int numTopics, Semaphore window, Comparator<String> sortOrder) throws IOException {
     this.similarities = constructSimilarities();
     this.cascades = constructRerankers();
+    startReranking();
+    startBackgroundLinking();
 
-    LOG.info("============ Launching Search Threads ============");
-
+    Runs runs = new Runs();
     for (TaggedSimilarity taggedSimilarity : similarities) {
+      IndexSearcher searcher = segmentExecutor == null ? new IndexSearcher(this.reader) :
+          new SlicedIndexSearcher(this.reader, segmentExecutor, args.slices_maxDocs, args.slices_maxSegments);
+      if (taggedSimilarity.getSimilarity() != null) {
+        searcher.setSimilarity(taggedSimilarity.getSimilarity());
+      }
+      List<RerankerCascade> similarityCascades = new ArrayList<>();
+      List<RunWriter> similarityWriters = new ArrayList<>();
       for (RerankerCascade cascade : cascades) {
         final String outputPath;
 
@@ -439,9 +1081,217 @@ public final class SearchCollection implements Closeable {
           LOG.info("Run already exists, skipping: " + outputPath);
           continue;
         }
-        executor.execute(new SearcherThread<>(this.reader, topics, taggedSimilarity, cascade, outputPath, runTag));
+        String id = String.format("ranker: %s, reranker: %s", taggedSimilarity.getTag(), cascade.getTag());
+        similarityCascades.add(cascade);
+        similarityWriters.add(new RunWriter(id, outputPath, numTopics, window, sortOrder));
+      }
+      if (!similarityCascades.isEmpty()) {
+        runs.searchers.add(searcher);
+        runs.searcherTags.add(taggedSimilarity.getTag());
+        runs.cascades.add(similarityCascades);
+        runs.writers.add(similarityWriters);
       }
     }
+    // Bag-of-words queries are evaluated with all similarities in a single pass over the postings.
+    if (runs.searchers.size() > 1 && qc == QueryConstructor.BagOfTerms && !args.searchtweets &&
+        !args.backgroundlinking) {
+      List<Similarity> evaluated = new ArrayList<>();
+      for (IndexSearcher searcher : runs.searchers) {
+        evaluated.add(searcher.getSimilarity());
+      }
+      multiSimilarityEvaluator = new MultiSimilarityEvaluator(reader, evaluated,
+          args.arbitraryScoreTieBreak ? null : MultiSimilarityEvaluator.idRanks(reader, IndexArgs.ID));
+      LOG.info(String.format("Evaluating %d similarities in a single pass", evaluated.size()));
+    }
+    return runs;
+  }
+
+  // Starts the reranking pool of -rerank.pipeline: the searcher threads only run the first stage of the topics, and
+  // hand their results to the threads of the pool, which run the cascades. Topics in flight (from the start of their
+  // first stage to the end of their last cascade) are bounded, so that the first stage does not run far ahead.
+  private void startReranking() {
+    if (!args.rerank_pipeline) {
+      return;
+    }
+    if (!isRerank || args.backgroundlinking) {
+      LOG.warn("-rerank.pipeline needs a reranker and is not supported with -backgroundlinking, " +
+          "topics are reranked by the searcher threads");
+      return;
+    }
+    int threads = args.rerank_threads > 0 ? args.rerank_threads : args.threads;
+    int inFlight = args.rerank_inflight > 0 ? args.rerank_inflight : args.threads + 2 * threads;
+    LOG.info(String.format("Reranking pipeline: %d reranking threads, %d topics in flight", threads, inFlight));
+    rerankExecutor = Executors.newFixedThreadPool(threads);
+    rerankInFlight = new Semaphore(inFlight);
+  }
+
+  // Starts the pool that runs the paragraph queries of -backgroundlinking.paragraph; the searcher thread of a topic waits
+  // for all its paragraph queries before merging their results.
+  private void startBackgroundLinking() {
+    if (!args.backgroundlinking || !args.backgroundlinking_paragraph) {
+      return;
+    }
+    int threads = args.backgroundlinking_threads > 0 ? args.backgroundlinking_threads : args.threads;
+    if (threads > 1) {
+      LOG.info(String.format("Background linking: %d paragraph query threads", threads));
+      backgroundLinkingExecutor = Executors.newFixedThreadPool(threads);
+    }
+  }
+
+  private String runTag() {
+    return args.runtag == null ? "Anserini" : args.runtag;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <K> TopicReader<K> topicReader(String topicsFile) {
+    Path topicsFilePath = Paths.get(topicsFile);
+    if (!Files.exists(topicsFilePath) || !Files.isRegularFile(topicsFilePath) || !Files.isReadable(topicsFilePath)) {
+      throw new IllegalArgumentException("Topics file : " + topicsFilePath + " does not exist or is not a (readable) file.");
+    }
+    try {
+      return (TopicReader<K>) Class.forName("io.anserini.search.topicreader." + args.topicReader + "TopicReader")
+          .getConstructor(Path.class).newInstance(topicsFilePath);
+    } catch (Exception e) {
+      e.printStackTrace();
+      throw new IllegalArgumentException("Unable to load topic reader: " + args.topicReader);
+    }
+  }
+
+  public <K> void runTopics() throws IOException {
+    if (args.topics_stream) {
+      runTopicStream();
+      return;
+    }
+
+    SortedMap<K, Map<String, String>> topics = new TreeMap<>();
+    for (String singleTopicsFile : args.topics) {
+      TopicReader<K> tr = topicReader(singleTopicsFile);
+      try {
+        topics.putAll(tr.read());
+      } catch (Exception e) {
+        e.printStackTrace();
+        throw new IllegalArgumentException("Unable to load topic reader: " + args.topicReader);
+      }
+    }
+
+    LOG.info("runtag: " + runTag());
+
+    final ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(args.threads);
+
+    if (qc == QueryConstructor.SparseRepresentation && !args.searchtweets && !args.backgroundlinking) {
+      // Encoded once, and shared by all combinations of similarities and cascades.
+      slrQueryVectors = encodeQueries(topics);
+    }
+
+    final List<K> qids = new ArrayList<>(topics.keySet());
+    final int[] schedule = scheduleTopics(topics, qids);
+
+    LOG.info("============ Launching Search Threads ============");
+
+    final Runs runs = openRuns(qids.size(), null, null);
+    if (args.warmup > 0) {
+      warmup(topics, qids, runs.searchers, runs.cascades);
+    }
+    for (int index : schedule) {
+      K qid = qids.get(index);
+      runs.submit(executor, index, qid, topics.get(qid));
+    }
+    finishTopics(executor);
+  }
+
+  // Searches the topics of stream-capable topic readers (-topics.stream) as they are read: only a window of topics
+  // is read ahead of the oldest topic whose results are not written yet, so memory does not grow with the number of
+  // topics. Runs are written in topic file order, or sorted by topic id (-topics.stream.sorted).
+  @SuppressWarnings("unchecked")
+  private <K> void runTopicStream() throws IOException {
+    List<StreamingTopicReader<K>> readers = new ArrayList<>();
+    for (String singleTopicsFile : args.topics) {
+      TopicReader<K> tr = topicReader(singleTopicsFile);
+      if (!(tr instanceof StreamingTopicReader)) {
+        throw new IllegalArgumentException("-topics.stream needs a topic reader that streams topics, such as " +
+            "TsvInt or TsvString, not " + args.topicReader);
+      }
+      readers.add((StreamingTopicReader<K>) tr);
+    }
+    if (args.warmup > 0) {
+      LOG.warn("-warmup is not supported with -topics.stream, topics are searched without warmup");
+    }
+
+    LOG.info("runtag: " + runTag());
+
+    final ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(args.threads);
+
+    LOG.info("============ Launching Search Threads ============");
+
+    // SLR queries are encoded a batch of topics at a time, as they are read. Only the representations of the last
+    // topics are kept: those of the topics in the window, and of the batch that is about to be submitted. Should a
+    // topic still miss its representation, it is encoded on its own.
+    final boolean encodeBatches = qc == QueryConstructor.SparseRepresentation && !args.slr_model.isEmpty() &&
+        !args.searchtweets && !args.backgroundlinking;
+    final int batchSize = encodeBatches ? Math.max(1, args.slr_batchsize * args.slr_workers) : 1;
+    final SLRQueryCache cache = encodeBatches ? openQueryCache() : null;
+    final Map<String, SparseVector> vectors = Collections.synchronizedMap(
+        new LinkedHashMap<String, SparseVector>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, SparseVector> eldest) {
+            return size() > args.topics_stream_window + batchSize;
+          }
+        });
+    if (encodeBatches) {
+      slrQueryVectors = vectors;
+    }
+    long encodeStart = System.nanoTime();
+    int numQueries = 0;
+    int numEncoded = 0;
+
+    final Semaphore window = new Semaphore(0);
+    final Runs runs = openRuns(-1, window, args.topics_stream_sorted ? readers.get(0).idOrder() : null);
+    final int numWriters = runs.numWriters();
+    window.release(args.topics_stream_window * numWriters);
+    if (args.queryTimes != null) {
+      queryTimesOut = new PrintWriter(Files.newBufferedWriter(Paths.get(args.queryTimes), StandardCharsets.UTF_8));
+      queryTimesOut.println("qid\tsimilarity\twall_ms\tcpu_ms");
+    }
+    int index = 0;
+    List<TopicRecord<K>> batch = new ArrayList<>(batchSize);
+    for (StreamingTopicReader<K> tr : readers) {
+      try (TopicStream<K> stream = tr.stream()) {
+        while (stream.hasNext()) {
+          batch.add(stream.next());
+          if (batch.size() < batchSize && stream.hasNext()) {
+            continue;
+          }
+          if (encodeBatches) {
+            LinkedHashSet<String> texts = new LinkedHashSet<>();
+            for (TopicRecord<K> topic : batch) {
+              if (vectors.get(topic.query) == null) {
+                texts.add(topic.query);
+              }
+            }
+            numQueries += texts.size();
+            numEncoded += encodeQueries(texts, cache, vectors);
+          }
+          for (TopicRecord<K> topic : batch) {
+            window.acquireUninterruptibly(numWriters);
+            runs.submit(executor, index++, topic.id, Collections.singletonMap(args.topicfield, topic.query));
+          }
+          batch.clear();
+        }
+      }
+    }
+    runs.setTotal(index);
+    if (encodeBatches) {
+      if (cache != null) {
+        cache.save();
+      }
+      LOG.info(String.format("SLR queries: %d encoded, %d from cache, in %.1f s of reading topics", numEncoded,
+          numQueries - numEncoded, (System.nanoTime() - encodeStart) / 1e9));
+    }
+    finishTopics(executor);
+  }
+
+  // Waits for all topics, and reports the statistics of the queries.
+  private void finishTopics(ExecutorService executor) throws IOException {
     executor.shutdown();
 
     try {
@@ -454,116 +1304,518 @@ public final class SearchCollection implements Closeable {
       // Preserve interrupt status
       Thread.currentThread().interrupt();
     }
+    // The searcher threads have handed all topics to the reranking pool.
+    if (rerankExecutor != null) {
+      rerankExecutor.shutdown();
+      try {
+        while (!rerankExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+        }
+      } catch (InterruptedException ie) {
+        rerankExecutor.shutdownNow();
+        Thread.currentThread().interrupt();
+      }
+      rerankExecutor = null;
+    }
+    // The searcher threads have waited for all paragraph queries.
+    if (backgroundLinkingExecutor != null) {
+      backgroundLinkingExecutor.shutdown();
+      backgroundLinkingExecutor = null;
+    }
+
+    if (timeQueries) {
+      reportQueryTimes();
+    }
+    if (latencies.count() > 0) {
+      LOG.info("Query latency: " + latencies);
+    }
+
+    if (termVectors != null) {
+      LOG.info("Feedback term vectors: " + termVectors);
+    }
+
+    if (slrImpactIndex != null && slrQueries.get() > 0) {
+      long queries = slrQueries.get();
+      LOG.info(String.format("Score-at-a-time: %d queries, %.1f postings touched per query (%.1f%% of all), " +
+              "%.1f%% terminated early", queries, (double) slrPostings.get() / queries,
+          100.0 * slrPostings.get() / Math.max(1, slrTotalPostings.get()), 100.0 * slrEarlyTerminated.get() / queries));
+    }
+  }
+
+
+  // Reads the data structures of the fields in use, and searches an even sample of -warmup topics (on -threads threads,
+  // all similarities and cascades) without writing their results.
+  private <K> void warmup(SortedMap<K, Map<String, String>> topics, List<K> qids, List<IndexSearcher> searchers,
+                          List<List<RerankerCascade>> runCascades) throws IOException {
+    long start = System.nanoTime();
+    List<String> fields = new ArrayList<>(Arrays.asList(IndexArgs.CONTENTS, IndexArgs.ID));
+    if (args.searchtweets) {
+      fields.add(TweetGenerator.TweetField.ID_LONG.name);
+    }
+    if (slrRescorer != null) {
+      fields.add(IndexArgs.SLR_VECTOR);
+    }
+    InMemoryIndex.warm(reader, fields);
+    long warmed = System.nanoTime();
+
+    int sample = Math.min(args.warmup, qids.size());
+    List<Callable<Object>> tasks = new ArrayList<>();
+    for (int i = 0; i < sample; i++) {
+      K qid = qids.get((int) ((long) i * qids.size() / sample));
+      if (multiSimilarityEvaluator != null) {
+        tasks.add(() -> warmupTopic(qid, topics.get(qid), searchers, runCascades));
+        continue;
+      }
+      for (int r = 0; r < searchers.size(); r++) {
+        List<IndexSearcher> searcher = Collections.singletonList(searchers.get(r));
+        List<List<RerankerCascade>> cascades = Collections.singletonList(runCascades.get(r));
+        tasks.add(() -> warmupTopic(qid, topics.get(qid), searcher, cascades));
+      }
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(args.threads);
+    try {
+      executor.invokeAll(tasks);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      executor.shutdown();
+    }
+    LOG.info(String.format("Warmup: fields read in %.1f ms, %d topics searched in %.1f ms",
+        (warmed - start) / 1e6, sample, (System.nanoTime() - warmed) / 1e6));
+    rerankTimes.clear();
+    if (stageTimes != null) {
+      stageTimes.clear();
+    }
   }
 
-  public <K> ScoredDocuments search(IndexSearcher searcher, K qid, String queryString, RerankerCascade cascade)
-      throws IOException {
+  private <K> Object warmupTopic(K qid, Map<String, String> topic, List<IndexSearcher> searchers,
+                                 List<List<RerankerCascade>> cascades) {
+    try {
+      return searchTopic(qid, topic, searchers, cascades);
+    } catch (Exception e) {
+      LOG.warn(String.format("%s: warmup query failed", qid), e);
+      return null;
+    }
+  }
+
+  // Logs the mean wall-clock and CPU time of the queries and writes the time of every query to -queryTimes, in topic
+  // order (unless they were written as they completed).
+  private void reportQueryTimes() throws IOException {
+    if (queryTimesOut != null) {
+      queryTimesOut.close();
+      queryTimesOut = null;
+    }
+    long queries = timedQueries.get();
+    if (queries == 0) {
+      return;
+    }
+    long wallNanos = queryWallNanos.get();
+    long cpuNanos = queryCpuNanos.get();
+    LOG.info(String.format("Query times: %.2f ms wall-clock, %.2f ms CPU per query (%.2f cores per query)",
+        wallNanos / 1e6 / queries, cpuNanos / 1e6 / queries, wallNanos == 0 ? 0.0 : (double) cpuNanos / wallNanos));
+    // CPU time of the reranking alone, on the thread of the query.
+    for (Map.Entry<String, LatencyStats> entry : new TreeMap<>(rerankTimes).entrySet()) {
+      LOG.info(String.format("Reranking CPU time, %s: %s", entry.getKey(), entry.getValue()));
+    }
+    // Wall-clock time of the stages of reranking, over all cascades.
+    if (stageTimes != null) {
+      for (StageTimes.Stage stage : StageTimes.Stage.values()) {
+        if (stageTimes.get(stage).count() > 0) {
+          LOG.info(String.format("Stage time, %s: %s", stage, stageTimes.get(stage)));
+        }
+      }
+    }
+    if (queryTimes != null) {
+      queryTimes.sort((a, b) -> a.index != b.index ? Integer.compare(a.index, b.index) : Integer.compare(a.run, b.run));
+      try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(args.queryTimes),
+          StandardCharsets.UTF_8))) {
+        out.println("qid\tsimilarity\twall_ms\tcpu_ms");
+        for (QueryTime time : queryTimes) {
+          out.println(time.line);
+        }
+      }
+    }
+  }
+
+  public <K> List<ScoredDocuments> search(IndexSearcher searcher, K qid, String queryString,
+                                          List<RerankerCascade> cascades) throws IOException {
+    return searchFirstStage(searcher, qid, queryString, cascades).rerank();
+  }
+
+  private <K> FirstStage searchFirstStage(IndexSearcher searcher, K qid, String queryString,
+                                          List<RerankerCascade> cascades) throws IOException {
+    long start = System.nanoTime();
     Query query = null;
+    // With SLR queries, the first stage may be a pruned query (-slr.rescore) or evaluated score-at-a-time (-slr.saat).
+    Query firstStageQuery = null;
+    SparseVector slrVector = null;
+    SparseVector slrRescoreQuery = null;
     if (qc == QueryConstructor.SequentialDependenceModel) {
       query = new SdmQueryGenerator(args.sdm_tw, args.sdm_ow, args.sdm_uw).buildQuery(IndexArgs.CONTENTS, analyzer, queryString);
     } else if (qc == QueryConstructor.SparseRepresentation) {
-      query = new SLRQueryGenerator(args.slr_model).buildQuery(IndexArgs.CONTENTS, analyzer, queryString);
+      SparseVector activations = slrQueryVectors.get(queryString);
+      SLRQueryGenerator generator =
+          new SLRQueryGenerator(activations == null ? slrEncoder() : null, args.slr_index_precision);
+      if (activations == null) {
+        activations = generator.encode(queryString);
+      }
+      query = new SparseDotProductQuery(IndexArgs.CONTENTS, generator.toWeights(activations));
+      if (slrRescorer != null) {
+        slrRescoreQuery = activations;
+        if (args.slr_rescore_dims > 0) {
+          activations = activations.top(args.slr_rescore_dims);
+          firstStageQuery = new SparseDotProductQuery(IndexArgs.CONTENTS, generator.toWeights(activations));
+        }
+      }
+      if (slrImpactIndex != null) {
+        slrVector = generator.toWeights(activations);
+      }
     } else {
       query = new BagOfWordsQueryGenerator().buildQuery(IndexArgs.CONTENTS, analyzer, queryString);
     }
+    if (firstStageQuery == null) {
+      firstStageQuery = query;
+    }
 
     TopDocs rs = new TopDocs(new TotalHits(0, TotalHits.Relation.EQUAL_TO), new ScoreDoc[]{});
     if (!(isRerank && args.rerankcutoff <= 0)) {
-      if (args.arbitraryScoreTieBreak) {// Figure out how to break the scoring ties.
-        rs = searcher.search(query, isRerank ? args.rerankcutoff : args.hits);
+      final int hits = isRerank ? args.rerankcutoff : args.hits;
+      final int firstStageHits = slrRescoreQuery != null ? Math.max(args.slr_rescore, hits) : hits;
+      if (slrVector != null) {
+        rs = searchScoreAtATime(qid, slrVector, firstStageHits);
+      } else if (args.arbitraryScoreTieBreak) {// Figure out how to break the scoring ties.
+        rs = searcher.search(firstStageQuery, firstStageHits);
       } else {
-        rs = searcher.search(query, isRerank ? args.rerankcutoff : args.hits, BREAK_SCORE_TIES_BY_DOCID, true);
+        rs = searcher.search(firstStageQuery, firstStageHits, BREAK_SCORE_TIES_BY_DOCID, true);
+      }
+      if (slrRescoreQuery != null) {
+        rs = slrRescorer.rescore(searcher.getIndexReader(), rs, slrRescoreQuery, hits);
       }
+      recordFirstStage(start);
     }
     List<String> queryTokens = new ArrayList<String>();
     queryTokens.add("not-using");
     if(!args.slr){
       queryTokens = AnalyzerUtils.analyze(analyzer, queryString);
     }
-    RerankerContext context = new RerankerContext<>(searcher, qid, query, null, queryString, queryTokens, null, args);
+    RerankerContext context = new RerankerContext<>(rerankSearcher(searcher), qid, query, null, queryString,
+        queryTokens, null, args);
 
-    return cascade.run(ScoredDocuments.fromTopDocs(rs, searcher), context);
+    return new FirstStage(ScoredDocuments.fromTopDocs(rs, searcher), context, cascades);
   }
 
-  public <K> ScoredDocuments searchBackgroundLinking(IndexSearcher searcher, K qid, String queryString, RerankerCascade cascade)
-      throws IOException, QueryNodeException {
-    Query query = null;
-    String queryDocID = null;
-    if (qc == QueryConstructor.SequentialDependenceModel) {
-      args.backgroundlinking_weighted = false;
-    }
-    queryDocID = queryString;
-    List<String> queryList = BackgroundLinkingTopicReader.generateQueryString(reader, queryDocID,
-        args.backgroundlinking_paragraph, args.backgroundlinking_k, args.backgroundlinking_weighted, qc, analyzer);
-    List<ScoredDocuments> allRes = new ArrayList<>();
-    for (String queryStr : queryList) {
-      Query q = null;
-      if (qc == QueryConstructor.SequentialDependenceModel) {
-        q = new SdmQueryGenerator(args.sdm_tw, args.sdm_ow, args.sdm_uw).buildQuery(IndexArgs.CONTENTS, analyzer, queryStr);
+  // Searches a bag-of-words query with all similarities at once; the results of every similarity are reranked by its
+  // own cascades.
+  private <K> List<FirstStage> searchMultiSimilarity(List<IndexSearcher> searchers, K qid,
+      String queryString, List<List<RerankerCascade>> cascades) throws IOException {
+    long start = System.nanoTime();
+    Query query = new BagOfWordsQueryGenerator().buildQuery(IndexArgs.CONTENTS, analyzer, queryString);
+    List<String> queryTokens = AnalyzerUtils.analyze(analyzer, queryString);
+
+    TopDocs[] rs = new TopDocs[searchers.size()];
+    if (!(isRerank && args.rerankcutoff <= 0)) {
+      rs = multiSimilarityEvaluator.search(IndexArgs.CONTENTS, queryTokens, isRerank ? args.rerankcutoff : args.hits);
+      recordFirstStage(start);
+    } else {
+      Arrays.fill(rs, new TopDocs(new TotalHits(0, TotalHits.Relation.EQUAL_TO), new ScoreDoc[]{}));
+    }
+
+    List<FirstStage> stages = new ArrayList<>(searchers.size());
+    for (int s = 0; s < searchers.size(); s++) {
+      IndexSearcher searcher = searchers.get(s);
+      RerankerContext context = new RerankerContext<>(rerankSearcher(searcher), qid, query, null, queryString,
+          queryTokens, null, args);
+      stages.add(new FirstStage(ScoredDocuments.fromTopDocs(rs[s], searcher), context, cascades.get(s)));
+    }
+    return stages;
+  }
+
+  // The searchers of runTopics are shared by all tasks running concurrently, so every reranker context gets a searcher
+  // of its own over the same reader: a reranker that changes its searcher (e.g. its similarity) can then never affect
+  // the first stage or the rerankers of another task.
+  private static IndexSearcher rerankSearcher(IndexSearcher searcher) {
+    IndexSearcher rerankSearcher = new IndexSearcher(searcher.getIndexReader());
+    rerankSearcher.setSimilarity(searcher.getSimilarity());
+    return rerankSearcher;
+  }
+
+  // First-stage results of a topic with one similarity, and the cascades that rerank them.
+  private final class FirstStage {
+    final ScoredDocuments docs;
+    final RerankerContext context;
+    final List<RerankerCascade> cascades;
+
+    FirstStage(ScoredDocuments docs, RerankerContext context, List<RerankerCascade> cascades) {
+      this.docs = docs;
+      this.context = context;
+      this.cascades = cascades;
+    }
+
+    List<ScoredDocuments> rerank() {
+      return runCascades(docs, context, cascades);
+    }
+  }
+
+  // Returns the input of every cascade of the same first-stage results: a copy of the results for all but the last,
+  // since rerankers may change the results in place.
+  private static List<ScoredDocuments> cascadeInputs(ScoredDocuments firstStage, int numCascades) {
+    List<ScoredDocuments> inputs = new ArrayList<>(numCascades);
+    for (int i = 0; i < numCascades; i++) {
+      inputs.add(i == numCascades - 1 ? firstStage : firstStage.copy());
+    }
+    return inputs;
+  }
+
+  private void recordFirstStage(long start) {
+    if (stageTimes != null) {
+      stageTimes.record(StageTimes.Stage.FIRST_STAGE, System.nanoTime() - start);
+    }
+  }
+
+  // Runs the cascades on the same first-stage results, each on its own copy.
+  private List<ScoredDocuments> runCascades(ScoredDocuments firstStage, RerankerContext context,
+                                            List<RerankerCascade> cascades) {
+    List<ScoredDocuments> inputs = cascadeInputs(firstStage, cascades.size());
+    List<ScoredDocuments> results = new ArrayList<>(cascades.size());
+    for (int i = 0; i < cascades.size(); i++) {
+      results.add(runCascade(cascades.get(i), inputs.get(i), context));
+    }
+    return results;
+  }
+
+  private synchronized TermVectorCache termVectors() {
+    termVectors = termVectors.renew();
+    return termVectors;
+  }
+
+  // Runs a cascade, and records its CPU time if queries are timed. The context, and with it the term vectors of the
+  // feedback documents, is shared by all cascades of a topic.
+  private ScoredDocuments runCascade(RerankerCascade cascade, ScoredDocuments docs, RerankerContext context) {
+    if (termVectors != null) {
+      context.setTermVectors(termVectors());
+    }
+    context.setStageTimes(stageTimes);
+    boolean timed = isRerank && timeQueries;
+    long start = timed ? QueryTimer.threadCpuTime() : 0;
+    ScoredDocuments results = cascade.run(docs, context);
+    if (timed) {
+      rerankTimes.computeIfAbsent(cascade.getTag(), tag -> new LatencyStats())
+          .record(QueryTimer.threadCpuTime() - start);
+    }
+    return results;
+  }
+
+  private <K> TopDocs searchScoreAtATime(K qid, SparseVector query, int k) {
+    ScoreAtATimeEvaluator.Result result =
+        slrEvaluators.get().search(query, k, args.slr_budget_postings, args.slr_budget_micros);
+
+    slrQueries.incrementAndGet();
+    slrPostings.addAndGet(result.postings);
+    slrTotalPostings.addAndGet(result.totalPostings);
+    if (result.earlyTerminated) {
+      slrEarlyTerminated.incrementAndGet();
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(String.format("%s: %,d of %,d postings touched%s", qid, result.postings, result.totalPostings,
+          result.earlyTerminated ? ", terminated early" : ""));
+    }
+
+    ScoreDoc[] hits = new ScoreDoc[result.docs.length];
+    for (int i = 0; i < hits.length; i++) {
+      hits[i] = new ScoreDoc(result.docs[i], result.scores[i]);
+    }
+    return new TopDocs(new TotalHits(result.candidates, result.earlyTerminated ?
+        TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO : TotalHits.Relation.EQUAL_TO), hits);
+  }
+
+  // A query of a background linking topic: the query as the rerankers see it, and the Lucene query.
+  private static final class BackgroundLinkingQuery {
+    final String text;
+    final List<String> tokens;
+    final Query query;
+
+    BackgroundLinkingQuery(String text, Query query) {
+      this.text = text;
+      this.tokens = Arrays.asList(text.split(" "));
+      this.query = query;
+    }
+  }
+
+  public <K> List<ScoredDocuments> searchBackgroundLinking(IndexSearcher searcher, K qid, String queryString,
+                                                           List<RerankerCascade> cascades) throws IOException {
+    String queryDocID = queryString;
+    List<BackgroundLinkingQuery> queries = backgroundLinkingQueries(queryDocID);
+    // Results of every query (outer) for every cascade (inner).
+    List<List<ScoredDocuments>> queryRes = new ArrayList<>(Collections.nCopies(queries.size(), null));
+    if (backgroundLinkingExecutor == null || queries.size() < 2) {
+      for (int i = 0; i < queries.size(); i++) {
+        queryRes.set(i, searchBackgroundLinkingQuery(searcher, qid, queryDocID, queries.get(i), cascades));
+      }
+    } else {
+      // The paragraph queries run on the pool, and their CPU time is added to that of the topic.
+      QueryTimer timer = QueryTimer.current();
+      List<Future<?>> futures = new ArrayList<>(queries.size());
+      for (int i = 0; i < queries.size(); i++) {
+        BackgroundLinkingQuery query = queries.get(i);
+        int q = i;
+        Runnable task = () -> {
+          try {
+            queryRes.set(q, searchBackgroundLinkingQuery(searcher, qid, queryDocID, query, cascades));
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        };
+        Runnable timed = timer == null ? task : () -> timer.run(task);
+        futures.add(backgroundLinkingExecutor.submit(timed));
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while waiting for the paragraph queries", e);
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof UncheckedIOException) {
+            throw ((UncheckedIOException) e.getCause()).getCause();
+          }
+          throw new RuntimeException(e.getCause());
+        }
+      }
+    }
+
+    List<ScoredDocuments> results = new ArrayList<>(cascades.size());
+    for (int c = 0; c < cascades.size(); c++) {
+      List<ScoredDocuments> cascadeRes = new ArrayList<>(queries.size());
+      for (List<ScoredDocuments> res : queryRes) {
+        cascadeRes.add(res.get(c));
+      }
+      results.add(roundRobin(searcher, qid, queryDocID, cascadeRes));
+    }
+    return results;
+  }
+
+  // Runs one query of a background linking topic, and returns the results of all cascades.
+  private <K> List<ScoredDocuments> searchBackgroundLinkingQuery(IndexSearcher searcher, K qid, String queryDocID,
+                                                                 BackgroundLinkingQuery query,
+                                                                 List<RerankerCascade> cascades) throws IOException {
+    long start = System.nanoTime();
+    TopDocs rs = new TopDocs(new TotalHits(0, TotalHits.Relation.EQUAL_TO), new ScoreDoc[]{});
+    if (!(isRerank && args.rerankcutoff <= 0)) {
+      if (args.arbitraryScoreTieBreak) {// Figure out how to break the scoring ties.
+        rs = searcher.search(query.query, isRerank ? args.rerankcutoff : args.hits);
       } else {
-        // DO NOT use BagOfWordsQueryGenerator here!!!!
-        // Because the actual query strings are extracted from tokenized document!!!
-        q = new StandardQueryParser().parse(queryStr, IndexArgs.CONTENTS);
+        rs = searcher.search(query.query, isRerank ? args.rerankcutoff : args.hits, BREAK_SCORE_TIES_BY_DOCID, true);
       }
+    }
+    recordFirstStage(start);
 
-      Query filter = new TermInSetQuery(WashingtonPostGenerator.WashingtonPostField.KICKER.name,
-          new BytesRef("Opinions"), new BytesRef("Letters to the Editor"), new BytesRef("The Post's View"));
+    RerankerContext context = new RerankerContext<>(rerankSearcher(searcher), qid, query.query, queryDocID, query.text,
+        query.tokens, null, args);
+    return runCascades(ScoredDocuments.fromTopDocs(rs, searcher), context, cascades);
+  }
 
+  // Returns the queries of a background linking topic, built from the query document the first time the topic is
+  // searched by any run.
+  private List<BackgroundLinkingQuery> backgroundLinkingQueries(String queryDocID) throws IOException {
+    List<BackgroundLinkingQuery> queries = backgroundLinkingQueries.get(queryDocID);
+    if (queries == null) {
+      queries = buildBackgroundLinkingQueries(queryDocID);
+      backgroundLinkingQueries.putIfAbsent(queryDocID, queries);
+    }
+    return queries;
+  }
+
+  private List<BackgroundLinkingQuery> buildBackgroundLinkingQueries(String queryDocID) throws IOException {
+    Query filter = new TermInSetQuery(WashingtonPostGenerator.WashingtonPostField.KICKER.name,
+        new BytesRef("Opinions"), new BytesRef("Letters to the Editor"), new BytesRef("The Post's View"));
+
+    List<BackgroundLinkingQuery> queries = new ArrayList<>();
+    if (qc == QueryConstructor.SequentialDependenceModel) {
+      for (String queryStr : BackgroundLinkingTopicReader.generateQueryString(reader, queryDocID,
+          args.backgroundlinking_paragraph, args.backgroundlinking_k, false, qc, analyzer)) {
+        Query q = new SdmQueryGenerator(args.sdm_tw, args.sdm_ow, args.sdm_uw).buildQuery(IndexArgs.CONTENTS, analyzer, queryStr);
+        queries.add(new BackgroundLinkingQuery(queryStr, excludeKickers(q, filter)));
+      }
+      return queries;
+    }
+
+    // DO NOT use BagOfWordsQueryGenerator here!!!!
+    // Because the actual query terms are extracted from tokenized document!!!
+    for (Map<String, Double> terms : BackgroundLinkingTopicReader.generateQueryTerms(reader, queryDocID,
+        args.backgroundlinking_paragraph, args.backgroundlinking_k, analyzer)) {
       BooleanQuery.Builder builder = new BooleanQuery.Builder();
-      builder.add(filter, BooleanClause.Occur.MUST_NOT);
-      builder.add(q, BooleanClause.Occur.MUST);
-      query = builder.build();
-
-      TopDocs rs = new TopDocs(new TotalHits(0, TotalHits.Relation.EQUAL_TO), new ScoreDoc[]{});
-      if (!(isRerank && args.rerankcutoff <= 0)) {
-        if (args.arbitraryScoreTieBreak) {// Figure out how to break the scoring ties.
-          rs = searcher.search(query, isRerank ? args.rerankcutoff : args.hits);
-        } else {
-          rs = searcher.search(query, isRerank ? args.rerankcutoff : args.hits, BREAK_SCORE_TIES_BY_DOCID, true);
+      StringBuilder queryStr = new StringBuilder();
+      for (Map.Entry<String, Double> term : terms.entrySet()) {
+        Query q = new TermQuery(new Term(IndexArgs.CONTENTS, term.getKey()));
+        queryStr.append(term.getKey());
+        if (args.backgroundlinking_weighted) {
+          q = new BoostQuery(q, term.getValue().floatValue());
+          queryStr.append(String.format("^%f", term.getValue()));
         }
+        queryStr.append(' ');
+        builder.add(q, BooleanClause.Occur.SHOULD);
       }
-
-      List<String> queryTokens = Arrays.asList(queryStr.split(" "));
-      RerankerContext context = new RerankerContext<>(searcher, qid, query, queryDocID, queryStr, queryTokens, null, args);
-
-      allRes.add(cascade.run(ScoredDocuments.fromTopDocs(rs, searcher), context));
+      LOG.info(String.format("%s, query %d: %s", queryDocID, queries.size(), queryStr));
+      queries.add(new BackgroundLinkingQuery(queryStr.toString(), excludeKickers(builder.build(), filter)));
     }
+    return queries;
+  }
 
-    // Finally do a round-robin picking
+  private static Query excludeKickers(Query q, Query filter) {
+    BooleanQuery.Builder builder = new BooleanQuery.Builder();
+    builder.add(filter, BooleanClause.Occur.MUST_NOT);
+    builder.add(q, BooleanClause.Occur.MUST);
+    return builder.build();
+  }
+
+  // Merges the results of the queries of a background linking topic: the first document of every query, then the
+  // second of every query, and so on, skipping the queries that ran out, until there are -hits documents.
+  private <K> ScoredDocuments roundRobin(IndexSearcher searcher, K qid, String queryDocID,
+                                         List<ScoredDocuments> allRes) throws IOException {
     int totalSize = 0;
-    float[] scoresOfFirst = new float[allRes.size()];
+    // Queries that still have documents, in query order.
+    int[] active = new int[allRes.size()];
+    int numActive = 0;
     for (int i = 0; i < allRes.size(); i++) {
       totalSize += allRes.get(i).documents.length;
-      scoresOfFirst[i] = allRes.get(i).scores.length > 0 ? allRes.get(i).scores[0] : Float.NEGATIVE_INFINITY;
+      if (allRes.get(i).documents.length > 0) {
+        active[numActive++] = i;
+      }
     }
     totalSize = Math.min(args.hits, totalSize);
 
-    ScoredDocuments scoredDocs = new ScoredDocuments();
-    scoredDocs.documents = new Document[totalSize];
-    scoredDocs.ids = new int[totalSize];
-    scoredDocs.scores = new float[totalSize];
+    ScoredDocuments scoredDocs = ScoredDocuments.ofSize(totalSize, reader);
 
     int rowIdx = 0;
     int idx = 0;
     while (idx < totalSize) {
-      for (int i = 0; i < allRes.size(); i++) {
-        if (rowIdx < allRes.get(i).documents.length) {
-          scoredDocs.documents[idx] = allRes.get(i).documents[rowIdx];
-          scoredDocs.ids[idx] = allRes.get(i).ids[rowIdx];
-          scoredDocs.scores[idx] = args.hits - idx;
-          idx++;
+      int kept = 0;
+      for (int a = 0; a < numActive && idx < totalSize; a++) {
+        ScoredDocuments res = allRes.get(active[a]);
+        scoredDocs.set(idx, res, rowIdx);
+        scoredDocs.scores[idx] = args.hits - idx;
+        idx++;
+        if (rowIdx + 1 < res.documents.length) {
+          active[kept++] = active[a];
         }
       }
+      numActive = kept;
       rowIdx++;
     }
 
     NewsBackgroundLinkingReranker postProcessor = new NewsBackgroundLinkingReranker();
-    RerankerContext context = new RerankerContext<>(searcher, qid, null, queryDocID, null, null, null, args);
+    RerankerContext context = new RerankerContext<>(rerankSearcher(searcher), qid, null, queryDocID, null, null, null, args);
     scoredDocs = postProcessor.rerank(scoredDocs, context);
     return scoredDocs;
   }
 
-  public <K> ScoredDocuments searchTweets(IndexSearcher searcher, K qid, String queryString, long t, RerankerCascade cascade) throws IOException {
+  public <K> List<ScoredDocuments> searchTweets(IndexSearcher searcher, K qid, String queryString, long t,
+                                                List<RerankerCascade> cascades) throws IOException {
+    return searchTweetsFirstStage(searcher, qid, queryString, t, cascades).rerank();
+  }
+
+  private <K> FirstStage searchTweetsFirstStage(IndexSearcher searcher, K qid, String queryString, long t,
+                                                List<RerankerCascade> cascades) throws IOException {
+    long start = System.nanoTime();
     Query keywordQuery;
     if (qc == QueryConstructor.SequentialDependenceModel) {
       keywordQuery = new SdmQueryGenerator(args.sdm_tw, args.sdm_ow, args.sdm_uw).buildQuery(IndexArgs.CONTENTS, analyzer, queryString);
@@ -589,11 +1841,13 @@ public final class SearchCollection implements Closeable {
       } else {
         rs = searcher.search(compositeQuery, isRerank ? args.rerankcutoff : args.hits, BREAK_SCORE_TIES_BY_TWEETID, true);
       }
+      recordFirstStage(start);
     }
 
-    RerankerContext context = new RerankerContext<>(searcher, qid, keywordQuery, null, queryString, queryTokens, filter, args);
+    RerankerContext context = new RerankerContext<>(rerankSearcher(searcher), qid, keywordQuery, null, queryString,
+        queryTokens, filter, args);
 
-    return cascade.run(ScoredDocuments.fromTopDocs(rs, searcher), context);
+    return new FirstStage(ScoredDocuments.fromTopDocs(rs, searcher), context, cascades);
   }
 
   public static void main(String[] args) throws Exception {
@@ -0,0 +1,575 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.anserini.index.IndexCollection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.OptionHandlerFilter;
+import org.kohsuke.args4j.ParserProperties;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * Resident search service on top of {@link SimpleSearcher}, listening on localhost. Endpoints:
+ *
+ * <ul>
+ * <li>{@code GET /search?q=query&k=10}: the hits of a query, as JSON.</li>
+ * <li>{@code POST /batch?k=10}: a body with one {@code qid<TAB>query} per line; returns the hits of all queries in
+ * TREC run format.</li>
+ * <li>{@code GET /metrics}: per-endpoint request counts and latency histograms, queue depth and throughput, in the
+ * Prometheus text format.</li>
+ * </ul>
+ *
+ * <p>Requests are parsed by a small, fixed pool of HTTP threads. Their queries wait in a bounded admission queue for a
+ * fixed pool of worker threads; when the queue is full, requests are rejected with status 503. Batches with more
+ * queries than the queue holds and request bodies over a size limit are rejected with status 413. A worker takes all
+ * queued queries up to a batch size at once and searches them one after the other, identical queries (same text and
+ * k) only once; there is no other sharing of work between the queries of a batch. The HTTP threads do not wait for the
+ * workers, responses are written by the workers. The number of hits of a query is capped.</p>
+ */
+public final class SearchServer implements Closeable {
+  private static final Logger LOG = LogManager.getLogger(SearchServer.class);
+
+  public static final class Args {
+    @Option(name = "-index", metaVar = "[path]", required = true, usage = "index path")
+    public String index;
+
+    @Option(name = "-port", metaVar = "[port]", usage = "port on localhost, 0 for any free port")
+    public int port = 8080;
+
+    @Option(name = "-threads", metaVar = "[number]", usage = "number of worker threads")
+    public int threads = 4;
+
+    @Option(name = "-queue", metaVar = "[number]", usage = "number of queries that may wait for a worker")
+    public int queue = 1024;
+
+    @Option(name = "-batch", metaVar = "[number]",
+        usage = "maximum number of queued queries a worker takes at once, identical ones are searched once")
+    public int batch = 16;
+
+    @Option(name = "-hits", metaVar = "[number]", usage = "number of hits of a query without parameter k")
+    public int hits = 10;
+
+    @Option(name = "-maxHits", metaVar = "[number]", usage = "maximum value of parameter k")
+    public int maxHits = 1000;
+
+    @Option(name = "-httpThreads", metaVar = "[number]", usage = "number of threads that parse requests")
+    public int httpThreads = 2;
+
+    @Option(name = "-maxBody", metaVar = "[bytes]", usage = "maximum size of a request body")
+    public int maxBody = 1 << 20;
+
+    @Option(name = "-k1", metaVar = "[value]", usage = "BM25 k1 parameter")
+    public float k1 = 0.9f;
+
+    @Option(name = "-b", metaVar = "[value]", usage = "BM25 b parameter")
+    public float b = 0.4f;
+
+    @Option(name = "-rm3", usage = "use RM3 query expansion model")
+    public boolean rm3 = false;
+
+    @Option(name = "-inmem", metaVar = "[mode]", usage = "hold the index in memory: PRELOAD, HEAP or OFFHEAP")
+    public InMemoryIndex.Mode inmem = null;
+
+    @Option(name = "-segmentThreads", metaVar = "[number]",
+        usage = "number of threads that search the segments of a query in parallel, next to the workers")
+    public int segmentThreads = 0;
+  }
+
+  // A query waiting for a worker.
+  private static final class Request {
+    final String query;
+    final int k;
+    final CompletableFuture<SimpleSearcher.Result[]> hits = new CompletableFuture<>();
+
+    Request(String query, int k) {
+      this.query = query;
+      this.k = k;
+    }
+  }
+
+  // Metrics of an endpoint.
+  private static final class Endpoint {
+    final String name;
+    final LatencyHistogram latency = new LatencyHistogram();
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong rejected = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+
+    Endpoint(String name) {
+      this.name = name;
+    }
+  }
+
+  // A request the service does not accept because of its size.
+  private static final class RequestTooLargeException extends IllegalArgumentException {
+    RequestTooLargeException(String message) {
+      super(message);
+    }
+  }
+
+  @FunctionalInterface
+  private interface Handler {
+    void handle(HttpExchange exchange, Endpoint endpoint, long start) throws IOException;
+  }
+
+  private final SimpleSearcher searcher;
+  private final int maxBatch;
+  private final int defaultHits;
+  private final int maxHits;
+  private final int queueCapacity;
+  private final int maxBody;
+  // Queries are added to the queue holding its lock, after checking that the service is not closed.
+  private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+  // Permits for queued queries, so that a batch request is admitted completely or not at all.
+  private final Semaphore admission;
+  private final List<Thread> workers = new ArrayList<>();
+  private final HttpServer server;
+  private final ThreadPoolExecutor httpExecutor;
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+  private final AtomicLong queries = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final long startTime = System.nanoTime();
+  // Guarded by the lock of the queue.
+  private boolean closed = false;
+
+  /**
+   * Starts a service with the default maximum number of hits, number of HTTP threads and maximum body size.
+   *
+   * @param searcher searcher, shared by all workers
+   * @param port port on localhost, 0 for any free port
+   * @param threads number of worker threads
+   * @param queueCapacity number of queries that may wait for a worker
+   * @param maxBatch maximum number of queued queries a worker takes at once
+   * @param defaultHits number of hits of a query without parameter k
+   * @throws IOException if the port cannot be bound
+   */
+  public SearchServer(SimpleSearcher searcher, int port, int threads, int queueCapacity, int maxBatch,
+                      int defaultHits) throws IOException {
+    this(searcher, port, threads, queueCapacity, maxBatch, defaultHits, new Args().maxHits, new Args().httpThreads,
+        new Args().maxBody);
+  }
+
+  /**
+   * Starts a service.
+   *
+   * @param searcher searcher, shared by all workers
+   * @param port port on localhost, 0 for any free port
+   * @param threads number of worker threads
+   * @param queueCapacity number of queries that may wait for a worker
+   * @param maxBatch maximum number of queued queries a worker takes at once
+   * @param defaultHits number of hits of a query without parameter k
+   * @param maxHits maximum value of parameter k
+   * @param httpThreads number of threads that parse requests
+   * @param maxBody maximum size of a request body, in bytes
+   * @throws IOException if the port cannot be bound
+   */
+  public SearchServer(SimpleSearcher searcher, int port, int threads, int queueCapacity, int maxBatch,
+                      int defaultHits, int maxHits, int httpThreads, int maxBody) throws IOException {
+    if (threads <= 0 || queueCapacity <= 0 || maxBatch <= 0 || httpThreads <= 0 || maxBody <= 0) {
+      throw new IllegalArgumentException("Threads, queue, batch and body size must be positive");
+    }
+    if (defaultHits <= 0 || defaultHits > maxHits) {
+      throw new IllegalArgumentException("Default number of hits must be between 1 and " + maxHits);
+    }
+    this.searcher = searcher;
+    this.maxBatch = maxBatch;
+    this.defaultHits = defaultHits;
+    this.maxHits = maxHits;
+    this.queueCapacity = queueCapacity;
+    this.maxBody = maxBody;
+    this.admission = new Semaphore(queueCapacity);
+
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    addEndpoint("/search", this::search);
+    addEndpoint("/batch", this::batch);
+    addEndpoint("/metrics", this::metrics);
+    // Handlers only parse requests and do not wait for the workers, a few threads suffice. When they fall behind, the
+    // dispatcher thread parses requests itself, which slows down accepting new ones.
+    AtomicInteger httpThreadNumber = new AtomicInteger();
+    this.httpExecutor = new ThreadPoolExecutor(httpThreads, httpThreads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+          Thread thread = new Thread(runnable, "search-http-" + httpThreadNumber.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    server.setExecutor(httpExecutor);
+
+    for (int i = 0; i < threads; i++) {
+      Thread worker = new Thread(this::work, "search-worker-" + (i + 1));
+      workers.add(worker);
+      worker.start();
+    }
+    server.start();
+  }
+
+  /**
+   * Returns the port the service listens on.
+   */
+  public int port() {
+    return server.getAddress().getPort();
+  }
+
+  private void addEndpoint(String path, Handler handler) {
+    Endpoint endpoint = new Endpoint(path.substring(1));
+    endpoints.put(endpoint.name, endpoint);
+    server.createContext(path, exchange -> {
+      long start = System.nanoTime();
+      endpoint.requests.incrementAndGet();
+      try {
+        handler.handle(exchange, endpoint, start);
+      } catch (RequestTooLargeException e) {
+        respond(exchange, endpoint, start, 413, "text/plain", e.getMessage() + "\n");
+      } catch (IllegalArgumentException e) {
+        respond(exchange, endpoint, start, 400, "text/plain", e.getMessage() + "\n");
+      } catch (Exception e) {
+        LOG.error("Unexpected exception in " + path, e);
+        respond(exchange, endpoint, start, 500, "text/plain", "internal error\n");
+      }
+    });
+  }
+
+  private void search(HttpExchange exchange, Endpoint endpoint, long start) throws IOException {
+    Map<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+    String query = parameters.get("q");
+    if (query == null || query.trim().isEmpty()) {
+      throw new IllegalArgumentException("missing parameter q");
+    }
+    List<Request> requests = admit(exchange, endpoint, start, new String[]{query}, hits(parameters));
+    if (requests == null) {
+      return;
+    }
+    requests.get(0).hits.whenComplete((hits, error) -> {
+      if (error != null) {
+        LOG.error("Unable to search " + query, error);
+        respond(exchange, endpoint, start, 500, "text/plain", "internal error\n");
+        return;
+      }
+      ObjectNode result = mapper.createObjectNode();
+      result.put("query", query);
+      ArrayNode array = result.putArray("hits");
+      for (SimpleSearcher.Result hit : hits) {
+        array.addObject().put("docid", hit.docid).put("lucene_docid", hit.lucene_docid).put("score", hit.score);
+      }
+      try {
+        respond(exchange, endpoint, start, 200, "application/json", mapper.writeValueAsString(result));
+      } catch (IOException e) {
+        respond(exchange, endpoint, start, 500, "text/plain", "internal error\n");
+      }
+    });
+  }
+
+  private void batch(HttpExchange exchange, Endpoint endpoint, long start) throws IOException {
+    if (!"POST".equals(exchange.getRequestMethod())) {
+      throw new IllegalArgumentException("queries must be posted");
+    }
+    int k = hits(parameters(exchange.getRequestURI().getRawQuery()));
+    List<String> qids = new ArrayList<>();
+    List<String> texts = new ArrayList<>();
+    for (String line : read(exchange, maxBody).split("\\r?\\n")) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      int tab = line.indexOf('\t');
+      if (tab < 0) {
+        throw new IllegalArgumentException("expected qid<TAB>query: " + line);
+      }
+      qids.add(line.substring(0, tab).trim());
+      texts.add(line.substring(tab + 1));
+    }
+    // Such a batch would never be admitted, not even to an empty queue.
+    if (texts.size() > queueCapacity) {
+      throw new RequestTooLargeException("a batch may hold at most " + queueCapacity + " queries");
+    }
+    List<Request> requests = admit(exchange, endpoint, start, texts.toArray(new String[0]), k);
+    if (requests == null) {
+      return;
+    }
+    CompletableFuture.allOf(requests.stream().map(r -> r.hits).toArray(CompletableFuture[]::new))
+        .whenComplete((ignored, error) -> {
+          if (error != null) {
+            LOG.error("Unable to search batch", error);
+            respond(exchange, endpoint, start, 500, "text/plain", "internal error\n");
+            return;
+          }
+          StringBuilder run = new StringBuilder();
+          for (int q = 0; q < requests.size(); q++) {
+            SimpleSearcher.Result[] hits = requests.get(q).hits.join();
+            for (int i = 0; i < hits.length; i++) {
+              run.append(String.format(Locale.US, "%s Q0 %s %d %f Anserini\n", qids.get(q), hits[i].docid, i + 1,
+                  hits[i].score));
+            }
+          }
+          respond(exchange, endpoint, start, 200, "text/plain", run.toString());
+        });
+  }
+
+  private void metrics(HttpExchange exchange, Endpoint endpoint, long start) {
+    double uptime = (System.nanoTime() - startTime) / 1e9;
+    StringBuilder out = new StringBuilder();
+    counter(out, "anserini_requests_total", e -> e.requests.get());
+    counter(out, "anserini_rejected_requests_total", e -> e.rejected.get());
+    counter(out, "anserini_failed_requests_total", e -> e.errors.get());
+    out.append("# TYPE anserini_request_latency_seconds histogram\n");
+    for (Endpoint e : endpoints.values()) {
+      e.latency.appendTo(out, "anserini_request_latency_seconds", "endpoint=\"" + e.name + "\"");
+    }
+    gauge(out, "anserini_queue_depth", queue.size());
+    gauge(out, "anserini_queue_capacity", queueCapacity);
+    gauge(out, "anserini_queries_total", queries.get());
+    gauge(out, "anserini_batches_total", batches.get());
+    gauge(out, "anserini_coalesced_queries_total", coalesced.get());
+    gauge(out, "anserini_uptime_seconds", uptime);
+    gauge(out, "anserini_throughput_queries_per_second", uptime == 0 ? 0 : queries.get() / uptime);
+    respond(exchange, endpoint, start, 200, "text/plain; version=0.0.4", out.toString());
+  }
+
+  private void counter(StringBuilder out, String name, ToLongFunction<Endpoint> value) {
+    out.append("# TYPE ").append(name).append(" counter\n");
+    for (Endpoint e : endpoints.values()) {
+      out.append(name).append("{endpoint=\"").append(e.name).append("\"} ").append(value.applyAsLong(e)).append('\n');
+    }
+  }
+
+  private static void gauge(StringBuilder out, String name, double value) {
+    out.append("# TYPE ").append(name).append(name.endsWith("_total") ? " counter\n" : " gauge\n");
+    out.append(name).append(' ').append(value == Math.rint(value) ? String.valueOf((long) value) :
+        String.format(Locale.US, "%.3f", value)).append('\n');
+  }
+
+  // Queues the queries of a request, or rejects the request (status 503) if the queue has no room for all of them or
+  // the service is closed.
+  private List<Request> admit(HttpExchange exchange, Endpoint endpoint, long start, String[] texts, int k) {
+    List<Request> requests = new ArrayList<>(texts.length);
+    for (String text : texts) {
+      requests.add(new Request(text, k));
+    }
+    boolean admitted;
+    // Under the lock that close() takes, so that no query is queued once close() drains the queue.
+    synchronized (queue) {
+      admitted = !closed && admission.tryAcquire(texts.length);
+      if (admitted) {
+        queue.addAll(requests);
+      }
+    }
+    if (!admitted) {
+      endpoint.rejected.incrementAndGet();
+      respond(exchange, endpoint, start, 503, "text/plain", "too many queued queries\n");
+      return null;
+    }
+    return requests;
+  }
+
+  // Takes batches of queued queries until the service is closed.
+  private void work() {
+    List<Request> batch = new ArrayList<>(maxBatch);
+    while (true) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        return;
+      }
+      queue.drainTo(batch, maxBatch - 1);
+      admission.release(batch.size());
+      queries.addAndGet(batch.size());
+      batches.incrementAndGet();
+
+      // Identical queries of a batch are searched once.
+      Map<String, List<Request>> distinct = new LinkedHashMap<>();
+      for (Request request : batch) {
+        distinct.computeIfAbsent(request.k + "\t" + request.query, key -> new ArrayList<>()).add(request);
+      }
+      coalesced.addAndGet(batch.size() - distinct.size());
+      for (List<Request> same : distinct.values()) {
+        try {
+          SimpleSearcher.Result[] hits = searcher.search(same.get(0).query, same.get(0).k);
+          same.forEach(request -> request.hits.complete(hits));
+        } catch (Exception e) {
+          same.forEach(request -> request.hits.completeExceptionally(e));
+        }
+      }
+      batch.clear();
+    }
+  }
+
+  private void respond(HttpExchange exchange, Endpoint endpoint, long start, int status, String contentType,
+                       String body) {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    // Recorded before the response is sent, so that a client that got its response finds it in the metrics.
+    if (status == 200) {
+      endpoint.latency.record(System.nanoTime() - start);
+    } else if (status != 503) {
+      endpoint.errors.incrementAndGet();
+    }
+    try {
+      exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+      exchange.sendResponseHeaders(status, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    } catch (IOException e) {
+      LOG.warn("Unable to send response", e);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private int hits(Map<String, String> parameters) {
+    String k = parameters.get("k");
+    try {
+      int hits = k == null ? defaultHits : Integer.parseInt(k);
+      if (hits <= 0 || hits > maxHits) {
+        throw new NumberFormatException();
+      }
+      return hits;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("parameter k must be a number between 1 and " + maxHits + ": " + k);
+    }
+  }
+
+  private static Map<String, String> parameters(String rawQuery) throws IOException {
+    Map<String, String> parameters = new HashMap<>();
+    if (rawQuery == null) {
+      return parameters;
+    }
+    for (String parameter : rawQuery.split("&")) {
+      int eq = parameter.indexOf('=');
+      if (eq > 0) {
+        parameters.put(URLDecoder.decode(parameter.substring(0, eq), "UTF-8"),
+            URLDecoder.decode(parameter.substring(eq + 1), "UTF-8"));
+      }
+    }
+    return parameters;
+  }
+
+  // Reads the body of a request, of at most maxBody bytes.
+  private static String read(HttpExchange exchange, int maxBody) throws IOException {
+    String length = exchange.getRequestHeaders().getFirst("Content-Length");
+    if (length != null && Long.parseLong(length.trim()) > maxBody) {
+      throw new RequestTooLargeException("request body exceeds " + maxBody + " bytes");
+    }
+    InputStream in = exchange.getRequestBody();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int n;
+    while ((n = in.read(buffer)) > 0) {
+      if (bytes.size() + n > maxBody) {
+        throw new RequestTooLargeException("request body exceeds " + maxBody + " bytes");
+      }
+      bytes.write(buffer, 0, n);
+    }
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Stops accepting requests and stops the workers; queries that are still queued fail. The searcher is not closed.
+   */
+  @Override
+  public void close() {
+    synchronized (queue) {
+      closed = true;
+    }
+    server.stop(0);
+    httpExecutor.shutdown();
+    for (Thread worker : workers) {
+      worker.interrupt();
+    }
+    for (Thread worker : workers) {
+      try {
+        worker.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    Request request;
+    while ((request = queue.poll()) != null) {
+      request.hits.completeExceptionally(new IllegalStateException("service closed"));
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Args serverArgs = new Args();
+    CmdLineParser parser = new CmdLineParser(serverArgs, ParserProperties.defaults().withUsageWidth(90));
+
+    try {
+      parser.parseArgument(args);
+    } catch (CmdLineException e) {
+      System.err.println(e.getMessage());
+      parser.printUsage(System.err);
+      System.err.println("Example: SearchServer" + parser.printExample(OptionHandlerFilter.REQUIRED));
+      return;
+    }
+
+    SimpleSearcher searcher = new SimpleSearcher(serverArgs.index, IndexCollection.DEFAULT_ANALYZER, serverArgs.inmem);
+    searcher.setBM25Similarity(serverArgs.k1, serverArgs.b);
+    if (serverArgs.rm3) {
+      searcher.setRM3Reranker();
+    }
+    int segmentThreads = SegmentExecutor.threadBudget(serverArgs.segmentThreads, serverArgs.threads);
+    if (segmentThreads > 0) {
+      searcher.setSegmentThreads(segmentThreads);
+    }
+
+    SearchServer server = new SearchServer(searcher, serverArgs.port, serverArgs.threads, serverArgs.queue,
+        serverArgs.batch, serverArgs.hits, serverArgs.maxHits, serverArgs.httpThreads, serverArgs.maxBody);
+    LOG.info(String.format("Serving %s on http://localhost:%d/ with %d workers", serverArgs.index, server.port(),
+        serverArgs.threads));
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      server.close();
+      try {
+        searcher.close();
+      } catch (IOException e) {
+        LOG.error("Unable to close the searcher", e);
+      }
+    }));
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded executor for the segments (slices) of a query, shared by all searchers and all query threads (see
+ * {@link SlicedIndexSearcher}). It has a fixed number of threads and a bounded queue; when the queue is full, a slice
+ * runs on the thread of the query itself, so that a burst of expensive queries never starts more threads. The CPU time
+ * of a slice is added to the {@link QueryTimer} of its query, if any.
+ */
+public final class SegmentExecutor implements Executor, Closeable {
+  private static final Logger LOG = LogManager.getLogger(SegmentExecutor.class);
+
+  // Queued slices per thread before slices run on the query threads.
+  private static final int QUEUED_PER_THREAD = 4;
+
+  private final ThreadPoolExecutor pool;
+
+  /**
+   * Creates an executor.
+   *
+   * @param threads number of threads
+   */
+  public SegmentExecutor(int threads) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("Number of segment threads must be positive: " + threads);
+    }
+    AtomicInteger count = new AtomicInteger();
+    this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(QUEUED_PER_THREAD * threads), runnable -> {
+          Thread thread = new Thread(runnable, "segment-search-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  /**
+   * Returns the number of segment threads to use next to a number of query threads, so that both together do not use
+   * more threads than there are cores. Returns 0 (search segments sequentially) if that leaves less than two threads.
+   *
+   * @param requested requested number of segment threads
+   * @param queryThreads number of threads that run queries
+   * @return number of segment threads
+   */
+  public static int threadBudget(int requested, int queryThreads) {
+    if (requested <= 0) {
+      return 0;
+    }
+    int cores = Runtime.getRuntime().availableProcessors();
+    int available = cores - Math.max(1, queryThreads);
+    if (requested <= available) {
+      return requested;
+    }
+    if (available < 2) {
+      LOG.warn(String.format("%d query threads leave no cores for segment threads, segments are searched sequentially",
+          queryThreads));
+      return 0;
+    }
+    LOG.warn(String.format("Using %d instead of %d segment threads next to %d query threads on %d cores",
+        available, requested, queryThreads, cores));
+    return available;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    QueryTimer timer = QueryTimer.current();
+    if (timer == null) {
+      pool.execute(task);
+      return;
+    }
+    pool.execute(() -> {
+      long start = QueryTimer.threadCpuTime();
+      try {
+        task.run();
+      } finally {
+        timer.addCpuTime(QueryTimer.threadCpuTime() - start);
+      }
+    });
+  }
+
+  /**
+   * Returns the number of threads.
+   */
+  public int threads() {
+    return pool.getCorePoolSize();
+  }
+
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+}
@@ -25,6 +25,7 @@ import io.anserini.index.generator.TweetGenerator;
 import io.anserini.rerank.RerankerCascade;
 import io.anserini.rerank.RerankerContext;
 import io.anserini.rerank.ScoredDocuments;
+import io.anserini.rerank.TermVectorCache;
 import io.anserini.rerank.lib.Rm3Reranker;
 import io.anserini.rerank.lib.ScoreTiesAdjusterReranker;
 import io.anserini.search.query.BagOfWordsQueryGenerator;
@@ -63,6 +64,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -71,6 +73,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -93,6 +96,15 @@ public class SimpleSearcher implements Closeable {
   private boolean isRerank;
 
   private IndexSearcher searcher = null;
+  // Searches the segments of a query in parallel, if set.
+  private SegmentExecutor segmentExecutor = null;
+  // Term vectors of feedback documents, shared by all queries.
+  private TermVectorCache termVectors = null;
+  // Latencies of the queries after the warmup, and the time from opening the index to the first query. A histogram,
+  // since a searcher may serve queries for as long as the process runs (e.g., behind SearchServer).
+  private final LatencyHistogram latencies = new LatencyHistogram();
+  private final long openStart;
+  private final AtomicBoolean firstQueryLogged = new AtomicBoolean();
 
   /**
    * This class is meant to serve as the bridge between Anserini and Pyserini.
@@ -121,13 +133,26 @@ public class SimpleSearcher implements Closeable {
   }
 
   public SimpleSearcher(String indexDir, Analyzer analyzer) throws IOException {
+    this(indexDir, analyzer, null);
+  }
+
+  /**
+   * Opens an index, optionally held in memory.
+   *
+   * @param indexDir index path
+   * @param analyzer analyzer
+   * @param mode how the index is held in memory, or null to read it from disk
+   * @throws IOException if the index cannot be opened
+   */
+  public SimpleSearcher(String indexDir, Analyzer analyzer, InMemoryIndex.Mode mode) throws IOException {
+    this.openStart = System.nanoTime();
     Path indexPath = Paths.get(indexDir);
 
     if (!Files.exists(indexPath) || !Files.isDirectory(indexPath) || !Files.isReadable(indexPath)) {
       throw new IllegalArgumentException(indexDir + " does not exist or is not a directory.");
     }
 
-    this.reader = DirectoryReader.open(FSDirectory.open(indexPath));
+    this.reader = DirectoryReader.open(mode == null ? FSDirectory.open(indexPath) : InMemoryIndex.open(indexPath, mode));
     this.similarity = new BM25Similarity(0.9f, 0.4f);
     this.analyzer = analyzer;
     this.searchtweets = false;
@@ -193,7 +218,7 @@ public class SimpleSearcher implements Closeable {
     this.similarity = new LMDirichletSimilarity(mu);
 
     // We need to re-initialize the searcher
-    searcher = new IndexSearcher(reader);
+    searcher = newSearcher();
     searcher.setSimilarity(similarity);
   }
 
@@ -201,12 +226,74 @@ public class SimpleSearcher implements Closeable {
     this.similarity = new BM25Similarity(k1, b);
 
     // We need to re-initialize the searcher
-    searcher = new IndexSearcher(reader);
+    searcher = newSearcher();
+    searcher.setSimilarity(similarity);
+  }
+
+  /**
+   * Searches the segments of every query in parallel on a number of threads, which are shared by all queries (also
+   * those of {@link #batchSearch}, so batch threads plus segment threads should not exceed the number of cores). Small
+   * segments are merged into slices, see {@link SlicedIndexSearcher}.
+   *
+   * @param threads number of segment threads, 0 to search segments sequentially
+   */
+  public void setSegmentThreads(int threads) {
+    if (segmentExecutor != null) {
+      segmentExecutor.close();
+      segmentExecutor = null;
+    }
+    if (threads > 0) {
+      segmentExecutor = new SegmentExecutor(threads);
+    }
+
+    // We need to re-initialize the searcher
+    searcher = newSearcher();
     searcher.setSimilarity(similarity);
   }
 
+  /**
+   * Reads the term dictionaries, norms and doc values of the contents and id fields, and searches some queries whose
+   * results are discarded, so that later queries run at steady-state latency. The warmup queries are not counted in
+   * {@link #getLatencies()}.
+   *
+   * @param queries sample of queries
+   * @throws IOException if the index cannot be read
+   */
+  public void warmup(List<String> queries) throws IOException {
+    long start = System.nanoTime();
+    InMemoryIndex.warm(reader, Arrays.asList(IndexArgs.CONTENTS, IndexArgs.ID));
+    for (String query : queries) {
+      search(query);
+    }
+    latencies.clear();
+    LOG.info(String.format("Warmup: %d queries in %.1f ms", queries.size(), (System.nanoTime() - start) / 1e6));
+  }
+
+  /**
+   * Returns the latencies of the queries searched so far, after the warmup.
+   */
+  public LatencyHistogram getLatencies() {
+    return latencies;
+  }
+
+  // Renewed between queries, so that its term dictionary does not grow with the queries served.
+  private synchronized TermVectorCache termVectors() {
+    termVectors = termVectors == null ? new TermVectorCache(reader) : termVectors.renew();
+    return termVectors;
+  }
+
+  private IndexSearcher newSearcher() {
+    return segmentExecutor == null ? new IndexSearcher(reader) : new SlicedIndexSearcher(reader, segmentExecutor);
+  }
+
   @Override
   public void close() throws IOException {
+    if (latencies.count() > 0) {
+      LOG.info("Query latency: " + latencies);
+    }
+    if (segmentExecutor != null) {
+      segmentExecutor.close();
+    }
     reader.close();
   }
 
@@ -228,7 +315,7 @@ public class SimpleSearcher implements Closeable {
     // Create the IndexSearcher here, if needed. We do it here because if we leave the creation to the search
     // method, we might end up with a race condition as multiple threads try to concurrently create the IndexSearcher.
     if (searcher == null) {
-      searcher = new IndexSearcher(reader);
+      searcher = newSearcher();
       searcher.setSimilarity(similarity);
     }
 
@@ -304,9 +391,10 @@ public class SimpleSearcher implements Closeable {
 
   protected Result[] search(Query query, List<String> queryTokens, String queryString, int k,
                             long t) throws IOException {
+    long start = System.nanoTime();
     // Create an IndexSearch only once. Note that the object is thread safe.
     if (searcher == null) {
-      searcher = new IndexSearcher(reader);
+      searcher = newSearcher();
       searcher.setSimilarity(similarity);
     }
 
@@ -344,11 +432,12 @@ public class SimpleSearcher implements Closeable {
           queryString, queryTokens, null, searchArgs);
     }
 
+    context.setTermVectors(termVectors());
     ScoredDocuments hits = cascade.run(ScoredDocuments.fromTopDocs(rs, searcher), context);
 
     Result[] results = new Result[hits.ids.length];
     for (int i = 0; i < hits.ids.length; i++) {
-      Document doc = hits.documents[i];
+      Document doc = hits.document(i);
       String docid = doc.getField(IndexArgs.ID).stringValue();
 
       IndexableField field;
@@ -361,6 +450,11 @@ public class SimpleSearcher implements Closeable {
       results[i] = new Result(docid, hits.ids[i], hits.scores[i], contents, raw, doc);
     }
 
+    long end = System.nanoTime();
+    latencies.record(end - start);
+    if (firstQueryLogged.compareAndSet(false, true)) {
+      LOG.info(String.format("Time to first query: %.1f ms", (end - openStart) / 1e6));
+    }
     return results;
   }
 
@@ -371,7 +465,7 @@ public class SimpleSearcher implements Closeable {
   // searching both the defaults contents fields and another field with weight boost
   // this is used for MS MARCO experiments with document expansion.
   public Result[] searchFields(String q, Map<String, Float> fields, int k, long t) throws IOException {
-    IndexSearcher searcher = new IndexSearcher(reader);
+    IndexSearcher searcher = newSearcher();
     searcher.setSimilarity(similarity);
 
     Query queryContents = new BagOfWordsQueryGenerator().buildQuery(IndexArgs.CONTENTS, analyzer, q);
@@ -476,4 +570,35 @@ public class SimpleSearcher implements Closeable {
     return IndexReaderUtils.documentRaw(reader, docid);
   }
 
+  /**
+   * Fetches the Lucene {@link Document}s of many collection docids in one call, reading them in Lucene docid order.
+   *
+   * @param docids collection docids
+   * @return documents by collection docid, in the order of the docids; docids that are not found are left out
+   */
+  public Map<String, Document> batchDocuments(List<String> docids) {
+    return IndexReaderUtils.batchDocuments(reader, docids);
+  }
+
+  /**
+   * Returns the "contents" fields of many documents in one call, reading them in Lucene docid order.
+   *
+   * @param docids collection docids
+   * @return the "contents" fields by collection docid, in the order of the docids; docids that are not found are left
+   * out
+   */
+  public Map<String, String> batchDocumentContents(List<String> docids) {
+    return IndexReaderUtils.batchDocumentContents(reader, docids);
+  }
+
+  /**
+   * Returns the "raw" fields of many documents in one call, reading them in Lucene docid order.
+   *
+   * @param docids collection docids
+   * @return the "raw" fields by collection docid, in the order of the docids; docids that are not found are left out
+   */
+  public Map<String, String> batchDocumentRaw(List<String> docids) {
+    return IndexReaderUtils.batchDocumentRaw(reader, docids);
+  }
+
 }
@@ -0,0 +1,98 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * IndexSearcher that searches the segments of a query in parallel on an executor (usually a shared
+ * {@link SegmentExecutor}). Small segments are merged into slices: a slice holds segments until it has more than
+ * maxDocsPerSlice documents or maxSegmentsPerSlice segments, and every slice is one task of the executor.
+ */
+public class SlicedIndexSearcher extends IndexSearcher {
+  public static final int DEFAULT_MAX_DOCS_PER_SLICE = 250_000;
+  public static final int DEFAULT_MAX_SEGMENTS_PER_SLICE = 5;
+
+  // slices() is called by the IndexSearcher constructor, before the fields of this class are set.
+  private static final ThreadLocal<int[]> SLICE_POLICY = new ThreadLocal<>();
+
+  private final int maxDocsPerSlice;
+  private final int maxSegmentsPerSlice;
+
+  public SlicedIndexSearcher(IndexReader reader, Executor executor) {
+    this(reader, executor, DEFAULT_MAX_DOCS_PER_SLICE, DEFAULT_MAX_SEGMENTS_PER_SLICE);
+  }
+
+  /**
+   * Creates a searcher.
+   *
+   * @param reader index reader
+   * @param executor executor of the slices
+   * @param maxDocsPerSlice number of documents above which a slice takes no more segments
+   * @param maxSegmentsPerSlice maximum number of segments of a slice
+   */
+  public SlicedIndexSearcher(IndexReader reader, Executor executor, int maxDocsPerSlice, int maxSegmentsPerSlice) {
+    super(withSlicePolicy(reader, maxDocsPerSlice, maxSegmentsPerSlice), executor);
+    SLICE_POLICY.remove();
+    this.maxDocsPerSlice = maxDocsPerSlice;
+    this.maxSegmentsPerSlice = maxSegmentsPerSlice;
+  }
+
+  private static IndexReader withSlicePolicy(IndexReader reader, int maxDocsPerSlice, int maxSegmentsPerSlice) {
+    if (maxDocsPerSlice <= 0 || maxSegmentsPerSlice <= 0) {
+      throw new IllegalArgumentException("Slices must have a positive size");
+    }
+    SLICE_POLICY.set(new int[]{maxDocsPerSlice, maxSegmentsPerSlice});
+    return reader;
+  }
+
+  @Override
+  protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+    int[] policy = SLICE_POLICY.get();
+    if (policy == null) {
+      policy = new int[]{maxDocsPerSlice, maxSegmentsPerSlice};
+    }
+    return slices(leaves, policy[0], policy[1]);
+  }
+
+  // Groups consecutive segments into slices. Slices stay in doc id order, so that hits with equal scores are merged in
+  // the same order as a sequential search returns them.
+  private static LeafSlice[] slices(List<LeafReaderContext> leaves, int maxDocsPerSlice, int maxSegmentsPerSlice) {
+    List<LeafSlice> slices = new ArrayList<>();
+    List<LeafReaderContext> group = new ArrayList<>();
+    long docs = 0;
+    for (LeafReaderContext leaf : leaves) {
+      group.add(leaf);
+      docs += leaf.reader().maxDoc();
+      if (docs > maxDocsPerSlice || group.size() >= maxSegmentsPerSlice) {
+        slices.add(new LeafSlice(group.toArray(new LeafReaderContext[0])));
+        group.clear();
+        docs = 0;
+      }
+    }
+    if (!group.isEmpty()) {
+      slices.add(new LeafSlice(group.toArray(new LeafReaderContext[0])));
+    }
+    return slices.toArray(new LeafSlice[0]);
+  }
+}
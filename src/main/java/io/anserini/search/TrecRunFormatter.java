@@ -0,0 +1,250 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import io.anserini.rerank.ScoredDocuments;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Formats run lines in TREC format ({@code qid Q0 docid rank score runtag}) into a reused byte buffer, with the same
+ * output as {@code String.format(Locale.US, "%s Q0 %s %d %f %s", ...)} but without creating a string per line.
+ *
+ * <p>Scores are printed with six decimals, rounded half-up from their decimal value like {@code %f} does. Scores close
+ * to a rounding tie, very large scores and special values are formatted with {@link String#format} to stay exact.
+ * Characters that are not ASCII are written as {@code '?'}, as in runs written with a US-ASCII writer.</p>
+ *
+ * <p>A formatter is not thread-safe; each thread should use its own.</p>
+ */
+public final class TrecRunFormatter {
+  private static final byte[] Q0 = {' ', 'Q', '0', ' '};
+  private static final byte[] LINE_SEPARATOR = ascii(System.lineSeparator());
+  // Scores up to this magnitude are formatted from their scaled value; see appendScore.
+  private static final double MAX_FAST_SCORE = 1e6;
+  // Distance from a rounding tie (in units of the last decimal) under which the exact formatting is used.
+  private static final double TIE_MARGIN = 1e-3;
+
+  private final byte[] runTag;
+  private byte[] qid = new byte[0];
+  private byte[] buffer = new byte[1 << 16];
+  private int length = 0;
+
+  /**
+   * Creates a formatter.
+   *
+   * @param runTag run tag written at the end of every line
+   */
+  public TrecRunFormatter(String runTag) {
+    this.runTag = ascii(runTag);
+  }
+
+  /**
+   * Clears the buffer.
+   *
+   * @return this formatter
+   */
+  public TrecRunFormatter reset() {
+    length = 0;
+    return this;
+  }
+
+  /**
+   * Sets the topic id of the following lines.
+   *
+   * @param qid topic id
+   */
+  public void topic(String qid) {
+    this.qid = ascii(qid);
+  }
+
+  /**
+   * Appends a line of the current topic.
+   *
+   * @param docid collection docid
+   * @param rank rank, starting at 1
+   * @param score score
+   */
+  public void add(String docid, int rank, float score) {
+    ensureCapacity(qid.length + docid.length() + runTag.length + 64);
+    append(qid);
+    append(Q0);
+    appendAscii(docid);
+    buffer[length++] = ' ';
+    appendLong(rank);
+    buffer[length++] = ' ';
+    appendScore(score);
+    buffer[length++] = ' ';
+    append(runTag);
+    append(LINE_SEPARATOR);
+  }
+
+  /**
+   * Formats the results of a topic, replacing the contents of the buffer.
+   *
+   * @param qid topic id
+   * @param docs results of the topic
+   * @return the lines of the topic
+   */
+  public byte[] format(String qid, ScoredDocuments docs) {
+    reset();
+    topic(qid);
+    for (int i = 0; i < docs.scores.length; i++) {
+      add(docs.docid(i), i + 1, docs.scores[i]);
+    }
+    return toByteArray();
+  }
+
+  /**
+   * Returns the number of bytes in the buffer.
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Returns a copy of the buffer.
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buffer, length);
+  }
+
+  /**
+   * Writes the buffer to a stream.
+   *
+   * @param out stream
+   * @throws IOException if the stream cannot be written
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(buffer, 0, length);
+  }
+
+  @Override
+  public String toString() {
+    return new String(buffer, 0, length, StandardCharsets.US_ASCII);
+  }
+
+  private void ensureCapacity(int extra) {
+    if (length + extra > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+    }
+  }
+
+  private void append(byte[] bytes) {
+    System.arraycopy(bytes, 0, buffer, length, bytes.length);
+    length += bytes.length;
+  }
+
+  private void appendAscii(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      buffer[length++] = c < 0x80 ? (byte) c : (byte) '?';
+      // A surrogate pair is a single unmappable character.
+      if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+        i++;
+      }
+    }
+  }
+
+  // Appends the digits of a non-negative number.
+  private void appendLong(long value) {
+    int digits = 1;
+    for (long v = value; v >= 10; v /= 10) {
+      digits++;
+    }
+    for (int i = length + digits - 1; i >= length; i--) {
+      buffer[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    length += digits;
+  }
+
+  /**
+   * Returns a score as it is read back from a run line, by trec_eval for instance: rounded to six decimals.
+   *
+   * @param score score
+   * @return score rounded to six decimals
+   */
+  public static double parsedScore(float score) {
+    long units = scaledScore(score);
+    if (units < 0) {
+      return Double.parseDouble(String.format(Locale.US, "%f", score));
+    }
+    // Both integers are exact, so the quotient is the double closest to the decimal, as a parser returns it.
+    double value = units / 1e6;
+    return Float.floatToRawIntBits(score) < 0 ? -value : value;
+  }
+
+  // Returns the magnitude of a score in units of the sixth decimal, rounded like %f does, or -1 if the score has to be
+  // formatted with String.format. %f widens the float to a double and rounds the decimal digits of that double
+  // half-up to six decimals. The scaled value is within a fraction of a unit of the last decimal of the exact one, so
+  // unless it is close to a tie both round to the same number.
+  private static long scaledScore(float score) {
+    double magnitude = Math.abs((double) score);
+    if (!(magnitude < MAX_FAST_SCORE)) {
+      return -1;
+    }
+    double scaled = magnitude * 1e6;
+    double floor = Math.floor(scaled);
+    double fraction = scaled - floor;
+    if (Math.abs(fraction - 0.5) < TIE_MARGIN) {
+      return -1;
+    }
+    return (long) floor + (fraction > 0.5 ? 1 : 0);
+  }
+
+  private void appendScore(float score) {
+    long units = scaledScore(score);
+    if (units < 0) {
+      appendExact(score);
+      return;
+    }
+    if (Float.floatToRawIntBits(score) < 0) {
+      buffer[length++] = '-';
+    }
+    appendLong(units / 1_000_000);
+    buffer[length++] = '.';
+    int decimals = (int) (units % 1_000_000);
+    for (int i = length + 5; i >= length; i--) {
+      buffer[i] = (byte) ('0' + decimals % 10);
+      decimals /= 10;
+    }
+    length += 6;
+  }
+
+  private void appendExact(float score) {
+    String s = String.format(Locale.US, "%f", score);
+    ensureCapacity(s.length());
+    appendAscii(s);
+  }
+
+  private static byte[] ascii(String s) {
+    byte[] bytes = new byte[s.length()];
+    int n = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      bytes[n++] = c < 0x80 ? (byte) c : (byte) '?';
+      if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+        i++;
+      }
+    }
+    return n == bytes.length ? bytes : Arrays.copyOf(bytes, n);
+  }
+}
@@ -0,0 +1,365 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.latent;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of long-lived SLR encoder processes. Each worker starts the model once as {@code python3 [model] -server} and
+ * then exchanges framed batches with it over stdin/stdout, so that interpreter startup and model loading are paid
+ * once per worker instead of once per document or query. Requests from all callers (e.g., the indexer threads) go
+ * through a single bounded queue; a worker takes up to {@code batchSize} pending requests at a time.
+ *
+ * <p>All integers and floats are big-endian (i.e., {@link DataOutputStream} and Python's {@code struct '>'}):</p>
+ * <pre>
+ * request:  int n, then n times (int length, length bytes of UTF-8 text)
+ * response: int n, then n times (int nnz, then nnz times (int dim, float value))
+ * </pre>
+ *
+ * <p>A worker whose process dies is restarted and the failed batch is retried once.</p>
+ */
+public final class SLREncoder implements Closeable {
+  private static final Logger LOG = LogManager.getLogger(SLREncoder.class);
+
+  public static final int DEFAULT_WORKERS = 1;
+  public static final int DEFAULT_BATCH_SIZE = 32;
+
+  // Encoders are shared by model so that e.g. all indexer threads (each with their own generator) use the same pool.
+  private static final Map<String, SLREncoder> SHARED = new HashMap<>();
+
+  private final String model;
+  private final List<String> command;
+  private final int batchSize;
+  private final BlockingQueue<Request> queue;
+  private final Worker[] workers;
+  private volatile boolean closed = false;
+
+  private final long startTime = System.nanoTime();
+  private final AtomicLong encoded = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong queueWaitNanos = new AtomicLong();
+  private final AtomicLong restarts = new AtomicLong();
+
+  private static final class Request {
+    final String text;
+    final long enqueued = System.nanoTime();
+    final CompletableFuture<SparseVector> result = new CompletableFuture<>();
+
+    Request(String text) {
+      this.text = text;
+    }
+  }
+
+  /**
+   * Returns the encoder shared by all callers for the given model, starting it if needed.
+   *
+   * @param model python script (and optional arguments) of the encoder
+   * @param numWorkers number of encoder processes
+   * @param batchSize maximum number of texts per request to an encoder process
+   * @return shared encoder
+   */
+  public static synchronized SLREncoder shared(String model, int numWorkers, int batchSize) throws IOException {
+    SLREncoder encoder = SHARED.get(model);
+    if (encoder == null) {
+      encoder = new SLREncoder(model, numWorkers, batchSize);
+      SHARED.put(model, encoder);
+    }
+    return encoder;
+  }
+
+  public SLREncoder(String model, int numWorkers, int batchSize) throws IOException {
+    if (numWorkers < 1 || batchSize < 1) {
+      throw new IllegalArgumentException("numWorkers and batchSize must be greater than zero");
+    }
+    this.model = model;
+    this.batchSize = batchSize;
+    this.command = new ArrayList<>();
+    this.command.add("python3");
+    this.command.addAll(Arrays.asList(model.trim().split("\\s+")));
+    this.command.add("-server");
+    this.queue = new ArrayBlockingQueue<>(4 * numWorkers * batchSize);
+
+    LOG.info(String.format("Starting %d SLR encoder worker(s): %s", numWorkers, String.join(" ", command)));
+    this.workers = new Worker[numWorkers];
+    for (int i = 0; i < numWorkers; i++) {
+      workers[i] = new Worker(i);
+      workers[i].startProcess();
+    }
+    for (Worker worker : workers) {
+      worker.start();
+    }
+  }
+
+  /**
+   * Encodes a single text, blocking until the representation is available.
+   *
+   * @param text text to encode
+   * @return sparse latent representation
+   * @throws IOException if the encoder fails
+   */
+  public SparseVector encode(String text) throws IOException {
+    return await(submit(text));
+  }
+
+  /**
+   * Encodes a list of texts. All texts are queued before waiting, so they are spread over the workers in batches.
+   *
+   * @param texts texts to encode
+   * @return sparse latent representations, in the same order as the texts
+   * @throws IOException if the encoder fails
+   */
+  public List<SparseVector> encode(List<String> texts) throws IOException {
+    List<CompletableFuture<SparseVector>> futures = new ArrayList<>(texts.size());
+    for (String text : texts) {
+      futures.add(submit(text));
+    }
+    List<SparseVector> results = new ArrayList<>(texts.size());
+    for (CompletableFuture<SparseVector> future : futures) {
+      results.add(await(future));
+    }
+    return results;
+  }
+
+  private CompletableFuture<SparseVector> submit(String text) throws IOException {
+    if (closed) {
+      throw new IOException("SLR encoder is closed");
+    }
+    Request request = new Request(text);
+    try {
+      queue.put(request);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while queueing text for encoding", e);
+    }
+    // The encoder may have been closed between the check and the put, after the workers and close() drained the
+    // queue. Unless a worker or close() took the request (and so completes it), nobody would ever complete it.
+    if (closed && queue.remove(request)) {
+      throw new IOException("SLR encoder is closed");
+    }
+    return request.result;
+  }
+
+  private static SparseVector await(CompletableFuture<SparseVector> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for encoder", e);
+    } catch (ExecutionException e) {
+      throw new IOException("SLR encoder failed", e.getCause());
+    }
+  }
+
+  /**
+   * Returns a summary of the throughput counters of this encoder.
+   */
+  public String stats() {
+    long docs = encoded.get();
+    long numBatches = batches.get();
+    double seconds = (System.nanoTime() - startTime) / 1e9;
+    return String.format("%,d texts encoded (%.1f texts/s), %,d batches, avg batch fill %.1f%%, " +
+            "avg queue wait %.2f ms, %d worker restarts",
+        docs, docs / seconds, numBatches,
+        numBatches == 0 ? 0.0 : 100.0 * docs / (numBatches * batchSize),
+        docs == 0 ? 0.0 : queueWaitNanos.get() / 1e6 / docs,
+        restarts.get());
+  }
+
+  @Override
+  public void close() {
+    synchronized (SLREncoder.class) {
+      if (SHARED.get(model) == this) {
+        SHARED.remove(model);
+      }
+    }
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    for (Worker worker : workers) {
+      try {
+        worker.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    // Fail whatever may have been queued after the workers stopped.
+    Request request;
+    while ((request = queue.poll()) != null) {
+      request.result.completeExceptionally(new IOException("SLR encoder is closed"));
+    }
+    LOG.info("SLR encoder: " + stats());
+  }
+
+  /**
+   * Closes all shared encoders.
+   */
+  public static void closeShared() {
+    List<SLREncoder> encoders;
+    synchronized (SLREncoder.class) {
+      encoders = new ArrayList<>(SHARED.values());
+    }
+    for (SLREncoder encoder : encoders) {
+      encoder.close();
+    }
+  }
+
+  private final class Worker extends Thread {
+    private Process process;
+    private DataInputStream in;
+    private DataOutputStream out;
+
+    private Worker(int id) {
+      setName("slr-encoder-" + id);
+      setDaemon(true);
+    }
+
+    private void startProcess() throws IOException {
+      process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+      in = new DataInputStream(new BufferedInputStream(process.getInputStream(), 1 << 16));
+      out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream(), 1 << 16));
+    }
+
+    private void stopProcess() {
+      if (process == null) {
+        return;
+      }
+      try {
+        // Closing stdin makes the encoder loop see EOF and exit.
+        out.close();
+        if (!process.waitFor(5, TimeUnit.SECONDS)) {
+          process.destroyForcibly();
+        }
+      } catch (IOException e) {
+        process.destroyForcibly();
+      } catch (InterruptedException e) {
+        process.destroyForcibly();
+        Thread.currentThread().interrupt();
+      }
+      process = null;
+    }
+
+    @Override
+    public void run() {
+      List<Request> batch = new ArrayList<>(batchSize);
+      while (!closed || !queue.isEmpty()) {
+        try {
+          Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+          if (first == null) {
+            continue;
+          }
+          batch.add(first);
+          queue.drainTo(batch, batchSize - 1);
+        } catch (InterruptedException e) {
+          break;
+        }
+
+        long now = System.nanoTime();
+        for (Request request : batch) {
+          queueWaitNanos.addAndGet(now - request.enqueued);
+        }
+
+        try {
+          List<SparseVector> vectors = encodeWithRetry(batch);
+          // Counted before the callers are woken up, so that their stats() include the batch.
+          encoded.addAndGet(batch.size());
+          batches.incrementAndGet();
+          for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).result.complete(vectors.get(i));
+          }
+        } catch (IOException | RuntimeException e) {
+          // Whatever goes wrong, the requests must be completed or their callers wait forever.
+          for (Request request : batch) {
+            request.result.completeExceptionally(e);
+          }
+        }
+        batch.clear();
+      }
+      stopProcess();
+    }
+
+    private List<SparseVector> encodeWithRetry(List<Request> batch) throws IOException {
+      try {
+        return encodeBatch(batch);
+      } catch (IOException e) {
+        LOG.warn(getName() + ": encoder process failed, restarting: " + e.getMessage());
+        restarts.incrementAndGet();
+        if (process != null) {
+          process.destroyForcibly();
+        }
+        startProcess();
+        return encodeBatch(batch);
+      }
+    }
+
+    private List<SparseVector> encodeBatch(List<Request> batch) throws IOException {
+      out.writeInt(batch.size());
+      for (Request request : batch) {
+        byte[] bytes = request.text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+      out.flush();
+
+      int n = in.readInt();
+      if (n != batch.size()) {
+        throw new IOException(String.format("Protocol error: sent %d texts, received %d vectors", batch.size(), n));
+      }
+      List<SparseVector> vectors = new ArrayList<>(n);
+      for (int i = 0; i < n; i++) {
+        int nnz = in.readInt();
+        if (nnz < 0) {
+          throw new IOException("Protocol error: negative number of dimensions " + nnz);
+        }
+        int[] dims = new int[nnz];
+        float[] values = new float[nnz];
+        for (int j = 0; j < nnz; j++) {
+          dims[j] = in.readInt();
+          values[j] = in.readFloat();
+        }
+        try {
+          vectors.add(new SparseVector(dims, values));
+        } catch (IllegalArgumentException e) {
+          throw new IOException("Protocol error: " + e.getMessage());
+        }
+      }
+      return vectors;
+    }
+  }
+}
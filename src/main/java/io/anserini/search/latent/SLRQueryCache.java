@@ -0,0 +1,238 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.latent;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk cache of encoded queries, so that repeated runs over the same topics do not need to start the encoder.
+ * Entries are keyed by the id of the model (see {@link #modelId(String)}) and the 64-bit FNV-1a hash of the query
+ * text; the text itself is stored as well, to rule out hash collisions.
+ *
+ * <p>The cache is read completely on {@link #open} and rewritten by {@link #save()} (to a temporary file that replaces
+ * the cache), so it is meant for topic sets, not for millions of queries. It is not thread-safe.</p>
+ */
+public final class SLRQueryCache {
+  private static final Logger LOG = LogManager.getLogger(SLRQueryCache.class);
+
+  private static final int MAGIC = 0x534C5251; // "SLRQ"
+  private static final int VERSION = 1;
+
+  private final Path path;
+  private final String modelId;
+  // Entries of all models, in file order, rewritten on save.
+  private final List<Entry> entries = new ArrayList<>();
+  // Entries of this model by hash of the query text.
+  private final Map<Long, Entry> index = new HashMap<>();
+  private boolean dirty = false;
+
+  private static final class Entry {
+    final String modelId;
+    final long hash;
+    final String text;
+    final SparseVector vector;
+
+    Entry(String modelId, long hash, String text, SparseVector vector) {
+      this.modelId = modelId;
+      this.hash = hash;
+      this.text = text;
+      this.vector = vector;
+    }
+  }
+
+  private SLRQueryCache(Path path, String modelId) {
+    this.path = path;
+    this.modelId = modelId;
+  }
+
+  /**
+   * Opens a cache file for a model; the file does not need to exist.
+   *
+   * @param path cache file
+   * @param modelId id of the model the queries are encoded with
+   * @return cache with the queries encoded by that model
+   * @throws IOException if the file cannot be read
+   */
+  public static SLRQueryCache open(Path path, String modelId) throws IOException {
+    SLRQueryCache cache = new SLRQueryCache(path, modelId);
+    if (!Files.exists(path)) {
+      return cache;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IllegalArgumentException(path + " is not an SLR query cache");
+      }
+      int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        String entryModelId = readString(in);
+        long hash = in.readLong();
+        String text = readString(in);
+        int nnz = in.readInt();
+        int[] dims = new int[nnz];
+        float[] values = new float[nnz];
+        for (int j = 0; j < nnz; j++) {
+          dims[j] = in.readInt();
+        }
+        for (int j = 0; j < nnz; j++) {
+          values[j] = in.readFloat();
+        }
+        cache.add(new Entry(entryModelId, hash, text, new SparseVector(dims, values)));
+      }
+    } catch (EOFException e) {
+      LOG.warn(String.format("SLR query cache %s is truncated, only %d entries were read", path, cache.entries.size()));
+      cache.dirty = true;
+    }
+    return cache;
+  }
+
+  /**
+   * Returns an id for a model (a python script and its arguments): the command, with the size and modification time
+   * of the script if it is a file, so that changing the script invalidates its cached queries.
+   *
+   * @param model python script (and optional arguments) of the encoder
+   * @return model id
+   * @throws IOException if the script cannot be read
+   */
+  public static String modelId(String model) throws IOException {
+    String command = model.trim();
+    Path script = Paths.get(command.split("\\s+")[0]);
+    if (Files.isRegularFile(script)) {
+      return command + "@" + Files.size(script) + ":" + Files.getLastModifiedTime(script).toMillis();
+    }
+    return command;
+  }
+
+  /**
+   * Returns the 64-bit FNV-1a hash of the UTF-8 bytes of a query text.
+   *
+   * @param text query text
+   * @return hash
+   */
+  public static long hash(String text) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xFF;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /**
+   * Returns the cached representation of a query, or null.
+   *
+   * @param text query text
+   * @return cached representation, or null if the query was not encoded by this model before
+   */
+  public SparseVector get(String text) {
+    Entry entry = index.get(hash(text));
+    return entry != null && entry.text.equals(text) ? entry.vector : null;
+  }
+
+  /**
+   * Adds the representation of a query.
+   *
+   * @param text query text
+   * @param vector representation computed by the model
+   */
+  public void put(String text, SparseVector vector) {
+    add(new Entry(modelId, hash(text), text, vector));
+    dirty = true;
+  }
+
+  /**
+   * Returns the number of cached queries of this model.
+   */
+  public int size() {
+    return index.size();
+  }
+
+  private void add(Entry entry) {
+    if (!entry.modelId.equals(modelId)) {
+      entries.add(entry);
+      return;
+    }
+    Entry previous = index.put(entry.hash, entry);
+    if (previous != null) {
+      entries.remove(previous);
+    }
+    entries.add(entry);
+  }
+
+  /**
+   * Writes the cache to its file, if anything was added.
+   *
+   * @throws IOException if the file cannot be written
+   */
+  public void save() throws IOException {
+    if (!dirty) {
+      return;
+    }
+    Path absolute = path.toAbsolutePath();
+    Path tmp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(entries.size());
+      for (Entry entry : entries) {
+        writeString(out, entry.modelId);
+        out.writeLong(entry.hash);
+        writeString(out, entry.text);
+        out.writeInt(entry.vector.size());
+        for (int i = 0; i < entry.vector.size(); i++) {
+          out.writeInt(entry.vector.dim(i));
+        }
+        for (int i = 0; i < entry.vector.size(); i++) {
+          out.writeFloat(entry.vector.value(i));
+        }
+      }
+    } catch (IOException e) {
+      Files.deleteIfExists(tmp);
+      throw e;
+    }
+    Files.move(tmp, absolute, StandardCopyOption.REPLACE_EXISTING);
+    dirty = false;
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+}
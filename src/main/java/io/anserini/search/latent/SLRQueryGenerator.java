@@ -22,86 +22,86 @@ import io.anserini.search.query.QueryGenerator;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.BooleanClause;
-import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.index.Term;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.HashMap;
-import java.util.Map;
 
+/**
+ * Builds a {@link SparseDotProductQuery} from the sparse latent representation of the query. The query weights are
+ * the activation values divided by {@code 10^indexPrecision}, so that multiplying them with the term frequencies in
+ * the index (the document activation values times {@code 10^indexPrecision}) gives the dot product of the
+ * representations.
+ */
 public class SLRQueryGenerator extends QueryGenerator {
-    private String pythonCommand = "";
-    private Map<String, Float> slrMap;
     private static final Logger LOG = LogManager.getLogger(SLRQueryGenerator.class);
+    private final SLREncoder encoder;
+    private final float indexScale;
 
-    public static int SLR_TOKEN_LENGHT = 5;
-
-    public SLRQueryGenerator(String pythonModel) {
-        // if (pythonModel == "")
-        //     LOG.info("Using python model: false");
-        // else
-        //     LOG.info("Using python model: " + pythonModel);
-        pythonCommand = pythonModel;
+    public SLRQueryGenerator(String pythonModel, int indexPrecision) throws IOException {
+        this(pythonModel.isEmpty() ? null :
+            SLREncoder.shared(pythonModel, SLREncoder.DEFAULT_WORKERS, SLREncoder.DEFAULT_BATCH_SIZE), indexPrecision);
+    }
 
-        slrMap = new HashMap<String, Float>(10);
+    /**
+     * Constructs a generator that encodes the query text with the given encoder. If the encoder is null, the query
+     * text is assumed to be preprocessed as whitespace separated activation values.
+     *
+     * @param encoder encoder for the query text, or null
+     * @param indexPrecision number of decimals of the activation values stored as term frequencies in the index
+     */
+    public SLRQueryGenerator(SLREncoder encoder, int indexPrecision) {
+        this.encoder = encoder;
+        this.indexScale = (float) Math.pow(10, -indexPrecision);
     }
 
     @Override
     public Query buildQuery(String field, Analyzer analyzer, String queryText) {
-        BooleanQuery.setMaxClauseCount(10000);
-        BooleanQuery.Builder builder = new BooleanQuery.Builder();
-        if(pythonCommand != "")
-            getSLRFromModel(queryText);
-        else
-            getSLRFromQuery(queryText);
+        return new SparseDotProductQuery(field, buildVector(queryText));
+    }
 
-        for(Map.Entry<String, Float> cursor : slrMap.entrySet()) {
-            Query q = new SLRQuery(new Term(field, cursor.getKey()), cursor.getValue());
-            builder.add(q, BooleanClause.Occur.SHOULD);
-        }
+    /**
+     * Returns the query weights per dimension, for evaluation outside of Lucene (e.g. with the
+     * {@link ScoreAtATimeEvaluator}).
+     *
+     * @param queryText query text
+     * @return activation values of the query divided by {@code 10^indexPrecision}
+     */
+    public SparseVector buildVector(String queryText) {
+        return toWeights(encode(queryText));
+    }
 
-        return builder.build();
+    /**
+     * Returns the sparse latent representation of the query.
+     *
+     * @param queryText query text
+     * @return activation values of the query
+     */
+    public SparseVector encode(String queryText) {
+        return encoder != null ? getSLRFromModel(queryText) : SparseVector.parseDense(queryText);
     }
 
-    private void getSLRFromQuery(String query) {
-        slrMap.clear();
-        String[] latentTerms = query.split("\\s");
-        
-        for (int i = 0; i < latentTerms.length ; i++) {
-            if(Float.parseFloat(latentTerms[i].toString()) != 0)
-                slrMap.put(zeroPaddingLatentTerm(Integer.toString(i)), Float.parseFloat(latentTerms[i].toString()));
+    /**
+     * Converts activation values into query weights for the term frequencies in the index.
+     *
+     * @param slr activation values
+     * @return activation values divided by {@code 10^indexPrecision}
+     */
+    public SparseVector toWeights(SparseVector slr) {
+        float[] weights = new float[slr.size()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = slr.value(i) * indexScale;
         }
+        return new SparseVector(slr.dims().clone(), weights);
     }
 
-    private void getSLRFromModel(String query) {
-        slrMap.clear();
-        String output = null;
+    private SparseVector getSLRFromModel(String query) {
         try {
-            Process pythonModel = Runtime.getRuntime().exec("python3 " + pythonCommand + " -content " + query);
-            BufferedReader stdInput = new BufferedReader(new InputStreamReader(pythonModel.getInputStream()));
-            output = stdInput.readLine();
-            if(output == null)
-                throw new IOException("Model execution not succesfull");
-            String[] slr = output.replaceAll("[\\[(),\\]]", "").split(" ");
-
-            for(int i = 0; i < Math.round(slr.length / 2); i+=2) {
-                slrMap.put(zeroPaddingLatentTerm(slr[i]), Float.parseFloat(slr[i + 1]));
-            }
-
+            return encoder.encode(query);
         } catch (IOException e) {
-            LOG.error("Python module could not be executed!");
+            LOG.error("Query could not be encoded with python model!", e);
+            return SparseVector.EMPTY;
         }
     }
-
-    private String zeroPaddingLatentTerm(String term) {
-        String zeros = "";
-        for(int i = 0; i < SLR_TOKEN_LENGHT - term.length(); i++) { zeros += "0"; }
-        return zeros + term;
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,237 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.latent;
+
+import io.anserini.index.ImpactOrderedIndex;
+
+import java.util.Arrays;
+
+/**
+ * Anytime score-at-a-time evaluation of sparse dot-product queries over an {@link ImpactOrderedIndex}.
+ *
+ * <p>The segments of all query dimensions are processed in decreasing order of their score contribution (query weight
+ * times impact), adding the contribution to an accumulator per document. Since the most important postings come
+ * first, evaluation can stop at any time and still return a good approximation of the top hits; it stops when the
+ * budget in postings or microseconds is used up, and returns the best documents found so far.</p>
+ *
+ * <p>The accumulators are sized to the number of documents in the index and reused across queries, so an evaluator
+ * is not thread-safe; use one evaluator per thread.</p>
+ */
+public final class ScoreAtATimeEvaluator {
+  // Postings processed between checks of the time budget.
+  private static final int BLOCK_SIZE = 1024;
+
+  private final ImpactOrderedIndex index;
+  private final float[] accumulators;
+  // Accumulators are only valid if their epoch is the one of the current query, so they never need to be cleared.
+  private final int[] epochs;
+  private int epoch = 0;
+  private int[] touched = new int[BLOCK_SIZE];
+  private final int[] block = new int[BLOCK_SIZE];
+
+  /**
+   * Result of a query: the top documents (Lucene doc ids) by decreasing score, and how much of the postings was
+   * processed.
+   */
+  public static final class Result {
+    public final int[] docs;
+    public final float[] scores;
+    // Postings processed, and the total number of postings of the query dimensions.
+    public final long postings;
+    public final long totalPostings;
+    // Number of documents with a non-zero accumulator.
+    public final int candidates;
+    public final boolean earlyTerminated;
+
+    Result(int[] docs, float[] scores, long postings, long totalPostings, int candidates, boolean earlyTerminated) {
+      this.docs = docs;
+      this.scores = scores;
+      this.postings = postings;
+      this.totalPostings = totalPostings;
+      this.candidates = candidates;
+      this.earlyTerminated = earlyTerminated;
+    }
+  }
+
+  public ScoreAtATimeEvaluator(ImpactOrderedIndex index) {
+    this.index = index;
+    this.accumulators = new float[index.maxDoc()];
+    this.epochs = new int[index.maxDoc()];
+  }
+
+  /**
+   * Evaluates a query within a budget.
+   *
+   * @param query query weights per dimension; the score of a document is the sum of weight times term frequency
+   * @param k number of hits
+   * @param postingsBudget maximum number of postings to process, or 0 for no limit
+   * @param microsBudget maximum evaluation time in microseconds, or 0 for no limit
+   * @return top hits found within the budget
+   */
+  public Result search(SparseVector query, int k, long postingsBudget, long microsBudget) {
+    final long start = System.nanoTime();
+    final long deadline = microsBudget > 0 ? start + microsBudget * 1000 : Long.MAX_VALUE;
+    final long maxPostings = postingsBudget > 0 ? postingsBudget : Long.MAX_VALUE;
+
+    nextEpoch();
+
+    // Order all segments of the query dimensions by decreasing contribution. The (positive) contribution is stored in
+    // the high bits of a long and its index in the low bits, so that a primitive sort gives the processing order.
+    final float scale = index.scale();
+    int numSegments = 0;
+    for (int i = 0; i < query.size(); i++) {
+      int ord = index.termOrd(query.dim(i));
+      if (ord >= 0 && query.value(i) > 0) {
+        numSegments += index.segmentEnd(ord) - index.segmentStart(ord);
+      }
+    }
+    final long[] order = new long[numSegments];
+    final int[] segments = new int[numSegments];
+    final float[] contributions = new float[numSegments];
+    long totalPostings = 0;
+    int n = 0;
+    for (int i = 0; i < query.size(); i++) {
+      int ord = index.termOrd(query.dim(i));
+      if (ord < 0 || query.value(i) <= 0) {
+        continue;
+      }
+      for (int segment = index.segmentStart(ord); segment < index.segmentEnd(ord); segment++) {
+        float contribution = query.value(i) * index.segmentImpact(segment) * scale;
+        // Flipping the bits of the contribution sorts the largest contributions first.
+        order[n] = ((long) ~Float.floatToIntBits(contribution) << 32) | n;
+        segments[n] = segment;
+        contributions[n] = contribution;
+        totalPostings += index.segmentSize(segment);
+        n++;
+      }
+    }
+    Arrays.sort(order);
+
+    long postings = 0;
+    int numTouched = 0;
+    boolean earlyTerminated = false;
+    outer:
+    for (long entry : order) {
+      final int j = (int) entry;
+      final int segment = segments[j];
+      final float contribution = contributions[j];
+      final int size = index.segmentSize(segment);
+      for (int from = 0; from < size; from += BLOCK_SIZE) {
+        if (postings >= maxPostings || System.nanoTime() >= deadline) {
+          earlyTerminated = true;
+          break outer;
+        }
+        int count = (int) Math.min(Math.min(BLOCK_SIZE, size - from), maxPostings - postings);
+        index.docs(segment, from, block, count);
+        for (int i = 0; i < count; i++) {
+          final int doc = block[i];
+          if (epochs[doc] != epoch) {
+            epochs[doc] = epoch;
+            accumulators[doc] = contribution;
+            if (numTouched == touched.length) {
+              touched = Arrays.copyOf(touched, 2 * numTouched);
+            }
+            touched[numTouched++] = doc;
+          } else {
+            accumulators[doc] += contribution;
+          }
+        }
+        postings += count;
+      }
+    }
+
+    return topDocs(k, numTouched, postings, totalPostings, earlyTerminated);
+  }
+
+  private void nextEpoch() {
+    if (epoch == Integer.MAX_VALUE) {
+      Arrays.fill(epochs, 0);
+      epoch = 0;
+    }
+    epoch++;
+  }
+
+  // Selects the top k of the touched documents with a min-heap; ties are broken by increasing doc id.
+  private Result topDocs(int k, int numTouched, long postings, long totalPostings, boolean earlyTerminated) {
+    final int size = Math.min(k, numTouched);
+    final int[] heap = new int[size];
+    int heapSize = 0;
+    for (int i = 0; i < numTouched; i++) {
+      final int doc = touched[i];
+      if (heapSize < size) {
+        heap[heapSize] = doc;
+        siftUp(heap, heapSize++);
+      } else if (size > 0 && worse(heap[0], doc)) {
+        heap[0] = doc;
+        siftDown(heap, heapSize);
+      }
+    }
+
+    final int[] docs = new int[size];
+    final float[] scores = new float[size];
+    for (int i = size - 1; i >= 0; i--) {
+      docs[i] = heap[0];
+      scores[i] = accumulators[heap[0]];
+      heap[0] = heap[--heapSize];
+      siftDown(heap, heapSize);
+    }
+    return new Result(docs, scores, postings, totalPostings, numTouched, earlyTerminated);
+  }
+
+  // Whether document a ranks below document b.
+  private boolean worse(int a, int b) {
+    final float sa = accumulators[a];
+    final float sb = accumulators[b];
+    return sa < sb || (sa == sb && a > b);
+  }
+
+  private void siftUp(int[] heap, int i) {
+    final int doc = heap[i];
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!worse(doc, heap[parent])) {
+        break;
+      }
+      heap[i] = heap[parent];
+      i = parent;
+    }
+    heap[i] = doc;
+  }
+
+  private void siftDown(int[] heap, int size) {
+    if (size == 0) {
+      return;
+    }
+    final int doc = heap[0];
+    int i = 0;
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && worse(heap[child + 1], heap[child])) {
+        child++;
+      }
+      if (!worse(heap[child], doc)) {
+        break;
+      }
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = doc;
+  }
+}
@@ -0,0 +1,284 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.latent;
+
+import io.anserini.analysis.SLRTokenizer;
+import org.apache.lucene.index.ImpactsEnum;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Sparse dot product between a query vector and the SLR term frequencies of a field: the score of a document is the
+ * sum of {@code weight * freq} over the query dimensions it contains. The query has a single {@link Weight} and
+ * {@link Scorer} over all dimensions, and keeps the weights in a primitive array; the similarity of the searcher is not
+ * used. When only the top scores are needed, the scorer uses the impacts of each dimension to skip documents that
+ * cannot be competitive (see {@link SparseDotProductScorer}).
+ *
+ * <p>Dimensions are indexed as zero-padded terms, as produced by {@link io.anserini.analysis.SLRTokenStream}. Since
+ * Lucene scores must be non-negative, dimensions with a weight that is not positive are ignored.</p>
+ */
+public final class SparseDotProductQuery extends Query {
+  private final String field;
+  private final int[] dims;
+  private final float[] weights;
+  private final BytesRef[] terms;
+
+  /**
+   * Creates a query from parallel arrays of dimension ids and weights. The arrays are copied.
+   *
+   * @param field field with the SLR terms
+   * @param dims dimension ids
+   * @param weights query weights
+   */
+  public SparseDotProductQuery(String field, int[] dims, float[] weights) {
+    if (dims.length != weights.length) {
+      throw new IllegalArgumentException("dims and weights must have the same length");
+    }
+    // Rejects duplicate dimensions.
+    SparseVector vector = new SparseVector(dims.clone(), weights.clone());
+
+    int size = 0;
+    for (int i = 0; i < vector.size(); i++) {
+      if (vector.value(i) > 0) {
+        size++;
+      }
+    }
+
+    this.field = field;
+    this.dims = new int[size];
+    this.weights = new float[size];
+    this.terms = new BytesRef[size];
+    for (int i = 0, j = 0; i < vector.size(); i++) {
+      if (vector.value(i) > 0) {
+        this.dims[j] = vector.dim(i);
+        this.weights[j] = vector.value(i);
+        this.terms[j] = new BytesRef(term(vector.dim(i)));
+        j++;
+      }
+    }
+  }
+
+  /**
+   * Creates a query from a sparse vector, with the activation values as weights.
+   *
+   * @param field field with the SLR terms
+   * @param vector query vector
+   */
+  public SparseDotProductQuery(String field, SparseVector vector) {
+    this(field, vector.dims(), vector.values());
+  }
+
+  /**
+   * Returns the term under which a dimension is indexed.
+   *
+   * @param dim dimension id
+   * @return zero-padded dimension id
+   */
+  public static String term(int dim) {
+    String id = Integer.toString(dim);
+    if (id.length() >= SLRTokenizer.SLR_TOKEN_LENGHT) {
+      return id;
+    }
+    StringBuilder sb = new StringBuilder(SLRTokenizer.SLR_TOKEN_LENGHT);
+    for (int i = id.length(); i < SLRTokenizer.SLR_TOKEN_LENGHT; i++) {
+      sb.append('0');
+    }
+    return sb.append(id).toString();
+  }
+
+  public String getField() {
+    return field;
+  }
+
+  /**
+   * Returns the number of (positive) query dimensions.
+   */
+  public int size() {
+    return dims.length;
+  }
+
+  public int dim(int i) {
+    return dims[i];
+  }
+
+  public float weight(int i) {
+    return weights[i];
+  }
+
+  @Override
+  public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) {
+    return new SparseDotProductWeight(scoreMode, boost);
+  }
+
+  @Override
+  public void visit(QueryVisitor visitor) {
+    if (visitor.acceptField(field)) {
+      Term[] fieldTerms = new Term[terms.length];
+      for (int i = 0; i < terms.length; i++) {
+        fieldTerms[i] = new Term(field, terms[i]);
+      }
+      visitor.consumeTerms(this, fieldTerms);
+    }
+  }
+
+  @Override
+  public String toString(String defaultField) {
+    StringBuilder sb = new StringBuilder("SparseDotProduct(");
+    if (!field.equals(defaultField)) {
+      sb.append(field).append(':');
+    }
+    for (int i = 0; i < dims.length; i++) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      sb.append(dims[i]).append('^').append(weights[i]);
+    }
+    return sb.append(')').toString();
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!sameClassAs(other)) {
+      return false;
+    }
+    SparseDotProductQuery that = (SparseDotProductQuery) other;
+    return field.equals(that.field) && Arrays.equals(dims, that.dims) && Arrays.equals(weights, that.weights);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (31 * (31 * classHash() + field.hashCode()) + Arrays.hashCode(dims)) + Arrays.hashCode(weights);
+  }
+
+  final class SparseDotProductWeight extends Weight {
+    private final ScoreMode scoreMode;
+    private final float[] boostedWeights;
+
+    SparseDotProductWeight(ScoreMode scoreMode, float boost) {
+      super(SparseDotProductQuery.this);
+      this.scoreMode = scoreMode;
+      this.boostedWeights = new float[weights.length];
+      for (int i = 0; i < weights.length; i++) {
+        boostedWeights[i] = boost * weights[i];
+      }
+    }
+
+    @Override
+    public Scorer scorer(LeafReaderContext context) throws IOException {
+      final Terms fieldTerms = context.reader().terms(field);
+      if (fieldTerms == null) {
+        return null;
+      }
+
+      // Only the dimensions that occur in this segment take part in scoring.
+      final TermsEnum termsEnum = fieldTerms.iterator();
+      final boolean topScores = scoreMode == ScoreMode.TOP_SCORES;
+      final PostingsEnum[] postings = new PostingsEnum[terms.length];
+      final float[] leafWeights = new float[terms.length];
+      int size = 0;
+      for (int i = 0; i < terms.length; i++) {
+        if (!termsEnum.seekExact(terms[i])) {
+          continue;
+        }
+        if (topScores) {
+          postings[size] = termsEnum.impacts(PostingsEnum.FREQS);
+        } else {
+          postings[size] = termsEnum.postings(null, scoreMode.needsScores() ? PostingsEnum.FREQS : PostingsEnum.NONE);
+        }
+        leafWeights[size] = boostedWeights[i];
+        size++;
+      }
+      if (size == 0) {
+        return null;
+      }
+
+      if (topScores) {
+        ImpactsEnum[] impacts = new ImpactsEnum[size];
+        for (int i = 0; i < size; i++) {
+          impacts[i] = (ImpactsEnum) postings[i];
+        }
+        return new SparseDotProductScorer(this, impacts, Arrays.copyOf(leafWeights, size));
+      }
+      return new SparseDotProductScorer(this, Arrays.copyOf(postings, size), Arrays.copyOf(leafWeights, size));
+    }
+
+    @Override
+    public boolean isCacheable(LeafReaderContext ctx) {
+      return true;
+    }
+
+    @Override
+    public void extractTerms(Set<Term> set) {
+      for (BytesRef term : terms) {
+        set.add(new Term(field, term));
+      }
+    }
+
+    @Override
+    public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+      final Terms fieldTerms = context.reader().terms(field);
+      if (fieldTerms == null) {
+        return Explanation.noMatch("no field " + field);
+      }
+
+      final TermsEnum termsEnum = fieldTerms.iterator();
+      final List<Explanation> details = new ArrayList<>();
+      double score = 0;
+      for (int i = 0; i < terms.length; i++) {
+        if (!termsEnum.seekExact(terms[i])) {
+          continue;
+        }
+        PostingsEnum postingsEnum = termsEnum.postings(null, PostingsEnum.FREQS);
+        if (postingsEnum.advance(doc) != doc) {
+          continue;
+        }
+        int freq = postingsEnum.freq();
+        float contribution = boostedWeights[i] * freq;
+        score += contribution;
+        details.add(Explanation.match(contribution, "dim " + dims[i] + ", product of:",
+            Explanation.match(boostedWeights[i], "query weight"),
+            Explanation.match(freq, "freq, indexed activation value")));
+      }
+      if (details.isEmpty()) {
+        return Explanation.noMatch("no matching dimension");
+      }
+      return Explanation.match((float) score, "sparse dot product in " + doc + ", sum of:", details);
+    }
+
+    @Override
+    public String toString() {
+      return "weight(" + SparseDotProductQuery.this + ")";
+    }
+  }
+}
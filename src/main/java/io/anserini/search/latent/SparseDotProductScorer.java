@@ -0,0 +1,374 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.latent;
+
+import org.apache.lucene.index.ImpactsEnum;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.ImpactsDISI;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.IOException;
+
+/**
+ * Scorer of a {@link SparseDotProductQuery} over the postings of all query dimensions in a segment.
+ *
+ * <p>Without a minimum competitive score this is a plain disjunction: the postings are merged with a heap on doc id
+ * and every document that contains a query dimension is scored. When the collector sets a minimum competitive score
+ * (only if the scorer was created with impacts, for {@code TOP_SCORES}), the scorer applies MaxScore over block-max
+ * windows. For every window of doc ids the impacts give an upper bound of the score contribution of each dimension.
+ * The dimensions with the smallest bounds whose sum stays below the minimum competitive score are non-essential: no
+ * document that only contains those can make it into the top hits, so only the postings of the essential dimensions
+ * produce candidates, and the non-essential ones are only advanced to a candidate as long as it can still reach the
+ * minimum competitive score.</p>
+ */
+final class SparseDotProductScorer extends Scorer {
+  private final int size;
+  private final PostingsEnum[] postings;
+  private final float[] weights;
+  // Per dimension block-max score bounds, null when the scorer iterates exhaustively.
+  private final ImpactsDISI[] bounds;
+  private final long cost;
+
+  // Current doc id of every dimension.
+  private final int[] docs;
+  // Upper bound of the score contribution of every dimension in the current window.
+  private final float[] maxScores;
+  // Dimensions by increasing maxScores, the first numNonEssential ones are non-essential.
+  private final int[] order;
+  private int numNonEssential = 0;
+  private double nonEssentialMaxScore = 0;
+
+  // Min-heap on doc id of the essential dimensions.
+  private final int[] heap;
+  private int heapSize = 0;
+  // Essential dimensions positioned on the current candidate.
+  private final int[] lead;
+
+  private final DocIdSetIterator iterator;
+  private int doc = -1;
+  private float score = 0;
+  private int windowMax;
+  private float minCompetitiveScore = 0;
+  private boolean repartition = false;
+
+  /**
+   * Creates a scorer that iterates all documents that contain a query dimension.
+   */
+  SparseDotProductScorer(Weight weight, PostingsEnum[] postings, float[] weights) {
+    this(weight, postings, weights, null);
+    windowMax = DocIdSetIterator.NO_MORE_DOCS;
+  }
+
+  /**
+   * Creates a scorer that uses the impacts of the dimensions to skip documents that cannot be competitive.
+   */
+  SparseDotProductScorer(Weight weight, ImpactsEnum[] impacts, float[] weights) {
+    this(weight, impacts, weights, new ImpactsDISI[impacts.length]);
+    for (int i = 0; i < size; i++) {
+      bounds[i] = new ImpactsDISI(impacts[i], impacts[i], new DimensionScorer(weights[i]));
+    }
+    windowMax = -1;
+  }
+
+  private SparseDotProductScorer(Weight weight, PostingsEnum[] postings, float[] weights, ImpactsDISI[] bounds) {
+    super(weight);
+    this.size = postings.length;
+    this.postings = postings;
+    this.weights = weights;
+    this.bounds = bounds;
+    this.docs = new int[size];
+    this.maxScores = new float[size];
+    this.order = new int[size];
+    this.heap = new int[size];
+    this.lead = new int[size];
+
+    long cost = 0;
+    for (int i = 0; i < size; i++) {
+      docs[i] = -1;
+      order[i] = i;
+      heap[heapSize++] = i;
+      cost += postings[i].cost();
+    }
+    this.cost = cost;
+
+    this.iterator = new DocIdSetIterator() {
+      @Override
+      public int docID() {
+        return doc;
+      }
+
+      @Override
+      public int nextDoc() throws IOException {
+        return advance(doc + 1);
+      }
+
+      @Override
+      public int advance(int target) throws IOException {
+        return doc = nextCandidate(target);
+      }
+
+      @Override
+      public long cost() {
+        return SparseDotProductScorer.this.cost;
+      }
+    };
+  }
+
+  @Override
+  public int docID() {
+    return doc;
+  }
+
+  @Override
+  public DocIdSetIterator iterator() {
+    return iterator;
+  }
+
+  @Override
+  public float score() {
+    return score;
+  }
+
+  @Override
+  public int advanceShallow(int target) throws IOException {
+    if (bounds == null) {
+      return DocIdSetIterator.NO_MORE_DOCS;
+    }
+    int upTo = DocIdSetIterator.NO_MORE_DOCS;
+    for (int i = 0; i < size; i++) {
+      if (docs[i] != DocIdSetIterator.NO_MORE_DOCS) {
+        upTo = Math.min(upTo, bounds[i].advanceShallow(Math.max(docs[i], target)));
+      }
+    }
+    return upTo;
+  }
+
+  @Override
+  public float getMaxScore(int upTo) throws IOException {
+    if (bounds == null) {
+      return Float.POSITIVE_INFINITY;
+    }
+    double maxScore = 0;
+    for (int i = 0; i < size; i++) {
+      if (docs[i] <= upTo) {
+        maxScore += bounds[i].getMaxScore(upTo);
+      }
+    }
+    return (float) maxScore;
+  }
+
+  @Override
+  public void setMinCompetitiveScore(float minScore) {
+    if (bounds != null && minScore > minCompetitiveScore) {
+      minCompetitiveScore = minScore;
+      repartition = true;
+    }
+  }
+
+  // Finds the first document at or after target that may be competitive, and scores it.
+  private int nextCandidate(int target) throws IOException {
+    while (true) {
+      if (target > windowMax) {
+        computeWindow(target);
+        partition();
+      } else if (repartition) {
+        partition();
+      }
+
+      if (heapSize == 0) {
+        // All dimensions are non-essential, nothing in this window can be competitive.
+        if (windowMax == DocIdSetIterator.NO_MORE_DOCS) {
+          return DocIdSetIterator.NO_MORE_DOCS;
+        }
+        target = windowMax + 1;
+        continue;
+      }
+
+      while (docs[heap[0]] < target) {
+        int top = heap[0];
+        docs[top] = postings[top].advance(target);
+        siftDown(0);
+      }
+
+      final int candidate = docs[heap[0]];
+      if (candidate > windowMax) {
+        // The non-essential dimensions may become essential in the next window, so it starts right after this one.
+        target = windowMax + 1;
+        continue;
+      }
+      if (candidate == DocIdSetIterator.NO_MORE_DOCS) {
+        return DocIdSetIterator.NO_MORE_DOCS;
+      }
+
+      // Score the essential dimensions positioned on the candidate.
+      int leadSize = 0;
+      double candidateScore = 0;
+      while (heapSize > 0 && docs[heap[0]] == candidate) {
+        int top = heap[0];
+        candidateScore += weights[top] * postings[top].freq();
+        lead[leadSize++] = top;
+        heap[0] = heap[--heapSize];
+        siftDown(0);
+      }
+      for (int i = 0; i < leadSize; i++) {
+        heap[heapSize] = lead[i];
+        siftUp(heapSize++);
+      }
+
+      // Add the non-essential dimensions, largest bounds first, while the candidate can still be competitive.
+      double remaining = nonEssentialMaxScore;
+      for (int j = numNonEssential - 1; j >= 0; j--) {
+        if ((float) (candidateScore + remaining) < minCompetitiveScore) {
+          break;
+        }
+        int dim = order[j];
+        if (docs[dim] < candidate) {
+          docs[dim] = postings[dim].advance(candidate);
+        }
+        if (docs[dim] == candidate) {
+          candidateScore += weights[dim] * postings[dim].freq();
+        }
+        remaining -= maxScores[dim];
+      }
+
+      score = (float) candidateScore;
+      if (score >= minCompetitiveScore) {
+        return candidate;
+      }
+      target = candidate + 1;
+    }
+  }
+
+  // Computes the next window of doc ids, starting at target, and the score bounds of the dimensions in that window.
+  // The window ends where the first block of an essential dimension ends, so that the bounds stay tight.
+  private void computeWindow(int target) throws IOException {
+    int max = DocIdSetIterator.NO_MORE_DOCS;
+    for (int j = numNonEssential; j < size; j++) {
+      int dim = order[j];
+      if (docs[dim] != DocIdSetIterator.NO_MORE_DOCS) {
+        max = Math.min(max, bounds[dim].advanceShallow(Math.max(docs[dim], target)));
+      }
+    }
+    windowMax = max;
+    for (int i = 0; i < size; i++) {
+      if (docs[i] == DocIdSetIterator.NO_MORE_DOCS) {
+        // Exhausted dimensions do not contribute anymore.
+        maxScores[i] = 0;
+      } else {
+        bounds[i].advanceShallow(Math.max(docs[i], target));
+        maxScores[i] = bounds[i].getMaxScore(windowMax);
+      }
+    }
+
+    // Insertion sort, the order hardly changes between windows.
+    for (int j = 1; j < size; j++) {
+      int dim = order[j];
+      int k = j - 1;
+      while (k >= 0 && maxScores[order[k]] > maxScores[dim]) {
+        order[k + 1] = order[k];
+        k--;
+      }
+      order[k + 1] = dim;
+    }
+    numNonEssential = 0;
+    nonEssentialMaxScore = 0;
+  }
+
+  // Splits the dimensions into non-essential and essential ones for the current minimum competitive score, and
+  // rebuilds the heap of essential dimensions.
+  private void partition() {
+    repartition = false;
+    if (bounds == null) {
+      return;
+    }
+    numNonEssential = 0;
+    nonEssentialMaxScore = 0;
+    while (numNonEssential < size) {
+      double sum = nonEssentialMaxScore + maxScores[order[numNonEssential]];
+      if ((float) sum >= minCompetitiveScore) {
+        break;
+      }
+      nonEssentialMaxScore = sum;
+      numNonEssential++;
+    }
+
+    heapSize = 0;
+    for (int j = numNonEssential; j < size; j++) {
+      heap[heapSize] = order[j];
+      siftUp(heapSize++);
+    }
+  }
+
+  private void siftUp(int i) {
+    final int dim = heap[i];
+    final int key = docs[dim];
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (docs[heap[parent]] <= key) {
+        break;
+      }
+      heap[i] = heap[parent];
+      i = parent;
+    }
+    heap[i] = dim;
+  }
+
+  private void siftDown(int i) {
+    if (heapSize == 0) {
+      return;
+    }
+    final int dim = heap[i];
+    final int key = docs[dim];
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= heapSize) {
+        break;
+      }
+      if (child + 1 < heapSize && docs[heap[child + 1]] < docs[heap[child]]) {
+        child++;
+      }
+      if (docs[heap[child]] >= key) {
+        break;
+      }
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = dim;
+  }
+
+  @Override
+  public String toString() {
+    return "scorer(" + weight + ")[" + super.toString() + "]";
+  }
+
+  // Score contribution of a single dimension, used to turn the impacts (max freq per block) into score bounds.
+  private static final class DimensionScorer extends Similarity.SimScorer {
+    private final float weight;
+
+    DimensionScorer(float weight) {
+      this.weight = weight;
+    }
+
+    @Override
+    public float score(float freq, long norm) {
+      return weight * freq;
+    }
+  }
+}
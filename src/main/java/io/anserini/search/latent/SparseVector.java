@@ -0,0 +1,222 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.latent;
+
+import java.util.Arrays;
+
+/**
+ * Sparse latent representation stored as two parallel arrays: the non-zero dimension ids in increasing order and
+ * their activation values.
+ */
+public final class SparseVector {
+  public static final SparseVector EMPTY = new SparseVector(new int[0], new float[0]);
+
+  private final int[] dims;
+  private final float[] values;
+
+  /**
+   * Creates a sparse vector from parallel arrays. The arrays are used as is (not copied); if the dimension ids are not
+   * in increasing order they are sorted in place together with their values.
+   *
+   * @param dims dimension ids
+   * @param values activation values
+   * @throws IllegalArgumentException if the arrays differ in length or a dimension id occurs more than once
+   */
+  public SparseVector(int[] dims, float[] values) {
+    if (dims.length != values.length) {
+      throw new IllegalArgumentException("dims and values must have the same length");
+    }
+    this.dims = dims;
+    this.values = values;
+
+    for (int i = 1; i < dims.length; i++) {
+      if (dims[i - 1] >= dims[i]) {
+        sort();
+        break;
+      }
+    }
+  }
+
+  /**
+   * Creates a sparse vector from a dense array, keeping only the non-zero entries.
+   *
+   * @param dense dense activation values
+   * @return sparse vector
+   */
+  public static SparseVector fromDense(float[] dense) {
+    int nnz = 0;
+    for (float v : dense) {
+      if (v != 0) {
+        nnz++;
+      }
+    }
+    int[] dims = new int[nnz];
+    float[] values = new float[nnz];
+    for (int i = 0, j = 0; i < dense.length; i++) {
+      if (dense[i] != 0) {
+        dims[j] = i;
+        values[j] = dense[i];
+        j++;
+      }
+    }
+    return new SparseVector(dims, values);
+  }
+
+  /**
+   * Parses whitespace separated dense activation values, where the position of a value is its dimension id. Every
+   * whitespace character counts as a separator, so consecutive separators skip a dimension, and values that cannot be
+   * parsed are ignored.
+   *
+   * @param text dense activation values
+   * @return sparse vector
+   */
+  public static SparseVector parseDense(String text) {
+    int[] dims = new int[16];
+    float[] values = new float[16];
+    int nnz = 0;
+    int dim = 0;
+    int start = 0;
+    final int length = text.length();
+    for (int i = 0; i <= length; i++) {
+      if (i < length && !Character.isWhitespace(text.charAt(i))) {
+        continue;
+      }
+      if (i > start) {
+        try {
+          float value = Float.parseFloat(text.substring(start, i));
+          if (value != 0) {
+            if (nnz == dims.length) {
+              dims = Arrays.copyOf(dims, 2 * nnz);
+              values = Arrays.copyOf(values, 2 * nnz);
+            }
+            dims[nnz] = dim;
+            values[nnz] = value;
+            nnz++;
+          }
+        } catch (NumberFormatException e) {
+          // Not a value; the dimension is skipped.
+        }
+      }
+      dim++;
+      start = i + 1;
+    }
+    return new SparseVector(Arrays.copyOf(dims, nnz), Arrays.copyOf(values, nnz));
+  }
+
+  public int size() {
+    return dims.length;
+  }
+
+  public int dim(int i) {
+    return dims[i];
+  }
+
+  public float value(int i) {
+    return values[i];
+  }
+
+  /**
+   * Returns the n dimensions with the largest values (ties by lower dimension id), e.g. to prune a query.
+   *
+   * @param n number of dimensions to keep
+   * @return this vector if it has at most n dimensions, otherwise a new vector
+   */
+  public SparseVector top(int n) {
+    if (n < 0) {
+      throw new IllegalArgumentException("n must not be negative");
+    }
+    if (dims.length <= n) {
+      return this;
+    }
+    Integer[] order = new Integer[dims.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> values[a] != values[b] ? Float.compare(values[b], values[a]) : Integer.compare(a, b));
+    Arrays.sort(order, 0, n);
+
+    int[] topDims = new int[n];
+    float[] topValues = new float[n];
+    for (int i = 0; i < n; i++) {
+      topDims[i] = dims[order[i]];
+      topValues[i] = values[order[i]];
+    }
+    return new SparseVector(topDims, topValues);
+  }
+
+  /**
+   * Returns the backing array of dimension ids; callers must not modify it.
+   */
+  public int[] dims() {
+    return dims;
+  }
+
+  /**
+   * Returns the backing array of activation values; callers must not modify it.
+   */
+  public float[] values() {
+    return values;
+  }
+
+  private void sort() {
+    Integer[] order = new Integer[dims.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Integer.compare(dims[a], dims[b]));
+
+    int[] sortedDims = new int[dims.length];
+    float[] sortedValues = new float[values.length];
+    for (int i = 0; i < order.length; i++) {
+      sortedDims[i] = dims[order[i]];
+      sortedValues[i] = values[order[i]];
+    }
+    for (int i = 1; i < sortedDims.length; i++) {
+      if (sortedDims[i - 1] == sortedDims[i]) {
+        throw new IllegalArgumentException("Duplicate dimension " + sortedDims[i]);
+      }
+    }
+    System.arraycopy(sortedDims, 0, dims, 0, dims.length);
+    System.arraycopy(sortedValues, 0, values, 0, values.length);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof SparseVector)) {
+      return false;
+    }
+    SparseVector that = (SparseVector) other;
+    return Arrays.equals(dims, that.dims) && Arrays.equals(values, that.values);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(dims) + Arrays.hashCode(values);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("{");
+    for (int i = 0; i < dims.length; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(dims[i]).append('=').append(values[i]);
+    }
+    return sb.append('}').toString();
+  }
+}
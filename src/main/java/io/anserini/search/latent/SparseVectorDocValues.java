@@ -0,0 +1,143 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.latent;
+
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Binary encoding of a {@link SparseVector} for a {@code BinaryDocValues} field, used as a forward index of the
+ * documents of an SLR index.
+ *
+ * <p>The encoding is the number of non-zero dimensions followed by a (dimension, value) pair for each of them: the
+ * dimension as a vInt delta to the previous dimension, and the value as the 4 bytes of its float bits (big-endian).
+ * Keeping the pairs together allows {@link #dot} to compute a dot product in a single pass over the bytes, without
+ * decoding the vector into arrays.</p>
+ */
+public final class SparseVectorDocValues {
+
+  private SparseVectorDocValues() {
+  }
+
+  /**
+   * Encodes a sparse vector.
+   *
+   * @param vector sparse vector
+   * @return encoded vector
+   */
+  public static BytesRef encode(SparseVector vector) {
+    final int size = vector.size();
+    byte[] bytes = new byte[5 + 9 * size];
+    int pos = writeVInt(bytes, 0, size);
+    int previous = 0;
+    for (int i = 0; i < size; i++) {
+      pos = writeVInt(bytes, pos, vector.dim(i) - previous);
+      previous = vector.dim(i);
+      int bits = Float.floatToIntBits(vector.value(i));
+      bytes[pos++] = (byte) (bits >>> 24);
+      bytes[pos++] = (byte) (bits >>> 16);
+      bytes[pos++] = (byte) (bits >>> 8);
+      bytes[pos++] = (byte) bits;
+    }
+    return new BytesRef(bytes, 0, pos);
+  }
+
+  /**
+   * Decodes a sparse vector.
+   *
+   * @param bytes encoded vector
+   * @return sparse vector
+   */
+  public static SparseVector decode(BytesRef bytes) {
+    final byte[] b = bytes.bytes;
+    long next = readVInt(b, bytes.offset);
+    final int size = (int) next;
+    int pos = (int) (next >>> 32);
+    int[] dims = new int[size];
+    float[] values = new float[size];
+    int dim = 0;
+    for (int i = 0; i < size; i++) {
+      next = readVInt(b, pos);
+      dim += (int) next;
+      pos = (int) (next >>> 32);
+      dims[i] = dim;
+      values[i] = Float.intBitsToFloat(readInt(b, pos));
+      pos += 4;
+    }
+    return new SparseVector(dims, values);
+  }
+
+  /**
+   * Computes the dot product of an encoded vector and a query, by merging the (sorted) dimensions of both. Nothing is
+   * allocated, so this can be called for every candidate document.
+   *
+   * @param bytes encoded vector
+   * @param dims query dimensions, in increasing order
+   * @param values query values
+   * @param size number of query dimensions
+   * @return dot product
+   */
+  public static double dot(BytesRef bytes, int[] dims, float[] values, int size) {
+    final byte[] b = bytes.bytes;
+    long next = readVInt(b, bytes.offset);
+    final int nnz = (int) next;
+    int pos = (int) (next >>> 32);
+    double sum = 0;
+    int dim = 0;
+    int q = 0;
+    for (int i = 0; i < nnz && q < size; i++) {
+      next = readVInt(b, pos);
+      dim += (int) next;
+      pos = (int) (next >>> 32);
+      while (q < size && dims[q] < dim) {
+        q++;
+      }
+      if (q < size && dims[q] == dim) {
+        sum += values[q] * Float.intBitsToFloat(readInt(b, pos));
+        q++;
+      }
+      pos += 4;
+    }
+    return sum;
+  }
+
+  private static int writeVInt(byte[] bytes, int pos, int value) {
+    while ((value & ~0x7F) != 0) {
+      bytes[pos++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    bytes[pos++] = (byte) value;
+    return pos;
+  }
+
+  // Returns the value in the low and the position after it in the high 32 bits.
+  private static long readVInt(byte[] bytes, int pos) {
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = bytes[pos++];
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    return ((long) pos << 32) | (value & 0xFFFFFFFFL);
+  }
+
+  private static int readInt(byte[] bytes, int pos) {
+    return ((bytes[pos] & 0xFF) << 24) | ((bytes[pos + 1] & 0xFF) << 16) | ((bytes[pos + 2] & 0xFF) << 8) |
+        (bytes[pos + 3] & 0xFF);
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.latent;
+
+import io.anserini.index.IndexArgs;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Second stage of two-stage SLR retrieval: computes the exact dot product between the full query and the forward
+ * vectors of the candidates of a first stage (e.g. a {@link SparseDotProductQuery} with only the largest query
+ * dimensions). The forward vectors are read from a {@code BinaryDocValues} field written with
+ * {@link SparseVectorDocValues}; candidates without a vector score 0. Ties are broken by collection docid (the
+ * {@link IndexArgs#ID} sorted doc values), as with {@code BREAK_SCORE_TIES_BY_DOCID} in the first stage.
+ *
+ * <p>A rescorer has no state besides the field name and can be shared between threads.</p>
+ */
+public final class SparseVectorRescorer {
+  private final String field;
+
+  public SparseVectorRescorer(String field) {
+    this.field = field;
+  }
+
+  /**
+   * Rescores the candidates of a first stage. The candidates themselves are left unchanged.
+   *
+   * @param reader index reader the candidates were retrieved from
+   * @param candidates first stage results
+   * @param query full query, with the activation values as weights
+   * @param k number of hits to return
+   * @return the k candidates with the highest exact scores, ties broken by collection docid
+   * @throws IOException if reading the forward vectors fails
+   */
+  public TopDocs rescore(IndexReader reader, TopDocs candidates, SparseVector query, int k) throws IOException {
+    final ScoreDoc[] hits = new ScoreDoc[candidates.scoreDocs.length];
+    for (int i = 0; i < hits.length; i++) {
+      hits[i] = new ScoreDoc(candidates.scoreDocs[i].doc, 0.0f, i);
+    }
+    // Doc values are read in increasing doc id order, leaf by leaf.
+    Arrays.sort(hits, (a, b) -> Integer.compare(a.doc, b.doc));
+    // Collection docids of the hits, by their position in the candidates (shardIndex); null if missing.
+    final BytesRef[] docids = new BytesRef[hits.length];
+
+    final int[] dims = query.dims();
+    final float[] values = query.values();
+    final List<LeafReaderContext> leaves = reader.leaves();
+    int leaf = -1;
+    int docBase = 0;
+    int end = 0;
+    BinaryDocValues docValues = null;
+    SortedDocValues idValues = null;
+    ScoreDoc previous = null;
+    for (ScoreDoc hit : hits) {
+      while (hit.doc >= end) {
+        LeafReaderContext context = leaves.get(++leaf);
+        docBase = context.docBase;
+        end = docBase + context.reader().maxDoc();
+        docValues = context.reader().getBinaryDocValues(field);
+        idValues = context.reader().getSortedDocValues(IndexArgs.ID);
+      }
+      // Doc values can only be advanced, a document that occurs twice is copied from its first hit.
+      if (previous != null && previous.doc == hit.doc) {
+        hit.score = previous.score;
+        docids[hit.shardIndex] = docids[previous.shardIndex];
+        continue;
+      }
+      if (docValues != null && docValues.advanceExact(hit.doc - docBase)) {
+        hit.score = (float) SparseVectorDocValues.dot(docValues.binaryValue(), dims, values, dims.length);
+      }
+      if (idValues != null && idValues.advanceExact(hit.doc - docBase)) {
+        docids[hit.shardIndex] = BytesRef.deepCopyOf(idValues.lookupOrd(idValues.ordValue()));
+      }
+      previous = hit;
+    }
+
+    // As a string sort field, hits without a docid come first.
+    Arrays.sort(hits, (a, b) -> {
+      if (a.score != b.score) {
+        return Float.compare(b.score, a.score);
+      }
+      BytesRef x = docids[a.shardIndex];
+      BytesRef y = docids[b.shardIndex];
+      if (x == null || y == null) {
+        return x == null ? (y == null ? 0 : -1) : 1;
+      }
+      return x.compareTo(y);
+    });
+    for (ScoreDoc hit : hits) {
+      hit.shardIndex = -1;
+    }
+    return new TopDocs(candidates.totalHits, Arrays.copyOf(hits, Math.min(k, hits.length)));
+  }
+}
@@ -0,0 +1,312 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.similarity;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.OrdinalMap;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.TermStates;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.LongValues;
+import org.apache.lucene.util.packed.PackedInts;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates a bag-of-words query with several similarities (e.g., all points of a BM25 k1/b grid) in a single
+ * traversal of the postings: every matching document is visited once, its term frequencies and norm are decoded once,
+ * and it is scored with all similarities, each with its own top-k heap. Scores are those of a {@code BooleanQuery} of
+ * {@code SHOULD} term clauses searched with each similarity (the clause scores are summed in double precision, as
+ * Lucene's disjunction scorers do), so that the cost of a parameter sweep barely grows with the number of points.
+ *
+ * <p>Ties are broken by a rank per document, e.g. the order of the collection docids (see {@link #idRanks}), or by the
+ * Lucene docid. An evaluator has no per-query state and can be shared between threads.</p>
+ */
+public final class MultiSimilarityEvaluator {
+  private final IndexReader reader;
+  private final IndexSearcher searcher;
+  private final Similarity[] similarities;
+  private final int[] ranks;
+
+  /**
+   * @param reader index reader
+   * @param similarities similarities to score with
+   * @param ranks rank of every document for tie breaking, or null to break ties by Lucene docid
+   */
+  public MultiSimilarityEvaluator(IndexReader reader, List<Similarity> similarities, int[] ranks) {
+    this.reader = reader;
+    this.searcher = new IndexSearcher(reader);
+    this.similarities = similarities.toArray(new Similarity[0]);
+    this.ranks = ranks;
+  }
+
+  /**
+   * Returns the rank of every document in the order of its value of a sorted doc values field (e.g. the collection
+   * docid), to break ties the way a sort on that field does; documents without a value come first.
+   *
+   * @param reader index reader
+   * @param field sorted doc values field
+   * @return rank per Lucene docid
+   * @throws IOException if reading the doc values fails
+   */
+  public static int[] idRanks(IndexReader reader, String field) throws IOException {
+    int[] ranks = new int[reader.maxDoc()];
+    Arrays.fill(ranks, -1);
+    List<LeafReaderContext> leaves = reader.leaves();
+    SortedDocValues[] values = new SortedDocValues[leaves.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = DocValues.getSorted(leaves.get(i).reader(), field);
+    }
+    OrdinalMap ordinalMap = OrdinalMap.build(null, values, PackedInts.DEFAULT);
+    for (int i = 0; i < values.length; i++) {
+      // A new iterator, the ones above were consumed by the ordinal map.
+      SortedDocValues docValues = DocValues.getSorted(leaves.get(i).reader(), field);
+      LongValues globalOrds = ordinalMap.getGlobalOrds(i);
+      int docBase = leaves.get(i).docBase;
+      for (int doc = docValues.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docValues.nextDoc()) {
+        ranks[docBase + doc] = (int) globalOrds.get(docValues.ordValue());
+      }
+    }
+    return ranks;
+  }
+
+  /**
+   * Searches a bag-of-words query with all similarities.
+   *
+   * @param field field to search
+   * @param tokens analyzed query terms; repeated terms count as many times as they occur
+   * @param k number of hits per similarity
+   * @return top hits of every similarity, in the order of the similarities
+   * @throws IOException if reading the index fails
+   */
+  public TopDocs[] search(String field, List<String> tokens, int k) throws IOException {
+    final int numSims = similarities.length;
+    final TopHits[] hits = new TopHits[numSims];
+    for (int s = 0; s < numSims; s++) {
+      hits[s] = new TopHits(k);
+    }
+
+    // Distinct terms with the number of times they occur in the query.
+    Map<String, Integer> counts = new LinkedHashMap<>();
+    for (String token : tokens) {
+      counts.merge(token, 1, Integer::sum);
+    }
+
+    CollectionStatistics collectionStats = searcher.collectionStatistics(field);
+    List<Term> terms = new ArrayList<>();
+    List<TermStates> termStates = new ArrayList<>();
+    List<Integer> termCounts = new ArrayList<>();
+    if (collectionStats != null) {
+      for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+        Term term = new Term(field, entry.getKey());
+        TermStates states = TermStates.build(searcher.getTopReaderContext(), term, true);
+        if (states.docFreq() > 0) {
+          terms.add(term);
+          termStates.add(states);
+          termCounts.add(entry.getValue());
+        }
+      }
+    }
+
+    final int numTerms = terms.size();
+    // Scorer of every term for every similarity, as a TermWeight of each would create. Repeated terms are a single
+    // clause boosted by the number of occurrences, as BooleanQuery rewrites them.
+    final Similarity.SimScorer[][] scorers = new Similarity.SimScorer[numSims][numTerms];
+    for (int t = 0; t < numTerms; t++) {
+      TermStatistics termStats = searcher.termStatistics(terms.get(t), termStates.get(t));
+      for (int s = 0; s < numSims; s++) {
+        scorers[s][t] = similarities[s].scorer((float) termCounts.get(t), collectionStats, termStats);
+      }
+    }
+
+    long matches = 0;
+    final PostingsEnum[] postings = new PostingsEnum[numTerms];
+    final int[] current = new int[numTerms];
+    final int[] matched = new int[numTerms];
+    final float[] freqs = new float[numTerms];
+    for (LeafReaderContext context : reader.leaves()) {
+      Terms fieldTerms = context.reader().terms(field);
+      if (fieldTerms == null || numTerms == 0) {
+        continue;
+      }
+      TermsEnum termsEnum = fieldTerms.iterator();
+      int next = DocIdSetIterator.NO_MORE_DOCS;
+      for (int t = 0; t < numTerms; t++) {
+        TermState state = termStates.get(t).get(context);
+        if (state == null) {
+          postings[t] = null;
+          current[t] = DocIdSetIterator.NO_MORE_DOCS;
+          continue;
+        }
+        termsEnum.seekExact(terms.get(t).bytes(), state);
+        postings[t] = termsEnum.postings(postings[t], PostingsEnum.FREQS);
+        current[t] = postings[t].nextDoc();
+        next = Math.min(next, current[t]);
+      }
+
+      final NumericDocValues norms = context.reader().getNormValues(field);
+      final Bits liveDocs = context.reader().getLiveDocs();
+      final int docBase = context.docBase;
+      while (next != DocIdSetIterator.NO_MORE_DOCS) {
+        final int doc = next;
+        next = DocIdSetIterator.NO_MORE_DOCS;
+        int numMatched = 0;
+        for (int t = 0; t < numTerms; t++) {
+          if (current[t] == doc) {
+            matched[numMatched] = t;
+            freqs[numMatched] = postings[t].freq();
+            numMatched++;
+            current[t] = postings[t].nextDoc();
+          }
+          next = Math.min(next, current[t]);
+        }
+        if (liveDocs != null && !liveDocs.get(doc)) {
+          continue;
+        }
+        matches++;
+
+        final long norm;
+        if (norms == null) {
+          norm = 1L;
+        } else {
+          norm = norms.advanceExact(doc) ? norms.longValue() : 0L;
+        }
+        final int globalDoc = docBase + doc;
+        final long key = ranks == null ? globalDoc : ((long) (ranks[globalDoc] + 1) << 32) | globalDoc;
+        for (int s = 0; s < numSims; s++) {
+          final Similarity.SimScorer[] simScorers = scorers[s];
+          double score = 0;
+          for (int m = 0; m < numMatched; m++) {
+            score += simScorers[matched[m]].score(freqs[m], norm);
+          }
+          hits[s].insert((float) score, key);
+        }
+      }
+    }
+
+    TopDocs[] topDocs = new TopDocs[numSims];
+    for (int s = 0; s < numSims; s++) {
+      topDocs[s] = new TopDocs(new TotalHits(matches, TotalHits.Relation.EQUAL_TO), hits[s].toScoreDocs());
+    }
+    return topDocs;
+  }
+
+  // Bounded heap of the best hits by score, ties broken by the smaller key; the worst hit is at the root. The Lucene
+  // docid is in the lower 32 bits of the key.
+  private static final class TopHits {
+    private final int k;
+    private final float[] scores;
+    private final long[] keys;
+    private int size = 0;
+
+    TopHits(int k) {
+      this.k = k;
+      this.scores = new float[Math.max(k, 0)];
+      this.keys = new long[Math.max(k, 0)];
+    }
+
+    private static boolean worse(float score1, long key1, float score2, long key2) {
+      return score1 < score2 || (score1 == score2 && key1 > key2);
+    }
+
+    void insert(float score, long key) {
+      if (size < k) {
+        scores[size] = score;
+        keys[size] = key;
+        upHeap(size++);
+      } else if (k > 0 && worse(scores[0], keys[0], score, key)) {
+        scores[0] = score;
+        keys[0] = key;
+        downHeap(0);
+      }
+    }
+
+    private void upHeap(int i) {
+      float score = scores[i];
+      long key = keys[i];
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (!worse(score, key, scores[parent], keys[parent])) {
+          break;
+        }
+        scores[i] = scores[parent];
+        keys[i] = keys[parent];
+        i = parent;
+      }
+      scores[i] = score;
+      keys[i] = key;
+    }
+
+    private void downHeap(int i) {
+      float score = scores[i];
+      long key = keys[i];
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size && worse(scores[child + 1], keys[child + 1], scores[child], keys[child])) {
+          child++;
+        }
+        if (!worse(scores[child], keys[child], score, key)) {
+          break;
+        }
+        scores[i] = scores[child];
+        keys[i] = keys[child];
+        i = child;
+      }
+      scores[i] = score;
+      keys[i] = key;
+    }
+
+    ScoreDoc[] toScoreDocs() {
+      // Pops the worst hit until the heap is empty, filling the results from the back.
+      ScoreDoc[] docs = new ScoreDoc[size];
+      while (size > 0) {
+        docs[size - 1] = new ScoreDoc((int) keys[0], scores[0]);
+        size--;
+        if (size > 0) {
+          scores[0] = scores[size];
+          keys[0] = keys[size];
+          downHeap(0);
+        }
+      }
+      return docs;
+    }
+  }
+}
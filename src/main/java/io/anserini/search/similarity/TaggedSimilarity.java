@@ -20,6 +20,7 @@ import org.apache.lucene.search.similarities.Similarity;
 
 /**
  * TaggedSimilarity wraps Lucene's Similarity with an optional String tag.
+ * The similarity is null for queries that do not score with the similarity of the searcher (e.g. SLR queries).
  * The tag will be used as part of the output file name if multiple search parameters are given.
  * See @see #SearchCollection
  */
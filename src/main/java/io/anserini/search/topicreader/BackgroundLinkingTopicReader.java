@@ -21,6 +21,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import io.anserini.analysis.AnalyzerUtils;
 import io.anserini.collection.WashingtonPostCollection;
+import io.anserini.index.DocidLookup;
 import io.anserini.index.IndexArgs;
 import io.anserini.index.generator.WashingtonPostGenerator;
 import io.anserini.search.SearchCollection;
@@ -29,11 +30,6 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TermQuery;
-import org.apache.lucene.search.TopDocs;
 import org.jsoup.Jsoup;
 
 import java.io.BufferedReader;
@@ -42,6 +38,7 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
@@ -129,54 +126,15 @@ public class BackgroundLinkingTopicReader extends TopicReader<Integer> {
    */
   public static List<String> generateQueryString(IndexReader reader, String docid, boolean paragraph, int k,
      boolean isWeighted, SearchCollection.QueryConstructor qc, Analyzer analyzer) throws IOException {
-    List<String> queryStrings = new ArrayList<>();
-    IndexableField rawDocStr = reader.document(convertDocidToLuceneDocid(reader, docid)).getField(IndexArgs.RAW);
-    if (rawDocStr == null) {
-      throw new RuntimeException("Raw documents not stored and Unfortunately SDM query for News Background Linking " +
-          "task needs to read the raw document to full construct the query string");
-    }
-    if (paragraph) {
-      queryStrings = getParagraphs(rawDocStr.stringValue());
-      queryStrings = queryStrings.subList(0, Math.min(5, queryStrings.size()));
-    } else {
-      queryStrings.add(getRawContents(rawDocStr.stringValue()));
-    }
+    List<String> queryStrings = getQueryTexts(reader, docid, paragraph);
     for (int i = 0; i < queryStrings.size(); i++) {
       List<String> queryTokens = AnalyzerUtils.analyze(analyzer, queryStrings.get(i));
       if (qc == SearchCollection.QueryConstructor.SequentialDependenceModel) {
         String queryString = String.join(" ", queryTokens.subList(0, Math.min(queryTokens.size(), k)));
         queryStrings.set(i, queryString);
       } else {
-        class ScoreComparator implements Comparator<Pair<String, Double>> {
-          public int compare(Pair<String, Double> a, Pair<String, Double> b) {
-            int cmp = Double.compare(b.getRight(), a.getRight());
-            if (cmp == 0) {
-              return a.getLeft().compareToIgnoreCase(b.getLeft());
-            } else {
-              return cmp;
-            }
-          }
-        }
-    
-        PriorityQueue<Pair<String, Double>> termsTfIdfPQ = new PriorityQueue<>(new ScoreComparator());
-        long docCount = reader.numDocs();
-        Map<String, Integer> termsMap = new HashMap<>();
-        queryTokens.forEach(token -> {
-          if ((token.length() >= 2) && (token.matches("[a-z]+")))
-            termsMap.merge(token, 1, Math::addExact);
-          }
-        );
-        termsMap.forEach((term, count) -> {
-          try {
-            double tfIdf = count * Math.log((1.0f + docCount) / reader.docFreq(new Term(IndexArgs.CONTENTS, term)));
-            termsTfIdfPQ.add(Pair.of(term, tfIdf));
-          } catch (IOException e) {
-            e.printStackTrace();
-          }
-        });
         String constructedQueryStr = "";
-        for (int j = 0; j < Math.min(termsTfIdfPQ.size(), k); j++) {
-          Pair<String, Double> termScores = termsTfIdfPQ.poll();
+        for (Map.Entry<String, Double> termScores : getTopTfIdfTerms(reader, queryTokens, k).entrySet()) {
           constructedQueryStr += termScores.getKey() + (isWeighted ? String.format("^%f ", termScores.getValue()) : " ");
         }
         queryStrings.set(i, constructedQueryStr);
@@ -186,20 +144,87 @@ public class BackgroundLinkingTopicReader extends TopicReader<Integer> {
     
     return queryStrings;
   }
-  
+
+  /**
+   * Extracts the same queries as {@link #generateQueryString} does for bag-of-words queries, as terms and their tf-idf
+   * scores rather than query strings, so that queries can be built without parsing strings.
+   * @param reader index reader
+   * @param docid the query docid
+   * @param paragraph whether to extract one query from each paragraph of the query document
+   * @param k how many terms will be picked from the query document
+   * @param analyzer Analyzer
+   * @return the top k terms of every query and their tf-idf scores, in decreasing order of score
+   * @throws IOException any IO exception
+   */
+  public static List<Map<String, Double>> generateQueryTerms(IndexReader reader, String docid, boolean paragraph,
+                                                             int k, Analyzer analyzer) throws IOException {
+    List<Map<String, Double>> queries = new ArrayList<>();
+    for (String text : getQueryTexts(reader, docid, paragraph)) {
+      queries.add(getTopTfIdfTerms(reader, AnalyzerUtils.analyze(analyzer, text), k));
+    }
+    return queries;
+  }
+
+  // Returns the text of the query document, or of its (up to five) longest paragraphs.
+  private static List<String> getQueryTexts(IndexReader reader, String docid, boolean paragraph) throws IOException {
+    List<String> queryStrings = new ArrayList<>();
+    IndexableField rawDocStr = reader.document(convertDocidToLuceneDocid(reader, docid)).getField(IndexArgs.RAW);
+    if (rawDocStr == null) {
+      throw new RuntimeException("Raw documents not stored and Unfortunately SDM query for News Background Linking " +
+          "task needs to read the raw document to full construct the query string");
+    }
+    if (paragraph) {
+      queryStrings = getParagraphs(rawDocStr.stringValue());
+      queryStrings = queryStrings.subList(0, Math.min(5, queryStrings.size()));
+    } else {
+      queryStrings.add(getRawContents(rawDocStr.stringValue()));
+    }
+    return queryStrings;
+  }
+
+  // Returns the k terms of the tokens with the highest tf-idf scores, in decreasing order of score.
+  private static Map<String, Double> getTopTfIdfTerms(IndexReader reader, List<String> queryTokens, int k) {
+    class ScoreComparator implements Comparator<Pair<String, Double>> {
+      public int compare(Pair<String, Double> a, Pair<String, Double> b) {
+        int cmp = Double.compare(b.getRight(), a.getRight());
+        if (cmp == 0) {
+          return a.getLeft().compareToIgnoreCase(b.getLeft());
+        } else {
+          return cmp;
+        }
+      }
+    }
+
+    PriorityQueue<Pair<String, Double>> termsTfIdfPQ = new PriorityQueue<>(new ScoreComparator());
+    long docCount = reader.numDocs();
+    Map<String, Integer> termsMap = new HashMap<>();
+    queryTokens.forEach(token -> {
+      if ((token.length() >= 2) && (token.matches("[a-z]+")))
+        termsMap.merge(token, 1, Math::addExact);
+      }
+    );
+    termsMap.forEach((term, count) -> {
+      try {
+        double tfIdf = count * Math.log((1.0f + docCount) / reader.docFreq(new Term(IndexArgs.CONTENTS, term)));
+        termsTfIdfPQ.add(Pair.of(term, tfIdf));
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    });
+    Map<String, Double> topTerms = new LinkedHashMap<>();
+    for (int j = 0; j < Math.min(termsTfIdfPQ.size(), k); j++) {
+      Pair<String, Double> termScores = termsTfIdfPQ.poll();
+      topTerms.put(termScores.getKey(), termScores.getValue());
+    }
+    return topTerms;
+  }
   
   public static int convertDocidToLuceneDocid(IndexReader reader, String docid) throws IOException {
-    IndexSearcher searcher = new IndexSearcher(reader);
-    
-    Query q = new TermQuery(new Term(IndexArgs.ID, docid));
-    TopDocs rs = searcher.search(q, 1);
-    ScoreDoc[] hits = rs.scoreDocs;
-    
-    if (hits == null) {
+    int luceneDocid = DocidLookup.of(reader).luceneDocid(docid);
+    if (luceneDocid == -1) {
       throw new RuntimeException("Docid not found!");
     }
-    
-    return hits[0].doc;
+    return luceneDocid;
   }
   
   private static WashingtonPostCollection.Document.WashingtonPostObject getWapoObj(String record) {
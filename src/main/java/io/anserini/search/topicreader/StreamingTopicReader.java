@@ -0,0 +1,46 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.topicreader;
+
+import java.io.IOException;
+import java.util.Comparator;
+
+/**
+ * A topic reader that can also read its topics one at a time, so that query sets of any size can be searched without
+ * holding all topics in memory.
+ *
+ * @param <K> type of the topic id
+ */
+public interface StreamingTopicReader<K> {
+  /**
+   * Returns the topics of the file in file order. Unlike {@link TopicReader#read()}, topics with the same id are not
+   * merged.
+   *
+   * @return stream of topics, to be closed by the caller
+   * @throws IOException if the file cannot be opened
+   */
+  TopicStream<K> stream() throws IOException;
+
+  /**
+   * Returns the order of the topic ids in {@link TopicReader#read()}, on their string form.
+   *
+   * @return order of topic ids
+   */
+  default Comparator<String> idOrder() {
+    return Comparator.naturalOrder();
+  }
+}
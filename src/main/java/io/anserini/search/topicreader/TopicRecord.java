@@ -0,0 +1,32 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.topicreader;
+
+/**
+ * A topic read by a {@link StreamingTopicReader}: the id and the query ("title"), without a map of fields.
+ *
+ * @param <K> type of the topic id
+ */
+public final class TopicRecord<K> {
+  public final K id;
+  public final String query;
+
+  public TopicRecord(K id, String query) {
+    this.id = id;
+    this.query = query;
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.topicreader;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Topics of a file, read one line at a time, in file order (see {@link StreamingTopicReader#stream()}). Errors reading
+ * the file are thrown as {@link UncheckedIOException}.
+ *
+ * @param <K> type of the topic id
+ */
+public final class TopicStream<K> implements Iterator<TopicRecord<K>>, Closeable {
+  private final BufferedReader reader;
+  private final Function<String, TopicRecord<K>> parser;
+  private TopicRecord<K> next;
+
+  /**
+   * Creates a stream.
+   *
+   * @param reader reader of the topics file
+   * @param parser parses a line of the file into a topic, or returns null to skip the line
+   */
+  public TopicStream(BufferedReader reader, Function<String, TopicRecord<K>> parser) {
+    this.reader = reader;
+    this.parser = parser;
+  }
+
+  @Override
+  public boolean hasNext() {
+    try {
+      String line;
+      while (next == null && (line = reader.readLine()) != null) {
+        next = parser.apply(line);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return next != null;
+  }
+
+  @Override
+  public TopicRecord<K> next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    TopicRecord<K> topic = next;
+    next = null;
+    return topic;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+}
@@ -18,7 +18,10 @@ package io.anserini.search.topicreader;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.SortedMap;
@@ -37,7 +40,7 @@ import java.util.TreeMap;
  * ...
  * </pre>
  */
-public class TsvIntTopicReader extends TopicReader<Integer> {
+public class TsvIntTopicReader extends TopicReader<Integer> implements StreamingTopicReader<Integer> {
   public TsvIntTopicReader(Path topicFile) {
     super(topicFile);
   }
@@ -48,14 +51,29 @@ public class TsvIntTopicReader extends TopicReader<Integer> {
 
     String line;
     while ((line = reader.readLine()) != null) {
-      line = line.trim();
-      String[] arr = line.split("\\t");
+      TopicRecord<Integer> topic = parse(line);
 
       Map<String,String> fields = new HashMap<>();
-      fields.put("title", arr[1].trim());
-      map.put(Integer.valueOf(arr[0]), fields);
+      fields.put("title", topic.query);
+      map.put(topic.id, fields);
     }
 
     return map;
   }
+
+  @Override
+  public TopicStream<Integer> stream() throws IOException {
+    return new TopicStream<>(Files.newBufferedReader(topicFile, StandardCharsets.UTF_8), TsvIntTopicReader::parse);
+  }
+
+  @Override
+  public Comparator<String> idOrder() {
+    return Comparator.comparing(Integer::valueOf);
+  }
+
+  private static TopicRecord<Integer> parse(String line) {
+    line = line.trim();
+    String[] arr = line.split("\\t");
+    return new TopicRecord<>(Integer.valueOf(arr[0]), arr[1].trim());
+  }
 }
@@ -18,6 +18,8 @@ package io.anserini.search.topicreader;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
@@ -37,7 +39,7 @@ import java.util.TreeMap;
  * ...
  * </pre>
  */
-public class TsvStringTopicReader extends TopicReader<String> {
+public class TsvStringTopicReader extends TopicReader<String> implements StreamingTopicReader<String> {
   public TsvStringTopicReader(Path topicFile) {
     super(topicFile);
   }
@@ -48,14 +50,24 @@ public class TsvStringTopicReader extends TopicReader<String> {
 
     String line;
     while ((line = reader.readLine()) != null) {
-      line = line.trim();
-      String[] arr = line.split("\\t");
+      TopicRecord<String> topic = parse(line);
 
       Map<String,String> fields = new HashMap<>();
-      fields.put("title", arr[1].trim());
-      map.put(arr[0], fields);
+      fields.put("title", topic.query);
+      map.put(topic.id, fields);
     }
 
     return map;
   }
+
+  @Override
+  public TopicStream<String> stream() throws IOException {
+    return new TopicStream<>(Files.newBufferedReader(topicFile, StandardCharsets.UTF_8), TsvStringTopicReader::parse);
+  }
+
+  private static TopicRecord<String> parse(String line) {
+    line = line.trim();
+    String[] arr = line.split("\\t");
+    return new TopicRecord<>(arr[0], arr[1].trim());
+  }
 }
@@ -0,0 +1,261 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.util;
+
+import io.anserini.index.IndexArgs;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Relevance judgments for evaluation (see {@link TrecEvaluator}), held as int arrays instead of a map of maps: docids
+ * are replaced by ordinals, and the judgments of a topic are sorted arrays of doc ordinals and grades. After
+ * {@link #forReader(IndexReader)}, the judgments are keyed by Lucene docids instead, so that results can be evaluated
+ * without looking up their collection docids.
+ *
+ * <p>Grades of 1 and up are relevant, as with the default relevance level of trec_eval.</p>
+ */
+public final class CompactQrels {
+  // Ordinals of the judged docids, null if the judgments are keyed by Lucene docids.
+  private final Map<String, Integer> docOrds;
+  private final Map<String, Topic> topics;
+
+  // Judgments of a topic.
+  static final class Topic {
+    // Sorted keys (doc ordinals or Lucene docids) of the judged documents that can be retrieved, and their grades.
+    final int[] keys;
+    final int[] grades;
+    // Number of relevant documents, retrievable or not.
+    final int numRel;
+    // Discounted cumulative gain of the ideal ranking at every rank: idealDcg[i] is the gain of the first i documents.
+    final double[] idealDcg;
+
+    Topic(int[] keys, int[] grades, int numRel, double[] idealDcg) {
+      this.keys = keys;
+      this.grades = grades;
+      this.numRel = numRel;
+      this.idealDcg = idealDcg;
+    }
+
+    // Returns the grade of a document, 0 if it is not judged.
+    int grade(int key) {
+      int i = Arrays.binarySearch(keys, key);
+      return i < 0 ? 0 : grades[i];
+    }
+  }
+
+  private CompactQrels(Map<String, Integer> docOrds, Map<String, Topic> topics) {
+    this.docOrds = docOrds;
+    this.topics = topics;
+  }
+
+  /**
+   * Reads judgments in TREC format ({@code qid iter docid grade}). If a document is judged more than once for a
+   * topic, the last grade counts.
+   *
+   * @param path qrels file
+   * @return judgments
+   * @throws IOException if the file cannot be read
+   */
+  public static CompactQrels read(Path path) throws IOException {
+    Map<String, Integer> docOrds = new HashMap<>();
+    // Grades of every topic by doc ordinal, in file order.
+    Map<String, Map<Integer, Integer>> judgments = new LinkedHashMap<>();
+    try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] arr = line.trim().split("[\\s\\t]+");
+        if (arr.length < 4) {
+          continue;
+        }
+        Integer ord = docOrds.computeIfAbsent(arr[2], docid -> docOrds.size());
+        judgments.computeIfAbsent(arr[0], qid -> new HashMap<>()).put(ord, Integer.parseInt(arr[3]));
+      }
+    }
+
+    Map<String, Topic> topics = new HashMap<>();
+    for (Map.Entry<String, Map<Integer, Integer>> entry : judgments.entrySet()) {
+      List<Integer> ords = new ArrayList<>(entry.getValue().keySet());
+      Collections.sort(ords);
+      int[] keys = new int[ords.size()];
+      int[] grades = new int[ords.size()];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = ords.get(i);
+        grades[i] = entry.getValue().get(keys[i]);
+      }
+      topics.put(entry.getKey(), topic(keys, grades, grades));
+    }
+    return new CompactQrels(docOrds, topics);
+  }
+
+  // Creates the judgments of a topic; allGrades are the grades of all judged documents, retrievable or not.
+  private static Topic topic(int[] keys, int[] grades, int[] allGrades) {
+    int numRel = 0;
+    int numPositive = 0;
+    for (int grade : allGrades) {
+      if (grade >= 1) {
+        numRel++;
+      }
+      if (grade > 0) {
+        numPositive++;
+      }
+    }
+    // The ideal ranking has the positive grades in decreasing order.
+    int[] ideal = new int[numPositive];
+    int n = 0;
+    for (int grade : allGrades) {
+      if (grade > 0) {
+        ideal[n++] = grade;
+      }
+    }
+    Arrays.sort(ideal);
+    double[] idealDcg = new double[numPositive + 1];
+    for (int i = 0; i < numPositive; i++) {
+      idealDcg[i + 1] = idealDcg[i] + ideal[numPositive - 1 - i] / TrecEvaluator.log2(i + 2);
+    }
+    return new Topic(keys, grades, numRel, idealDcg);
+  }
+
+  /**
+   * Returns these judgments keyed by the Lucene docids of an index, for results of searchers of that reader. Judged
+   * documents that are not in the index cannot be retrieved, but still count as relevant documents of their topic.
+   *
+   * @param reader index reader
+   * @return judgments keyed by Lucene docid
+   * @throws IOException if the index cannot be read
+   */
+  public CompactQrels forReader(IndexReader reader) throws IOException {
+    if (docOrds == null) {
+      throw new IllegalStateException("Judgments are keyed by Lucene docids already");
+    }
+    int[] luceneDocids = new int[docOrds.size()];
+    Arrays.fill(luceneDocids, -1);
+    for (LeafReaderContext context : reader.leaves()) {
+      Terms terms = context.reader().terms(IndexArgs.ID);
+      if (terms == null) {
+        continue;
+      }
+      Bits liveDocs = context.reader().getLiveDocs();
+      TermsEnum termsEnum = terms.iterator();
+      PostingsEnum postings = null;
+      for (Map.Entry<String, Integer> entry : docOrds.entrySet()) {
+        if (luceneDocids[entry.getValue()] != -1 || !termsEnum.seekExact(new BytesRef(entry.getKey()))) {
+          continue;
+        }
+        postings = termsEnum.postings(postings, PostingsEnum.NONE);
+        for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+          if (liveDocs == null || liveDocs.get(doc)) {
+            luceneDocids[entry.getValue()] = context.docBase + doc;
+            break;
+          }
+        }
+      }
+    }
+
+    Map<String, Topic> resolved = new HashMap<>();
+    for (Map.Entry<String, Topic> entry : topics.entrySet()) {
+      Topic topic = entry.getValue();
+      long[] pairs = new long[topic.keys.length];
+      int n = 0;
+      for (int i = 0; i < topic.keys.length; i++) {
+        int doc = luceneDocids[topic.keys[i]];
+        if (doc != -1) {
+          pairs[n++] = ((long) doc << 32) | (topic.grades[i] & 0xFFFFFFFFL);
+        }
+      }
+      Arrays.sort(pairs, 0, n);
+      int[] keys = new int[n];
+      int[] grades = new int[n];
+      for (int i = 0; i < n; i++) {
+        keys[i] = (int) (pairs[i] >>> 32);
+        grades[i] = (int) pairs[i];
+      }
+      resolved.put(entry.getKey(), new Topic(keys, grades, topic.numRel, topic.idealDcg));
+    }
+    return new CompactQrels(null, resolved);
+  }
+
+  /**
+   * Returns whether the judgments are keyed by Lucene docids, see {@link #forReader(IndexReader)}.
+   */
+  public boolean isKeyedByLuceneDocid() {
+    return docOrds == null;
+  }
+
+  /**
+   * Returns the ids of the judged topics.
+   */
+  public Set<String> getQids() {
+    return Collections.unmodifiableSet(topics.keySet());
+  }
+
+  /**
+   * Returns the number of relevant documents of a topic.
+   *
+   * @param qid topic id
+   * @return number of relevant documents, 0 if the topic is not judged
+   */
+  public int getNumRelevant(String qid) {
+    Topic topic = topics.get(qid);
+    return topic == null ? 0 : topic.numRel;
+  }
+
+  /**
+   * Returns the grade of a document for a topic.
+   *
+   * @param qid topic id
+   * @param docid collection docid
+   * @return grade, 0 if the document is not judged
+   */
+  public int getRelevanceGrade(String qid, String docid) {
+    if (docOrds == null) {
+      throw new IllegalStateException("Judgments are keyed by Lucene docids");
+    }
+    Topic topic = topics.get(qid);
+    Integer ord = docOrds.get(docid);
+    return topic == null || ord == null ? 0 : topic.grade(ord);
+  }
+
+  Topic topic(String qid) {
+    return topics.get(qid);
+  }
+
+  // Returns the ordinal of a docid, -1 if it is not judged.
+  int docOrd(String docid) {
+    Integer ord = docOrds.get(docid);
+    return ord == null ? -1 : ord;
+  }
+}
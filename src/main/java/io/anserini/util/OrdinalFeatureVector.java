@@ -0,0 +1,291 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.util;
+
+import java.util.Arrays;
+
+/**
+ * Counterpart of {@link FeatureVector} keyed by term ordinals instead of terms (e.g., the ordinals of a
+ * {@link io.anserini.rerank.TermVectorCache}): parallel arrays of distinct ordinals in increasing order and their
+ * weights, so that vectors are combined by merging them. Terms are only needed to build the final query.
+ *
+ * <p>Vectors are immutable; every operation returns a new vector.</p>
+ */
+public final class OrdinalFeatureVector {
+  public static final OrdinalFeatureVector EMPTY = new OrdinalFeatureVector(new int[0], new float[0]);
+
+  private final int[] ords;
+  private final float[] weights;
+
+  private OrdinalFeatureVector(int[] ords, float[] weights) {
+    this.ords = ords;
+    this.weights = weights;
+  }
+
+  /**
+   * Creates a vector from parallel arrays. The arrays are used as is (not copied) if the ordinals are distinct and in
+   * increasing order; otherwise the weights of equal ordinals are summed.
+   *
+   * @param ords term ordinals
+   * @param weights weights
+   * @return vector
+   */
+  public static OrdinalFeatureVector of(int[] ords, float[] weights) {
+    if (ords.length != weights.length) {
+      throw new IllegalArgumentException("ords and weights must have the same length");
+    }
+    for (int i = 1; i < ords.length; i++) {
+      if (ords[i - 1] >= ords[i]) {
+        return sorted(ords, weights);
+      }
+    }
+    return new OrdinalFeatureVector(ords, weights);
+  }
+
+  private static OrdinalFeatureVector sorted(int[] ords, float[] weights) {
+    // Ordinals in the high bits and indexes in the low bits, so that equal ordinals stay in their original order and
+    // their weights are summed in that order.
+    long[] order = new long[ords.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = ((long) ords[i] << 32) | i;
+    }
+    Arrays.sort(order);
+    int[] sortedOrds = new int[ords.length];
+    float[] sortedWeights = new float[ords.length];
+    int n = 0;
+    for (long entry : order) {
+      int i = (int) entry;
+      if (n > 0 && sortedOrds[n - 1] == ords[i]) {
+        sortedWeights[n - 1] += weights[i];
+      } else {
+        sortedOrds[n] = ords[i];
+        sortedWeights[n] = weights[i];
+        n++;
+      }
+    }
+    return new OrdinalFeatureVector(Arrays.copyOf(sortedOrds, n), Arrays.copyOf(sortedWeights, n));
+  }
+
+  public int size() {
+    return ords.length;
+  }
+
+  /**
+   * Returns the ordinal of an entry; entries are in increasing ordinal order.
+   *
+   * @param i index of the entry
+   * @return term ordinal
+   */
+  public int ordinal(int i) {
+    return ords[i];
+  }
+
+  /**
+   * Returns the weight of an entry.
+   *
+   * @param i index of the entry
+   * @return weight
+   */
+  public float weight(int i) {
+    return weights[i];
+  }
+
+  /**
+   * Returns the weight of an ordinal.
+   *
+   * @param ord term ordinal
+   * @return weight, 0 if the ordinal is not in the vector
+   */
+  public float getWeight(int ord) {
+    int i = Arrays.binarySearch(ords, ord);
+    return i < 0 ? 0.0f : weights[i];
+  }
+
+  /**
+   * Returns the index of the entry of an ordinal.
+   *
+   * @param ord term ordinal
+   * @return index of the entry, or a negative value if the ordinal is not in the vector
+   */
+  public int indexOf(int ord) {
+    return Arrays.binarySearch(ords, ord);
+  }
+
+  /**
+   * Returns the entries with the largest weights, selected with a heap instead of sorting all entries, in the order of
+   * {@link FeatureVector#pruneToSize(int)}: by decreasing weight, ties broken by rank, the smaller rank first. With the
+   * positions of the entries in the iteration order of the {@link FeatureVector} the entries came from as their ranks
+   * (see {@link io.anserini.rerank.TermVectorCache.DocumentVector#ranks}), the entries are the ones that
+   * {@link FeatureVector#pruneToSize(int)} keeps, in the order it puts them in the pruned vector.
+   *
+   * @param k number of entries to keep
+   * @param ranks rank of every entry, or null to break ties in no particular order
+   * @return indexes of the k entries with the largest weights, in decreasing order of weight
+   */
+  public int[] topEntries(int k, int[] ranks) {
+    k = Math.max(0, Math.min(k, ords.length));
+    // Min-heap of entry indexes, the worst entry at the root.
+    int[] heap = new int[k];
+    int size = 0;
+    for (int i = 0; i < ords.length && k > 0; i++) {
+      if (size < k) {
+        heap[size] = i;
+        siftUp(heap, size++, ranks);
+      } else if (worse(heap[0], i, ranks)) {
+        heap[0] = i;
+        siftDown(heap, k, ranks);
+      }
+    }
+    // Pops the worst entry into the last free slot, for decreasing order.
+    for (int n = k - 1; n > 0; n--) {
+      int worst = heap[0];
+      heap[0] = heap[n];
+      siftDown(heap, n, ranks);
+      heap[n] = worst;
+    }
+    return heap;
+  }
+
+  /**
+   * Returns whether entries in decreasing order of weight, as returned by {@link #topEntries(int, int[])}, have equal
+   * weights, i.e., whether their order depends on how ties are broken.
+   *
+   * @param entries indexes of entries, in decreasing order of weight
+   * @return whether two of the entries have the same weight
+   */
+  public boolean hasTies(int[] entries) {
+    for (int i = 1; i < entries.length; i++) {
+      if (weights[entries[i - 1]] == weights[entries[i]]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Returns whether entry a ranks below entry b: a smaller weight, or an equal weight and a larger rank. Weights are
+  // compared as FeatureVector does, so 0.0 and -0.0 are equal.
+  private boolean worse(int a, int b, int[] ranks) {
+    if (weights[a] != weights[b]) {
+      return weights[a] < weights[b];
+    }
+    return ranks != null && ranks[a] > ranks[b];
+  }
+
+  private void siftUp(int[] heap, int i, int[] ranks) {
+    int entry = heap[i];
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!worse(entry, heap[parent], ranks)) {
+        break;
+      }
+      heap[i] = heap[parent];
+      i = parent;
+    }
+    heap[i] = entry;
+  }
+
+  private void siftDown(int[] heap, int size, int[] ranks) {
+    int entry = heap[0];
+    int i = 0;
+    while (2 * i + 1 < size) {
+      int child = 2 * i + 1;
+      if (child + 1 < size && worse(heap[child + 1], heap[child], ranks)) {
+        child++;
+      }
+      if (!worse(heap[child], entry, ranks)) {
+        break;
+      }
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = entry;
+  }
+
+  /**
+   * Merges vectors into the sum of their weights, each divided and then multiplied by a factor of its vector:
+   * {@code sum(w_i / divisors[i] * factors[i])}, added in the order of the vectors. Ordinals of all vectors are kept,
+   * even if their sum is 0.
+   *
+   * @param vectors vectors
+   * @param divisors divisor of the weights of every vector
+   * @param factors factor of the weights of every vector
+   * @return weighted sum
+   */
+  public static OrdinalFeatureVector weightedSum(OrdinalFeatureVector[] vectors, float[] divisors, float[] factors) {
+    int total = 0;
+    for (OrdinalFeatureVector vector : vectors) {
+      total += vector.ords.length;
+    }
+    int[] ords = new int[total];
+    float[] weights = new float[total];
+    int[] cursors = new int[vectors.length];
+    int n = 0;
+    while (true) {
+      int ord = Integer.MAX_VALUE;
+      for (int v = 0; v < vectors.length; v++) {
+        if (cursors[v] < vectors[v].ords.length && vectors[v].ords[cursors[v]] < ord) {
+          ord = vectors[v].ords[cursors[v]];
+        }
+      }
+      if (ord == Integer.MAX_VALUE) {
+        break;
+      }
+      float weight = 0.0f;
+      for (int v = 0; v < vectors.length; v++) {
+        if (cursors[v] < vectors[v].ords.length && vectors[v].ords[cursors[v]] == ord) {
+          weight += (vectors[v].weights[cursors[v]++] / divisors[v]) * factors[v];
+        }
+      }
+      ords[n] = ord;
+      weights[n++] = weight;
+    }
+    return new OrdinalFeatureVector(Arrays.copyOf(ords, n), Arrays.copyOf(weights, n));
+  }
+
+  /**
+   * Interpolates two vectors as {@link FeatureVector#interpolate(FeatureVector, FeatureVector, float)} does:
+   * {@code xWeight * x + (1 - xWeight) * y}, with the same arithmetic. Ordinals of both vectors are kept, even if their
+   * weight is 0.
+   *
+   * @param x first vector
+   * @param y second vector
+   * @param xWeight weight of the first vector
+   * @return interpolated vector
+   */
+  public static OrdinalFeatureVector interpolate(OrdinalFeatureVector x, OrdinalFeatureVector y, float xWeight) {
+    int[] ords = new int[x.ords.length + y.ords.length];
+    float[] weights = new float[ords.length];
+    int i = 0;
+    int j = 0;
+    int n = 0;
+    while (i < x.ords.length || j < y.ords.length) {
+      float xw = 0.0f;
+      float yw = 0.0f;
+      if (j == y.ords.length || (i < x.ords.length && x.ords[i] <= y.ords[j])) {
+        ords[n] = x.ords[i];
+        xw = x.weights[i++];
+      } else {
+        ords[n] = y.ords[j];
+      }
+      if (j < y.ords.length && y.ords[j] == ords[n]) {
+        yw = y.weights[j++];
+      }
+      weights[n++] = (float) (xWeight * xw + (1.0 - xWeight) * yw);
+    }
+    return new OrdinalFeatureVector(Arrays.copyOf(ords, n), Arrays.copyOf(weights, n));
+  }
+}
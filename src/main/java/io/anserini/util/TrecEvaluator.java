@@ -0,0 +1,347 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.util;
+
+import io.anserini.rerank.ScoredDocuments;
+import io.anserini.search.TrecRunFormatter;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+/**
+ * Evaluates results in the JVM, with the same numbers as {@code trec_eval} (9.0.4) computes for the run they would be
+ * written to, so that parameter sweeps can be evaluated without writing runs. Supported metrics (with trec_eval names,
+ * and cutoffs as in {@code P.10} or {@code P_10}): {@code map}, {@code P_k}, {@code recall_k}, {@code ndcg_cut_k},
+ * {@code ndcg} and {@code recip_rank}.
+ *
+ * <p>As trec_eval does, results are ranked by their score as printed in a run (six decimals), with ties broken by
+ * decreasing docid, and the mean is taken over the topics that have results and judgments. Topics are added from any
+ * number of threads; a topic that is added again replaces its previous results.</p>
+ */
+public final class TrecEvaluator {
+  private enum Measure {
+    MAP, P, RECALL, NDCG_CUT, NDCG, RECIP_RANK
+  }
+
+  private final CompactQrels qrels;
+  private final List<String> metrics = new ArrayList<>();
+  private final Measure[] measures;
+  private final int[] cutoffs;
+  private final SortedMap<String, double[]> topics = new TreeMap<>();
+
+  /**
+   * Creates an evaluator.
+   *
+   * @param qrels judgments
+   * @param metrics names of the metrics
+   */
+  public TrecEvaluator(CompactQrels qrels, List<String> metrics) {
+    this.qrels = qrels;
+    this.measures = new Measure[metrics.size()];
+    this.cutoffs = new int[metrics.size()];
+    for (int m = 0; m < metrics.size(); m++) {
+      String metric = metrics.get(m).trim().replace('.', '_');
+      int separator = metric.lastIndexOf('_');
+      String name = metric;
+      if (separator > 0 && metric.substring(separator + 1).matches("\\d+")) {
+        name = metric.substring(0, separator);
+        cutoffs[m] = Integer.parseInt(metric.substring(separator + 1));
+      }
+      switch (name) {
+        case "map":
+          measures[m] = Measure.MAP;
+          break;
+        case "P":
+          measures[m] = Measure.P;
+          break;
+        case "recall":
+          measures[m] = Measure.RECALL;
+          break;
+        case "ndcg_cut":
+          measures[m] = Measure.NDCG_CUT;
+          break;
+        case "ndcg":
+          measures[m] = Measure.NDCG;
+          break;
+        case "recip_rank":
+          measures[m] = Measure.RECIP_RANK;
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown metric: " + metrics.get(m));
+      }
+      boolean cut = measures[m] == Measure.P || measures[m] == Measure.RECALL || measures[m] == Measure.NDCG_CUT;
+      if (cut != (cutoffs[m] > 0)) {
+        throw new IllegalArgumentException("Invalid cutoff of metric: " + metrics.get(m));
+      }
+      this.metrics.add(metric);
+    }
+  }
+
+  /**
+   * Returns the names of the metrics, as trec_eval prints them.
+   */
+  public List<String> getMetrics() {
+    return Collections.unmodifiableList(metrics);
+  }
+
+  /**
+   * Evaluates the results of a topic. If the judgments are keyed by Lucene docids, the results must be of the same
+   * index; docids are then only looked up for documents whose scores are tied.
+   *
+   * @param qid topic id
+   * @param docs results of the topic
+   * @return values of the metrics, or null if the topic has no results or no judgments
+   */
+  public double[] evaluate(String qid, ScoredDocuments docs) {
+    CompactQrels.Topic topic = qrels.topic(qid);
+    if (topic == null || docs.scores.length == 0) {
+      return null;
+    }
+    int[] order = rank(docs.scores, docs::docid);
+    int[] grades = new int[order.length];
+    for (int i = 0; i < order.length; i++) {
+      int key = qrels.isKeyedByLuceneDocid() ? docs.ids[order[i]] : qrels.docOrd(docs.docid(order[i]));
+      grades[i] = key < 0 ? 0 : topic.grade(key);
+    }
+    return compute(topic, grades);
+  }
+
+  /**
+   * Evaluates the results of a topic given as docids and scores; the judgments must be keyed by docid.
+   *
+   * @param qid topic id
+   * @param docids docids of the results
+   * @param scores scores of the results
+   * @return values of the metrics, or null if the topic has no results or no judgments
+   */
+  public double[] evaluate(String qid, String[] docids, float[] scores) {
+    CompactQrels.Topic topic = qrels.topic(qid);
+    if (topic == null || scores.length == 0) {
+      return null;
+    }
+    int[] order = rank(scores, i -> docids[i]);
+    int[] grades = new int[order.length];
+    for (int i = 0; i < order.length; i++) {
+      int key = qrels.docOrd(docids[order[i]]);
+      grades[i] = key < 0 ? 0 : topic.grade(key);
+    }
+    return compute(topic, grades);
+  }
+
+  /**
+   * Evaluates the results of a topic, and adds them to the mean.
+   *
+   * @param qid topic id
+   * @param docs results of the topic
+   * @return values of the metrics, or null if the topic has no results or no judgments
+   */
+  public double[] add(String qid, ScoredDocuments docs) {
+    return add(qid, evaluate(qid, docs));
+  }
+
+  /**
+   * Evaluates the results of a topic given as docids and scores, and adds them to the mean.
+   *
+   * @param qid topic id
+   * @param docids docids of the results
+   * @param scores scores of the results
+   * @return values of the metrics, or null if the topic has no results or no judgments
+   */
+  public double[] add(String qid, String[] docids, float[] scores) {
+    return add(qid, evaluate(qid, docids, scores));
+  }
+
+  private double[] add(String qid, double[] values) {
+    if (values != null) {
+      synchronized (topics) {
+        topics.put(qid, values);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Returns the number of topics added to the mean.
+   */
+  public int getNumTopics() {
+    synchronized (topics) {
+      return topics.size();
+    }
+  }
+
+  /**
+   * Returns the values of the metrics of every topic added, by topic id.
+   */
+  public SortedMap<String, double[]> getTopics() {
+    synchronized (topics) {
+      return new TreeMap<>(topics);
+    }
+  }
+
+  /**
+   * Returns the mean of every metric over the topics added, summed in topic id order as trec_eval does.
+   */
+  public double[] mean() {
+    double[] mean = new double[measures.length];
+    synchronized (topics) {
+      for (double[] values : topics.values()) {
+        for (int m = 0; m < mean.length; m++) {
+          mean[m] += values[m];
+        }
+      }
+      for (int m = 0; m < mean.length && !topics.isEmpty(); m++) {
+        mean[m] /= topics.size();
+      }
+    }
+    return mean;
+  }
+
+  /**
+   * Returns the means in the format of trec_eval, one line per metric.
+   */
+  public String summary() {
+    StringBuilder summary = new StringBuilder();
+    double[] mean = mean();
+    for (int m = 0; m < mean.length; m++) {
+      summary.append(String.format("%-22s\tall\t%s", metrics.get(m), format(mean[m]))).append('\n');
+    }
+    return summary.toString();
+  }
+
+  /**
+   * Formats a value with four decimals as trec_eval does ({@code %6.4f} in C): rounded from its exact binary value,
+   * with ties to even, where {@code %.4f} in Java rounds its shortest decimal representation half-up.
+   *
+   * @param value value
+   * @return formatted value
+   */
+  public static String format(double value) {
+    String s = new BigDecimal(value).setScale(4, RoundingMode.HALF_EVEN).toPlainString();
+    return s.length() < 6 ? String.format("%6s", s) : s;
+  }
+
+  // Ranks results as trec_eval does: by decreasing score as read from the run, ties by decreasing docid.
+  private static int[] rank(float[] scores, IntFunction<String> docid) {
+    int n = scores.length;
+    float[] keys = new float[n];
+    boolean sorted = true;
+    for (int i = 0; i < n; i++) {
+      // trec_eval keeps scores as floats.
+      keys[i] = (float) TrecRunFormatter.parsedScore(scores[i]);
+      sorted &= i == 0 || keys[i - 1] >= keys[i];
+    }
+    Integer[] order = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    if (sorted) {
+      // Results are ranked by score already, and rounding keeps them in order: only runs of ties are sorted.
+      int start = 0;
+      for (int i = 1; i <= n; i++) {
+        if (i == n || keys[i] != keys[start]) {
+          if (i - start > 1) {
+            Arrays.sort(order, start, i, (a, b) -> docid.apply(b).compareTo(docid.apply(a)));
+          }
+          start = i;
+        }
+      }
+    } else {
+      Arrays.sort(order, (a, b) -> {
+        int c = Float.compare(keys[b], keys[a]);
+        return c != 0 ? c : docid.apply(b).compareTo(docid.apply(a));
+      });
+    }
+    int[] ranking = new int[n];
+    for (int i = 0; i < n; i++) {
+      ranking[i] = order[i];
+    }
+    return ranking;
+  }
+
+  // Computes the metrics of a topic from the grades of its ranked results.
+  private double[] compute(CompactQrels.Topic topic, int[] grades) {
+    double[] values = new double[measures.length];
+    for (int m = 0; m < measures.length; m++) {
+      switch (measures[m]) {
+        case MAP: {
+          double sum = 0.0;
+          int relSoFar = 0;
+          for (int i = 0; i < grades.length; i++) {
+            if (grades[i] >= 1) {
+              relSoFar++;
+              sum += (double) relSoFar / (double) (i + 1);
+            }
+          }
+          values[m] = relSoFar > 0 ? sum / topic.numRel : 0.0;
+          break;
+        }
+        case P:
+          values[m] = (double) relevant(grades, cutoffs[m]) / (double) cutoffs[m];
+          break;
+        case RECALL:
+          values[m] = topic.numRel == 0 ? 0.0 : (double) relevant(grades, cutoffs[m]) / (double) topic.numRel;
+          break;
+        case NDCG_CUT:
+        case NDCG: {
+          int depth = measures[m] == Measure.NDCG ? Integer.MAX_VALUE : cutoffs[m];
+          double dcg = 0.0;
+          for (int i = 0; i < grades.length && i < depth; i++) {
+            if (grades[i] > 0) {
+              dcg += grades[i] / log2(i + 2);
+            }
+          }
+          double ideal = topic.idealDcg[Math.min(depth, topic.idealDcg.length - 1)];
+          values[m] = ideal > 0.0 ? dcg / ideal : 0.0;
+          break;
+        }
+        case RECIP_RANK:
+          for (int i = 0; i < grades.length; i++) {
+            if (grades[i] >= 1) {
+              values[m] = 1.0 / (double) (i + 1);
+              break;
+            }
+          }
+          break;
+      }
+    }
+    return values;
+  }
+
+  private static int relevant(int[] grades, int depth) {
+    int relevant = 0;
+    for (int i = 0; i < grades.length && i < depth; i++) {
+      if (grades[i] >= 1) {
+        relevant++;
+      }
+    }
+    return relevant;
+  }
+
+  // Logarithm in base 2 of a rank, exact for powers of two like log2 in C.
+  static double log2(int x) {
+    int exponent = 31 - Integer.numberOfLeadingZeros(x);
+    int power = 1 << exponent;
+    return x == power ? exponent : exponent + Math.log((double) x / power) / Math.log(2.0);
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.analysis;
+
+import io.anserini.search.latent.SparseVector;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermFrequencyAttribute;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SLRTokenStreamTest {
+
+  @Test
+  public void testTermsAndFrequencies() throws Exception {
+    SLRTokenStream stream = new SLRTokenStream(2);
+    SparseVector vector = new SparseVector(new int[]{3, 42, 7, 123456}, new float[]{0.29f, 0.004f, 1.5f, 0.57f});
+
+    List<String> terms = new ArrayList<>();
+    List<Integer> freqs = new ArrayList<>();
+    consume(stream.setVector(vector), terms, freqs);
+
+    // Dimension 42 truncates to a zero term frequency and is skipped.
+    assertEquals(List.of("00003", "00007", "123456"), terms);
+    assertEquals(List.of(29, 150, 57), freqs);
+
+    // The stream is reusable for the next document.
+    terms.clear();
+    freqs.clear();
+    consume(stream.setVector(new SparseVector(new int[]{1}, new float[]{0.1f})), terms, freqs);
+    assertEquals(List.of("00001"), terms);
+    assertEquals(List.of(10), freqs);
+  }
+
+  @Test
+  public void testTermFrequencyMatchesDecimalText() {
+    // Term frequencies must match the truncation of the decimal text that the SLRTokenizer used to see.
+    for (int precision = 1; precision <= 7; precision++) {
+      SLRTokenStream stream = new SLRTokenStream(precision);
+      for (int i = 0; i < 10000; i++) {
+        float value = i / 10000f;
+        String text = Float.toString(value);
+        String decimals = (text.substring(text.indexOf('.') + 1) + "0000000").substring(0, precision);
+        if (text.contains("E")) {
+          continue;
+        }
+        assertEquals(text, Integer.parseInt(decimals), stream.termFrequency(value));
+      }
+    }
+  }
+
+  private static void consume(SLRTokenStream stream, List<String> terms, List<Integer> freqs) throws Exception {
+    CharTermAttribute termAtt = stream.getAttribute(CharTermAttribute.class);
+    TermFrequencyAttribute freqAtt = stream.getAttribute(TermFrequencyAttribute.class);
+    stream.reset();
+    while (stream.incrementToken()) {
+      terms.add(termAtt.toString());
+      freqs.add(freqAtt.getTermFrequency());
+    }
+    stream.end();
+    stream.close();
+  }
+}
@@ -19,8 +19,14 @@ package io.anserini.index;
 import io.anserini.IndexerTestBase;
 import io.anserini.analysis.AnalyzerUtils;
 import io.anserini.analysis.DefaultEnglishAnalyzer;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.MultiTerms;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
@@ -34,6 +40,9 @@ import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
 import org.junit.Test;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -428,4 +437,107 @@ public class IndexReaderUtilsTest extends IndexerTestBase {
     reader.close();
     dir.close();
   }
+
+  @Test
+  public void testDocidLookup() throws Exception {
+    Directory dir = FSDirectory.open(tempDir1);
+    IndexReader reader = DirectoryReader.open(dir);
+
+    // Before and after the table is built.
+    DocidLookup lookup = DocidLookup.of(reader);
+    assertSame(lookup, DocidLookup.of(reader));
+    for (int i = 0; i < 2; i++) {
+      assertEquals(0, lookup.luceneDocid("doc1"));
+      assertEquals(1, lookup.luceneDocid("doc2"));
+      assertEquals(2, lookup.luceneDocid("doc3"));
+      assertEquals(-1, lookup.luceneDocid("doc0"));
+      assertEquals(-1, lookup.luceneDocid("doc42"));
+      assertArrayEquals(new int[] {2, -1, 0}, lookup.luceneDocids(new String[] {"doc3", "fake", "doc1"}));
+      lookup.build();
+    }
+
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testBatchDocuments() throws Exception {
+    Directory dir = FSDirectory.open(tempDir1);
+    IndexReader reader = DirectoryReader.open(dir);
+
+    List<String> docids = Arrays.asList("doc3", "fake", "doc1", "doc2");
+    Map<String, Document> docs = IndexReaderUtils.batchDocuments(reader, docids);
+    assertEquals(Arrays.asList("doc3", "doc1", "doc2"), new ArrayList<>(docs.keySet()));
+    assertEquals("{\"contents\": \"here is a test\"}", docs.get("doc3").get("raw"));
+    assertEquals("here is some text here is some more text. city.", docs.get("doc1").get("contents"));
+
+    Map<String, String> contents = IndexReaderUtils.batchDocumentContents(reader, docids);
+    assertEquals(Arrays.asList("doc3", "doc1", "doc2"), new ArrayList<>(contents.keySet()));
+    assertEquals("here is a test", contents.get("doc3"));
+    assertEquals("here is some text here is some more text. city.", contents.get("doc1"));
+    assertEquals("more texts", contents.get("doc2"));
+
+    Map<String, String> raw = IndexReaderUtils.batchDocumentRaw(reader, docids);
+    assertEquals("{\"contents\": \"more texts\"}", raw.get("doc2"));
+    assertNull(raw.get("fake"));
+
+    assertTrue(IndexReaderUtils.batchDocuments(reader, Arrays.asList("fake")).isEmpty());
+
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testSharedReader() throws Exception {
+    IndexReader reader = IndexReaderUtils.getSharedReader(tempDir1.toString());
+    assertSame(reader, IndexReaderUtils.getSharedReader(tempDir1.toAbsolutePath().toString() + "/."));
+    assertEquals(3, reader.numDocs());
+
+    try {
+      IndexReaderUtils.getSharedReader(tempDir1.resolve("missing").toString());
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+
+    IndexReaderUtils.closeSharedReader(tempDir1.toString());
+    assertEquals(0, reader.getRefCount());
+    IndexReader reopened = IndexReaderUtils.getSharedReader(tempDir1.toString());
+    assertNotSame(reader, reopened);
+    assertEquals(3, reopened.numDocs());
+    IndexReaderUtils.closeSharedReaders();
+    assertEquals(0, reopened.getRefCount());
+  }
+
+  @Test
+  public void testSharedReaderOfChangedIndex() throws Exception {
+    Path path = createTempDir();
+    Directory dir = FSDirectory.open(path);
+    IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new WhitespaceAnalyzer()));
+    Document doc = new Document();
+    doc.add(new StringField(IndexArgs.ID, "doc1", Field.Store.YES));
+    writer.addDocument(doc);
+    writer.commit();
+
+    IndexReader reader = IndexReaderUtils.getSharedReader(path.toString());
+    assertEquals(1, reader.numDocs());
+    assertSame(reader, IndexReaderUtils.getSharedReader(path.toString()));
+
+    doc = new Document();
+    doc.add(new StringField(IndexArgs.ID, "doc2", Field.Store.YES));
+    writer.addDocument(doc);
+    writer.close();
+
+    // A new reader sees the change, the replaced one stays open until the index is closed.
+    IndexReader changed = IndexReaderUtils.getSharedReader(path.toString());
+    assertNotSame(reader, changed);
+    assertEquals(2, changed.numDocs());
+    assertEquals(1, reader.numDocs());
+    assertSame(changed, IndexReaderUtils.getSharedReader(path.toString()));
+
+    IndexReaderUtils.closeSharedReader(path.toString());
+    assertEquals(0, reader.getRefCount());
+    assertEquals(0, changed.getRefCount());
+    dir.close();
+  }
 }
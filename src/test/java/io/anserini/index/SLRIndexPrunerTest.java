@@ -0,0 +1,186 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index;
+
+import io.anserini.analysis.SLRTokenStream;
+import io.anserini.search.latent.SparseDotProductQuery;
+import io.anserini.search.latent.SparseVector;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class SLRIndexPrunerTest extends LuceneTestCase {
+  private static final int NUM_DOCS = 500;
+  private static final int NUM_DIMS = 100;
+
+  private int[][] freqs;
+
+  private Directory buildIndex() throws Exception {
+    Random random = new Random(3);
+    SLRTokenStream tokenStream = new SLRTokenStream(2);
+    freqs = new int[NUM_DOCS][NUM_DIMS];
+
+    Directory dir = new ByteBuffersDirectory();
+    IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer());
+    config.setMaxBufferedDocs(100);
+    IndexWriter writer = new IndexWriter(dir, config);
+    FieldType fieldType = new FieldType();
+    fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+    fieldType.setTokenized(true);
+    for (int d = 0; d < NUM_DOCS; d++) {
+      float[] dense = new float[NUM_DIMS];
+      for (int i = 0; i < NUM_DIMS; i++) {
+        if (random.nextDouble() < 0.2) {
+          // Few distinct values, so that there are many ties.
+          dense[i] = (1 + random.nextInt(20)) / 10.0f;
+          freqs[d][i] = tokenStream.termFrequency(dense[i]);
+        }
+      }
+      Document doc = new Document();
+      doc.add(new StringField(IndexArgs.ID, "doc" + d, Field.Store.YES));
+      doc.add(new Field(IndexArgs.CONTENTS, tokenStream.setVector(SparseVector.fromDense(dense)), fieldType));
+      writer.addDocument(doc);
+    }
+    writer.close();
+    return dir;
+  }
+
+  // Whether posting (dim, d) is among the top k of its dimension, ranked by decreasing freq and increasing doc id.
+  private boolean inDimTopK(int dim, int d, int k) {
+    int better = 0;
+    for (int other = 0; other < NUM_DOCS; other++) {
+      int freq = freqs[other][dim];
+      if (freq > freqs[d][dim] || (freq == freqs[d][dim] && other < d)) {
+        better++;
+      }
+    }
+    return better < k;
+  }
+
+  // Whether posting (dim, d) is among the top n of its document, ranked by decreasing freq and increasing dim.
+  private boolean inDocTopN(int dim, int d, int n) {
+    int better = 0;
+    for (int other = 0; other < NUM_DIMS; other++) {
+      int freq = freqs[d][other];
+      if (freq > freqs[d][dim] || (freq == freqs[d][dim] && other < dim)) {
+        better++;
+      }
+    }
+    return better < n;
+  }
+
+  private void checkPruning(int dimTopK, int minFreq, int docTopN) throws Exception {
+    Directory dir = buildIndex();
+    Directory output = new ByteBuffersDirectory();
+    try (IndexReader reader = DirectoryReader.open(dir)) {
+      new SLRIndexPruner(IndexArgs.CONTENTS, dimTopK, minFreq, docTopN).prune(reader, output);
+    }
+
+    boolean[][] kept = new boolean[NUM_DOCS][NUM_DIMS];
+    long expected = 0;
+    for (int d = 0; d < NUM_DOCS; d++) {
+      for (int dim = 0; dim < NUM_DIMS; dim++) {
+        kept[d][dim] = freqs[d][dim] > 0 && freqs[d][dim] >= minFreq &&
+            (dimTopK == 0 || inDimTopK(dim, d, dimTopK)) && (docTopN == 0 || inDocTopN(dim, d, docTopN));
+        if (kept[d][dim]) {
+          expected++;
+        }
+      }
+    }
+
+    try (IndexReader pruned = DirectoryReader.open(output)) {
+      assertEquals(NUM_DOCS, pruned.maxDoc());
+      assertEquals(1, pruned.leaves().size());
+      assertEquals("doc42", pruned.document(42).get(IndexArgs.ID));
+      assertEquals(expected, SLRIndexPruner.numPostings(pruned, IndexArgs.CONTENTS));
+
+      TermsEnum termsEnum = MultiTerms.getTerms(pruned, IndexArgs.CONTENTS).iterator();
+      for (int dim = 0; dim < NUM_DIMS; dim++) {
+        boolean any = false;
+        for (int d = 0; d < NUM_DOCS; d++) {
+          any |= kept[d][dim];
+        }
+        if (!termsEnum.seekExact(new BytesRef(SparseDotProductQuery.term(dim)))) {
+          assertFalse(any);
+          continue;
+        }
+        PostingsEnum postings = termsEnum.postings(null, PostingsEnum.FREQS);
+        int d = 0;
+        int doc;
+        while ((doc = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+          for (; d < doc; d++) {
+            assertFalse(kept[d][dim]);
+          }
+          assertTrue(kept[doc][dim]);
+          assertEquals(freqs[doc][dim], postings.freq());
+          d = doc + 1;
+        }
+        for (; d < NUM_DOCS; d++) {
+          assertFalse(kept[d][dim]);
+        }
+      }
+    }
+    output.close();
+    dir.close();
+  }
+
+  @Test
+  public void testDimTopK() throws Exception {
+    checkPruning(10, 0, 0);
+  }
+
+  @Test
+  public void testThreshold() throws Exception {
+    checkPruning(0, SLRIndexPruner.minFreq(1.05f, 2), 0);
+  }
+
+  @Test
+  public void testDocTopN() throws Exception {
+    checkPruning(0, 0, 5);
+  }
+
+  @Test
+  public void testCombined() throws Exception {
+    checkPruning(30, 50, 8);
+  }
+
+  @Test
+  public void testMinFreq() {
+    assertEquals(0, SLRIndexPruner.minFreq(0.0f, 2));
+    assertEquals(5, SLRIndexPruner.minFreq(0.05f, 2));
+    assertEquals(106, SLRIndexPruner.minFreq(1.055f, 2));
+    assertEquals(1234567, SLRIndexPruner.minFreq(0.1234567f, 7));
+  }
+}
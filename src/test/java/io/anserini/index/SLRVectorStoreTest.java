@@ -0,0 +1,86 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index;
+
+import io.anserini.search.latent.SparseVector;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class SLRVectorStoreTest extends LuceneTestCase {
+
+  @Test
+  public void testWriteAndRead() throws Exception {
+    Path path = createTempDir().resolve("vectors.slrv");
+    try (SLRVectorStore.Writer writer = new SLRVectorStore.Writer(path)) {
+      writer.add("doc1", new SparseVector(new int[]{3, 1}, new float[]{0.3f, 0.1f}));
+      writer.add("doc2", SparseVector.EMPTY);
+      for (int i = 0; i < 100; i++) {
+        writer.add("other" + i, new SparseVector(new int[]{i}, new float[]{0.5f}));
+      }
+    }
+
+    try (SLRVectorStore store = SLRVectorStore.open(path)) {
+      assertEquals(102, store.size());
+
+      SparseVector doc1 = store.get("doc1");
+      assertArrayEquals(new int[]{1, 3}, doc1.dims());
+      assertArrayEquals(new float[]{0.1f, 0.3f}, doc1.values(), 0.0f);
+      assertEquals(0, store.get("doc2").size());
+      assertEquals(SparseVector.EMPTY, store.get("doc2"));
+      assertEquals(new SparseVector(new int[]{42}, new float[]{0.5f}), store.get("other42"));
+      assertNull(store.get("doc3"));
+    }
+  }
+
+  @Test
+  public void testQuantized() throws Exception {
+    Path path = createTempDir().resolve("vectors.slrv");
+    try (SLRVectorStore.Writer writer = new SLRVectorStore.Writer(path, 8, 1.0f)) {
+      writer.add("doc1", new SparseVector(new int[]{0, 7}, new float[]{0.5f, 2.0f}));
+    }
+
+    try (SLRVectorStore store = SLRVectorStore.open(path)) {
+      SparseVector doc1 = store.get("doc1");
+      assertArrayEquals(new int[]{0, 7}, doc1.dims());
+      assertEquals(0.5f, doc1.value(0), 1.0f / 255);
+      // Clamped to the maximum value.
+      assertEquals(1.0f, doc1.value(1), 1e-6f);
+    }
+  }
+
+  @Test
+  public void testConvertTsv() throws Exception {
+    Path dir = createTempDir();
+    Path tsv = dir.resolve("vectors.tsv");
+    Files.write(tsv, Arrays.asList("doc1\t0.0\t0.25\t0.0\t0.5\t", "doc2\t0.75\t0.0\t0.0\t0.0\t"),
+        StandardCharsets.UTF_8);
+    Path output = dir.resolve("vectors.slrv");
+
+    SLRVectorStore.main(new String[]{"-input", tsv.toString(), "-output", output.toString()});
+
+    try (SLRVectorStore store = SLRVectorStore.open(output)) {
+      assertEquals(2, store.size());
+      assertEquals(new SparseVector(new int[]{1, 3}, new float[]{0.25f, 0.5f}), store.get("doc1"));
+      assertEquals(new SparseVector(new int[]{0}, new float[]{0.75f}), store.get("doc2"));
+    }
+  }
+}
@@ -155,6 +155,89 @@ public class MultiThreadingSearchTest extends EndToEndTest {
             "1 Q0 TREC_DOC_1 2 0.151900 Anserini",
             "1 Q0 WSJ_1 3 0.030700 Anserini"});
 
+    // Same runs, reranked on a pool of their own.
+    searchArgs = createDefaultSearchArgs().bm25();
+    searchArgs.bm25_b = new String[] {"0.4", "0.5"};
+    searchArgs.rm3 = true;
+    searchArgs.rm3_originalQueryWeight = new String[] {"0.2", "0.9"};
+    searchArgs.rerank_pipeline = true;
+    searchArgs.rerank_threads = 2;
+    searchArgs.rerank_inflight = 1;
+    testQueries.put("bm25rm3-pipeline", searchArgs);
+    runsForQuery.put("bm25rm3-pipeline", runsForQuery.get("bm25rm3-2"));
+
+    // Rerankers of concurrent topics and cascades must not share (and change) the searcher of their similarity.
+    searchArgs = createDefaultSearchArgs().bm25();
+    searchArgs.bm25_b = new String[] {"0.4", "0.8"};
+    searchArgs.bm25prf = true;
+    searchArgs.bm25prf_k1 = new String[] {"0.9", "1.2"};
+    searchArgs.threads = 2;
+    searchArgs.rerank_pipeline = true;
+    searchArgs.rerank_threads = 2;
+    testQueries.put("bm25prf", searchArgs);
+    runsForQuery.put("bm25prf", Set.of(
+        "e2eTestSearchTrec_bm25(k1=0.9,b=0.4)_bm25prf(fbTerms=20,fbDocs=10,k1=0.9,b=0.4,newTermWeight=0.2)",
+        "e2eTestSearchTrec_bm25(k1=0.9,b=0.4)_bm25prf(fbTerms=20,fbDocs=10,k1=1.2,b=0.4,newTermWeight=0.2)",
+        "e2eTestSearchTrec_bm25(k1=0.9,b=0.8)_bm25prf(fbTerms=20,fbDocs=10,k1=0.9,b=0.4,newTermWeight=0.2)",
+        "e2eTestSearchTrec_bm25(k1=0.9,b=0.8)_bm25prf(fbTerms=20,fbDocs=10,k1=1.2,b=0.4,newTermWeight=0.2)"));
+    groundTruthRuns.put("e2eTestSearchTrec_bm25(k1=0.9,b=0.4)_bm25prf(fbTerms=20,fbDocs=10,k1=0.9,b=0.4,newTermWeight=0.2)",
+        new String[] {
+            "1 Q0 DOC222 1 1.942500 Anserini",
+            "1 Q0 TREC_DOC_1 2 1.572300 Anserini",
+            "1 Q0 WSJ_1 3 1.200600 Anserini"});
+    groundTruthRuns.put("e2eTestSearchTrec_bm25(k1=0.9,b=0.4)_bm25prf(fbTerms=20,fbDocs=10,k1=1.2,b=0.4,newTermWeight=0.2)",
+        new String[] {
+            "1 Q0 DOC222 1 1.768600 Anserini",
+            "1 Q0 TREC_DOC_1 2 1.368200 Anserini",
+            "1 Q0 WSJ_1 3 1.033200 Anserini"});
+    groundTruthRuns.put("e2eTestSearchTrec_bm25(k1=0.9,b=0.8)_bm25prf(fbTerms=20,fbDocs=10,k1=0.9,b=0.4,newTermWeight=0.2)",
+        new String[] {
+            "1 Q0 DOC222 1 1.942500 Anserini",
+            "1 Q0 TREC_DOC_1 2 1.572300 Anserini",
+            "1 Q0 WSJ_1 3 1.200600 Anserini"});
+    groundTruthRuns.put("e2eTestSearchTrec_bm25(k1=0.9,b=0.8)_bm25prf(fbTerms=20,fbDocs=10,k1=1.2,b=0.4,newTermWeight=0.2)",
+        new String[] {
+            "1 Q0 DOC222 1 1.768600 Anserini",
+            "1 Q0 TREC_DOC_1 2 1.368200 Anserini",
+            "1 Q0 WSJ_1 3 1.033200 Anserini"});
+
+    searchArgs = createDefaultSearchArgs().bm25();
+    searchArgs.bm25_b = new String[] {"0.4", "0.8"};
+    searchArgs.axiom = true;
+    searchArgs.axiom_deterministic = true;
+    searchArgs.axiom_r = new String[] {"1"};
+    searchArgs.axiom_n = new String[] {"2"};
+    searchArgs.axiom_beta = new String[] {"0.4", "0.8"};
+    searchArgs.threads = 2;
+    searchArgs.rerank_pipeline = true;
+    searchArgs.rerank_threads = 2;
+    testQueries.put("axiom", searchArgs);
+    runsForQuery.put("axiom", Set.of(
+        "e2eTestSearchTrec_bm25(k1=0.9,b=0.4)_ax(seed=42,r=1,n=2,beta=0.4,top=20)",
+        "e2eTestSearchTrec_bm25(k1=0.9,b=0.4)_ax(seed=42,r=1,n=2,beta=0.8,top=20)",
+        "e2eTestSearchTrec_bm25(k1=0.9,b=0.8)_ax(seed=42,r=1,n=2,beta=0.4,top=20)",
+        "e2eTestSearchTrec_bm25(k1=0.9,b=0.8)_ax(seed=42,r=1,n=2,beta=0.8,top=20)"));
+    groundTruthRuns.put("e2eTestSearchTrec_bm25(k1=0.9,b=0.4)_ax(seed=42,r=1,n=2,beta=0.4,top=20)",
+        new String[] {
+            "1 Q0 TREC_DOC_1 1 0.090000 Anserini",
+            "1 Q0 DOC222 2 0.083700 Anserini",
+            "1 Q0 WSJ_1 3 0.069900 Anserini"});
+    groundTruthRuns.put("e2eTestSearchTrec_bm25(k1=0.9,b=0.4)_ax(seed=42,r=1,n=2,beta=0.8,top=20)",
+        new String[] {
+            "1 Q0 WSJ_1 1 0.139800 Anserini",
+            "1 Q0 TREC_DOC_1 2 0.090000 Anserini",
+            "1 Q0 DOC222 3 0.083700 Anserini"});
+    groundTruthRuns.put("e2eTestSearchTrec_bm25(k1=0.9,b=0.8)_ax(seed=42,r=1,n=2,beta=0.4,top=20)",
+        new String[] {
+            "1 Q0 TREC_DOC_1 1 0.094700 Anserini",
+            "1 Q0 DOC222 2 0.081900 Anserini",
+            "1 Q0 WSJ_1 3 0.068300 Anserini"});
+    groundTruthRuns.put("e2eTestSearchTrec_bm25(k1=0.9,b=0.8)_ax(seed=42,r=1,n=2,beta=0.8,top=20)",
+        new String[] {
+            "1 Q0 WSJ_1 1 0.136700 Anserini",
+            "1 Q0 TREC_DOC_1 2 0.094700 Anserini",
+            "1 Q0 DOC222 3 0.081900 Anserini"});
+
     searchArgs = createDefaultSearchArgs().qld();
     searchArgs.qld_mu = new String[] {"1000", "2000"};
     testQueries.put("qld", searchArgs);
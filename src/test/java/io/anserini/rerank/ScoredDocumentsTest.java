@@ -0,0 +1,97 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.rerank;
+
+import io.anserini.index.IndexArgs;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+public class ScoredDocumentsTest extends LuceneTestCase {
+
+  @Test
+  public void testLazyDocids() throws Exception {
+    Directory dir = new ByteBuffersDirectory();
+    IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer());
+    config.setMaxBufferedDocs(10);
+    IndexWriter writer = new IndexWriter(dir, config);
+    for (int d = 0; d < 50; d++) {
+      String id = "doc" + d;
+      Document doc = new Document();
+      doc.add(new StringField(IndexArgs.ID, id, Field.Store.YES));
+      // Some documents without doc values, as written by older generators.
+      if (d % 7 != 0) {
+        doc.add(new SortedDocValuesField(IndexArgs.ID, new BytesRef(id)));
+      }
+      doc.add(new TextField(IndexArgs.CONTENTS, "text " + d, Field.Store.YES));
+      writer.addDocument(doc);
+    }
+    writer.close();
+
+    IndexReader reader = DirectoryReader.open(dir);
+    IndexSearcher searcher = new IndexSearcher(reader);
+    TopDocs rs = searcher.search(new MatchAllDocsQuery(), 50);
+    // Hits in an order other than by Lucene docid.
+    for (int i = 0; i < rs.scoreDocs.length / 2; i++) {
+      int j = rs.scoreDocs.length - 1 - i;
+      ScoreDoc tmp = rs.scoreDocs[i];
+      rs.scoreDocs[i] = rs.scoreDocs[j];
+      rs.scoreDocs[j] = tmp;
+    }
+
+    ScoredDocuments docs = ScoredDocuments.fromTopDocs(rs, searcher);
+    for (int i = 0; i < docs.documents.length; i++) {
+      assertNull(docs.documents[i]);
+    }
+    ScoredDocuments copy = docs.copy();
+    for (int i = 0; i < docs.documents.length; i++) {
+      int doc = docs.ids[i];
+      assertEquals("doc" + doc, docs.docid(i));
+      // Only documents without doc values are loaded.
+      assertEquals(doc % 7 == 0, docs.documents[i] != null);
+    }
+    assertNull(copy.documents[3]);
+    assertEquals("text " + copy.ids[3], copy.document(3).get(IndexArgs.CONTENTS));
+    assertEquals("doc" + copy.ids[5], copy.docid(5));
+
+    ScoredDocuments selected = ScoredDocuments.ofSize(2, reader);
+    selected.set(0, docs, 10);
+    selected.set(1, copy, 20);
+    assertEquals(docs.docid(10), selected.docid(0));
+    assertEquals(copy.docid(20), selected.docid(1));
+    assertEquals(docs.scores[10], selected.scores[0], 0.0f);
+
+    reader.close();
+    dir.close();
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.rerank;
+
+import io.anserini.IndexerTestBase;
+import io.anserini.index.IndexArgs;
+import io.anserini.util.FeatureVector;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TermVectorCacheTest extends IndexerTestBase {
+
+  private static String[] terms(TermVectorCache cache, TermVectorCache.DocumentVector vector) {
+    String[] terms = new String[vector.size()];
+    for (int i = 0; i < terms.length; i++) {
+      terms[i] = cache.term(vector.terms[i]);
+    }
+    return terms;
+  }
+
+  @Test
+  public void testVectors() throws Exception {
+    Directory dir = FSDirectory.open(tempDir1);
+    IndexReader reader = DirectoryReader.open(dir);
+    TermVectorCache cache = new TermVectorCache(reader);
+
+    // "here is some text here is some more text. city.", analyzed with the English analyzer.
+    TermVectorCache.DocumentVector vector = cache.termVector(0, IndexArgs.CONTENTS);
+    assertArrayEquals(new String[] {"citi", "here", "more", "some", "text"}, terms(cache, vector));
+    assertArrayEquals(new float[] {1.0f, 2.0f, 1.0f, 2.0f, 2.0f}, vector.weights, 0.0f);
+    assertArrayEquals(new int[] {0, 1, 2, 3, 4}, vector.indexOrder);
+    assertNull(vector.ranks);
+    assertEquals(2, cache.docFreq(vector.terms[1]));
+    assertEquals(1, cache.docFreq(vector.terms[3]));
+    assertSame(vector, cache.termVector(0, IndexArgs.CONTENTS));
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+
+    // Only the terms in at most half of the documents.
+    TermVectorCache.DocumentVector feedback = cache.feedbackVector(0, IndexArgs.CONTENTS, 0.5f);
+    assertArrayEquals(new String[] {"citi", "some"}, terms(cache, feedback));
+    assertArrayEquals(new float[] {1.0f, 2.0f}, feedback.weights, 0.0f);
+    // Ranks are the iteration order of a FeatureVector of the same terms.
+    int[] ranks = new int[2];
+    List<String> order = new ArrayList<>();
+    FeatureVector.fromTerms(Arrays.asList("citi", "some")).iterator().forEachRemaining(order::add);
+    ranks[0] = order.indexOf("citi");
+    ranks[1] = order.indexOf("some");
+    assertArrayEquals(ranks, feedback.ranks);
+
+    // Ordinals are shared by all vectors.
+    assertArrayEquals(new String[] {"here", "test"}, terms(cache, cache.termVector(2, IndexArgs.CONTENTS)));
+    assertEquals(vector.terms[1], cache.termVector(2, IndexArgs.CONTENTS).terms[0]);
+    assertEquals(vector.terms[4], cache.ordinal("text"));
+    // Terms of no vector do not get an ordinal.
+    assertEquals(-1, cache.ordinal("nothing"));
+    assertEquals(-1, cache.ordinal("nothing"));
+
+    assertEquals(0, cache.termVector(0, "missing").size());
+
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    Directory dir = FSDirectory.open(tempDir1);
+    IndexReader reader = DirectoryReader.open(dir);
+    // Room for one vector per segment.
+    TermVectorCache cache = new TermVectorCache(reader, 16 * 240);
+
+    cache.termVector(0, IndexArgs.CONTENTS);
+    cache.termVector(1, IndexArgs.CONTENTS);
+    assertEquals(0, cache.getEvictions());
+
+    // Both vectors of the first document are in the same segment.
+    cache.feedbackVector(0, IndexArgs.CONTENTS, 0.5f);
+    assertEquals(1, cache.getEvictions());
+    cache.termVector(0, IndexArgs.CONTENTS);
+    cache.termVector(1, IndexArgs.CONTENTS);
+    assertEquals(1, cache.getHits());
+    assertEquals(4, cache.getMisses());
+    assertEquals(0.2, cache.getHitRate(), 1e-9);
+
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testRenewal() throws Exception {
+    Directory dir = FSDirectory.open(tempDir1);
+    IndexReader reader = DirectoryReader.open(dir);
+    // The five terms of the first document take more than half of the memory.
+    TermVectorCache cache = new TermVectorCache(reader, 2000);
+    assertSame(cache, cache.renew());
+
+    TermVectorCache.DocumentVector vector = cache.termVector(0, IndexArgs.CONTENTS);
+    TermVectorCache renewed = cache.renew();
+    assertNotSame(cache, renewed);
+    assertEquals(1, renewed.getRenewals());
+    assertEquals(1, renewed.getMisses());
+    // The old cache remains valid for the queries that still use it.
+    assertArrayEquals(new String[] {"citi", "here", "more", "some", "text"}, terms(cache, vector));
+    assertSame(vector, cache.termVector(0, IndexArgs.CONTENTS));
+
+    // The new cache starts without vectors and terms.
+    assertEquals(-1, renewed.ordinal("text"));
+    assertArrayEquals(new String[] {"here", "test"}, terms(renewed, renewed.termVector(2, IndexArgs.CONTENTS)));
+    assertSame(renewed, renewed.renew());
+    assertEquals(1, renewed.getHits());
+    assertEquals(2, renewed.getMisses());
+
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testFeedbackTerms() {
+    assertTrue(TermVectorCache.isFeedbackTerm("text"));
+    assertTrue(TermVectorCache.isFeedbackTerm("2020"));
+    assertFalse(TermVectorCache.isFeedbackTerm("a"));
+    assertFalse(TermVectorCache.isFeedbackTerm("abcdefghijklmnopqrstu"));
+    assertFalse(TermVectorCache.isFeedbackTerm("café"));
+    assertFalse(TermVectorCache.isFeedbackTerm("Text"));
+  }
+}
@@ -0,0 +1,311 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.rerank.lib;
+
+import io.anserini.index.IndexArgs;
+import io.anserini.index.IndexReaderUtils;
+import io.anserini.rerank.RerankerContext;
+import io.anserini.rerank.ScoredDocuments;
+import io.anserini.search.SearchArgs;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static io.anserini.search.SearchCollection.BREAK_SCORE_TIES_BY_DOCID;
+
+public class AxiomRerankerTest extends LuceneTestCase {
+  private static final String[] DOCS = {
+      "apple banana apple cherry",
+      "banana cherry date",
+      "apple date elder fig",
+      "fig grape apple",
+      "banana grape honey",
+      "cherry honey apple kiwi",
+      "kiwi lemon banana",
+      "lemon mango apple x 42"};
+
+  private static final List<List<String>> QUERIES = Arrays.asList(
+      Arrays.asList("apple"),
+      Arrays.asList("banana", "kiwi"),
+      Arrays.asList("cherry", "cherry", "fig"),
+      Arrays.asList("mango"),
+      Arrays.asList("nothing"));
+
+  // With R * N the number of documents, the reranking pool is the whole index, whatever the sampling.
+  private static final int R = 2;
+  private static final int N = 4;
+  private static final float BETA = 0.4f;
+  private static final int M = 5;
+
+  private Path indexPath;
+  private Directory dir;
+  private IndexReader reader;
+  private IndexSearcher searcher;
+
+  @Before
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    indexPath = createTempDir();
+    dir = FSDirectory.open(indexPath);
+    IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new WhitespaceAnalyzer()));
+    FieldType fieldType = new FieldType();
+    fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+    fieldType.setTokenized(true);
+    fieldType.setStoreTermVectors(true);
+    for (int i = 0; i < DOCS.length; i++) {
+      Document doc = new Document();
+      doc.add(new StringField(IndexArgs.ID, "doc" + i, Field.Store.YES));
+      doc.add(new SortedDocValuesField(IndexArgs.ID, new BytesRef("doc" + i)));
+      doc.add(new Field(IndexArgs.CONTENTS, DOCS[i], fieldType));
+      writer.addDocument(doc);
+    }
+    writer.forceMerge(1);
+    writer.close();
+
+    reader = DirectoryReader.open(dir);
+    searcher = new IndexSearcher(reader);
+  }
+
+  @After
+  @Override
+  public void tearDown() throws Exception {
+    IndexReaderUtils.closeSharedReaders();
+    reader.close();
+    dir.close();
+    super.tearDown();
+  }
+
+  private AxiomReranker<String> reranker(boolean deterministic) throws Exception {
+    return new AxiomReranker<>(indexPath.toString(), null, IndexArgs.CONTENTS, deterministic, 42, R, N, BETA, M,
+        null, false, false);
+  }
+
+  private RerankerContext<String> context(String qid, List<String> tokens) throws Exception {
+    BooleanQuery.Builder builder = new BooleanQuery.Builder();
+    for (String token : tokens) {
+      builder.add(new TermQuery(new Term(IndexArgs.CONTENTS, token)), BooleanClause.Occur.SHOULD);
+    }
+    return new RerankerContext<>(searcher, qid, builder.build(), null, String.join(" ", tokens), tokens, null,
+        new SearchArgs());
+  }
+
+  private ScoredDocuments search(Query query) throws Exception {
+    return ScoredDocuments.fromTopDocs(searcher.search(query, new SearchArgs().hits, BREAK_SCORE_TIES_BY_DOCID, true),
+        searcher);
+  }
+
+  private ScoredDocuments rerank(AxiomReranker<String> reranker, String qid, List<String> tokens) throws Exception {
+    RerankerContext<String> context = context(qid, tokens);
+    return reranker.rerank(search(context.getQuery()), context);
+  }
+
+  // Mutual information of two terms as computed by the original, set based, implementation.
+  private static double mutualInformation(Set<Integer> docidsX, Set<Integer> docidsY, int totalDocCount) {
+    int x1 = docidsX.size(), y1 = docidsY.size();
+    int x0 = totalDocCount - x1, y0 = totalDocCount - y1;
+    if (x1 == 0 || x0 == 0 || y1 == 0 || y0 == 0) {
+      return 0;
+    }
+    float pX0 = 1.0f * x0 / totalDocCount;
+    float pX1 = 1.0f * x1 / totalDocCount;
+    float pY0 = 1.0f * y0 / totalDocCount;
+    float pY1 = 1.0f * y1 / totalDocCount;
+
+    Set<Integer> both = new HashSet<>(docidsX);
+    both.retainAll(docidsY);
+    int numXY11 = both.size();
+    int numXY10 = x1 - numXY11;
+    int numXY01 = y1 - numXY11;
+    int numXY00 = totalDocCount - numXY11 - numXY10 - numXY01;
+    float pXY11 = 1.0f * numXY11 / totalDocCount;
+    float pXY10 = 1.0f * numXY10 / totalDocCount;
+    float pXY01 = 1.0f * numXY01 / totalDocCount;
+    float pXY00 = 1.0f * numXY00 / totalDocCount;
+
+    double m00 = 0, m01 = 0, m10 = 0, m11 = 0;
+    if (pXY00 != 0) m00 = pXY00 * Math.log(pXY00 / (pX0 * pY0));
+    if (pXY01 != 0) m01 = pXY01 * Math.log(pXY01 / (pX0 * pY1));
+    if (pXY10 != 0) m10 = pXY10 * Math.log(pXY10 / (pX1 * pY0));
+    if (pXY11 != 0) m11 = pXY11 * Math.log(pXY11 / (pX1 * pY1));
+    return m00 + m10 + m01 + m11;
+  }
+
+  // Expansion of a query over the whole index as computed by the original implementation: every term of the pool has
+  // a score for every query term, since there are fewer terms than K.
+  private Map<String, Double> expansion(List<String> queryTokens) throws Exception {
+    Map<String, Set<Integer>> termDocs = new HashMap<>();
+    for (int docid = 0; docid < reader.maxDoc(); docid++) {
+      Terms terms = reader.getTermVector(docid, IndexArgs.CONTENTS);
+      TermsEnum te = terms.iterator();
+      while (te.next() != null) {
+        String term = te.term().utf8ToString();
+        if (term.length() >= 2 && term.matches("[a-z]+")) {
+          termDocs.computeIfAbsent(term, t -> new HashSet<>()).add(docid);
+        }
+      }
+    }
+    Set<Integer> allDocs = new HashSet<>();
+    termDocs.values().forEach(allDocs::addAll);
+
+    Map<String, Integer> queryTermCounts = new HashMap<>();
+    for (String token : queryTokens) {
+      queryTermCounts.merge(token, 1, Integer::sum);
+    }
+    long docCount = reader.numDocs();
+    // As in the original implementation, where the loops over the priority queues compare with their shrinking size,
+    // only the better half of the scores of every query term, and of the aggregated scores, is kept.
+    Comparator<Map.Entry<String, Double>> order = (a, b) -> a.getValue().equals(b.getValue()) ?
+        a.getKey().compareToIgnoreCase(b.getKey()) : Double.compare(b.getValue(), a.getValue());
+    Map<String, Double> scores = new HashMap<>();
+    for (Map.Entry<String, Integer> q : queryTermCounts.entrySet()) {
+      long df = reader.docFreq(new Term(IndexArgs.CONTENTS, q.getKey()));
+      if (df == 0L || !termDocs.containsKey(q.getKey())) {
+        continue;
+      }
+      float idf = (float) Math.log((1 + docCount) / df);
+      int qtf = q.getValue();
+      Set<Integer> queryTermDocs = termDocs.get(q.getKey());
+      double selfMI = mutualInformation(queryTermDocs, queryTermDocs, allDocs.size());
+      List<Map.Entry<String, Double>> termScores = new ArrayList<>();
+      for (Map.Entry<String, Set<Integer>> termEntry : termDocs.entrySet()) {
+        double score;
+        if (termEntry.getKey().equals(q.getKey())) {
+          score = idf * qtf;
+        } else {
+          score = idf * BETA * qtf * mutualInformation(queryTermDocs, termEntry.getValue(), allDocs.size()) / selfMI;
+        }
+        termScores.add(new AbstractMap.SimpleEntry<>(termEntry.getKey(), score));
+      }
+      termScores.sort(order);
+      for (Map.Entry<String, Double> entry : termScores.subList(0, (termScores.size() + 1) / 2)) {
+        if (entry.getValue() - 0.0 > 1e-8) {
+          scores.merge(entry.getKey(), entry.getValue(), Double::sum);
+        }
+      }
+    }
+
+    List<Map.Entry<String, Double>> sorted = new ArrayList<>(scores.entrySet());
+    sorted.sort(order);
+    Map<String, Double> top = new HashMap<>();
+    for (Map.Entry<String, Double> entry : sorted.subList(0, Math.min(M, (sorted.size() + 1) / 2))) {
+      top.put(entry.getKey(), entry.getValue() / queryTokens.size());
+    }
+    return top;
+  }
+
+  private ScoredDocuments expected(List<String> queryTokens) throws Exception {
+    Map<String, Double> expansion = expansion(queryTokens);
+    if (expansion.isEmpty()) {
+      return search(new TermQuery(new Term(IndexArgs.CONTENTS, String.join(" ", queryTokens))));
+    }
+    BooleanQuery.Builder builder = new BooleanQuery.Builder();
+    for (Map.Entry<String, Double> entry : expansion.entrySet()) {
+      builder.add(new BoostQuery(new TermQuery(new Term(IndexArgs.CONTENTS, entry.getKey())),
+          entry.getValue().floatValue()), BooleanClause.Occur.SHOULD);
+    }
+    return search(builder.build());
+  }
+
+  private static void assertSameResults(ScoredDocuments expected, ScoredDocuments actual) {
+    assertArrayEquals(expected.ids, actual.ids);
+    assertArrayEquals(expected.scores, actual.scores, 1e-6f);
+  }
+
+  @Test
+  public void testSameAsSetBasedExpansion() throws Exception {
+    for (boolean deterministic : new boolean[] {false, true}) {
+      AxiomReranker<String> reranker = reranker(deterministic);
+      for (int i = 0; i < QUERIES.size(); i++) {
+        ScoredDocuments expected = expected(QUERIES.get(i));
+        assertSameResults(expected, rerank(reranker, "q" + i, QUERIES.get(i)));
+      }
+    }
+    // Not a match of the original query, but of some expansion terms.
+    assertTrue(expected(Arrays.asList("mango")).ids.length > 1);
+  }
+
+  @Test
+  public void testConcurrentReranking() throws Exception {
+    AxiomReranker<String> reranker = reranker(true);
+    assertTrue(reranker.isThreadSafe());
+    List<ScoredDocuments> sequential = new ArrayList<>();
+    for (int i = 0; i < QUERIES.size(); i++) {
+      sequential.add(rerank(reranker, "q" + i, QUERIES.get(i)));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<ScoredDocuments>> futures = new ArrayList<>();
+    for (int round = 0; round < 20; round++) {
+      for (int i = 0; i < QUERIES.size(); i++) {
+        final int q = i;
+        futures.add(executor.submit(() -> rerank(reranker, "q" + q, QUERIES.get(q))));
+      }
+    }
+    for (int j = 0; j < futures.size(); j++) {
+      assertSameResults(sequential.get(j % QUERIES.size()), futures.get(j).get());
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+    // Rerankers built after the shared readers are closed (e.g., after the index is rebuilt) read the index again.
+    IndexReaderUtils.closeSharedReaders();
+    AxiomReranker<String> reopened = reranker(true);
+    for (int i = 0; i < QUERIES.size(); i++) {
+      assertSameResults(sequential.get(i), rerank(reopened, "q" + i, QUERIES.get(i)));
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import io.anserini.index.IndexArgs;
+import io.anserini.rerank.ScoredDocuments;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+public class BinaryRunTest extends LuceneTestCase {
+
+  private static ScoredDocuments results(Random random, int size) {
+    ScoredDocuments docs = ScoredDocuments.ofSize(size, null);
+    float score = 20;
+    for (int i = 0; i < size; i++) {
+      Document document = new Document();
+      // Docids shared between topics, so that the dictionary is used.
+      document.add(new StringField(IndexArgs.ID, "doc-" + random.nextInt(300), Field.Store.YES));
+      docs.documents[i] = document;
+      score -= random.nextFloat();
+      docs.scores[i] = score;
+    }
+    return docs;
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    Path dir = createTempDir();
+    Path binary = dir.resolve("run.bin");
+    Random random = new Random(11);
+    String[] qids = {"301", "302", "30a", "301"};
+    ScoredDocuments[] topics = new ScoredDocuments[qids.length];
+    TrecRunFormatter formatter = new TrecRunFormatter("my-run");
+    StringBuilder expected = new StringBuilder();
+
+    try (BinaryRun.Writer writer = new BinaryRun.Writer(binary, "my-run")) {
+      for (int t = 0; t < qids.length; t++) {
+        topics[t] = results(random, t == 2 ? 0 : 1000);
+        writer.add(qids[t], topics[t]);
+        expected.append(new String(formatter.format(qids[t], topics[t]), StandardCharsets.US_ASCII));
+      }
+    }
+
+    try (BinaryRun.Reader reader = new BinaryRun.Reader(binary)) {
+      assertEquals("my-run", reader.runTag());
+      assertEquals(qids.length, reader.numTopics());
+      assertTrue(reader.numDocids() <= 300);
+      for (int t = 0; t < qids.length; t++) {
+        assertTrue(reader.next());
+        assertEquals(qids[t], reader.qid());
+        assertEquals(topics[t].scores.length, reader.size());
+        for (int i = 0; i < reader.size(); i++) {
+          assertEquals(topics[t].docid(i), reader.docid(reader.ord(i)));
+          assertEquals(topics[t].scores[i], reader.score(i), 0.0f);
+        }
+      }
+      assertFalse(reader.next());
+    }
+
+    Path trec = dir.resolve("run.txt");
+    BinaryRun.toTrec(binary, trec);
+    assertEquals(expected.toString(), new String(Files.readAllBytes(trec), StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void testNotABinaryRun() throws Exception {
+    Path path = createTempDir().resolve("run.txt");
+    Files.write(path, "301 Q0 doc1 1 1.000000 Anserini\n".getBytes(StandardCharsets.US_ASCII));
+    expectThrows(IllegalArgumentException.class, () -> new BinaryRun.Reader(path));
+  }
+}
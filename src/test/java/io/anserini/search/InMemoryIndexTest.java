@@ -0,0 +1,104 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import io.anserini.index.IndexArgs;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class InMemoryIndexTest extends LuceneTestCase {
+
+  @Test
+  public void testModes() throws Exception {
+    Path path = createTempDir();
+    try (Directory dir = FSDirectory.open(path)) {
+      IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer());
+      config.setMaxBufferedDocs(10);
+      IndexWriter writer = new IndexWriter(dir, config);
+      for (int d = 0; d < 100; d++) {
+        Document doc = new Document();
+        doc.add(new StringField(IndexArgs.ID, "doc" + d, Field.Store.YES));
+        doc.add(new SortedDocValuesField(IndexArgs.ID, new BytesRef("doc" + d)));
+        doc.add(new NumericDocValuesField("count", d));
+        doc.add(new TextField(IndexArgs.CONTENTS, "a b" + (d % 7) + " c" + (d % 3), Field.Store.YES));
+        writer.addDocument(doc);
+      }
+      writer.close();
+    }
+
+    for (InMemoryIndex.Mode mode : InMemoryIndex.Mode.values()) {
+      try (Directory dir = InMemoryIndex.open(path, mode); IndexReader reader = DirectoryReader.open(dir)) {
+        assertEquals(100, reader.numDocs());
+        assertTrue(InMemoryIndex.warm(reader, Arrays.asList(IndexArgs.CONTENTS, IndexArgs.ID, "count", "missing")) > 0);
+
+        TopDocs rs = new IndexSearcher(reader).search(new TermQuery(new Term(IndexArgs.CONTENTS, "b3")), 100);
+        assertEquals(14, rs.scoreDocs.length);
+        for (int i = 0; i < rs.scoreDocs.length; i++) {
+          String id = reader.document(rs.scoreDocs[i].doc).get(IndexArgs.ID);
+          assertEquals(3, Integer.parseInt(id.substring(3)) % 7);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testLatencyStats() {
+    LatencyStats stats = new LatencyStats();
+    assertEquals(0, stats.percentile(50));
+    for (int i = 2000; i > 0; i--) {
+      stats.record(i * 1000L);
+    }
+    assertEquals(2000, stats.count());
+    assertEquals(1000_000L, stats.percentile(50));
+    assertEquals(1980_000L, stats.percentile(99));
+    assertEquals(2000_000L, stats.percentile(100));
+    assertEquals(1000L, stats.percentile(0));
+    stats.clear();
+    assertEquals(0, stats.count());
+
+    // Beyond MAX_SAMPLES latencies, a sample is kept: the percentiles are estimates, the maximum is exact.
+    int n = 4 * LatencyStats.MAX_SAMPLES;
+    for (int i = 1; i <= n; i++) {
+      stats.record(i);
+    }
+    assertEquals(n, stats.count());
+    assertEquals(n, stats.percentile(100));
+    assertEquals(0.5, (double) stats.percentile(50) / n, 0.01);
+    assertEquals(0.99, (double) stats.percentile(99) / n, 0.01);
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class RunSorterTest extends LuceneTestCase {
+
+  private static List<String> sorted(Path dir, int numTopics, long bufferBytes) throws Exception {
+    Path output = dir.resolve("run-" + bufferBytes);
+    RunSorter sorter = new RunSorter(output, Comparator.comparing(Integer::valueOf), bufferBytes);
+    Random random = new Random(7);
+    for (int i = 0; i < numTopics; i++) {
+      String qid = String.valueOf(random.nextInt(numTopics / 2));
+      sorter.add(qid, (qid + " Q0 d" + i + " 1 1.0 Anserini\n").getBytes(StandardCharsets.US_ASCII));
+    }
+    if (bufferBytes < 1000) {
+      assertTrue(sorter.spills() > 1);
+    }
+    try (OutputStream out = Files.newOutputStream(output)) {
+      sorter.finish((qid, results) -> out.write(results));
+    }
+    try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+      assertEquals(0, files.filter(p -> p.toString().endsWith(".spill")).count());
+    }
+    return Files.readAllLines(output, StandardCharsets.US_ASCII);
+  }
+
+  @Test
+  public void testMerge() throws Exception {
+    Path dir = createTempDir();
+    List<String> inMemory = sorted(dir, 500, Long.MAX_VALUE);
+    List<String> merged = sorted(dir, 500, 200);
+    assertEquals(500, inMemory.size());
+    assertEquals(inMemory, merged);
+
+    // Sorted numerically by qid, and topics with the same qid in the order they were added.
+    List<int[]> keys = new ArrayList<>();
+    for (String line : merged) {
+      String[] columns = line.split(" ");
+      keys.add(new int[]{Integer.parseInt(columns[0]), Integer.parseInt(columns[2].substring(1))});
+    }
+    for (int i = 1; i < keys.size(); i++) {
+      assertTrue(keys.get(i - 1)[0] < keys.get(i)[0] ||
+          (keys.get(i - 1)[0] == keys.get(i)[0] && keys.get(i - 1)[1] < keys.get(i)[1]));
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.anserini.IndexerTestBase;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class SearchServerTest extends IndexerTestBase {
+
+  private static int status;
+
+  private static String request(int port, String path, String body) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+    if (body != null) {
+      connection.setRequestMethod("POST");
+      connection.setDoOutput(true);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    status = connection.getResponseCode();
+    try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        bytes.write(buffer, 0, n);
+      }
+      return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test
+  public void testService() throws Exception {
+    SimpleSearcher searcher = new SimpleSearcher(super.tempDir1.toString());
+    SearchServer server = new SearchServer(searcher, 0, 2, 8, 4, 10, 100, 2, 256);
+    int port = server.port();
+    ObjectMapper mapper = new ObjectMapper();
+
+    JsonNode result = mapper.readTree(request(port, "/search?q=" + URLEncoder.encode("test", "UTF-8"), null));
+    assertEquals(200, status);
+    assertEquals("test", result.get("query").asText());
+    assertEquals(1, result.get("hits").size());
+    assertEquals("doc3", result.get("hits").get(0).get("docid").asText());
+    assertEquals(0.5702000f, (float) result.get("hits").get(0).get("score").asDouble(), 10e-6);
+
+    result = mapper.readTree(request(port, "/search?q=text&k=1", null));
+    assertEquals(1, result.get("hits").size());
+    assertEquals("doc1", result.get("hits").get(0).get("docid").asText());
+
+    // Concurrent requests are answered like sequential ones.
+    ExecutorService clients = Executors.newFixedThreadPool(8);
+    List<Future<String>> responses = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      String query = i % 2 == 0 ? "text" : "test";
+      responses.add(clients.submit(() -> {
+        HttpURLConnection connection =
+            (HttpURLConnection) new URL("http://localhost:" + port + "/search?q=" + query).openConnection();
+        if (connection.getResponseCode() == 503) {
+          return null;
+        }
+        try (InputStream in = connection.getInputStream()) {
+          return mapper.readTree(in).get("hits").get(0).get("docid").asText();
+        }
+      }));
+    }
+    for (int i = 0; i < responses.size(); i++) {
+      String docid = responses.get(i).get();
+      if (docid != null) {
+        assertEquals(i % 2 == 0 ? "doc1" : "doc3", docid);
+      }
+    }
+    clients.shutdown();
+
+    String run = request(port, "/batch?k=1", "q1\ttext\nq2\ttest\n\nq3\ttext\n");
+    assertEquals(200, status);
+    String[] lines = run.split("\n");
+    assertEquals(3, lines.length);
+    assertTrue(lines[0].startsWith("q1 Q0 doc1 1 "));
+    assertTrue(lines[1].startsWith("q2 Q0 doc3 1 "));
+    assertTrue(lines[2].startsWith("q3 Q0 doc1 1 "));
+
+    // Bad requests, a batch that does not fit in the queue and a body that is too large.
+    request(port, "/search?k=3", null);
+    assertEquals(400, status);
+    request(port, "/search?q=test&k=none", null);
+    assertEquals(400, status);
+    request(port, "/search?q=test&k=101", null);
+    assertEquals(400, status);
+    request(port, "/batch", "q1 text\n");
+    assertEquals(400, status);
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 9; i++) {
+      large.append("q").append(i).append("\ttext\n");
+    }
+    assertEquals("a batch may hold at most 8 queries\n", request(port, "/batch", large.toString()));
+    assertEquals(413, status);
+    StringBuilder longQuery = new StringBuilder("q1\t");
+    for (int i = 0; i < 60; i++) {
+      longQuery.append("text ");
+    }
+    assertEquals("request body exceeds 256 bytes\n", request(port, "/batch", longQuery.toString()));
+    assertEquals(413, status);
+    // Without a content length, the body is read up to the limit.
+    HttpURLConnection chunked = (HttpURLConnection) new URL("http://localhost:" + port + "/batch").openConnection();
+    chunked.setRequestMethod("POST");
+    chunked.setDoOutput(true);
+    chunked.setChunkedStreamingMode(64);
+    try (OutputStream out = chunked.getOutputStream()) {
+      out.write(longQuery.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    assertEquals(413, chunked.getResponseCode());
+
+    String metrics = request(port, "/metrics", null);
+    assertEquals(200, status);
+    assertTrue(metrics.contains("anserini_requests_total{endpoint=\"batch\"} 5\n"));
+    assertTrue(metrics.contains("anserini_rejected_requests_total{endpoint=\"batch\"} 0\n"));
+    assertTrue(metrics.contains("anserini_failed_requests_total{endpoint=\"batch\"} 4\n"));
+    assertTrue(metrics.contains("anserini_failed_requests_total{endpoint=\"search\"} 3\n"));
+    assertTrue(metrics.contains("anserini_request_latency_seconds_bucket{endpoint=\"batch\",le=\"+Inf\"} 1\n"));
+    assertTrue(metrics.contains("anserini_queue_depth 0\n"));
+    assertTrue(metrics.contains("anserini_batches_total "));
+
+    server.close();
+    searcher.close();
+  }
+
+  @Test
+  public void testLatencyHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.percentile(50), 0.0);
+    for (int i = 0; i < 98; i++) {
+      histogram.record(700_000L);
+    }
+    histogram.record(30_000_000L);
+    histogram.record(20_000_000_000L);
+    assertEquals(100, histogram.count());
+    assertEquals(0.001, histogram.percentile(50), 0.0);
+    assertEquals(0.05, histogram.percentile(99), 0.0);
+    assertEquals(Double.POSITIVE_INFINITY, histogram.percentile(100), 0.0);
+
+    StringBuilder out = new StringBuilder();
+    histogram.appendTo(out, "latency", "endpoint=\"search\"");
+    assertTrue(out.toString().contains("latency_bucket{endpoint=\"search\",le=\"0.001\"} 98\n"));
+    assertTrue(out.toString().contains("latency_bucket{endpoint=\"search\",le=\"+Inf\"} 100\n"));
+    assertTrue(out.toString().contains("latency_count{endpoint=\"search\"} 100\n"));
+    assertTrue(histogram.toString().startsWith("100 queries, mean 200.99 ms, p50 <= 1.0 ms, p99 <= 50.0 ms"));
+
+    histogram.clear();
+    assertEquals(0, histogram.count());
+    assertEquals(0, histogram.percentile(50), 0.0);
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import io.anserini.index.IndexArgs;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class SlicedIndexSearcherTest extends LuceneTestCase {
+
+  @Test
+  public void testSameResultsAsSequential() throws Exception {
+    Random random = new Random(3);
+    Directory dir = new ByteBuffersDirectory();
+    IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer());
+    config.setMergePolicy(NoMergePolicy.INSTANCE);
+    IndexWriter writer = new IndexWriter(dir, config);
+    // Segments of different sizes: 12 small ones and 3 large ones.
+    for (int s = 0; s < 15; s++) {
+      int size = s % 5 == 4 ? 400 : 20;
+      for (int d = 0; d < size; d++) {
+        StringBuilder text = new StringBuilder();
+        for (int t = 0; t < 20; t++) {
+          text.append("t").append(random.nextInt(50)).append(' ');
+        }
+        Document doc = new Document();
+        doc.add(new TextField(IndexArgs.CONTENTS, text.toString(), Field.Store.NO));
+        writer.addDocument(doc);
+      }
+      writer.commit();
+    }
+    writer.close();
+
+    IndexReader reader = DirectoryReader.open(dir);
+    assertEquals(15, reader.leaves().size());
+    try (SegmentExecutor executor = new SegmentExecutor(3)) {
+      IndexSearcher sequential = new IndexSearcher(reader);
+      IndexSearcher sliced = new SlicedIndexSearcher(reader, executor, 100, 4);
+      // Every large segment is a slice, the small segments are merged into slices of 4 segments.
+      assertEquals(6, sliced.getSlices().length);
+      IndexSearcher.LeafSlice[] slices = new SlicedIndexSearcher(reader, executor, 10_000, 100).getSlices();
+      assertEquals(1, slices.length);
+      assertEquals(15, slices[0].leaves.length);
+
+      for (int q = 0; q < 20; q++) {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (int t = 0; t < 3; t++) {
+          builder.add(new TermQuery(new Term(IndexArgs.CONTENTS, "t" + random.nextInt(50))),
+              BooleanClause.Occur.SHOULD);
+        }
+        Query query = builder.build();
+
+        QueryTimer timer = QueryTimer.start();
+        TopDocs parallel = sliced.search(query, 50);
+        timer.stop();
+        assertTrue(timer.wallNanos() > 0);
+        assertTrue(timer.cpuNanos() >= 0);
+
+        TopDocs expected = sequential.search(query, 50);
+        assertEquals(expected.scoreDocs.length, parallel.scoreDocs.length);
+        for (int i = 0; i < expected.scoreDocs.length; i++) {
+          assertEquals(expected.scoreDocs[i].doc, parallel.scoreDocs[i].doc);
+          assertEquals(expected.scoreDocs[i].score, parallel.scoreDocs[i].score, 0.0f);
+        }
+      }
+    }
+
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testThreadBudget() {
+    int cores = Runtime.getRuntime().availableProcessors();
+    assertEquals(0, SegmentExecutor.threadBudget(0, 1));
+    assertEquals(0, SegmentExecutor.threadBudget(4, cores));
+    assertTrue(SegmentExecutor.threadBudget(cores, 1) <= cores - 1);
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+public class TrecRunFormatterTest extends LuceneTestCase {
+
+  private static String expected(String qid, String docid, int rank, float score, String runTag) {
+    return String.format(Locale.US, "%s Q0 %s %d %f %s", qid, docid, rank, score, runTag) + System.lineSeparator();
+  }
+
+  @Test
+  public void testScores() {
+    Random random = new Random(3);
+    TrecRunFormatter formatter = new TrecRunFormatter("Anserini");
+    formatter.topic("301");
+    for (int i = 0; i < 200000; i++) {
+      float score;
+      switch (i % 4) {
+        case 0:
+          score = random.nextFloat() * 30;
+          break;
+        case 1:
+          score = -random.nextFloat() * 10;
+          break;
+        case 2:
+          // Scores at (or close to) a rounding tie.
+          score = random.nextInt(2000000) / 2e6f;
+          break;
+        default:
+          score = Float.intBitsToFloat(random.nextInt());
+      }
+      formatter.reset().add("doc" + i, i + 1, score);
+      assertEquals(expected("301", "doc" + i, i + 1, score, "Anserini"), formatter.toString());
+    }
+
+    float[] special = {0.0f, -0.0f, 0.5702f, 1e-7f, 999999.9f, 1e7f, Float.MAX_VALUE, Float.MIN_VALUE,
+        Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY};
+    for (float score : special) {
+      formatter.reset().add("doc", 1000, score);
+      assertEquals(expected("301", "doc", 1000, score, "Anserini"), formatter.toString());
+    }
+  }
+
+  @Test
+  public void testTopic() {
+    TrecRunFormatter formatter = new TrecRunFormatter("tag");
+    formatter.topic("q1");
+    formatter.add("d1", 1, 2.5f);
+    formatter.add("dé😀", 2, 1.25f);
+    formatter.topic("q2");
+    formatter.add("d3", 1, 0.1f);
+    assertEquals(expected("q1", "d1", 1, 2.5f, "tag") + expected("q1", "d??", 2, 1.25f, "tag") +
+        expected("q2", "d3", 1, 0.1f, "tag"), formatter.toString());
+    assertEquals(formatter.toString().length(), formatter.length());
+    assertEquals(0, formatter.reset().length());
+  }
+}
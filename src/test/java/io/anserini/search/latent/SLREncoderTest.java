@@ -0,0 +1,187 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.latent;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SLREncoderTest {
+  // Encodes a text as {length: 1.0, 1000: batch size}. On "crash" the first process (the one that finds no marker
+  // file) exits, and "duplicate" gets a vector with a repeated dimension.
+  private static final String MODEL = String.join("\n",
+      "import os, struct, sys",
+      "marker = sys.argv[1]",
+      "stdin, stdout = sys.stdin.buffer, sys.stdout.buffer",
+      "def read(n):",
+      "    data = stdin.read(n)",
+      "    if len(data) < n:",
+      "        sys.exit(0)",
+      "    return data",
+      "while True:",
+      "    (n,) = struct.unpack('>i', read(4))",
+      "    texts = [read(struct.unpack('>i', read(4))[0]).decode('utf-8') for _ in range(n)]",
+      "    if 'crash' in texts and not os.path.exists(marker):",
+      "        open(marker, 'w').close()",
+      "        sys.exit(1)",
+      "    out = [struct.pack('>i', n)]",
+      "    for text in texts:",
+      "        if text == 'duplicate':",
+      "            out.append(struct.pack('>iifif', 2, 1, 1.0, 1, 2.0))",
+      "        else:",
+      "            out.append(struct.pack('>iifif', 2, len(text), 1.0, 1000, float(n)))",
+      "    stdout.write(b''.join(out))",
+      "    stdout.flush()",
+      "");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private String model;
+
+  @Before
+  public void setUp() throws IOException {
+    Path script = folder.getRoot().toPath().resolve("model.py");
+    Files.write(script, MODEL.getBytes(StandardCharsets.UTF_8));
+    model = script + " " + folder.getRoot().toPath().resolve("crashed");
+  }
+
+  private static String text(int length) {
+    char[] chars = new char[length];
+    Arrays.fill(chars, 'x');
+    return new String(chars);
+  }
+
+  @Test
+  public void testBatching() throws Exception {
+    try (SLREncoder encoder = new SLREncoder(model, 2, 4)) {
+      List<String> texts = new ArrayList<>();
+      for (int i = 1; i <= 50; i++) {
+        texts.add(text(i));
+      }
+      List<SparseVector> vectors = encoder.encode(texts);
+      assertEquals(50, vectors.size());
+      for (int i = 0; i < vectors.size(); i++) {
+        SparseVector vector = vectors.get(i);
+        assertEquals(2, vector.size());
+        // In order, whichever worker and batch they went to.
+        assertEquals(i + 1, vector.dim(0));
+        assertEquals(1000, vector.dim(1));
+        assertTrue(vector.value(1) >= 1 && vector.value(1) <= 4);
+      }
+      assertEquals(new SparseVector(new int[]{3, 1000}, new float[]{1.0f, 1.0f}), encoder.encode("abc"));
+      assertTrue(encoder.stats().startsWith("51 texts encoded"));
+    }
+  }
+
+  @Test
+  public void testRestart() throws Exception {
+    try (SLREncoder encoder = new SLREncoder(model, 1, 4)) {
+      // The batch with "crash" kills the process; it is restarted and the batch is retried.
+      List<SparseVector> vectors = encoder.encode(Arrays.asList("a", "crash", "abc"));
+      assertEquals(1, vectors.get(0).dim(0));
+      assertEquals(5, vectors.get(1).dim(0));
+      assertEquals(3, vectors.get(2).dim(0));
+      assertTrue(encoder.stats().endsWith(", 1 worker restarts"));
+    }
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    try (SLREncoder encoder = new SLREncoder(model, 1, 4)) {
+      try {
+        encoder.encode("duplicate");
+        fail();
+      } catch (IOException e) {
+        // Expected: the response is rejected, also after the retry.
+      }
+      // The worker carries on.
+      assertEquals(2, encoder.encode("ab").dim(0));
+    }
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    SLREncoder encoder = SLREncoder.shared(model, 1, 4);
+    assertSame(encoder, SLREncoder.shared(model, 1, 4));
+    assertEquals(1, encoder.encode("a").dim(0));
+    encoder.close();
+    // Closing twice is fine.
+    encoder.close();
+
+    try {
+      encoder.encode("a");
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+
+    SLREncoder other = SLREncoder.shared(model, 1, 4);
+    assertNotSame(encoder, other);
+    assertEquals(1, other.encode("a").dim(0));
+    SLREncoder.closeShared();
+  }
+
+  @Test
+  public void testCloseWhileEncoding() throws Exception {
+    SLREncoder encoder = new SLREncoder(model, 2, 2);
+    AtomicInteger encoded = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      futures.add(executor.submit(() -> {
+        // Every call must either return or fail once the encoder is closed, none may wait forever.
+        while (true) {
+          try {
+            assertEquals(4, encoder.encode("abcd").dim(0));
+            encoded.incrementAndGet();
+          } catch (IOException e) {
+            return null;
+          }
+        }
+      }));
+    }
+    while (encoded.get() < 100) {
+      Thread.sleep(1);
+    }
+    encoder.close();
+    for (Future<?> future : futures) {
+      future.get(30, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+  }
+}
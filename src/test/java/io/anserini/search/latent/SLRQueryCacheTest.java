@@ -0,0 +1,70 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.latent;
+
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class SLRQueryCacheTest extends LuceneTestCase {
+
+  @Test
+  public void testSaveAndReopen() throws Exception {
+    Path path = createTempDir().resolve("queries.cache");
+    SparseVector v1 = new SparseVector(new int[]{1, 5}, new float[]{0.5f, 0.25f});
+    SparseVector v2 = new SparseVector(new int[]{2}, new float[]{1.5f});
+
+    SLRQueryCache cache = SLRQueryCache.open(path, "model-a");
+    assertEquals(0, cache.size());
+    assertNull(cache.get("query one"));
+    cache.put("query one", v1);
+    cache.put("query two", v2);
+    cache.save();
+
+    // Entries of another model are kept, but not visible.
+    SLRQueryCache other = SLRQueryCache.open(path, "model-b");
+    assertNull(other.get("query one"));
+    other.put("query one", v2);
+    other.save();
+
+    cache = SLRQueryCache.open(path, "model-a");
+    assertEquals(2, cache.size());
+    assertEquals(v1, cache.get("query one"));
+    assertEquals(v2, cache.get("query two"));
+    assertNull(cache.get("query three"));
+    assertEquals(v2, SLRQueryCache.open(path, "model-b").get("query one"));
+
+    // Replacing an entry.
+    cache.put("query one", SparseVector.EMPTY);
+    cache.save();
+    assertEquals(SparseVector.EMPTY, SLRQueryCache.open(path, "model-a").get("query one"));
+    assertEquals(2, SLRQueryCache.open(path, "model-a").size());
+  }
+
+  @Test
+  public void testModelId() throws Exception {
+    Path script = createTempDir().resolve("model.py");
+    Files.write(script, "print()".getBytes(StandardCharsets.UTF_8));
+    String id = SLRQueryCache.modelId(script + " -k 10");
+    assertTrue(id.startsWith(script + " -k 10@7:"));
+    assertEquals("missing.py", SLRQueryCache.modelId(" missing.py "));
+    assertNotEquals(SLRQueryCache.hash("a"), SLRQueryCache.hash("b"));
+  }
+}
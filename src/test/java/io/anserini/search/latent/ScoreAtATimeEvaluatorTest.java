@@ -0,0 +1,234 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.latent;
+
+import io.anserini.analysis.SLRTokenStream;
+import io.anserini.index.ImpactOrderedIndex;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LogDocMergePolicy;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ScoreAtATimeEvaluatorTest extends LuceneTestCase {
+  private static final String FIELD = "contents";
+  private static final int NUM_DOCS = 1000;
+  private static final int NUM_DIMS = 200;
+  private static final String ID = "id";
+
+  private int[][] freqs;
+
+  private static FieldType slrFieldType() {
+    FieldType fieldType = new FieldType();
+    fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+    fieldType.setTokenized(true);
+    return fieldType;
+  }
+
+  private IndexReader buildIndex(Directory dir) throws Exception {
+    Random random = new Random(7);
+    SLRTokenStream tokenStream = new SLRTokenStream(2);
+    freqs = new int[NUM_DOCS][NUM_DIMS];
+
+    IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer());
+    config.setMaxBufferedDocs(250);
+    // Merges adjacent segments only, so that documents keep their doc ids (freqs is indexed by doc id).
+    config.setMergePolicy(new LogDocMergePolicy());
+    IndexWriter writer = new IndexWriter(dir, config);
+    for (int d = 0; d < NUM_DOCS; d++) {
+      float[] dense = new float[NUM_DIMS];
+      for (int i = 0; i < NUM_DIMS; i++) {
+        if (random.nextDouble() < 0.1) {
+          dense[i] = random.nextFloat() * 2;
+          freqs[d][i] = tokenStream.termFrequency(dense[i]);
+        }
+      }
+      Document doc = new Document();
+      doc.add(new StringField(ID, Integer.toString(d), Field.Store.NO));
+      doc.add(new Field(FIELD, tokenStream.setVector(SparseVector.fromDense(dense)), slrFieldType()));
+      writer.addDocument(doc);
+    }
+    writer.forceMerge(1);
+    writer.close();
+    return DirectoryReader.open(dir);
+  }
+
+  private SparseVector randomQuery(Random random) {
+    float[] dense = new float[NUM_DIMS];
+    for (int i = 0; i < NUM_DIMS; i++) {
+      if (random.nextDouble() < 0.2) {
+        dense[i] = random.nextFloat() * 0.01f;
+      }
+    }
+    return SparseVector.fromDense(dense);
+  }
+
+  private float[] exactScores(SparseVector query) {
+    float[] scores = new float[NUM_DOCS];
+    for (int d = 0; d < NUM_DOCS; d++) {
+      double score = 0;
+      for (int i = 0; i < query.size(); i++) {
+        score += query.value(i) * freqs[d][query.dim(i)];
+      }
+      scores[d] = (float) score;
+    }
+    return scores;
+  }
+
+  @Test
+  public void testUnlimitedBudgetIsExact() throws Exception {
+    Directory dir = new ByteBuffersDirectory();
+    IndexReader reader = buildIndex(dir);
+    Path path = createTempDir().resolve("index.saat");
+    // Term frequencies are at most 200, so 8 bit impacts are exact.
+    ImpactOrderedIndex.write(reader, FIELD, 8, path);
+
+    try (ImpactOrderedIndex index = ImpactOrderedIndex.open(path)) {
+      assertEquals(reader.maxDoc(), index.maxDoc());
+      assertEquals(1.0f, index.scale(), 0.0f);
+      ScoreAtATimeEvaluator evaluator = new ScoreAtATimeEvaluator(index);
+      Random random = new Random(11);
+      for (int q = 0; q < 20; q++) {
+        SparseVector query = randomQuery(random);
+        float[] expected = exactScores(query);
+        float[] sorted = expected.clone();
+        Arrays.sort(sorted);
+
+        ScoreAtATimeEvaluator.Result result = evaluator.search(query, 10, 0, 0);
+        assertFalse(result.earlyTerminated);
+        assertEquals(result.totalPostings, result.postings);
+        assertEquals(10, result.docs.length);
+        for (int i = 0; i < result.docs.length; i++) {
+          assertEquals(sorted[NUM_DOCS - 1 - i], result.scores[i], 1e-4f);
+          assertEquals(expected[result.docs[i]], result.scores[i], 1e-4f);
+        }
+      }
+    }
+
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testPostingsBudget() throws Exception {
+    Directory dir = new ByteBuffersDirectory();
+    IndexReader reader = buildIndex(dir);
+    Path path = createTempDir().resolve("index.saat");
+    // Quantized impacts, the scores are approximate.
+    ImpactOrderedIndex.write(reader, FIELD, 4, path);
+
+    try (ImpactOrderedIndex index = ImpactOrderedIndex.open(path)) {
+      assertTrue(index.scale() > 1.0f);
+      ScoreAtATimeEvaluator evaluator = new ScoreAtATimeEvaluator(index);
+      Random random = new Random(13);
+      for (int q = 0; q < 10; q++) {
+        SparseVector query = randomQuery(random);
+        ScoreAtATimeEvaluator.Result full = evaluator.search(query, 10, 0, 0);
+        long budget = full.totalPostings / 4;
+        ScoreAtATimeEvaluator.Result result = evaluator.search(query, 10, budget, 0);
+        assertTrue(result.earlyTerminated);
+        assertEquals(budget, result.postings);
+        assertEquals(full.totalPostings, result.totalPostings);
+        assertTrue(result.candidates <= full.candidates);
+        for (int i = 1; i < result.scores.length; i++) {
+          assertTrue(result.scores[i - 1] >= result.scores[i]);
+        }
+      }
+    }
+
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testDeletedDocuments() throws Exception {
+    Directory dir = new ByteBuffersDirectory();
+    buildIndex(dir).close();
+
+    // A document with term frequencies over 8 bits, after the others, which would change the quantization.
+    IndexWriterConfig appendConfig = new IndexWriterConfig(new WhitespaceAnalyzer());
+    appendConfig.setMergePolicy(new LogDocMergePolicy());
+    IndexWriter writer = new IndexWriter(dir, appendConfig);
+    float[] dense = new float[NUM_DIMS];
+    Arrays.fill(dense, 10.0f);
+    Document doc = new Document();
+    doc.add(new StringField(ID, "large", Field.Store.NO));
+    doc.add(new Field(FIELD, new SLRTokenStream(2).setVector(SparseVector.fromDense(dense)), slrFieldType()));
+    writer.addDocument(doc);
+    writer.forceMerge(1);
+    writer.close();
+
+    // Deletes it and every other document, without merging away the deletions.
+    IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer());
+    config.setMergePolicy(NoMergePolicy.INSTANCE);
+    writer = new IndexWriter(dir, config);
+    writer.deleteDocuments(new Term(ID, "large"));
+    for (int d = 1; d < NUM_DOCS; d += 2) {
+      writer.deleteDocuments(new Term(ID, Integer.toString(d)));
+    }
+    writer.close();
+
+    IndexReader reader = DirectoryReader.open(dir);
+    assertEquals(NUM_DOCS + 1, reader.maxDoc());
+    assertEquals(NUM_DOCS / 2, reader.numDocs());
+    Path path = createTempDir().resolve("index.saat");
+    ImpactOrderedIndex.write(reader, FIELD, 8, path);
+
+    try (ImpactOrderedIndex index = ImpactOrderedIndex.open(path)) {
+      assertEquals(1.0f, index.scale(), 0.0f);
+      ScoreAtATimeEvaluator evaluator = new ScoreAtATimeEvaluator(index);
+      Random random = new Random(17);
+      for (int q = 0; q < 20; q++) {
+        SparseVector query = randomQuery(random);
+        float[] expected = exactScores(query);
+        // Scores of the live documents, which keep their doc ids.
+        float[] live = new float[NUM_DOCS / 2];
+        for (int d = 0; d < NUM_DOCS; d += 2) {
+          live[d / 2] = expected[d];
+        }
+        Arrays.sort(live);
+
+        ScoreAtATimeEvaluator.Result result = evaluator.search(query, 10, 0, 0);
+        assertEquals(10, result.docs.length);
+        for (int i = 0; i < result.docs.length; i++) {
+          assertEquals(0, result.docs[i] % 2);
+          assertEquals(live[live.length - 1 - i], result.scores[i], 1e-4f);
+          assertEquals(expected[result.docs[i]], result.scores[i], 1e-4f);
+        }
+      }
+    }
+
+    reader.close();
+    dir.close();
+  }
+}
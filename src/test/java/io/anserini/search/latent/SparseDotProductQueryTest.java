@@ -0,0 +1,147 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.latent;
+
+import io.anserini.analysis.SLRTokenStream;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class SparseDotProductQueryTest extends LuceneTestCase {
+  private static final String FIELD = "contents";
+  private static final int NUM_DOCS = 2000;
+  private static final int NUM_DIMS = 300;
+
+  @Test
+  public void testMatchesExactDotProduct() throws Exception {
+    Random random = new Random(42);
+    SLRTokenStream tokenStream = new SLRTokenStream(2);
+    int[][] freqs = new int[NUM_DOCS][NUM_DIMS];
+
+    Directory dir = new ByteBuffersDirectory();
+    IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer());
+    // Several segments, so that dimensions are missing from some of them.
+    config.setMaxBufferedDocs(300);
+    IndexWriter writer = new IndexWriter(dir, config);
+    FieldType fieldType = new FieldType();
+    fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+    fieldType.setTokenized(true);
+    for (int d = 0; d < NUM_DOCS; d++) {
+      float[] dense = new float[NUM_DIMS];
+      for (int i = 0; i < NUM_DIMS; i++) {
+        // Skewed, so that some dimensions are frequent and others rare.
+        if (random.nextDouble() < 0.3 * Math.pow((double) (NUM_DIMS - i) / NUM_DIMS, 3)) {
+          dense[i] = random.nextFloat() * (random.nextInt(10) == 0 ? 3 : 1);
+          freqs[d][i] = tokenStream.termFrequency(dense[i]);
+        }
+      }
+      Document doc = new Document();
+      doc.add(new Field(FIELD, tokenStream.setVector(SparseVector.fromDense(dense)), fieldType));
+      writer.addDocument(doc);
+    }
+    writer.close();
+
+    IndexReader reader = DirectoryReader.open(dir);
+    IndexSearcher searcher = new IndexSearcher(reader);
+    for (int q = 0; q < 20; q++) {
+      // Distinct dimensions, including some beyond NUM_DIMS that do not occur in the index.
+      int[] candidates = new int[NUM_DIMS + 20];
+      for (int i = 0; i < candidates.length; i++) {
+        candidates[i] = i;
+      }
+      int[] dims = new int[10 + random.nextInt(150)];
+      float[] weights = new float[dims.length];
+      for (int i = 0; i < dims.length; i++) {
+        int j = i + random.nextInt(candidates.length - i);
+        dims[i] = candidates[j];
+        candidates[j] = candidates[i];
+        weights[i] = random.nextFloat() * 0.01f;
+      }
+      SparseDotProductQuery query = new SparseDotProductQuery(FIELD, dims, weights);
+
+      float[] expected = new float[NUM_DOCS];
+      int matches = 0;
+      for (int d = 0; d < NUM_DOCS; d++) {
+        double score = 0;
+        boolean match = false;
+        for (int i = 0; i < query.size(); i++) {
+          int dim = query.dim(i);
+          if (dim < NUM_DIMS && freqs[d][dim] > 0) {
+            score += query.weight(i) * freqs[d][dim];
+            match = true;
+          }
+        }
+        expected[d] = (float) score;
+        if (match) {
+          matches++;
+        }
+      }
+      float[] sorted = expected.clone();
+      Arrays.sort(sorted);
+
+      // Top hits with skipping of non-competitive documents.
+      TopDocs topDocs = searcher.search(query, 10);
+      for (int i = 0; i < topDocs.scoreDocs.length; i++) {
+        ScoreDoc hit = topDocs.scoreDocs[i];
+        assertEquals(sorted[NUM_DOCS - 1 - i], hit.score, 1e-5f);
+        assertEquals(expected[hit.doc], hit.score, 1e-5f);
+      }
+
+      // Exhaustive evaluation scores every matching document.
+      TopScoreDocCollector collector = TopScoreDocCollector.create(NUM_DOCS, Integer.MAX_VALUE);
+      searcher.search(query, collector);
+      TopDocs all = collector.topDocs();
+      assertEquals(matches, all.totalHits.value);
+      assertEquals(matches, all.scoreDocs.length);
+      for (ScoreDoc hit : all.scoreDocs) {
+        assertEquals(expected[hit.doc], hit.score, 1e-5f);
+        assertEquals(hit.score, searcher.explain(query, hit.doc).getValue().floatValue(), 1e-5f);
+      }
+    }
+
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testIgnoresNonPositiveWeights() {
+    SparseDotProductQuery query = new SparseDotProductQuery(FIELD, new int[]{7, 3, 5}, new float[]{0.5f, 0.0f, -1.0f});
+    assertEquals(1, query.size());
+    assertEquals(7, query.dim(0));
+    assertEquals("SparseDotProduct(7^0.5)", query.toString(FIELD));
+    assertEquals("00007", SparseDotProductQuery.term(7));
+    assertEquals("123456", SparseDotProductQuery.term(123456));
+    assertEquals(query, new SparseDotProductQuery(FIELD, new int[]{7}, new float[]{0.5f}));
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.latent;
+
+import io.anserini.analysis.SLRTokenStream;
+import io.anserini.index.IndexArgs;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class SparseVectorRescorerTest extends LuceneTestCase {
+  private static final int NUM_DOCS = 1000;
+  private static final int NUM_DIMS = 300;
+
+  private static SparseVector randomVector(Random random, double density) {
+    float[] dense = new float[NUM_DIMS];
+    for (int i = 0; i < NUM_DIMS; i++) {
+      if (random.nextDouble() < density) {
+        dense[i] = random.nextFloat() * 2;
+      }
+    }
+    return SparseVector.fromDense(dense);
+  }
+
+  private static double exactDot(SparseVector a, SparseVector b) {
+    double sum = 0;
+    for (int i = 0; i < a.size(); i++) {
+      for (int j = 0; j < b.size(); j++) {
+        if (a.dim(i) == b.dim(j)) {
+          sum += a.value(i) * b.value(j);
+        }
+      }
+    }
+    return sum;
+  }
+
+  @Test
+  public void testEncoding() {
+    Random random = new Random(1);
+    for (int n = 0; n < 100; n++) {
+      SparseVector vector = randomVector(random, random.nextDouble() * 0.5);
+      BytesRef bytes = SparseVectorDocValues.encode(vector);
+      assertEquals(vector, SparseVectorDocValues.decode(bytes));
+
+      // Encoded at an offset, as doc values may be.
+      byte[] shifted = new byte[bytes.length + 7];
+      System.arraycopy(bytes.bytes, bytes.offset, shifted, 3, bytes.length);
+      BytesRef shiftedBytes = new BytesRef(shifted, 3, bytes.length);
+      assertEquals(vector, SparseVectorDocValues.decode(shiftedBytes));
+
+      SparseVector query = randomVector(random, 0.1);
+      assertEquals(exactDot(vector, query),
+          SparseVectorDocValues.dot(shiftedBytes, query.dims(), query.values(), query.size()), 1e-9);
+    }
+
+    SparseVector large = new SparseVector(new int[]{0, 127, 128, 100000, Integer.MAX_VALUE},
+        new float[]{1.0f, -2.5f, 3.0f, 0.125f, 7.0f});
+    assertEquals(large, SparseVectorDocValues.decode(SparseVectorDocValues.encode(large)));
+    assertEquals(0, SparseVectorDocValues.decode(SparseVectorDocValues.encode(SparseVector.EMPTY)).size());
+  }
+
+  @Test
+  public void testTop() {
+    SparseVector vector = new SparseVector(new int[]{1, 2, 3, 4, 5}, new float[]{0.5f, 0.1f, 0.9f, 0.5f, 0.2f});
+    assertEquals(new SparseVector(new int[]{1, 3}, new float[]{0.5f, 0.9f}), vector.top(2));
+    assertEquals(new SparseVector(new int[]{1, 3, 4}, new float[]{0.5f, 0.9f, 0.5f}), vector.top(3));
+    assertSame(vector, vector.top(5));
+  }
+
+  @Test
+  public void testDimensions() {
+    SparseVector vector = new SparseVector(new int[]{5, 1, 3}, new float[]{0.5f, 0.1f, 0.3f});
+    assertEquals(new SparseVector(new int[]{1, 3, 5}, new float[]{0.1f, 0.3f, 0.5f}), vector);
+    expectThrows(IllegalArgumentException.class, () -> new SparseVector(new int[]{1, 3, 1}, new float[]{1, 1, 1}));
+    expectThrows(IllegalArgumentException.class, () -> new SparseVector(new int[]{1, 1}, new float[]{1, 2}));
+    expectThrows(IllegalArgumentException.class, () -> new SparseVector(new int[]{1, 2}, new float[]{1}));
+  }
+
+  @Test
+  public void testTwoStageRetrieval() throws Exception {
+    Random random = new Random(5);
+    SLRTokenStream tokenStream = new SLRTokenStream(2);
+    SparseVector[] vectors = new SparseVector[NUM_DOCS];
+
+    Directory dir = new ByteBuffersDirectory();
+    IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer());
+    config.setMaxBufferedDocs(300);
+    IndexWriter writer = new IndexWriter(dir, config);
+    FieldType fieldType = new FieldType();
+    fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+    fieldType.setTokenized(true);
+    for (int d = 0; d < NUM_DOCS; d++) {
+      vectors[d] = randomVector(random, 0.05);
+      Document doc = new Document();
+      doc.add(new Field(IndexArgs.CONTENTS, tokenStream.setVector(vectors[d]), fieldType));
+      // Some documents without a forward vector.
+      if (d % 100 != 0) {
+        doc.add(new BinaryDocValuesField(IndexArgs.SLR_VECTOR, SparseVectorDocValues.encode(vectors[d])));
+      }
+      writer.addDocument(doc);
+    }
+    writer.close();
+
+    IndexReader reader = DirectoryReader.open(dir);
+    IndexSearcher searcher = new IndexSearcher(reader);
+    SparseVectorRescorer rescorer = new SparseVectorRescorer(IndexArgs.SLR_VECTOR);
+    for (int q = 0; q < 10; q++) {
+      SparseVector query = randomVector(random, 0.2);
+
+      // With all candidates, the rescored ranking is the exact one.
+      TopDocs candidates = searcher.search(new SparseDotProductQuery(IndexArgs.CONTENTS, query), NUM_DOCS);
+      TopDocs rescored = rescorer.rescore(reader, candidates, query, 10);
+      assertEquals(10, rescored.scoreDocs.length);
+      for (int i = 0; i < rescored.scoreDocs.length; i++) {
+        int doc = rescored.scoreDocs[i].doc;
+        double expected = doc % 100 == 0 ? 0 : exactDot(vectors[doc], query);
+        assertEquals(expected, rescored.scoreDocs[i].score, 1e-5);
+        if (i > 0) {
+          assertTrue(rescored.scoreDocs[i - 1].score >= rescored.scoreDocs[i].score);
+        }
+      }
+
+      // Candidates from a pruned query are rescored with the full query.
+      TopDocs pruned = searcher.search(new SparseDotProductQuery(IndexArgs.CONTENTS, query.top(10)), 100);
+      TopDocs twoStage = rescorer.rescore(reader, pruned, query, 10);
+      for (int i = 0; i < twoStage.scoreDocs.length; i++) {
+        int doc = twoStage.scoreDocs[i].doc;
+        double expected = doc % 100 == 0 ? 0 : exactDot(vectors[doc], query);
+        assertEquals(expected, twoStage.scoreDocs[i].score, 1e-5);
+      }
+    }
+
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testTies() throws Exception {
+    SLRTokenStream tokenStream = new SLRTokenStream(2);
+    SparseVector vector = new SparseVector(new int[]{1, 2}, new float[]{0.5f, 1.0f});
+
+    // Documents with the same vector, their collection docids in the reverse order of their Lucene doc ids.
+    Directory dir = new ByteBuffersDirectory();
+    IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer());
+    config.setMaxBufferedDocs(2);
+    IndexWriter writer = new IndexWriter(dir, config);
+    FieldType fieldType = new FieldType();
+    fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+    fieldType.setTokenized(true);
+    for (int d = 0; d < 6; d++) {
+      Document doc = new Document();
+      doc.add(new SortedDocValuesField(IndexArgs.ID, new BytesRef("doc" + (5 - d))));
+      doc.add(new Field(IndexArgs.CONTENTS, tokenStream.setVector(vector), fieldType));
+      doc.add(new BinaryDocValuesField(IndexArgs.SLR_VECTOR, SparseVectorDocValues.encode(vector)));
+      writer.addDocument(doc);
+    }
+    writer.close();
+
+    IndexReader reader = DirectoryReader.open(dir);
+    IndexSearcher searcher = new IndexSearcher(reader);
+    TopDocs candidates = searcher.search(new SparseDotProductQuery(IndexArgs.CONTENTS, vector.top(1)), 6);
+    ScoreDoc[] before = new ScoreDoc[candidates.scoreDocs.length];
+    for (int i = 0; i < before.length; i++) {
+      before[i] = new ScoreDoc(candidates.scoreDocs[i].doc, candidates.scoreDocs[i].score);
+    }
+
+    TopDocs rescored = new SparseVectorRescorer(IndexArgs.SLR_VECTOR).rescore(reader, candidates, vector, 4);
+    assertEquals(4, rescored.scoreDocs.length);
+    for (int i = 0; i < rescored.scoreDocs.length; i++) {
+      // doc0, doc1, ...
+      assertEquals(5 - i, rescored.scoreDocs[i].doc);
+      assertEquals(1.25f, rescored.scoreDocs[i].score, 1e-6f);
+    }
+    // The candidates are left unchanged.
+    for (int i = 0; i < before.length; i++) {
+      assertEquals(before[i].doc, candidates.scoreDocs[i].doc);
+      assertEquals(before[i].score, candidates.scoreDocs[i].score, 0.0f);
+    }
+
+    reader.close();
+    dir.close();
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.similarity;
+
+import io.anserini.index.IndexArgs;
+import io.anserini.search.SearchCollection;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class MultiSimilarityEvaluatorTest extends LuceneTestCase {
+  private static final int NUM_DOCS = 500;
+  private static final String[] VOCABULARY = {"a", "b", "c", "d", "e", "f", "g", "h", "i", "j"};
+
+  @Test
+  public void testSameResultsAsSeparateSearches() throws Exception {
+    Random random = new Random(7);
+    Directory dir = new ByteBuffersDirectory();
+    IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer());
+    config.setMaxBufferedDocs(100);
+    IndexWriter writer = new IndexWriter(dir, config);
+    for (int d = 0; d < NUM_DOCS; d++) {
+      StringBuilder text = new StringBuilder();
+      int length = 1 + random.nextInt(20);
+      for (int i = 0; i < length; i++) {
+        // Skewed term distribution, with many score ties among short documents.
+        text.append(VOCABULARY[Math.min(random.nextInt(VOCABULARY.length), random.nextInt(VOCABULARY.length))]);
+        text.append(' ');
+      }
+      // Collection docids in a different order than the Lucene docids.
+      String id = String.format("doc%04d", (d * 7919) % NUM_DOCS);
+      Document doc = new Document();
+      doc.add(new StringField(IndexArgs.ID, id, Field.Store.YES));
+      doc.add(new SortedDocValuesField(IndexArgs.ID, new BytesRef(id)));
+      doc.add(new TextField(IndexArgs.CONTENTS, text.toString(), Field.Store.NO));
+      writer.addDocument(doc);
+      if (d % 97 == 0) {
+        writer.deleteDocuments(new Term(IndexArgs.ID, String.format("doc%04d", (d * 7919) % NUM_DOCS)));
+      }
+    }
+    writer.close();
+
+    IndexReader reader = DirectoryReader.open(dir);
+    List<Similarity> similarities = new ArrayList<>();
+    for (float k1 : new float[]{0.5f, 0.9f, 1.2f}) {
+      for (float b : new float[]{0.2f, 0.75f}) {
+        similarities.add(new BM25Similarity(k1, b));
+      }
+    }
+    similarities.add(new AccurateBM25Similarity(0.9f, 0.4f));
+    similarities.add(new LMDirichletSimilarity(1000.0f));
+
+    int[] ranks = MultiSimilarityEvaluator.idRanks(reader, IndexArgs.ID);
+    MultiSimilarityEvaluator evaluator = new MultiSimilarityEvaluator(reader, similarities, ranks);
+    MultiSimilarityEvaluator arbitrary = new MultiSimilarityEvaluator(reader, similarities, null);
+    List<List<String>> queries = Arrays.asList(Arrays.asList("a"), Arrays.asList("b", "e"),
+        Arrays.asList("c", "c", "j", "x"), Arrays.asList("x"), Arrays.asList("a", "b", "c", "d", "e", "f"));
+    for (List<String> tokens : queries) {
+      BooleanQuery.Builder builder = new BooleanQuery.Builder();
+      for (String token : tokens) {
+        builder.add(new TermQuery(new Term(IndexArgs.CONTENTS, token)), BooleanClause.Occur.SHOULD);
+      }
+      BooleanQuery query = builder.build();
+
+      for (int k : new int[]{1, 10, 1000}) {
+        TopDocs[] results = evaluator.search(IndexArgs.CONTENTS, tokens, k);
+        TopDocs[] arbitraryResults = arbitrary.search(IndexArgs.CONTENTS, tokens, k);
+        for (int s = 0; s < similarities.size(); s++) {
+          IndexSearcher searcher = new IndexSearcher(reader);
+          searcher.setSimilarity(similarities.get(s));
+
+          assertSameHits(searcher.search(query, k, SearchCollection.BREAK_SCORE_TIES_BY_DOCID, true), results[s]);
+          assertSameHits(searcher.search(query, k), arbitraryResults[s]);
+        }
+      }
+    }
+
+    reader.close();
+    dir.close();
+  }
+
+  private static void assertSameHits(TopDocs expected, TopDocs actual) {
+    assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+    for (int i = 0; i < expected.scoreDocs.length; i++) {
+      assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+      assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 1e-6f);
+    }
+  }
+}
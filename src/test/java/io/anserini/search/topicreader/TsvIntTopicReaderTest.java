@@ -24,6 +24,8 @@ import java.util.Map;
 import java.util.SortedMap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class TsvIntTopicReaderTest {
 
@@ -41,4 +43,24 @@ public class TsvIntTopicReaderTest {
     assertEquals(1102400, (int) topics.lastKey());
     assertEquals("why do bears hibernate", topics.get(topics.lastKey()).get("title"));
   }
+
+  @Test
+  public void testStream() throws IOException {
+    TsvIntTopicReader reader = new TsvIntTopicReader(
+        Paths.get("src/main/resources/topics-and-qrels/topics.msmarco-passage.dev-subset.txt"));
+    SortedMap<Integer, Map<String, String>> topics = reader.read();
+
+    int count = 0;
+    try (TopicStream<Integer> stream = reader.stream()) {
+      while (stream.hasNext()) {
+        TopicRecord<Integer> topic = stream.next();
+        assertEquals(topics.get(topic.id).get("title"), topic.query);
+        count++;
+      }
+      assertFalse(stream.hasNext());
+    }
+    assertEquals(6980, count);
+
+    assertTrue(reader.idOrder().compare("9", "10") < 0);
+  }
 }
@@ -0,0 +1,170 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.util;
+
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class OrdinalFeatureVectorTest extends LuceneTestCase {
+
+  private static int[] ordinals(OrdinalFeatureVector vector) {
+    int[] ords = new int[vector.size()];
+    for (int i = 0; i < ords.length; i++) {
+      ords[i] = vector.ordinal(i);
+    }
+    return ords;
+  }
+
+  private static List<String> terms(FeatureVector vector) {
+    List<String> terms = new ArrayList<>();
+    vector.iterator().forEachRemaining(terms::add);
+    return terms;
+  }
+
+  @Test
+  public void testOf() {
+    OrdinalFeatureVector vector = OrdinalFeatureVector.of(new int[] {3, 1, 3, 0}, new float[] {0.2f, 0.3f, 0.3f, 0.1f});
+    assertArrayEquals(new int[] {0, 1, 3}, ordinals(vector));
+    assertEquals(0.5f, vector.getWeight(3), 1e-6f);
+    assertEquals(0.0f, vector.getWeight(2), 0.0f);
+    assertEquals(2, vector.indexOf(3));
+    assertTrue(vector.indexOf(2) < 0);
+  }
+
+  @Test
+  public void testOfNegativeOrdinals() {
+    OrdinalFeatureVector vector = OrdinalFeatureVector.of(new int[] {5, -2, -1, -2}, new float[] {0.1f, 0.2f, 0.3f, 0.4f});
+    assertArrayEquals(new int[] {-2, -1, 5}, ordinals(vector));
+    assertEquals(0.6f, vector.getWeight(-2), 1e-6f);
+  }
+
+  @Test
+  public void testTopEntries() {
+    OrdinalFeatureVector vector =
+        OrdinalFeatureVector.of(new int[] {0, 1, 2, 3, 4}, new float[] {0.4f, 0.1f, 0.1f, 0.4f, 0.2f});
+    int[] ranks = {4, 1, 0, 3, 2};
+    // Ties are broken by rank: 3 before 0, and 2 before 1.
+    assertArrayEquals(new int[] {3, 0}, vector.topEntries(2, ranks));
+    assertArrayEquals(new int[] {3, 0, 4, 2}, vector.topEntries(4, ranks));
+    assertArrayEquals(new int[] {3, 0, 4, 2, 1}, vector.topEntries(10, ranks));
+    assertEquals(0, vector.topEntries(0, ranks).length);
+
+    // Without ranks, ties are broken in no particular order.
+    int[] top = vector.topEntries(3, null);
+    assertEquals(4, top[2]);
+    assertTrue(vector.hasTies(top));
+    assertFalse(vector.hasTies(new int[] {3, 4, 1}));
+  }
+
+  @Test
+  public void testTopEntriesPruneLikeFeatureVector() {
+    Random random = new Random(42);
+    for (int round = 0; round < 200; round++) {
+      // Integer weights, as term frequencies, so that there are many ties.
+      int n = 1 + random.nextInt(300);
+      int[] ords = new int[n];
+      float[] weights = new float[n];
+      String[] terms = new String[n];
+      FeatureVector full = new FeatureVector();
+      for (int i = 0; i < n; i++) {
+        ords[i] = i;
+        weights[i] = 1 + random.nextInt(5);
+        terms[i] = "t" + random.nextInt(1000000) + "x" + i;
+        full.addFeatureWeight(terms[i], weights[i]);
+      }
+      Map<String, Integer> entries = new HashMap<>();
+      for (int i = 0; i < n; i++) {
+        entries.put(terms[i], i);
+      }
+      int[] ranks = new int[n];
+      int rank = 0;
+      for (String term : terms(full)) {
+        ranks[entries.get(term)] = rank++;
+      }
+
+      int k = 1 + random.nextInt(20);
+      FeatureVector pruned = new FeatureVector();
+      for (int e : OrdinalFeatureVector.of(ords, weights).topEntries(k, ranks)) {
+        pruned.addFeatureWeight(terms[e], weights[e]);
+      }
+      full.pruneToSize(k);
+      // Same terms, in the same iteration order.
+      assertEquals(terms(full), terms(pruned));
+    }
+  }
+
+  @Test
+  public void testWeightedSum() {
+    OrdinalFeatureVector[] vectors = {
+        OrdinalFeatureVector.of(new int[] {0, 2}, new float[] {1.0f, 3.0f}),
+        OrdinalFeatureVector.of(new int[] {2, 4}, new float[] {2.0f, 0.0f})};
+    OrdinalFeatureVector sum =
+        OrdinalFeatureVector.weightedSum(vectors, new float[] {4.0f, 2.0f}, new float[] {2.0f, 1.0f});
+    assertArrayEquals(new int[] {0, 2, 4}, ordinals(sum));
+    assertEquals(0.5f, sum.getWeight(0), 1e-6f);
+    assertEquals(2.5f, sum.getWeight(2), 1e-6f);
+    assertEquals(0.0f, sum.getWeight(4), 0.0f);
+  }
+
+  @Test
+  public void testInterpolateLikeFeatureVector() {
+    Random random = new Random(42);
+    for (int round = 0; round < 100; round++) {
+      FeatureVector x = new FeatureVector();
+      FeatureVector y = new FeatureVector();
+      List<Integer> xOrds = new ArrayList<>();
+      List<Integer> yOrds = new ArrayList<>();
+      for (int ord = -5; ord < 50; ord++) {
+        if (random.nextInt(3) == 0) {
+          x.addFeatureWeight("t" + ord, random.nextFloat());
+          xOrds.add(ord);
+        }
+        if (random.nextInt(3) == 0) {
+          y.addFeatureWeight("t" + ord, random.nextFloat());
+          yOrds.add(ord);
+        }
+      }
+      float xWeight = random.nextFloat();
+      OrdinalFeatureVector z = OrdinalFeatureVector.interpolate(vector(x, xOrds), vector(y, yOrds), xWeight);
+      FeatureVector expected = FeatureVector.interpolate(x, y, xWeight);
+
+      assertEquals(expected.getFeatures().size(), z.size());
+      for (int i = 0; i < z.size(); i++) {
+        String term = "t" + z.ordinal(i);
+        assertTrue(expected.contains(term));
+        // Same arithmetic, so the same weights.
+        assertEquals(Float.floatToIntBits(expected.getFeatureWeight(term)), Float.floatToIntBits(z.weight(i)));
+      }
+    }
+  }
+
+  private static OrdinalFeatureVector vector(FeatureVector terms, List<Integer> ords) {
+    int[] ordinals = new int[ords.size()];
+    float[] weights = new float[ords.size()];
+    for (int i = 0; i < ordinals.length; i++) {
+      ordinals[i] = ords.get(i);
+      weights[i] = terms.getFeatureWeight("t" + ords.get(i));
+    }
+    return OrdinalFeatureVector.of(ordinals, weights);
+  }
+}
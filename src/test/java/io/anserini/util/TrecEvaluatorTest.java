@@ -0,0 +1,115 @@
+/*
+ * Anserini: A Lucene toolkit for replicable information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.util;
+
+import io.anserini.IndexerTestBase;
+import io.anserini.rerank.ScoredDocuments;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class TrecEvaluatorTest extends IndexerTestBase {
+
+  private static Path qrels(Path dir, String lines) throws Exception {
+    Path path = dir.resolve("qrels.txt");
+    Files.write(path, lines.getBytes(StandardCharsets.UTF_8));
+    return path;
+  }
+
+  // Expected values are the output of trec_eval 9.0.4 for the same qrels and run.
+  @Test
+  public void testTrecEvalNumbers() throws Exception {
+    CompactQrels qrels = CompactQrels.read(qrels(createTempDir(),
+        "1 0 a 1\n1 0 b 2\n1 0 c 0\n1 0 d 1\n2 0 x 1\n3 0 y 0\n"));
+    assertEquals(3, qrels.getNumRelevant("1"));
+    assertEquals(2, qrels.getRelevanceGrade("1", "b"));
+    assertEquals(0, qrels.getRelevanceGrade("1", "x"));
+
+    TrecEvaluator evaluator = new TrecEvaluator(qrels,
+        Arrays.asList("map", "recip_rank", "P.5", "recall_1000", "ndcg_cut.10"));
+    assertEquals(Arrays.asList("map", "recip_rank", "P_5", "recall_1000", "ndcg_cut_10"), evaluator.getMetrics());
+
+    // a and c are tied, and ranked by decreasing docid: c before a.
+    double[] topic1 = evaluator.add("1", new String[]{"e", "a", "c", "b", "f"},
+        new float[]{3.0f, 2.5f, 2.5f, 1.0f, 0.5f});
+    assertEquals((1.0 / 3 + 2.0 / 4) / 3, topic1[0], 1e-9);
+    assertEquals(1.0 / 3, topic1[1], 1e-9);
+    assertEquals(0.4, topic1[2], 1e-9);
+    assertEquals(2.0 / 3, topic1[3], 1e-9);
+    assertEquals("0.4348", TrecEvaluator.format(topic1[4]));
+
+    evaluator.add("2", new String[]{"z"}, new float[]{1.0f});
+    evaluator.add("3", new String[]{"y"}, new float[]{2.0f});
+    // Not judged, not part of the mean.
+    assertNull(evaluator.add("4", new String[]{"a"}, new float[]{1.0f}));
+    assertEquals(3, evaluator.getNumTopics());
+
+    assertEquals(
+        "map                   \tall\t0.0926\n" +
+        "recip_rank            \tall\t0.1111\n" +
+        "P_5                   \tall\t0.1333\n" +
+        "recall_1000           \tall\t0.2222\n" +
+        "ndcg_cut_10           \tall\t0.1449\n", evaluator.summary());
+
+    // Scores are compared as printed in a run: these are tied at six decimals.
+    double[] rounded = evaluator.evaluate("1", new String[]{"a", "e"}, new float[]{1.0000001f, 1.0f});
+    assertEquals(0.5, rounded[1], 1e-9);
+
+    expectThrows(IllegalArgumentException.class, () -> new TrecEvaluator(qrels, Arrays.asList("P")));
+    expectThrows(IllegalArgumentException.class, () -> new TrecEvaluator(qrels, Arrays.asList("bpref")));
+  }
+
+  @Test
+  public void testFormat() {
+    // Rounded from the binary value, as printf does: 0.00015 is slightly below the tie.
+    assertEquals("0.0001", TrecEvaluator.format(0.00015));
+    assertEquals("0.1235", TrecEvaluator.format(0.12345));
+    assertEquals("1.0000", TrecEvaluator.format(1.0));
+    assertEquals("0.0000", TrecEvaluator.format(0.0));
+  }
+
+  @Test
+  public void testLuceneDocids() throws Exception {
+    IndexReader reader = DirectoryReader.open(FSDirectory.open(tempDir1));
+    CompactQrels qrels = CompactQrels.read(qrels(createTempDir(), "t1 0 doc3 1\nt1 0 doc9 1\nt1 0 doc1 0\n"));
+    CompactQrels resolved = qrels.forReader(reader);
+    assertTrue(resolved.isKeyedByLuceneDocid());
+    assertEquals(2, resolved.getNumRelevant("t1"));
+
+    // doc3 and doc1, by Lucene docid.
+    ScoredDocuments docs = ScoredDocuments.ofSize(2, reader);
+    docs.ids[0] = 2;
+    docs.scores[0] = 2.0f;
+    docs.ids[1] = 0;
+    docs.scores[1] = 1.0f;
+    assertEquals("doc3", docs.docid(0));
+
+    double[] byDocid = new TrecEvaluator(qrels, Arrays.asList("map", "recall.10")).evaluate("t1", docs);
+    double[] byLuceneDocid = new TrecEvaluator(resolved, Arrays.asList("map", "recall.10")).evaluate("t1", docs);
+    assertEquals(0.5, byDocid[0], 1e-9);
+    assertEquals(0.5, byDocid[1], 1e-9);
+    assertArrayEquals(byDocid, byLuceneDocid, 0.0);
+
+    reader.close();
+  }
+}